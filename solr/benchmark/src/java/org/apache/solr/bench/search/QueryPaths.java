@@ -0,0 +1,368 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.bench.search;
+
+import static org.apache.solr.bench.generators.SourceDSL.integers;
+import static org.apache.solr.bench.generators.SourceDSL.strings;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.solr.bench.BaseBenchState;
+import org.apache.solr.bench.Docs;
+import org.apache.solr.bench.MiniClusterState;
+import org.apache.solr.bench.SolrRandomnessSource;
+import org.apache.solr.bench.generators.SolrGen;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.CollectionAdminRequest;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the main query paths through SolrIndexSearcher: sorting by score vs. by field,
+ * getDocListAndSet (via faceting), deep paging with cursorMark, filter intersections over sparse
+ * and dense filters, post filters, collapsing, and paging within the queryResultWindow.
+ *
+ * <p>The {@code sparse_b} filter matches few enough documents to be held as a SortedIntDocSet,
+ * while {@code dense_b} will be a BitDocSet, so the fq benchmarks exercise both intersection
+ * paths.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@Warmup(time = 5, iterations = 3)
+@Measurement(time = 5, iterations = 5)
+@Threads(value = 4)
+public class QueryPaths {
+
+  static final String COLLECTION = "c1";
+
+  /** Number of distinct terms in the text field; term "t0" is the most frequent. */
+  static final int VOCABULARY = 200;
+
+  @State(Scope.Benchmark)
+  public static class BenchState {
+
+    @Param({"200000"})
+    int docCount;
+
+    /** Whether the filterCache and queryResultCache are enabled. */
+    @Param({"true", "false"})
+    boolean cacheEnabled;
+
+    /** Number of distinct values of the collapse field. */
+    @Param({"1000"})
+    int groupCard;
+
+    @Setup(Level.Trial)
+    public void setupTrial(MiniClusterState.MiniClusterBenchState miniClusterState)
+        throws Exception {
+      String cacheSize = cacheEnabled ? "512" : "0";
+      System.setProperty("filterCache.enabled", Boolean.toString(cacheEnabled));
+      System.setProperty("filterCache.size", cacheSize);
+      System.setProperty("filterCache.initialSize", cacheSize);
+      System.setProperty("queryResultCache.enabled", Boolean.toString(cacheEnabled));
+      System.setProperty("queryResultCache.size", cacheSize);
+      System.setProperty("queryResultCache.initialSize", cacheSize);
+      System.setProperty("queryResultWindowSize", "50");
+
+      miniClusterState.startMiniCluster(1);
+      miniClusterState.createCollection(COLLECTION, 1, 1);
+
+      Docs docs =
+          Docs.docs()
+              .field("id", integers().incrementing())
+              .field("text", terms(8))
+              .field("sparse_b", booleans(1))
+              .field("dense_b", booleans(50))
+              .field(
+                  "group_s",
+                  strings().basicLatinAlphabet().maxCardinality(groupCard).ofLengthBetween(1, 16))
+              .field("sort_i", integers().all())
+              .field("val_i", integers().between(0, 999));
+
+      miniClusterState.index(COLLECTION, docs, docCount);
+      miniClusterState.forceMerge(COLLECTION, 8);
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration(MiniClusterState.MiniClusterBenchState miniClusterState)
+        throws SolrServerException, IOException {
+      // Reload the collection/core to drop existing caches
+      CollectionAdminRequest.Reload reload = CollectionAdminRequest.reloadCollection(COLLECTION);
+      reload.setBasePath(miniClusterState.nodes.get(0));
+      miniClusterState.client.request(reload);
+    }
+
+    QueryRequest request(
+        MiniClusterState.MiniClusterBenchState miniClusterState, String... params) {
+      QueryRequest q = new QueryRequest(MiniClusterState.params(params));
+      q.setBasePath(miniClusterState.nodes.get(0));
+      return q;
+    }
+
+    /** Generates whitespace separated terms, skewed towards low numbered terms. */
+    private static SolrGen<String> terms(int count) {
+      return new SolrGen<>() {
+        @Override
+        public String generate(SolrRandomnessSource in) {
+          StringBuilder sb = new StringBuilder();
+          for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(' ');
+            // the product of two uniform values gives a simple skew without a Distribution
+            long t = in.next(0, VOCABULARY - 1) * in.next(0, VOCABULARY - 1) / VOCABULARY;
+            sb.append('t').append(t);
+          }
+          return sb.toString();
+        }
+      };
+    }
+
+    private static SolrGen<Boolean> booleans(int percentTrue) {
+      return new SolrGen<>() {
+        @Override
+        public Boolean generate(SolrRandomnessSource in) {
+          return in.next(0, 100) < percentTrue;
+        }
+      };
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    SplittableRandom random;
+    String cursorMark;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+      random = new SplittableRandom(BaseBenchState.getRandomSeed());
+      cursorMark = CursorMarkParams.CURSOR_MARK_START;
+    }
+
+    String term() {
+      return "t" + random.nextInt(VOCABULARY / 4);
+    }
+  }
+
+  @Benchmark
+  public Object sortByScore(
+      BenchState benchState,
+      ThreadState threadState,
+      MiniClusterState.MiniClusterBenchState miniClusterState)
+      throws SolrServerException, IOException {
+    return miniClusterState.client.request(
+        benchState.request(
+            miniClusterState,
+            "q",
+            "text:" + threadState.term() + " text:" + threadState.term(),
+            "rows",
+            "10"),
+        COLLECTION);
+  }
+
+  @Benchmark
+  public Object sortByField(
+      BenchState benchState,
+      ThreadState threadState,
+      MiniClusterState.MiniClusterBenchState miniClusterState)
+      throws SolrServerException, IOException {
+    return miniClusterState.client.request(
+        benchState.request(
+            miniClusterState,
+            "q",
+            "text:" + threadState.term() + " text:" + threadState.term(),
+            "sort",
+            "sort_i asc",
+            "rows",
+            "10"),
+        COLLECTION);
+  }
+
+  /** Faceting requires the full DocSet as well as the top docs: getDocListAndSet. */
+  @Benchmark
+  public Object docListAndSet(
+      BenchState benchState,
+      ThreadState threadState,
+      MiniClusterState.MiniClusterBenchState miniClusterState)
+      throws SolrServerException, IOException {
+    return miniClusterState.client.request(
+        benchState.request(
+            miniClusterState,
+            "q",
+            "text:" + threadState.term(),
+            "fq",
+            "dense_b:true",
+            "facet",
+            "true",
+            "facet.field",
+            "sparse_b",
+            "rows",
+            "10"),
+        COLLECTION);
+  }
+
+  @Benchmark
+  public Object cursorMarkPaging(
+      BenchState benchState,
+      ThreadState threadState,
+      MiniClusterState.MiniClusterBenchState miniClusterState)
+      throws SolrServerException, IOException {
+    NamedList<Object> rsp =
+        miniClusterState.client.request(
+            benchState.request(
+                miniClusterState,
+                "q",
+                "dense_b:true",
+                "sort",
+                "sort_i asc,id asc",
+                "rows",
+                "100",
+                CursorMarkParams.CURSOR_MARK_PARAM,
+                threadState.cursorMark),
+            COLLECTION);
+    String next = (String) rsp.get(CursorMarkParams.CURSOR_MARK_NEXT);
+    // start over once the last page has been reached
+    threadState.cursorMark =
+        next == null || next.equals(threadState.cursorMark)
+            ? CursorMarkParams.CURSOR_MARK_START
+            : next;
+    return rsp;
+  }
+
+  @Benchmark
+  public Object sparseFilters(
+      BenchState benchState,
+      ThreadState threadState,
+      MiniClusterState.MiniClusterBenchState miniClusterState)
+      throws SolrServerException, IOException {
+    return miniClusterState.client.request(
+        benchState.request(
+            miniClusterState,
+            "q",
+            "text:" + threadState.term(),
+            "fq",
+            "sparse_b:true",
+            "fq",
+            "val_i:[0 TO " + threadState.random.nextInt(10, 1000) + "]"),
+        COLLECTION);
+  }
+
+  @Benchmark
+  public Object denseFilters(
+      BenchState benchState,
+      ThreadState threadState,
+      MiniClusterState.MiniClusterBenchState miniClusterState)
+      throws SolrServerException, IOException {
+    return miniClusterState.client.request(
+        benchState.request(
+            miniClusterState,
+            "q",
+            "text:" + threadState.term(),
+            "fq",
+            "dense_b:true",
+            "fq",
+            "val_i:[0 TO " + threadState.random.nextInt(10, 1000) + "]"),
+        COLLECTION);
+  }
+
+  /** Many filters, each cached separately; exercises repeated DocSet intersection. */
+  @Benchmark
+  public Object manyFilters(
+      BenchState benchState,
+      ThreadState threadState,
+      MiniClusterState.MiniClusterBenchState miniClusterState)
+      throws SolrServerException, IOException {
+    ModifiableSolrParams params =
+        MiniClusterState.params("q", "*:*", "fq", "dense_b:true", "rows", "10");
+    for (int i = 0; i < 9; i++) {
+      int lower = threadState.random.nextInt(100);
+      params.add("fq", "val_i:[" + lower + " TO " + (lower + 800) + "]");
+    }
+    QueryRequest q = new QueryRequest(params);
+    q.setBasePath(miniClusterState.nodes.get(0));
+    return miniClusterState.client.request(q, COLLECTION);
+  }
+
+  @Benchmark
+  public Object postFilter(
+      BenchState benchState,
+      ThreadState threadState,
+      MiniClusterState.MiniClusterBenchState miniClusterState)
+      throws SolrServerException, IOException {
+    return miniClusterState.client.request(
+        benchState.request(
+            miniClusterState,
+            "q",
+            "text:" + threadState.term(),
+            "fq",
+            "{!frange cache=false cost=200 l=0 u=" + threadState.random.nextInt(1000) + "}val_i"),
+        COLLECTION);
+  }
+
+  @Benchmark
+  public Object collapse(
+      BenchState benchState,
+      ThreadState threadState,
+      MiniClusterState.MiniClusterBenchState miniClusterState)
+      throws SolrServerException, IOException {
+    return miniClusterState.client.request(
+        benchState.request(
+            miniClusterState,
+            "q",
+            "text:" + threadState.term(),
+            "fq",
+            "{!collapse field=group_s min=sort_i}"),
+        COLLECTION);
+  }
+
+  /**
+   * Pages through the first results of a small set of queries. With the queryResultCache enabled,
+   * pages after the first should be served from the cached queryResultWindow.
+   */
+  @Benchmark
+  public Object resultWindowPaging(
+      BenchState benchState,
+      ThreadState threadState,
+      MiniClusterState.MiniClusterBenchState miniClusterState)
+      throws SolrServerException, IOException {
+    return miniClusterState.client.request(
+        benchState.request(
+            miniClusterState,
+            "q",
+            "text:t" + threadState.random.nextInt(4),
+            "start",
+            Integer.toString(10 * threadState.random.nextInt(5)),
+            "rows",
+            "10"),
+        COLLECTION);
+  }
+}
@@ -139,6 +139,7 @@ import org.apache.solr.metrics.SolrMetricsContext;
 import org.apache.solr.pkg.SolrPackageLoader;
 import org.apache.solr.request.SolrRequestHandler;
 import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.search.CacheMemoryManager;
 import org.apache.solr.search.SolrFieldCacheBean;
 import org.apache.solr.security.AllowListUrlChecker;
 import org.apache.solr.security.AuditLoggerPlugin;
@@ -275,6 +276,8 @@ public class CoreContainer {
 
   private volatile SolrClientCache solrClientCache;
 
+  private volatile CacheMemoryManager cacheMemoryManager;
+
   private final ObjectCache objectCache = new ObjectCache();
 
   public final NodeRoles nodeRoles = new NodeRoles(System.getProperty(NodeRoles.NODE_ROLES_PROP));
@@ -717,6 +720,11 @@ public class CoreContainer {
     return solrClientCache;
   }
 
+  /** The manager of the cache memory budget of this node, or null if not configured. */
+  public CacheMemoryManager getCacheMemoryManager() {
+    return cacheMemoryManager;
+  }
+
   public ObjectCache getObjectCache() {
     return objectCache;
   }
@@ -962,6 +970,11 @@ public class CoreContainer {
     SolrFieldCacheBean fieldCacheBean = new SolrFieldCacheBean();
     fieldCacheBean.initializeMetrics(solrMetricsContext, null);
 
+    cacheMemoryManager = CacheMemoryManager.create(cfg.getCacheMemoryManagerConfig());
+    if (cacheMemoryManager != null) {
+      cacheMemoryManager.initializeMetrics(solrMetricsContext, "cacheMemoryManager");
+    }
+
     if (isZooKeeperAware()) {
       metricManager.loadClusterReporters(metricReporters, this);
     }
@@ -1239,6 +1252,10 @@ public class CoreContainer {
       // Now clear all the cores that are being operated upon.
       solrCores.close();
 
+      if (cacheMemoryManager != null) {
+        cacheMemoryManager.close();
+      }
+
       objectCache.clear();
 
       // It's still possible that one of the pending dynamic load operation is waiting, so wake it
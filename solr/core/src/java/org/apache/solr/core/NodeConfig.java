@@ -105,6 +105,8 @@ public class NodeConfig {
 
   private final PluginInfo tracerConfig;
 
+  private final PluginInfo cacheMemoryManagerConfig;
+
   // Track if this config was loaded from zookeeper so that we can skip validating the zookeeper
   // connection later. If it becomes necessary to track multiple potential sources in the future,
   // replace this with an Enum
@@ -139,6 +141,7 @@ public class NodeConfig {
       PluginInfo[] backupRepositoryPlugins,
       MetricsConfig metricsConfig,
       PluginInfo tracerConfig,
+      PluginInfo cacheMemoryManagerConfig,
       boolean fromZookeeper,
       String defaultZkHost,
       Set<Path> allowPaths,
@@ -173,6 +176,7 @@ public class NodeConfig {
     this.backupRepositoryPlugins = backupRepositoryPlugins;
     this.metricsConfig = metricsConfig;
     this.tracerConfig = tracerConfig;
+    this.cacheMemoryManagerConfig = cacheMemoryManagerConfig;
     this.fromZookeeper = fromZookeeper;
     this.defaultZkHost = defaultZkHost;
     this.allowPaths = allowPaths;
@@ -382,6 +386,11 @@ public class NodeConfig {
     return tracerConfig;
   }
 
+  /** The configuration of the node level cache memory budget, or null if not configured. */
+  public PluginInfo getCacheMemoryManagerConfig() {
+    return cacheMemoryManagerConfig;
+  }
+
   /**
    * True if this node config was loaded from zookeeper
    *
@@ -559,6 +568,7 @@ public class NodeConfig {
     private PluginInfo[] backupRepositoryPlugins;
     private MetricsConfig metricsConfig;
     private PluginInfo tracerConfig;
+    private PluginInfo cacheMemoryManagerConfig;
     private boolean fromZookeeper = false;
     private String defaultZkHost;
     private Set<Path> allowPaths = Collections.emptySet();
@@ -731,6 +741,11 @@ public class NodeConfig {
       return this;
     }
 
+    public NodeConfigBuilder setCacheMemoryManagerConfig(PluginInfo cacheMemoryManagerConfig) {
+      this.cacheMemoryManagerConfig = cacheMemoryManagerConfig;
+      return this;
+    }
+
     public NodeConfigBuilder setFromZookeeper(boolean fromZookeeper) {
       this.fromZookeeper = fromZookeeper;
       return this;
@@ -801,6 +816,7 @@ public class NodeConfig {
           backupRepositoryPlugins,
           metricsConfig,
           tracerConfig,
+          cacheMemoryManagerConfig,
           fromZookeeper,
           defaultZkHost,
           allowPaths,
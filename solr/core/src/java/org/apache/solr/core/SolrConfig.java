@@ -79,6 +79,7 @@ import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.IndexSchemaFactory;
 import org.apache.solr.search.CacheConfig;
 import org.apache.solr.search.CaffeineCache;
+import org.apache.solr.search.ConcurrentSearchExecutor;
 import org.apache.solr.search.QParserPlugin;
 import org.apache.solr.search.SolrCache;
 import org.apache.solr.search.ValueSourceParser;
@@ -310,6 +311,11 @@ public class SolrConfig implements MapSerializable {
       //    filtOptThreshold = getFloat("query/boolTofilterOptimizer/@threshold",.05f);
 
       useFilterForSortedQuery = get("query").get("useFilterForSortedQuery").boolVal(false);
+      useCompressedDocSets = get("query").get("useCompressedDocSets").boolVal(false);
+      mapUninvertedFields = get("query").get("mapUninvertedFields").boolVal(false);
+      useCostBasedFilters = get("query").get("useCostBasedFilters").boolVal(false);
+      concurrentSearchConfig =
+          ConcurrentSearchExecutor.Config.getConfig(get("query").get("concurrentSearch"));
       queryResultWindowSize = Math.max(1, get("query").get("queryResultWindowSize").intVal(1));
       queryResultMaxDocsCached =
           get("query").get("queryResultMaxDocsCached").intVal(Integer.MAX_VALUE);
@@ -317,6 +323,12 @@ public class SolrConfig implements MapSerializable {
 
       filterCacheConfig =
           CacheConfig.getConfig(this, get("query").get("filterCache"), "query/filterCache");
+      segmentFilterCacheConfig =
+          CacheConfig.getConfig(
+              this, get("query").get("segmentFilterCache"), "query/segmentFilterCache");
+      segmentFacetCacheConfig =
+          CacheConfig.getConfig(
+              this, get("query").get("segmentFacetCache"), "query/segmentFacetCache");
       queryResultCacheConfig =
           CacheConfig.getConfig(
               this, get("query").get("queryResultCache"), "query/queryResultCache");
@@ -706,12 +718,22 @@ public class SolrConfig implements MapSerializable {
   //  public final float filtOptThreshold;
   // SolrIndexSearcher - caches configurations
   public final CacheConfig filterCacheConfig;
+  // core-level (not per searcher) cache of per-segment filter bits; null if disabled
+  public final CacheConfig segmentFilterCacheConfig;
+  // core-level cache of per-segment terms facet results; null if disabled
+  public final CacheConfig segmentFacetCacheConfig;
   public final CacheConfig queryResultCacheConfig;
   public final CacheConfig documentCacheConfig;
   public final CacheConfig fieldValueCacheConfig;
   public final Map<String, CacheConfig> userCacheConfigs;
   // SolrIndexSearcher - more...
   public final boolean useFilterForSortedQuery;
+  // intra-query concurrency over leaf slices; null if disabled
+  public final ConcurrentSearchExecutor.Config concurrentSearchConfig;
+  public final boolean useCompressedDocSets;
+  // keep the ords of uninverted multi-valued string fields in memory-mapped files
+  public final boolean mapUninvertedFields;
+  public final boolean useCostBasedFilters;
   public final int queryResultWindowSize;
   public final int queryResultMaxDocsCached;
   public final boolean enableLazyFieldLoading;
@@ -1037,6 +1059,10 @@ public class SolrConfig implements MapSerializable {
     Map<String, Object> m = new LinkedHashMap<>();
     result.put("query", m);
     m.put("useFilterForSortedQuery", useFilterForSortedQuery);
+    m.put("useCompressedDocSets", useCompressedDocSets);
+    m.put("mapUninvertedFields", mapUninvertedFields);
+    m.put("useCostBasedFilters", useCostBasedFilters);
+    if (concurrentSearchConfig != null) m.put("concurrentSearch", concurrentSearchConfig);
     m.put("queryResultWindowSize", queryResultWindowSize);
     m.put("queryResultMaxDocsCached", queryResultMaxDocsCached);
     m.put("enableLazyFieldLoading", enableLazyFieldLoading);
@@ -1071,7 +1097,13 @@ public class SolrConfig implements MapSerializable {
     }
 
     addCacheConfig(
-        m, filterCacheConfig, queryResultCacheConfig, documentCacheConfig, fieldValueCacheConfig);
+        m,
+        filterCacheConfig,
+        segmentFilterCacheConfig,
+        segmentFacetCacheConfig,
+        queryResultCacheConfig,
+        documentCacheConfig,
+        fieldValueCacheConfig);
     m = new LinkedHashMap<>();
     result.put("requestDispatcher", m);
     m.put("handleSelect", handleSelect);
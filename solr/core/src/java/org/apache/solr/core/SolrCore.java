@@ -71,6 +71,7 @@ import org.apache.lucene.index.IndexDeletionPolicy;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
@@ -143,12 +144,16 @@ import org.apache.solr.schema.FieldType;
 import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.ManagedIndexSchema;
 import org.apache.solr.schema.SimilarityFactory;
+import org.apache.solr.search.ConcurrentSearchExecutor;
 import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SegmentFilterCache;
 import org.apache.solr.search.SolrFieldCacheBean;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.ValueSourceParser;
+import org.apache.solr.search.facet.SegmentFacetCache;
 import org.apache.solr.search.stats.LocalStatsCache;
 import org.apache.solr.search.stats.StatsCache;
+import org.apache.solr.uninverting.MappedOrdsStore;
 import org.apache.solr.update.DefaultSolrCoreState;
 import org.apache.solr.update.DirectUpdateHandler2;
 import org.apache.solr.update.IndexFingerprint;
@@ -244,6 +249,18 @@ public class SolrCore implements SolrInfoBean, Closeable {
 
   private final CircuitBreakerManager circuitBreakerManager;
 
+  // outlives individual searchers; null unless configured
+  private final SegmentFilterCache segmentFilterCache;
+
+  // outlives individual searchers; null unless configured
+  private final SegmentFacetCache segmentFacetCache;
+
+  // outlives individual searchers; null unless configured
+  private final MappedOrdsStore mappedOrdsStore;
+
+  // shared by all searchers to search leaf slices concurrently; null unless configured
+  private final ConcurrentSearchExecutor concurrentSearchExecutor;
+
   private final List<Runnable> confListeners = new CopyOnWriteArrayList<>();
 
   private final ReentrantLock ruleExpiryLock;
@@ -1114,6 +1131,10 @@ public class SolrCore implements SolrInfoBean, Closeable {
       solrFieldCacheBean.initializeMetrics(solrMetricsContext, "core");
       infoRegistry.put("fieldCache", solrFieldCacheBean);
 
+      this.segmentFilterCache = initSegmentFilterCache();
+      this.segmentFacetCache = initSegmentFacetCache();
+      this.concurrentSearchExecutor = initConcurrentSearchExecutor();
+
       this.maxWarmingSearchers = solrConfig.maxWarmingSearchers;
       this.slowQueryThresholdMillis = solrConfig.slowQueryThresholdMillis;
 
@@ -1124,6 +1145,7 @@ public class SolrCore implements SolrInfoBean, Closeable {
 
       this.codec = initCodec(solrConfig, this.schema);
       initIndex(prev != null, reload);
+      this.mappedOrdsStore = initMappedOrdsStore();
 
       initWriters();
       qParserPlugins.init(QParserPlugin.standardPlugins, this);
@@ -1710,6 +1732,95 @@ public class SolrCore implements SolrInfoBean, Closeable {
     return circuitBreakerManager;
   }
 
+  private SegmentFilterCache initSegmentFilterCache() {
+    if (solrConfig.segmentFilterCacheConfig == null) {
+      return null;
+    }
+    SegmentFilterCache cache = new SegmentFilterCache(solrConfig.segmentFilterCacheConfig);
+    cache.initializeMetrics(solrMetricsContext, SegmentFilterCache.NAME);
+    return cache;
+  }
+
+  /**
+   * Returns the core-level cache of per-segment filter bits shared by all searchers of this core,
+   * or null if none is configured.
+   *
+   * @see SegmentFilterCache
+   */
+  public SegmentFilterCache getSegmentFilterCache() {
+    return segmentFilterCache;
+  }
+
+  private SegmentFacetCache initSegmentFacetCache() {
+    if (solrConfig.segmentFacetCacheConfig == null) {
+      return null;
+    }
+    SegmentFacetCache cache = new SegmentFacetCache(solrConfig.segmentFacetCacheConfig);
+    cache.initializeMetrics(solrMetricsContext, SegmentFacetCache.NAME);
+    return cache;
+  }
+
+  /**
+   * Returns the core-level cache of per-segment terms facet results shared by all searchers of this
+   * core, or null if none is configured.
+   *
+   * @see SegmentFacetCache
+   */
+  public SegmentFacetCache getSegmentFacetCache() {
+    return segmentFacetCache;
+  }
+
+  private MappedOrdsStore initMappedOrdsStore() {
+    if (!solrConfig.mapUninvertedFields) {
+      return null;
+    }
+    try {
+      final SegmentInfos commit;
+      final Directory dir =
+          directoryFactory.get(
+              getNewIndexDir(), DirContext.DEFAULT, solrConfig.indexConfig.lockType);
+      try {
+        commit = SegmentInfos.readLatestCommit(dir);
+      } finally {
+        directoryFactory.release(dir);
+      }
+      return new MappedOrdsStore(Path.of(dataDir, "uninverted"), commit);
+    } catch (IOException e) {
+      log.warn("Can't open the mapped uninverted fields of {}, uninverting on the heap", name, e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the store of the memory-mapped ords of uninverted fields shared by all searchers of
+   * this core, or null if none is configured.
+   *
+   * @see MappedOrdsStore
+   */
+  public MappedOrdsStore getMappedOrdsStore() {
+    return mappedOrdsStore;
+  }
+
+  private ConcurrentSearchExecutor initConcurrentSearchExecutor() {
+    if (solrConfig.concurrentSearchConfig == null) {
+      return null;
+    }
+    ConcurrentSearchExecutor executor =
+        new ConcurrentSearchExecutor(solrConfig.concurrentSearchConfig);
+    executor.initializeMetrics(solrMetricsContext, ConcurrentSearchExecutor.NAME);
+    return executor;
+  }
+
+  /**
+   * Returns the executor used by this core's searchers to search leaf slices of a single query
+   * concurrently, or null if none is configured.
+   *
+   * @see ConcurrentSearchExecutor
+   */
+  public ConcurrentSearchExecutor getConcurrentSearchExecutor() {
+    return concurrentSearchExecutor;
+  }
+
   // this core current usage count
   private final AtomicInteger refCount = new AtomicInteger(1);
 
@@ -1831,6 +1942,18 @@ public class SolrCore implements SolrInfoBean, Closeable {
     }
     assert ObjectReleaseTracker.release(searcherExecutor);
 
+    if (mappedOrdsStore != null) {
+      // before closing the searchers, so that the files of their segments are kept
+      try {
+        mappedOrdsStore.close();
+      } catch (Throwable e) {
+        SolrException.log(log, e);
+        if (e instanceof Error) {
+          throw (Error) e;
+        }
+      }
+    }
+
     try {
       // Since we waited for the searcherExecutor to shut down,
       // there should be no more searchers warming in the background
@@ -1847,6 +1970,39 @@ public class SolrCore implements SolrInfoBean, Closeable {
       }
     }
 
+    if (segmentFilterCache != null) {
+      try {
+        segmentFilterCache.close();
+      } catch (Throwable e) {
+        SolrException.log(log, e);
+        if (e instanceof Error) {
+          throw (Error) e;
+        }
+      }
+    }
+
+    if (segmentFacetCache != null) {
+      try {
+        segmentFacetCache.close();
+      } catch (Throwable e) {
+        SolrException.log(log, e);
+        if (e instanceof Error) {
+          throw (Error) e;
+        }
+      }
+    }
+
+    if (concurrentSearchExecutor != null) {
+      try {
+        concurrentSearchExecutor.close();
+      } catch (Throwable e) {
+        SolrException.log(log, e);
+        if (e instanceof Error) {
+          throw (Error) e;
+        }
+      }
+    }
+
     if (coreStateClosed) {
       try {
         cleanupOldIndexDirectories(false);
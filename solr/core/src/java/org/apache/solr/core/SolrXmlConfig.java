@@ -169,6 +169,7 @@ public class SolrXmlConfig {
     configBuilder.setUpdateShardHandlerConfig(updateConfig);
     configBuilder.setShardHandlerFactoryConfig(getPluginInfo(root.get("shardHandlerFactory")));
     configBuilder.setTracerConfig(getPluginInfo(root.get("tracerConfig")));
+    configBuilder.setCacheMemoryManagerConfig(getPluginInfo(root.get("cacheMemoryManager")));
     configBuilder.setLogWatcherConfig(loadLogWatcherConfig(root.get("logging")));
     configBuilder.setSolrProperties(loadProperties(root, substituteProperties));
     if (cloudConfig != null) configBuilder.setCloudConfig(cloudConfig);
@@ -632,7 +632,7 @@ public class SimpleFacets {
             NamedList<Object> res = (NamedList<Object>) resObj;
 
             @SuppressWarnings({"unchecked"})
-            List<NamedList<Object>> buckets = (List<NamedList<Object>>) res.get("buckets");
+            Iterable<NamedList<Object>> buckets = (Iterable<NamedList<Object>>) res.get("buckets");
             for (NamedList<Object> b : buckets) {
               counts.add(b.get("val").toString(), ((Number) b.get("count")).intValue());
             }
@@ -56,12 +56,18 @@ import org.apache.solr.search.SolrReturnFields;
 public class DocsStreamer implements Iterator<SolrDocument> {
   public static final Set<Class<? extends FieldType>> KNOWN_TYPES = new HashSet<>();
 
+  /** The number of documents whose docValues are read at once */
+  static final int DOC_VALUES_BLOCK_SIZE = 1024;
+
   private final org.apache.solr.response.ResultContext rctx;
   private final SolrDocumentFetcher docFetcher; // a collaborator of SolrIndexSearcher
   private final DocList docs;
 
   private final DocTransformer transformer;
   private final DocIterator docIterator;
+  // runs ahead of docIterator to read the docValues of the next documents
+  private final DocIterator docValuesIterator;
+  private SolrDocumentFetcher.DocValuesBlock docValues;
 
   private final SolrReturnFields solrReturnFields;
 
@@ -72,6 +78,7 @@ public class DocsStreamer implements Iterator<SolrDocument> {
     this.docs = rctx.getDocList();
     transformer = rctx.getReturnFields().getTransformer();
     docIterator = this.docs.iterator();
+    docValuesIterator = this.docs.iterator();
     docFetcher = rctx.getSearcher().getDocFetcher();
     solrReturnFields = (SolrReturnFields) rctx.getReturnFields();
 
@@ -91,7 +98,7 @@ public class DocsStreamer implements Iterator<SolrDocument> {
   public SolrDocument next() {
     int id = docIterator.nextDoc();
     idx++;
-    SolrDocument sdoc = docFetcher.solrDoc(id, solrReturnFields);
+    SolrDocument sdoc = docFetcher.solrDoc(id, solrReturnFields, nextDocValues());
 
     if (transformer != null) {
       boolean doScore = rctx.wantsScores();
@@ -109,6 +116,18 @@ public class DocsStreamer implements Iterator<SolrDocument> {
     return sdoc;
   }
 
+  private SolrDocumentFetcher.DocValuesBlock nextDocValues() {
+    if (docValues == null || !docValues.hasNext()) {
+      try {
+        docValues =
+            docFetcher.readDocValues(docValuesIterator, DOC_VALUES_BLOCK_SIZE, solrReturnFields);
+      } catch (IOException e) {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Error reading docValues", e);
+      }
+    }
+    return docValues;
+  }
+
   /**
    * This method is less efficient then the 3 arg version because it may convert some fields that
    * are not needed
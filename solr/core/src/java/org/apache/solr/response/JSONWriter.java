@@ -20,10 +20,14 @@ package org.apache.solr.response;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.List;
+import org.apache.lucene.index.IndexableField;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.util.JsonTextWriter;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.ReturnFields;
+import org.apache.solr.search.SolrDocumentFetcher;
+import org.apache.solr.search.SolrReturnFields;
 
 public class JSONWriter extends TextResponseWriter implements JsonTextWriter {
   static final int JSON_NL_STYLE_COUNT = 5; // for use by JSONWriterTest
@@ -32,6 +36,8 @@ public class JSONWriter extends TextResponseWriter implements JsonTextWriter {
   protected final String namedListStyle;
   protected String wrapperFunction;
 
+  private DirectFieldWriter directFieldWriter; // lazily created, see writeDocumentsDirectly
+
   public JSONWriter(Writer writer, SolrQueryRequest req, SolrQueryResponse rsp) {
     this(
         writer,
@@ -128,6 +134,140 @@ public class JSONWriter extends TextResponseWriter implements JsonTextWriter {
     writeMapCloser();
   }
 
+  /**
+   * Writes the fields of the documents as {@link SolrDocumentFetcher} reads them, in the same way
+   * {@link #writeSolrDocument(String, SolrDocument, ReturnFields, int)} would write them. Not done
+   * by subclasses, that may write documents differently, nor when there is a {@link
+   * org.apache.solr.response.transform.DocTransformer} to apply.
+   */
+  @Override
+  protected boolean writeDocumentsDirectly(ResultContext res) throws IOException {
+    if (getClass() != JSONWriter.class
+        || !(res.getReturnFields() instanceof SolrReturnFields)
+        || res.getReturnFields().getTransformer() != null
+        || res.getSearcher() == null
+        || ResultContext.READASBYTES.get() != null) {
+      return false;
+    }
+    final SolrReturnFields solrReturnFields = (SolrReturnFields) res.getReturnFields();
+    final SolrDocumentFetcher docFetcher = res.getSearcher().getDocFetcher();
+    if (directFieldWriter == null) {
+      directFieldWriter = new DirectFieldWriter();
+    }
+    final DocIterator iterator = res.getDocList().iterator();
+    final DocIterator docValuesIterator = res.getDocList().iterator();
+    SolrDocumentFetcher.DocValuesBlock docValues = null;
+    int idx = 0;
+    while (iterator.hasNext()) {
+      if (docValues == null || !docValues.hasNext()) {
+        docValues =
+            docFetcher.readDocValues(
+                docValuesIterator, DocsStreamer.DOC_VALUES_BLOCK_SIZE, solrReturnFields);
+      }
+      if (idx++ > 0) {
+        writeArraySeparator();
+      }
+      indent();
+      writeMapOpener(-1);
+      incLevel();
+      directFieldWriter.firstField = true;
+      docFetcher.writeDoc(iterator.nextDoc(), solrReturnFields, docValues, directFieldWriter);
+      decLevel();
+      writeMapCloser();
+    }
+    return true;
+  }
+
+  /** Writes the fields of a document as keys of a JSON object, and their values. */
+  private class DirectFieldWriter implements SolrDocumentFetcher.FieldWriter {
+    boolean firstField;
+    private String name;
+    private int count; // -1 for a single value
+    private int idx;
+
+    @Override
+    public void startField(String name, int count) throws IOException {
+      if (firstField) {
+        firstField = false;
+      } else {
+        writeMapSeparator();
+      }
+      indent();
+      writeKey(name, true);
+      this.name = name;
+      this.count = count;
+      this.idx = 0;
+      if (count >= 0) {
+        // as writeVal does for a List
+        writeArrayOpener(-1);
+        incLevel();
+      }
+    }
+
+    /**
+     * @return the name to write the next value with
+     */
+    private String beforeValue() throws IOException {
+      if (count < 0) {
+        return name;
+      }
+      if (idx > 0) {
+        indent();
+      }
+      return null;
+    }
+
+    private void afterValue() throws IOException {
+      if (count >= 0 && ++idx < count) {
+        writeArraySeparator();
+      }
+    }
+
+    @Override
+    public void storedValue(IndexableField value) throws IOException {
+      writeVal(beforeValue(), value, false);
+      afterValue();
+    }
+
+    @Override
+    public void value(Object value) throws IOException {
+      writeVal(beforeValue(), value, false);
+      afterValue();
+    }
+
+    @Override
+    public void intValue(int value) throws IOException {
+      writeInt(beforeValue(), value);
+      afterValue();
+    }
+
+    @Override
+    public void longValue(long value) throws IOException {
+      writeLong(beforeValue(), value);
+      afterValue();
+    }
+
+    @Override
+    public void floatValue(float value) throws IOException {
+      writeFloat(beforeValue(), value);
+      afterValue();
+    }
+
+    @Override
+    public void doubleValue(double value) throws IOException {
+      writeDouble(beforeValue(), value);
+      afterValue();
+    }
+
+    @Override
+    public void endField() throws IOException {
+      if (count >= 0) {
+        decLevel();
+        writeArrayCloser();
+      }
+    }
+  }
+
   //
   // Data structure tokens
   // NOTE: a positive size paramater indicates the number of elements
@@ -243,7 +243,6 @@ public abstract class TextResponseWriter implements TextWriter {
 
   public final void writeDocuments(String name, ResultContext res) throws IOException {
     DocList ids = res.getDocList();
-    Iterator<SolrDocument> docsStreamer = res.getProcessedDocuments();
     writeStartDocumentList(
         name,
         ids.offset(),
@@ -252,6 +251,11 @@ public abstract class TextResponseWriter implements TextWriter {
         res.wantsScores() ? ids.maxScore() : null,
         ids.hitCountRelation() == TotalHits.Relation.EQUAL_TO);
 
+    if (writeDocumentsDirectly(res)) {
+      writeEndDocumentList();
+      return;
+    }
+    Iterator<SolrDocument> docsStreamer = res.getProcessedDocuments();
     int idx = 0;
     while (docsStreamer.hasNext()) {
       writeSolrDocument(null, docsStreamer.next(), res.getReturnFields(), idx);
@@ -259,4 +263,15 @@ public abstract class TextResponseWriter implements TextWriter {
     }
     writeEndDocumentList();
   }
+
+  /**
+   * Writes the documents of a document list straight from the index, without a {@link
+   * SolrDocument} for each of them, if this writer supports it.
+   *
+   * @return false if nothing was written, and the documents must be written with {@link
+   *     #writeSolrDocument(String, SolrDocument, ReturnFields, int)}
+   */
+  protected boolean writeDocumentsDirectly(ResultContext res) throws IOException {
+    return false;
+  }
 }
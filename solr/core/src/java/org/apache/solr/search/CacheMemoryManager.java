@@ -0,0 +1,339 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SolrNamedThreadFactory;
+import org.apache.solr.core.PluginInfo;
+import org.apache.solr.core.SolrInfoBean.Category;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricsContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares one heap budget between the caches of all the cores of a node, instead of sizing each
+ * cache of each core independently.
+ *
+ * <p>Every {@link CaffeineCache} of a searcher is registered under the name of its core and cache,
+ * and is switched to a <code>maxRamMB</code> limit. Periodically the budget is divided again: each
+ * cache is guaranteed <code>minRamMB</code>, and the rest is shared in proportion to a decaying
+ * average of the hits of the cache plus its evictions weighted by its hit ratio, which estimates
+ * the hits that a larger limit would have given. A cache that does not evict gets at most twice
+ * what it holds from that share, leaving the rest to the caches that need it. The limits of a cache
+ * carry over to the cache that replaces it when a new searcher is opened.
+ *
+ * <p>Configured in solr.xml:
+ *
+ * <pre>
+ * &lt;cacheMemoryManager&gt;
+ *   &lt;int name="budgetMB"&gt;4096&lt;/int&gt;
+ *   &lt;int name="minRamMB"&gt;1&lt;/int&gt;
+ *   &lt;int name="rebalanceIntervalSec"&gt;60&lt;/int&gt;
+ * &lt;/cacheMemoryManager&gt;
+ * </pre>
+ *
+ * @lucene.experimental
+ */
+public class CacheMemoryManager implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final String BUDGET_MB_PARAM = "budgetMB";
+  public static final String MIN_RAM_MB_PARAM = "minRamMB";
+  public static final String REBALANCE_INTERVAL_PARAM = "rebalanceIntervalSec";
+
+  private static final long MB = 1024L * 1024L;
+  // weight of the previous average when adding the activity of the last interval
+  private static final double DECAY = 0.5;
+
+  private final long budgetBytes;
+  private final long minBytes;
+  private final Map<String, CacheState> caches = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler;
+  private final LongAdder rebalances = new LongAdder();
+  // whether the last rebalance warned that the caches don't fit in the budget
+  private boolean warnedOverBudget;
+
+  /** The managed cache registered under a name, and what is known of its activity. */
+  private static class CacheState {
+    CaffeineCache<?, ?> cache;
+    long lastHits;
+    long lastLookups;
+    long lastEvictions;
+    double weight;
+    // written under the lock of the manager, read without it by the metrics
+    volatile long limitBytes;
+
+    CacheState(CaffeineCache<?, ?> cache, long limitBytes) {
+      this.cache = cache;
+      this.limitBytes = limitBytes;
+    }
+  }
+
+  /**
+   * Creates the manager configured by the <code>cacheMemoryManager</code> element of solr.xml, or
+   * returns null if it is absent or disabled.
+   */
+  public static CacheMemoryManager create(PluginInfo info) {
+    if (info == null || !info.isEnabled()) {
+      return null;
+    }
+    final long maxHeapMB = Runtime.getRuntime().maxMemory() / MB;
+    final long budgetMB = getLong(info.initArgs, BUDGET_MB_PARAM, maxHeapMB / 4);
+    final long minRamMB = getLong(info.initArgs, MIN_RAM_MB_PARAM, 1);
+    final long intervalSec = getLong(info.initArgs, REBALANCE_INTERVAL_PARAM, 60);
+    if (budgetMB <= 0 || minRamMB <= 0 || intervalSec <= 0 || minRamMB > budgetMB) {
+      throw new SolrException(
+          SolrException.ErrorCode.SERVER_ERROR,
+          "cacheMemoryManager: "
+              + BUDGET_MB_PARAM
+              + ", "
+              + MIN_RAM_MB_PARAM
+              + " and "
+              + REBALANCE_INTERVAL_PARAM
+              + " must be positive, and "
+              + MIN_RAM_MB_PARAM
+              + " at most "
+              + BUDGET_MB_PARAM);
+    }
+    return new CacheMemoryManager(budgetMB * MB, minRamMB * MB, intervalSec);
+  }
+
+  private static long getLong(NamedList<?> args, String name, long defaultValue) {
+    final Object value = args == null ? null : args.get(name);
+    return value == null ? defaultValue : Long.parseLong(value.toString());
+  }
+
+  /**
+   * @param intervalSec seconds between two rebalances, or 0 to only rebalance when {@link
+   *     #rebalance()} is called
+   */
+  CacheMemoryManager(long budgetBytes, long minBytes, long intervalSec) {
+    this.budgetBytes = budgetBytes;
+    this.minBytes = minBytes;
+    if (intervalSec > 0) {
+      scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              new SolrNamedThreadFactory("cacheMemoryManager"));
+      scheduler.scheduleWithFixedDelay(
+          this::rebalanceQuietly, intervalSec, intervalSec, TimeUnit.SECONDS);
+    } else {
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Manages <code>cache</code> under <code>name</code>, in place of the cache previously registered
+   * under that name if any. Caches other than {@link CaffeineCache} are not managed.
+   */
+  public void register(String name, SolrCache<?, ?> cache) {
+    if (!(cache instanceof CaffeineCache)) {
+      return;
+    }
+    final CaffeineCache<?, ?> caffeineCache = (CaffeineCache<?, ?>) cache;
+    final long limitBytes;
+    synchronized (this) {
+      CacheState state = caches.get(name);
+      if (state == null) {
+        // start with an even share of what the other caches don't hold yet; the next rebalance
+        // adjusts it
+        long allocatedBytes = 0;
+        for (CacheState other : caches.values()) {
+          allocatedBytes += other.limitBytes;
+        }
+        final long evenShare = budgetBytes / (caches.size() + 1);
+        final long share = Math.min(evenShare, budgetBytes - allocatedBytes);
+        state = new CacheState(caffeineCache, Math.max(Math.min(minBytes, evenShare), share));
+        caches.put(name, state);
+      } else {
+        state.cache = caffeineCache;
+        state.lastHits = 0;
+        state.lastLookups = 0;
+        state.lastEvictions = 0;
+      }
+      limitBytes = state.limitBytes;
+    }
+    // done before the cache is used, since switching a size bound cache to a RAM limit copies it
+    caffeineCache.setMaxRamMB(toMB(limitBytes));
+  }
+
+  /** Stops managing <code>cache</code>, unless another cache was registered under its name. */
+  public synchronized void unregister(SolrCache<?, ?> cache) {
+    caches.values().removeIf(state -> state.cache == cache);
+  }
+
+  private void rebalanceQuietly() {
+    try {
+      rebalance();
+    } catch (Exception e) {
+      log.warn("Error rebalancing cache memory", e);
+    }
+  }
+
+  /** Divides the budget between the registered caches according to their recent activity. */
+  public synchronized void rebalance() {
+    final List<CacheState> states = new ArrayList<>(caches.values());
+    if (states.isEmpty()) {
+      return;
+    }
+    final int n = states.size();
+    final double[] weights = new double[n];
+    final long[] used = new long[n];
+    final boolean[] evicting = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      final CacheState state = states.get(i);
+      final long hits = state.cache.getHitCount();
+      final long lookups = state.cache.getLookupCount();
+      final long evictions = state.cache.getEvictionCount();
+      final long newHits = Math.max(0, hits - state.lastHits);
+      final long newLookups = Math.max(0, lookups - state.lastLookups);
+      final long newEvictions = Math.max(0, evictions - state.lastEvictions);
+      state.lastHits = hits;
+      state.lastLookups = lookups;
+      state.lastEvictions = evictions;
+
+      // an evicted entry would have been hit again about as often as the others
+      final double hitRatio = newLookups == 0 ? 0 : (double) newHits / newLookups;
+      state.weight = DECAY * state.weight + (1 - DECAY) * (newHits + newEvictions * hitRatio);
+      weights[i] = state.weight;
+      used[i] = state.cache.ramBytesUsed();
+      evicting[i] = newEvictions > 0;
+    }
+
+    final boolean overBudget = minBytes * n > budgetBytes;
+    if (overBudget && !warnedOverBudget) {
+      log.warn(
+          "cacheMemoryManager: {} caches don't fit in the budget of {}MB with {} of {}MB each; "
+              + "each gets an equal share of the budget, but no less than 1MB",
+          n,
+          budgetBytes / MB,
+          MIN_RAM_MB_PARAM,
+          minBytes / MB);
+    }
+    warnedOverBudget = overBudget;
+
+    final long[] limits = allocate(budgetBytes, minBytes, weights, used, evicting);
+    for (int i = 0; i < n; i++) {
+      final CacheState state = states.get(i);
+      state.limitBytes = limits[i];
+      state.cache.setMaxRamMB(toMB(limits[i]));
+    }
+    rebalances.increment();
+  }
+
+  /**
+   * Divides <code>budget</code> bytes between caches: each gets <code>min</code>, and the rest is
+   * shared in proportion to <code>weights</code>, except that caches that don't evict get at most
+   * twice what they <code>use</code> until all the others have their share. The limits never add
+   * up to more than the budget: when it can't give <code>min</code> to each cache, they get an
+   * equal share of it.
+   */
+  static long[] allocate(long budget, long min, double[] weights, long[] used, boolean[] evicting) {
+    final int n = weights.length;
+    final long[] limits = new long[n];
+    if (budget <= min * n) {
+      Arrays.fill(limits, budget / n);
+      return limits;
+    }
+    Arrays.fill(limits, min);
+    double remaining = budget - min * n;
+
+    // the extra each cache can use, beyond its minimum
+    final double[] caps = new double[n];
+    final boolean[] active = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      caps[i] = evicting[i] ? Double.MAX_VALUE : Math.max(0, 2 * used[i] - min);
+      active[i] = caps[i] > 0;
+    }
+    // water filling: caches that reach their cap leave the rest to the others
+    boolean capped = true;
+    while (capped) {
+      capped = false;
+      double sum = 0;
+      for (int i = 0; i < n; i++) {
+        // +1 so that idle caches still get a share
+        if (active[i]) sum += weights[i] + 1;
+      }
+      if (sum == 0) break;
+      for (int i = 0; i < n; i++) {
+        if (active[i] && remaining * (weights[i] + 1) / sum >= caps[i]) {
+          limits[i] += (long) caps[i];
+          remaining -= caps[i];
+          active[i] = false;
+          capped = true;
+        }
+      }
+      if (!capped) {
+        for (int i = 0; i < n; i++) {
+          if (active[i]) limits[i] += (long) (remaining * (weights[i] + 1) / sum);
+        }
+        remaining = 0;
+      }
+    }
+    if (remaining > 0) {
+      // every cache holds less than it may: spread what's left as headroom
+      double sum = 0;
+      for (int i = 0; i < n; i++) sum += weights[i] + 1;
+      for (int i = 0; i < n; i++) limits[i] += (long) (remaining * (weights[i] + 1) / sum);
+    }
+    return limits;
+  }
+
+  private static int toMB(long bytes) {
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(1, bytes / MB));
+  }
+
+  public void initializeMetrics(SolrMetricsContext parentContext, String scope) {
+    final MetricsMap metrics =
+        new MetricsMap(
+            map -> {
+              long limitBytes = 0;
+              long usedBytes = 0;
+              for (CacheState state : caches.values()) {
+                limitBytes += state.limitBytes;
+                usedBytes += state.cache.ramBytesUsed();
+              }
+              map.put(BUDGET_MB_PARAM, budgetBytes / MB);
+              map.put("caches", caches.size());
+              map.put("allocatedMB", limitBytes / MB);
+              map.put("ramBytesUsed", usedBytes);
+              map.put("rebalances", rebalances.sum());
+            });
+    parentContext.gauge(metrics, true, scope, Category.CONTAINER.toString());
+  }
+
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      ExecutorUtil.shutdownAndAwaitTermination(scheduler);
+    }
+    caches.clear();
+  }
+}
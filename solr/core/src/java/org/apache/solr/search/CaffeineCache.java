@@ -330,6 +330,21 @@ public class CaffeineCache<K, V> extends SolrCacheBase
     ramBytes.reset();
   }
 
+  /** Hits of this cache instance, since it was created. */
+  long getHitCount() {
+    return cache.stats().hitCount() + hits.sum();
+  }
+
+  /** Lookups of this cache instance, since it was created. */
+  long getLookupCount() {
+    return cache.stats().requestCount() + lookups.sum();
+  }
+
+  /** Evictions of this cache instance, since it was created. */
+  long getEvictionCount() {
+    return cache.stats().evictionCount();
+  }
+
   @Override
   public int getMaxSize() {
     return maxSize;
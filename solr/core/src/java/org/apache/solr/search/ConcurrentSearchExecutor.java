@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import com.codahale.metrics.Timer;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.solr.common.ConfigNode;
+import org.apache.solr.common.MapSerializable;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.SolrNamedThreadFactory;
+import org.apache.solr.core.SolrInfoBean.Category;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricsContext;
+
+/**
+ * A bounded executor, shared by all searchers of a core, used to search groups of segments
+ * ("leaf slices") of a single query concurrently. When configured, it is passed to {@link
+ * IndexSearcher} and {@link SolrIndexSearcher} uses {@link
+ * IndexSearcher#search(org.apache.lucene.search.Query,
+ * org.apache.lucene.search.CollectorManager)} for the top docs and DocSet collection paths.
+ *
+ * <p>At most <code>threads + queueSize</code> slices may be pending at any time. Beyond that,
+ * slices are rejected and Lucene runs them on the requesting thread instead, so a busy node
+ * degrades to sequential search rather than queueing unboundedly.
+ *
+ * <p>Slices are formed from consecutive segments in docid order, closing a slice once it reaches
+ * <code>maxDocsPerSlice</code> documents or <code>maxSegmentsPerSlice</code> segments.
+ *
+ * <p>Configured in solrconfig.xml via {@code <query><concurrentSearch .../></query>}. Disabled when
+ * absent.
+ *
+ * @lucene.experimental
+ */
+public class ConcurrentSearchExecutor implements Executor, Closeable {
+
+  public static final String NAME = "concurrentSearch";
+
+  private final Config config;
+  private final ExecutorService executor;
+  private final Semaphore permits;
+
+  private final LongAdder slices = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private volatile Timer sliceTimer = new Timer();
+
+  public ConcurrentSearchExecutor(Config config) {
+    this.config = config;
+    this.permits = new Semaphore(config.threads + config.queueSize);
+    // the queue is unbounded; the semaphore bounds the number of pending slices. Rejecting in
+    // execute(), before the task is handed to the pool, keeps thread local state balanced.
+    this.executor =
+        new ExecutorUtil.MDCAwareThreadPoolExecutor(
+            config.threads,
+            config.threads,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            new SolrNamedThreadFactory(NAME));
+  }
+
+  public Config getConfig() {
+    return config;
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (!permits.tryAcquire()) {
+      rejected.increment();
+      throw new RejectedExecutionException(NAME + " queue is full");
+    }
+    final Timer timer = sliceTimer;
+    try {
+      executor.execute(
+          () -> {
+            final Timer.Context ctx = timer.time();
+            try {
+              command.run();
+            } finally {
+              ctx.stop();
+              permits.release();
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      permits.release();
+      rejected.increment();
+      throw e;
+    }
+    slices.increment();
+  }
+
+  /**
+   * Groups <code>leaves</code> into slices of consecutive segments, bounded by the configured
+   * number of documents and segments per slice.
+   */
+  public IndexSearcher.LeafSlice[] slices(List<LeafReaderContext> leaves) {
+    final List<IndexSearcher.LeafSlice> groups = new ArrayList<>();
+    List<LeafReaderContext> group = new ArrayList<>();
+    long docs = 0;
+    for (LeafReaderContext ctx : leaves) {
+      group.add(ctx);
+      docs += ctx.reader().maxDoc();
+      if (docs >= config.maxDocsPerSlice || group.size() >= config.maxSegmentsPerSlice) {
+        groups.add(new IndexSearcher.LeafSlice(group));
+        group = new ArrayList<>();
+        docs = 0;
+      }
+    }
+    if (!group.isEmpty()) {
+      groups.add(new IndexSearcher.LeafSlice(group));
+    }
+    return groups.toArray(new IndexSearcher.LeafSlice[0]);
+  }
+
+  public void initializeMetrics(SolrMetricsContext parentContext, String scope) {
+    sliceTimer = parentContext.timer("sliceTime", Category.SEARCHER.toString(), scope);
+    final MetricsMap metrics =
+        new MetricsMap(
+            map -> {
+              map.put("threads", config.threads);
+              map.put("slices", slices.sum());
+              map.put("rejected", rejected.sum());
+              map.put("pending", config.threads + config.queueSize - permits.availablePermits());
+            });
+    parentContext.gauge(metrics, true, "executor", Category.SEARCHER.toString(), scope);
+  }
+
+  @Override
+  public void close() {
+    ExecutorUtil.shutdownAndAwaitTermination(executor);
+  }
+
+  /** Settings of the {@code <concurrentSearch>} element in solrconfig.xml. */
+  public static class Config implements MapSerializable {
+    public final int threads;
+    public final int queueSize;
+    public final int maxDocsPerSlice;
+    public final int maxSegmentsPerSlice;
+
+    public Config(int threads, int queueSize, int maxDocsPerSlice, int maxSegmentsPerSlice) {
+      this.threads = Math.max(1, threads);
+      this.queueSize = Math.max(0, queueSize);
+      this.maxDocsPerSlice = Math.max(1, maxDocsPerSlice);
+      this.maxSegmentsPerSlice = Math.max(1, maxSegmentsPerSlice);
+    }
+
+    /** Returns the config for <code>node</code>, or null if absent or not enabled. */
+    public static Config getConfig(ConfigNode node) {
+      if (node == null || !node.exists() || !node.boolAttr("enabled", true)) {
+        return null;
+      }
+      final int threads = node.intAttr("threads", Runtime.getRuntime().availableProcessors());
+      return new Config(
+          threads,
+          node.intAttr("queueSize", threads * 4),
+          node.intAttr("maxDocsPerSlice", 250_000),
+          node.intAttr("maxSegmentsPerSlice", 5));
+    }
+
+    @Override
+    public Map<String, Object> toMap(Map<String, Object> map) {
+      map.put("threads", threads);
+      map.put("queueSize", queueSize);
+      map.put("maxDocsPerSlice", maxDocsPerSlice);
+      map.put("maxSegmentsPerSlice", maxSegmentsPerSlice);
+      return map;
+    }
+  }
+}
@@ -145,6 +145,10 @@ public class DocSetUtil {
   public static DocSet createDocSetGeneric(SolrIndexSearcher searcher, Query query)
       throws IOException {
 
+    if (searcher.canCollectDocSetConcurrently()) {
+      return searcher.collectDocSetConcurrently(query);
+    }
+
     int maxDoc = searcher.getIndexReader().maxDoc();
     DocSetCollector collector = new DocSetCollector(maxDoc);
 
@@ -251,6 +255,24 @@ public class DocSetUtil {
     return docSet;
   }
 
+  /**
+   * Returns a {@link RoaringDocSet} with the same docs as <code>docs</code> if <code>docs</code> is
+   * a {@link BitDocSet} that would take at most half the heap that way, otherwise <code>docs</code>
+   * itself. This suits sets that live a long time, like filterCache entries, which can afford the
+   * conversion cost and somewhat slower set operations in exchange for memory.
+   *
+   * @lucene.experimental
+   */
+  public static DocSet compress(DocSet docs) {
+    if (docs instanceof BitDocSet && !(docs instanceof MutableBitDocSet)) {
+      final FixedBitSet bits = ((BitDocSet) docs).getBits();
+      if (RoaringDocSet.estimateRamBytesUsed(bits) * 2 <= docs.ramBytesUsed()) {
+        return RoaringDocSet.from(docs);
+      }
+    }
+    return docs;
+  }
+
   public static DocSet toSmallSet(BitDocSet bitSet) {
     int sz = bitSet.size();
     int[] docs = new int[sz];
@@ -279,7 +279,8 @@ public class GraphTermsQParserPlugin extends QParserPlugin {
 
         @Override
         public boolean isCacheable(LeafReaderContext ctx) {
-          return true;
+          // the terms are selected by their docFreq in the whole index
+          return false;
         }
       };
     }
@@ -16,7 +16,14 @@
  */
 package org.apache.solr.search;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import org.apache.lucene.util.FixedBitSet;
+import org.apache.solr.common.SolrException;
 
 /**
  * A {@link BitDocSet} based implementation that mutates the underlying bits for andNot and
@@ -26,6 +33,11 @@ import org.apache.lucene.util.FixedBitSet;
  * @since solr 9.2
  */
 class MutableBitDocSet extends BitDocSet {
+  // 1024 longs (8KB) per array keeps a block of this set in L1 cache while all others are applied
+  private static final int BLOCK_WORDS = 1024;
+  // below 64K longs (4M docs) per thread, handing ranges to other threads costs more than it saves
+  static final int MIN_WORDS_PER_TASK = 64 * BLOCK_WORDS;
+
   private MutableBitDocSet(FixedBitSet bits, int size) {
     super(bits, size);
   }
@@ -92,6 +104,94 @@ class MutableBitDocSet extends BitDocSet {
     return this;
   }
 
+  /**
+   * Intersects this set with all of <code>and</code> and removes all of <code>andNot</code>. This
+   * makes a single pass over the underlying words, block by block, instead of one full pass per
+   * set, so each block is read and written once no matter how many sets are combined. The inner
+   * loops are plain forward loops over <code>long[]</code> which the JIT vectorizes. This mutates
+   * the underlying bits so do not cache the result.
+   *
+   * @param and bits to intersect with
+   * @param andNot bits to remove
+   */
+  public void combine(List<FixedBitSet> and, List<FixedBitSet> andNot) {
+    combine(and, andNot, null);
+  }
+
+  /**
+   * Same as {@link #combine(List, List)}, but large sets are split into ranges of blocks that are
+   * combined concurrently on <code>executor</code>. The calling thread combines the ranges that no
+   * other thread has started, so it never waits for a task that is still queued.
+   *
+   * @param and bits to intersect with
+   * @param andNot bits to remove
+   * @param executor runs the ranges concurrently, or null to combine them all on this thread
+   */
+  public void combine(List<FixedBitSet> and, List<FixedBitSet> andNot, Executor executor) {
+    final long[] words = getFixedBitSet().getBits();
+    final int numWords = FixedBitSet.bits2words(getFixedBitSet().length());
+    // more tasks than threads just wait in the queue, or are combined by this thread
+    final int numTasks = executor == null ? 1 : numWords / MIN_WORDS_PER_TASK;
+    if (numTasks <= 1) {
+      combine(words, 0, numWords, and, andNot);
+    } else {
+      // whole blocks per task, so the last task may be shorter than the others
+      final int numBlocks = (numWords + BLOCK_WORDS - 1) / BLOCK_WORDS;
+      final int wordsPerTask = ((numBlocks + numTasks - 1) / numTasks) * BLOCK_WORDS;
+      final List<FutureTask<Void>> tasks = new ArrayList<>(numTasks);
+      for (int start = 0; start < numWords; start += wordsPerTask) {
+        final int from = start;
+        final int to = Math.min(numWords, start + wordsPerTask);
+        tasks.add(new FutureTask<>(() -> combine(words, from, to, and, andNot), null));
+      }
+      for (int i = 1; i < tasks.size(); i++) {
+        try {
+          executor.execute(tasks.get(i));
+        } catch (RejectedExecutionException e) {
+          // run below, on this thread
+        }
+      }
+      for (FutureTask<Void> task : tasks) {
+        task.run(); // no-op if another thread already started it
+      }
+      for (FutureTask<Void> task : tasks) {
+        try {
+          task.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+        } catch (ExecutionException e) {
+          throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e.getCause());
+        }
+      }
+    }
+    resetSize();
+  }
+
+  private static void combine(
+      long[] words, int from, int to, List<FixedBitSet> and, List<FixedBitSet> andNot) {
+    for (int start = from; start < to; start += BLOCK_WORDS) {
+      final int end = Math.min(to, start + BLOCK_WORDS);
+      for (FixedBitSet other : andNot) {
+        final long[] otherWords = other.getBits();
+        final int otherEnd = Math.min(end, FixedBitSet.bits2words(other.length()));
+        for (int i = start; i < otherEnd; i++) {
+          words[i] &= ~otherWords[i];
+        }
+      }
+      for (FixedBitSet other : and) {
+        final long[] otherWords = other.getBits();
+        final int otherEnd = Math.min(end, FixedBitSet.bits2words(other.length()));
+        for (int i = start; i < otherEnd; i++) {
+          words[i] &= otherWords[i];
+        }
+        for (int i = Math.max(start, otherEnd); i < end; i++) {
+          words[i] = 0L;
+        }
+      }
+    }
+  }
+
   @Override
   public int intersectionSize(DocSet other) {
     throw new UnsupportedOperationException();
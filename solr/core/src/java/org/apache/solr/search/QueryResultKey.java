@@ -17,14 +17,24 @@
 package org.apache.solr.search;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.RamUsageEstimator;
 
-/** A hash key encapsulating a query, a list of filters, and a sort */
+/**
+ * A hash key encapsulating a query, a list of filters, and a sort.
+ *
+ * <p>Filters are compared in a normalized form, so that lists of filters that match the same
+ * documents in the same way produce equal keys: see {@link #normalizeFilters(List)}.
+ */
 public final class QueryResultKey implements Accountable {
   private static final long BASE_RAM_BYTES_USED =
       RamUsageEstimator.shallowSizeOfInstance(QueryResultKey.class);
@@ -35,6 +45,7 @@ public final class QueryResultKey implements Accountable {
   final Sort sort;
   final SortField[] sfields;
   final List<Query> filters;
+  final List<Query> normalizedFilters; // used by hashCode and equals; may be null
   final int nc_flags; // non-comparable flags... ignored by hashCode and equals
   final int minExactCount;
 
@@ -52,13 +63,14 @@ public final class QueryResultKey implements Accountable {
     this.query = query;
     this.sort = sort;
     this.filters = filters;
+    this.normalizedFilters = normalizeFilters(filters);
     this.nc_flags = nc_flags;
     this.minExactCount = minExactCount;
 
     int h = query.hashCode();
 
-    if (filters != null) {
-      for (Query filt : filters)
+    if (normalizedFilters != null) {
+      for (Query filt : normalizedFilters)
         // NOTE: simple summation used here so keys with the same filters but in
         // different orders get the same hashCode
         h += filt.hashCode();
@@ -102,7 +114,7 @@ public final class QueryResultKey implements Accountable {
     // first.
     if (this.sfields.length != other.sfields.length) return false;
     if (!this.query.equals(other.query)) return false;
-    if (!unorderedCompare(this.filters, other.filters)) return false;
+    if (!unorderedCompare(this.normalizedFilters, other.normalizedFilters)) return false;
     if (this.minExactCount != other.minExactCount) return false;
 
     for (int i = 0; i < sfields.length; i++) {
@@ -114,6 +126,61 @@ public final class QueryResultKey implements Accountable {
     return true;
   }
 
+  /**
+   * Returns the filters in the form used to compare keys, or null if none restricts the matching
+   * documents. Filters matching all documents are dropped, {@link WrappedQuery} and {@link
+   * BoostQuery} wrappers are removed since they do not change which documents match, and a filter
+   * that is a pure conjunction is replaced by its clauses, so that <code>fq=a AND b</code> and
+   * <code>fq=a&amp;fq=b</code> are equivalent. The result is ordered by hashCode so that equal
+   * lists usually compare in order.
+   */
+  static List<Query> normalizeFilters(List<Query> filters) {
+    if (filters == null || filters.isEmpty()) return null;
+    final List<Query> normalized = new ArrayList<>(filters.size());
+    for (Query filter : filters) {
+      addNormalizedFilter(filter, normalized);
+    }
+    if (normalized.isEmpty()) return null;
+    normalized.sort(Comparator.comparingInt(Query::hashCode));
+    return normalized;
+  }
+
+  private static void addNormalizedFilter(Query q, List<Query> normalized) {
+    q = unwrap(q);
+    if (q instanceof MatchAllDocsQuery) return;
+    if (q instanceof BooleanQuery && isConjunction((BooleanQuery) q)) {
+      for (BooleanClause clause : (BooleanQuery) q) {
+        addNormalizedFilter(clause.getQuery(), normalized);
+      }
+      return;
+    }
+    normalized.add(q);
+  }
+
+  /**
+   * true if all clauses of <code>bq</code> are required, and none of them would mean something else
+   * as a top level filter (a purely negative query is a negation when used as a filter)
+   */
+  private static boolean isConjunction(BooleanQuery bq) {
+    if (bq.clauses().isEmpty() || bq.getMinimumNumberShouldMatch() != 0) return false;
+    for (BooleanClause clause : bq) {
+      if (!clause.isRequired() || QueryUtils.isNegative(unwrap(clause.getQuery()))) return false;
+    }
+    return true;
+  }
+
+  private static Query unwrap(Query q) {
+    while (true) {
+      if (q instanceof WrappedQuery) {
+        q = ((WrappedQuery) q).getWrappedQuery();
+      } else if (q instanceof BoostQuery) {
+        q = ((BoostQuery) q).getQuery();
+      } else {
+        return q;
+      }
+    }
+  }
+
   /**
    * compares the two lists of queries in an unordered manner such that this method returns true if
    * the 2 lists are the same size, and contain the same elements.
@@ -162,8 +229,8 @@ public final class QueryResultKey implements Accountable {
     // SOLR-5618: if we had a guarantee that the lists never contained any duplicates,
     // this logic could be a lot simpler
     //
-    // (And of course: if the SolrIndexSearcher / QueryCommmand was ever changed to
-    // sort the filter query list, then this whole method could be eliminated).
+    // (normalizeFilters sorts the lists by hashCode, so this is only reached for filters
+    // with colliding hashCodes)
 
     final ArrayList<Query> set2 = new ArrayList<>(fqList2.subList(start, sz));
     for (int i = start; i < sz; i++) {
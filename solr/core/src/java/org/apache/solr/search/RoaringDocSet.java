@@ -0,0 +1,771 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * A compressed {@link DocSet} in the style of Roaring bitmaps. The doc id space is split into
+ * blocks of 65536 docs; each non-empty block is stored either as a sorted array of the low 16 bits
+ * (when it holds at most {@link #MAX_ARRAY_CARDINALITY} docs) or as a 1024 word bitmap. Good for
+ * large sets that are clustered or of medium density, where a {@link BitDocSet} wastes space on
+ * empty ranges and a {@link SortedIntDocSet} costs 4 bytes per doc.
+ *
+ * @see DocSetUtil#compress(DocSet)
+ * @lucene.experimental
+ */
+public class RoaringDocSet extends DocSet {
+  private static final long BASE_RAM_BYTES_USED =
+      RamUsageEstimator.shallowSizeOfInstance(RoaringDocSet.class)
+          + 3 * RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+
+  static final int BLOCK_SHIFT = 16;
+  static final int BLOCK_MASK = (1 << BLOCK_SHIFT) - 1;
+  static final int BITMAP_WORDS = (1 << BLOCK_SHIFT) >>> 6;
+
+  /** Blocks with more docs than this are stored as bitmaps. */
+  static final int MAX_ARRAY_CARDINALITY = 4096;
+
+  private final int[] keys; // block number of each container, ascending
+  private final char[][] arrays; // sorted low bits; null for a bitmap container
+  private final long[][] bitmaps; // null for an array container
+  private final int size;
+  private final long ramBytesUsed;
+
+  private RoaringDocSet(int[] keys, char[][] arrays, long[][] bitmaps, int size) {
+    this.keys = keys;
+    this.arrays = arrays;
+    this.bitmaps = bitmaps;
+    this.size = size;
+
+    long ram =
+        BASE_RAM_BYTES_USED
+            + ((long) keys.length << 2)
+            + 2L * keys.length * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+    for (int i = 0; i < keys.length; i++) {
+      ram +=
+          arrays[i] != null
+              ? RamUsageEstimator.sizeOf(arrays[i])
+              : RamUsageEstimator.sizeOf(bitmaps[i]);
+    }
+    this.ramBytesUsed = ram;
+  }
+
+  /** Builds a RoaringDocSet with the same documents as <code>docs</code>. */
+  public static RoaringDocSet from(DocSet docs) {
+    if (docs instanceof RoaringDocSet) {
+      return (RoaringDocSet) docs;
+    }
+    Builder builder = new Builder();
+    if (docs instanceof BitDocSet) {
+      // copy whole blocks of words rather than doc by doc
+      final long[] words = ((BitDocSet) docs).getBits().getBits();
+      for (int key = 0, offset = 0; offset < words.length; key++, offset += BITMAP_WORDS) {
+        builder.addBlock(key, words, offset);
+      }
+    } else {
+      for (DocIterator it = docs.iterator(); it.hasNext(); ) {
+        builder.add(it.nextDoc());
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Estimates the heap used by a RoaringDocSet holding the same docs as <code>bits</code>, without
+   * building it.
+   */
+  public static long estimateRamBytesUsed(FixedBitSet bits) {
+    final long[] words = bits.getBits();
+    long ram = BASE_RAM_BYTES_USED;
+    for (int offset = 0; offset < words.length; offset += BITMAP_WORDS) {
+      final int end = Math.min(offset + BITMAP_WORDS, words.length);
+      int card = 0;
+      for (int i = offset; i < end; i++) {
+        card += Long.bitCount(words[i]);
+      }
+      if (card == 0) continue;
+      // key, two container refs, and the container itself
+      ram += 4 + 2L * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+      ram +=
+          RamUsageEstimator.alignObjectSize(
+              RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                  + (card <= MAX_ARRAY_CARDINALITY ? 2L * card : 8L * BITMAP_WORDS));
+    }
+    return ram;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean exists(int doc) {
+    final int idx = Arrays.binarySearch(keys, doc >>> BLOCK_SHIFT);
+    if (idx < 0) {
+      return false;
+    }
+    final int low = doc & BLOCK_MASK;
+    if (arrays[idx] != null) {
+      return Arrays.binarySearch(arrays[idx], (char) low) >= 0;
+    }
+    return (bitmaps[idx][low >>> 6] & (1L << low)) != 0;
+  }
+
+  @Override
+  public DocIterator iterator() {
+    return new DocIterator() {
+      private final Cursor cursor = new Cursor();
+      private int next = cursor.nextDoc();
+
+      @Override
+      public boolean hasNext() {
+        return next != DocIdSetIterator.NO_MORE_DOCS;
+      }
+
+      @Override
+      public Integer next() {
+        return nextDoc();
+      }
+
+      @Override
+      public int nextDoc() {
+        int doc = next;
+        next = cursor.nextDoc();
+        return doc;
+      }
+
+      @Override
+      public float score() {
+        return 0.0f;
+      }
+    };
+  }
+
+  @Override
+  public DocIdSetIterator iterator(LeafReaderContext context) {
+    if (size == 0 || context.reader().maxDoc() < 1) {
+      return null;
+    }
+    final int base = context.isTopLevel ? 0 : context.docBase;
+    // one past the max doc in this segment
+    final int max = context.isTopLevel ? Integer.MAX_VALUE : base + context.reader().maxDoc();
+
+    return new DocIdSetIterator() {
+      final Cursor cursor = new Cursor();
+      int adjustedDoc = -1;
+
+      @Override
+      public int docID() {
+        return adjustedDoc;
+      }
+
+      @Override
+      public int nextDoc() {
+        return adjustedDoc == -1 ? advance(0) : adjust(cursor.nextDoc());
+      }
+
+      @Override
+      public int advance(int target) {
+        if (target == NO_MORE_DOCS) return adjustedDoc = NO_MORE_DOCS;
+        return adjust(cursor.advance(target + base));
+      }
+
+      private int adjust(int doc) {
+        return adjustedDoc = doc < max ? doc - base : NO_MORE_DOCS;
+      }
+
+      @Override
+      public long cost() {
+        return size;
+      }
+    };
+  }
+
+  @Override
+  public DocSet intersection(DocSet other) {
+    if (other instanceof SortedIntDocSet) {
+      // the smaller set drives the intersection
+      return other.intersection(this);
+    }
+
+    final Builder builder = new Builder();
+    if (other instanceof RoaringDocSet) {
+      final RoaringDocSet o = (RoaringDocSet) other;
+      int i = 0, j = 0;
+      while (i < keys.length && j < o.keys.length) {
+        if (keys[i] < o.keys[j]) {
+          i++;
+        } else if (keys[i] > o.keys[j]) {
+          j++;
+        } else {
+          if (bitmaps[i] != null) {
+            builder.and(keys[i], o.arrays[j], o.bitmaps[j], bitmaps[i], 0, false);
+          } else if (o.bitmaps[j] != null) {
+            builder.and(keys[i], arrays[i], null, o.bitmaps[j], 0, false);
+          } else {
+            builder.andArrays(keys[i], arrays[i], o.arrays[j]);
+          }
+          i++;
+          j++;
+        }
+      }
+    } else if (other instanceof BitDocSet) {
+      final long[] words = ((BitDocSet) other).getBits().getBits();
+      for (int i = 0; i < keys.length; i++) {
+        builder.and(keys[i], arrays[i], bitmaps[i], words, keys[i] * BITMAP_WORDS, false);
+      }
+    } else {
+      for (DocIterator it = iterator(); it.hasNext(); ) {
+        int doc = it.nextDoc();
+        if (other.exists(doc)) builder.add(doc);
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public int intersectionSize(DocSet other) {
+    if (other instanceof SortedIntDocSet) {
+      return other.intersectionSize(this);
+    }
+    if (other instanceof BitDocSet) {
+      final long[] words = ((BitDocSet) other).getBits().getBits();
+      int count = 0;
+      for (int i = 0; i < keys.length; i++) {
+        final int offset = keys[i] * BITMAP_WORDS;
+        if (arrays[i] != null) {
+          for (char low : arrays[i]) {
+            final int w = offset + (low >>> 6);
+            if (w < words.length && (words[w] & (1L << low)) != 0) count++;
+          }
+        } else {
+          final int limit = Math.min(BITMAP_WORDS, words.length - offset);
+          for (int w = 0; w < limit; w++) {
+            count += Long.bitCount(bitmaps[i][w] & words[offset + w]);
+          }
+        }
+      }
+      return count;
+    }
+    return intersection(other).size();
+  }
+
+  @Override
+  public boolean intersects(DocSet other) {
+    if (other instanceof SortedIntDocSet) {
+      return other.intersects(this);
+    }
+    if (other instanceof RoaringDocSet) {
+      return intersectionSize(other) > 0;
+    }
+    for (DocIterator it = iterator(); it.hasNext(); ) {
+      if (other.exists(it.nextDoc())) return true;
+    }
+    return false;
+  }
+
+  @Override
+  public DocSet union(DocSet other) {
+    if (other instanceof RoaringDocSet) {
+      final RoaringDocSet o = (RoaringDocSet) other;
+      final Builder builder = new Builder();
+      int i = 0, j = 0;
+      while (i < keys.length || j < o.keys.length) {
+        if (j == o.keys.length || (i < keys.length && keys[i] < o.keys[j])) {
+          builder.copy(keys[i], arrays[i], bitmaps[i]);
+          i++;
+        } else if (i == keys.length || keys[i] > o.keys[j]) {
+          builder.copy(o.keys[j], o.arrays[j], o.bitmaps[j]);
+          j++;
+        } else {
+          builder.or(keys[i], arrays[i], bitmaps[i], o.arrays[j], o.bitmaps[j]);
+          i++;
+          j++;
+        }
+      }
+      return builder.build();
+    }
+    // the bits of the result start as a copy of those of the other set
+    FixedBitSet newbits = FixedBitSet.ensureCapacity(other.getFixedBitSetClone(), getLength());
+    addAllTo(newbits);
+    return new BitDocSet(newbits);
+  }
+
+  @Override
+  public DocSet andNot(DocSet other) {
+    if (other.size() == 0) return this;
+
+    final Builder builder = new Builder();
+    if (other instanceof RoaringDocSet) {
+      final RoaringDocSet o = (RoaringDocSet) other;
+      int j = 0;
+      for (int i = 0; i < keys.length; i++) {
+        while (j < o.keys.length && o.keys[j] < keys[i]) {
+          j++;
+        }
+        if (j == o.keys.length || o.keys[j] != keys[i]) {
+          builder.copy(keys[i], arrays[i], bitmaps[i]);
+        } else if (o.bitmaps[j] != null) {
+          builder.and(keys[i], arrays[i], bitmaps[i], o.bitmaps[j], 0, true);
+        } else {
+          builder.andNotArray(keys[i], arrays[i], bitmaps[i], o.arrays[j]);
+        }
+      }
+    } else if (other instanceof BitDocSet) {
+      final long[] words = ((BitDocSet) other).getBits().getBits();
+      for (int i = 0; i < keys.length; i++) {
+        builder.and(keys[i], arrays[i], bitmaps[i], words, keys[i] * BITMAP_WORDS, true);
+      }
+    } else {
+      for (DocIterator it = iterator(); it.hasNext(); ) {
+        int doc = it.nextDoc();
+        if (!other.exists(doc)) builder.add(doc);
+      }
+    }
+    RoaringDocSet result = builder.build();
+    return result.size == size ? this : result;
+  }
+
+  @Override
+  public DocSetQuery makeQuery() {
+    return new DocSetQuery(this);
+  }
+
+  @Override
+  public void addAllTo(FixedBitSet target) {
+    final long[] targetWords = target.getBits();
+    for (int i = 0; i < keys.length; i++) {
+      final int base = keys[i] << BLOCK_SHIFT;
+      if (arrays[i] != null) {
+        for (char low : arrays[i]) {
+          target.set(base | low);
+        }
+      } else {
+        final int offset = keys[i] * BITMAP_WORDS;
+        final int limit = Math.min(BITMAP_WORDS, targetWords.length - offset);
+        for (int w = 0; w < limit; w++) {
+          targetWords[offset + w] |= bitmaps[i][w];
+        }
+      }
+    }
+  }
+
+  @Override
+  public RoaringDocSet clone() {
+    final char[][] arraysClone = new char[keys.length][];
+    final long[][] bitmapsClone = new long[keys.length][];
+    for (int i = 0; i < keys.length; i++) {
+      if (arrays[i] != null) {
+        arraysClone[i] = arrays[i].clone();
+      } else {
+        bitmapsClone[i] = bitmaps[i].clone();
+      }
+    }
+    return new RoaringDocSet(keys.clone(), arraysClone, bitmapsClone, size);
+  }
+
+  @Override
+  public Bits getBits() {
+    final int length = getLength();
+    return new Bits() {
+      @Override
+      public boolean get(int index) {
+        return exists(index);
+      }
+
+      @Override
+      public int length() {
+        return length;
+      }
+    };
+  }
+
+  /** the {@link Bits#length()} or maxdoc (1 greater than largest possible doc number) */
+  private int getLength() {
+    if (keys.length == 0) return 0;
+    final int last = keys.length - 1;
+    final int base = keys[last] << BLOCK_SHIFT;
+    if (arrays[last] != null) {
+      return base + arrays[last][arrays[last].length - 1] + 1;
+    }
+    final long[] bitmap = bitmaps[last];
+    for (int w = bitmap.length - 1; ; w--) {
+      if (bitmap[w] != 0) {
+        return base + (w << 6) + 64 - Long.numberOfLeadingZeros(bitmap[w]);
+      }
+    }
+  }
+
+  @Override
+  protected FixedBitSet getFixedBitSet() {
+    return getFixedBitSetClone();
+  }
+
+  @Override
+  protected FixedBitSet getFixedBitSetClone() {
+    FixedBitSet bitSet = new FixedBitSet(getLength());
+    addAllTo(bitSet);
+    return bitSet;
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return ramBytesUsed;
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public String toString() {
+    return "RoaringDocSet{"
+        + "size="
+        + size()
+        + ",containers="
+        + keys.length
+        + ",ramUsed="
+        + RamUsageEstimator.humanReadableUnits(ramBytesUsed())
+        + '}';
+  }
+
+  private static int nextSetBit(long[] bitmap, int from) {
+    if (from >= BITMAP_WORDS << 6) return -1;
+    int w = from >>> 6;
+    long word = bitmap[w] & (-1L << from);
+    while (true) {
+      if (word != 0) {
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+      }
+      if (++w == BITMAP_WORDS) {
+        return -1;
+      }
+      word = bitmap[w];
+    }
+  }
+
+  /** Forward-only position in the set; shared by both iterator flavors. */
+  private final class Cursor {
+    int ci = 0; // container index
+    int pos = -1; // index in an array container, or bit in a bitmap container
+
+    int nextDoc() {
+      while (ci < keys.length) {
+        final char[] array = arrays[ci];
+        if (array != null) {
+          if (++pos < array.length) {
+            return (keys[ci] << BLOCK_SHIFT) | array[pos];
+          }
+        } else {
+          final int next = nextSetBit(bitmaps[ci], pos + 1);
+          if (next != -1) {
+            pos = next;
+            return (keys[ci] << BLOCK_SHIFT) | next;
+          }
+        }
+        ci++;
+        pos = -1;
+      }
+      return DocIdSetIterator.NO_MORE_DOCS;
+    }
+
+    /** Positions on the first doc &gt;= target, which must be beyond the current doc. */
+    int advance(int target) {
+      final int key = target >>> BLOCK_SHIFT;
+      if (ci < keys.length && keys[ci] < key) {
+        final int idx = Arrays.binarySearch(keys, ci + 1, keys.length, key);
+        ci = idx < 0 ? -idx - 1 : idx;
+        pos = -1;
+      }
+      if (ci >= keys.length) {
+        return DocIdSetIterator.NO_MORE_DOCS;
+      }
+      if (keys[ci] == key) {
+        final int low = target & BLOCK_MASK;
+        final char[] array = arrays[ci];
+        if (array != null) {
+          final int from = Math.min(pos + 1, array.length);
+          final int idx = Arrays.binarySearch(array, from, array.length, (char) low);
+          pos = (idx < 0 ? -idx - 1 : idx) - 1;
+        } else {
+          pos = Math.max(pos, low - 1);
+        }
+      }
+      return nextDoc();
+    }
+  }
+
+  /** Accumulates containers in ascending doc order. */
+  static final class Builder {
+    private int[] keys = new int[4];
+    private char[][] arrays = new char[4][];
+    private long[][] bitmaps = new long[4][];
+    private int numContainers;
+    private int size;
+
+    // container currently being filled by add()
+    private int curKey = -1;
+    private char[] curArray;
+    private long[] curBitmap;
+    private int curCount;
+
+    /** Adds a doc, which must be greater than any doc added before. */
+    void add(int doc) {
+      final int key = doc >>> BLOCK_SHIFT;
+      if (key != curKey) {
+        flush();
+        curKey = key;
+      }
+      final int low = doc & BLOCK_MASK;
+      if (curBitmap != null) {
+        curBitmap[low >>> 6] |= 1L << low;
+      } else {
+        if (curArray == null) {
+          curArray = new char[MAX_ARRAY_CARDINALITY];
+        }
+        if (curCount < MAX_ARRAY_CARDINALITY) {
+          curArray[curCount] = (char) low;
+        } else {
+          curBitmap = new long[BITMAP_WORDS];
+          for (int i = 0; i < curCount; i++) {
+            curBitmap[curArray[i] >>> 6] |= 1L << curArray[i];
+          }
+          curBitmap[low >>> 6] |= 1L << low;
+        }
+      }
+      curCount++;
+    }
+
+    /** Adds block <code>key</code> from the words of a larger bitmap starting at offset. */
+    void addBlock(int key, long[] words, int offset) {
+      final long[] bitmap = new long[BITMAP_WORDS];
+      final int limit = Math.min(BITMAP_WORDS, words.length - offset);
+      int card = 0;
+      for (int w = 0; w < limit; w++) {
+        bitmap[w] = words[offset + w];
+        card += Long.bitCount(bitmap[w]);
+      }
+      appendBitmap(key, bitmap, card);
+    }
+
+    /**
+     * Adds the intersection (or difference if <code>negate</code>) of a container with the bitmap
+     * in <code>words</code> starting at <code>offset</code>; words past the end are zero.
+     */
+    void and(int key, char[] array, long[] bitmap, long[] words, int offset, boolean negate) {
+      if (array != null) {
+        final char[] result = new char[array.length];
+        int n = 0;
+        for (char low : array) {
+          final int w = offset + (low >>> 6);
+          final boolean set = w < words.length && (words[w] & (1L << low)) != 0;
+          if (set != negate) result[n++] = low;
+        }
+        appendArray(key, result, n);
+      } else {
+        final long[] result = new long[BITMAP_WORDS];
+        final int limit = Math.max(0, Math.min(BITMAP_WORDS, words.length - offset));
+        int card = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+          final long other = w < limit ? words[offset + w] : 0L;
+          result[w] = negate ? bitmap[w] & ~other : bitmap[w] & other;
+          card += Long.bitCount(result[w]);
+        }
+        appendBitmap(key, result, card);
+      }
+    }
+
+    void andArrays(int key, char[] a, char[] b) {
+      final char[] result = new char[Math.min(a.length, b.length)];
+      int n = 0;
+      int i = 0, j = 0;
+      while (i < a.length && j < b.length) {
+        if (a[i] < b[j]) {
+          i++;
+        } else if (a[i] > b[j]) {
+          j++;
+        } else {
+          result[n++] = a[i];
+          i++;
+          j++;
+        }
+      }
+      appendArray(key, result, n);
+    }
+
+    /** Adds the docs of a container that aren't in the array container of the same key. */
+    void andNotArray(int key, char[] array, long[] bitmap, char[] other) {
+      if (array != null) {
+        final char[] result = new char[array.length];
+        int n = 0;
+        int i = 0, j = 0;
+        while (i < array.length) {
+          if (j == other.length || array[i] < other[j]) {
+            result[n++] = array[i++];
+          } else if (array[i] > other[j]) {
+            j++;
+          } else {
+            i++;
+            j++;
+          }
+        }
+        appendArray(key, result, n);
+      } else {
+        final long[] result = bitmap.clone();
+        for (char low : other) {
+          result[low >>> 6] &= ~(1L << low);
+        }
+        appendBitmap(key, result, cardinality(result));
+      }
+    }
+
+    /** Adds the union of two containers of the same key. */
+    void or(int key, char[] a, long[] aBitmap, char[] b, long[] bBitmap) {
+      if (aBitmap == null && bBitmap == null) {
+        final char[] merged = new char[a.length + b.length];
+        int n = 0;
+        int i = 0, j = 0;
+        while (i < a.length || j < b.length) {
+          if (j == b.length || (i < a.length && a[i] < b[j])) {
+            merged[n++] = a[i++];
+          } else if (i == a.length || a[i] > b[j]) {
+            merged[n++] = b[j++];
+          } else {
+            merged[n++] = a[i++];
+            j++;
+          }
+        }
+        if (n <= MAX_ARRAY_CARDINALITY) {
+          appendArray(key, merged, n);
+        } else {
+          final long[] result = new long[BITMAP_WORDS];
+          for (int k = 0; k < n; k++) {
+            result[merged[k] >>> 6] |= 1L << merged[k];
+          }
+          appendBitmap(key, result, n);
+        }
+        return;
+      }
+      final long[] result = new long[BITMAP_WORDS];
+      orInto(result, a, aBitmap);
+      orInto(result, b, bBitmap);
+      appendBitmap(key, result, cardinality(result));
+    }
+
+    private static void orInto(long[] result, char[] array, long[] bitmap) {
+      if (array != null) {
+        for (char low : array) {
+          result[low >>> 6] |= 1L << low;
+        }
+      } else {
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+          result[w] |= bitmap[w];
+        }
+      }
+    }
+
+    private static int cardinality(long[] bitmap) {
+      int card = 0;
+      for (long word : bitmap) {
+        card += Long.bitCount(word);
+      }
+      return card;
+    }
+
+    /** Adds a container of another set, which is shared since containers are never modified. */
+    void copy(int key, char[] array, long[] bitmap) {
+      flush();
+      if (array != null) {
+        addContainer(key, array, null, array.length);
+      } else {
+        addContainer(key, null, bitmap, cardinality(bitmap));
+      }
+    }
+
+    private void appendArray(int key, char[] array, int len) {
+      flush();
+      if (len == 0) return;
+      addContainer(key, len == array.length ? array : Arrays.copyOf(array, len), null, len);
+    }
+
+    private void appendBitmap(int key, long[] bitmap, int card) {
+      flush();
+      if (card == 0) return;
+      if (card > MAX_ARRAY_CARDINALITY) {
+        addContainer(key, null, bitmap, card);
+        return;
+      }
+      final char[] array = new char[card];
+      int n = 0;
+      for (int w = 0; w < BITMAP_WORDS; w++) {
+        long word = bitmap[w];
+        while (word != 0) {
+          array[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      addContainer(key, array, null, card);
+    }
+
+    private void flush() {
+      if (curCount == 0) return;
+      if (curBitmap != null) {
+        addContainer(curKey, null, curBitmap, curCount);
+      } else {
+        addContainer(curKey, Arrays.copyOf(curArray, curCount), null, curCount);
+      }
+      curBitmap = null;
+      curCount = 0;
+      curKey = -1;
+    }
+
+    private void addContainer(int key, char[] array, long[] bitmap, int card) {
+      if (numContainers == keys.length) {
+        final int newLength = ArrayUtil.oversize(numContainers + 1, Integer.BYTES);
+        keys = Arrays.copyOf(keys, newLength);
+        arrays = Arrays.copyOf(arrays, newLength);
+        bitmaps = Arrays.copyOf(bitmaps, newLength);
+      }
+      keys[numContainers] = key;
+      arrays[numContainers] = array;
+      bitmaps[numContainers] = bitmap;
+      numContainers++;
+      size += card;
+    }
+
+    RoaringDocSet build() {
+      flush();
+      return new RoaringDocSet(
+          Arrays.copyOf(keys, numContainers),
+          Arrays.copyOf(arrays, numContainers),
+          Arrays.copyOf(bitmaps, numContainers),
+          size);
+    }
+  }
+}
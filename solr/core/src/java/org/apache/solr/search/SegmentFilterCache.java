@@ -0,0 +1,329 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.Scorable;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BitSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.core.SolrInfoBean.Category;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricsContext;
+import org.apache.solr.query.SolrRangeQuery;
+import org.apache.solr.search.join.CrossCollectionJoinQuery;
+import org.apache.solr.search.join.GraphQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A core-level cache of per-segment filter matches, keyed on the rewritten filter {@link Query} and
+ * the segment's core cache key. Unlike the searcher-level filterCache, which is discarded (and
+ * autowarmed) on every new searcher, entries here remain valid for as long as the segment they were
+ * computed on is alive. When a new searcher is opened, only segments that were not seen before need
+ * to be evaluated; the whole-index {@link DocSet} is then assembled from the cached per-segment
+ * bits, masked with the current live docs.
+ *
+ * <p>Per-segment bits are stored <em>without</em> deletions applied, so an entry stays correct when
+ * documents in its segment are later deleted. The entries of a segment core are removed once it is
+ * closed, typically after it was merged away; until then, they are evicted by the configured {@link
+ * SolrCache} eviction policy, within its bounds.
+ *
+ * <p>Configured in solrconfig.xml via {@code <query><segmentFilterCache .../></query>} using the
+ * usual cache attributes (class, size, maxRamMB, ...). Disabled when absent.
+ *
+ * @lucene.experimental
+ */
+public class SegmentFilterCache implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final String NAME = "segmentFilterCache";
+
+  private final SolrCache<Key, FixedBitSet> cache;
+
+  final LongAdder segmentHits = new LongAdder();
+  final LongAdder segmentMisses = new LongAdder();
+  final LongAdder uncacheable = new LongAdder();
+
+  // the keys cached for each segment core, removed from the cache once the core is closed
+  private final Map<IndexReader.CacheKey, List<Key>> keysBySegment = new ConcurrentHashMap<>();
+
+  @SuppressWarnings({"unchecked"})
+  public SegmentFilterCache(CacheConfig config) {
+    this.cache = config.newInstance();
+    if (this.cache == null) {
+      throw new SolrException(
+          SolrException.ErrorCode.SERVER_ERROR, "Unable to create " + NAME + " from " + config);
+    }
+    this.cache.setState(SolrCache.State.LIVE);
+  }
+
+  /** The cache holding per-segment bits. Exposed for metrics and testing. */
+  public SolrCache<Key, FixedBitSet> getCache() {
+    return cache;
+  }
+
+  /**
+   * Computes the DocSet matching <code>query</code> over all segments of <code>searcher</code>,
+   * reusing cached per-segment bits where available.
+   *
+   * @return the answer, or null if the query cannot be evaluated per segment (see {@link
+   *     #isSegmentCacheable(Query)} and {@link Weight#isCacheable(LeafReaderContext)}), in which
+   *     case the caller should fall back to a whole-index computation.
+   */
+  public DocSet getDocSet(SolrIndexSearcher searcher, Query query) throws IOException {
+    if (!isSegmentCacheable(query)) {
+      uncacheable.increment();
+      return null;
+    }
+    // the rewritten query is the key, since the rewrite of some queries depends on the whole index
+    final Query rewritten = searcher.rewrite(query);
+    // a range of terms is read directly per segment; its weight would compute the whole index
+    final Weight weight =
+        rewritten instanceof SolrRangeQuery
+            ? null
+            : searcher.createWeight(rewritten, ScoreMode.COMPLETE_NO_SCORES, 1f);
+    final List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    final FixedBitSet[] segBits = new FixedBitSet[leaves.size()];
+
+    for (LeafReaderContext ctx : leaves) {
+      final IndexReader.CacheHelper cacheHelper = ctx.reader().getCoreCacheHelper();
+      if (cacheHelper == null || (weight != null && !weight.isCacheable(ctx))) {
+        uncacheable.increment();
+        return null;
+      }
+      final Key key = new Key(rewritten, cacheHelper.getKey());
+      FixedBitSet bits = cache.get(key);
+      if (bits != null) {
+        segmentHits.increment();
+      } else {
+        segmentMisses.increment();
+        bits =
+            weight == null
+                ? computeSegment((SolrRangeQuery) rewritten, ctx)
+                : computeSegment(weight, ctx);
+        cache.put(key, bits);
+        keysBySegment
+            .computeIfAbsent(
+                cacheHelper.getKey(),
+                k -> {
+                  cacheHelper.addClosedListener(this::onSegmentClosed);
+                  return Collections.synchronizedList(new ArrayList<>());
+                })
+            .add(key);
+      }
+      segBits[ctx.ord] = bits;
+    }
+
+    return assemble(searcher, leaves, segBits);
+  }
+
+  /**
+   * Whether the matches of <code>query</code> on a segment only depend on that segment, so that
+   * they may be cached per segment and reused by later searchers. Not when the query or one of its
+   * clauses is a join or a graph query, which collect values from the whole index, or a {@link
+   * DocSetProducer} other than a {@link SolrRangeQuery}, whose matches are computed for the whole
+   * index.
+   */
+  public static boolean isSegmentCacheable(Query query) {
+    final boolean[] cacheable = {!isTopLevelQuery(query)};
+    query.visit(
+        new QueryVisitor() {
+          @Override
+          public QueryVisitor getSubVisitor(BooleanClause.Occur occur, Query parent) {
+            if (isTopLevelQuery(parent)) {
+              cacheable[0] = false;
+            }
+            return this;
+          }
+
+          @Override
+          public void visitLeaf(Query leaf) {
+            if (isTopLevelQuery(leaf)) {
+              cacheable[0] = false;
+            }
+          }
+        });
+    return cacheable[0];
+  }
+
+  private static boolean isTopLevelQuery(Query query) {
+    return query instanceof JoinQuery
+        || query instanceof GraphQuery
+        || query instanceof CrossCollectionJoinQuery
+        || (query instanceof DocSetProducer && !(query instanceof SolrRangeQuery));
+  }
+
+  /** Evaluates a range of terms on a single segment, ignoring deletions. */
+  private static FixedBitSet computeSegment(SolrRangeQuery query, LeafReaderContext ctx)
+      throws IOException {
+    final FixedBitSet bits = new FixedBitSet(ctx.reader().maxDoc());
+    final TermsEnum termsEnum = query.getTermsEnum(ctx);
+    PostingsEnum postings = null;
+    while (termsEnum.next() != null) {
+      postings = termsEnum.postings(postings, PostingsEnum.NONE);
+      bits.or(postings);
+    }
+    return bits;
+  }
+
+  /** Evaluates the weight on a single segment, ignoring deletions. */
+  private static FixedBitSet computeSegment(Weight weight, LeafReaderContext ctx)
+      throws IOException {
+    final FixedBitSet bits = new FixedBitSet(ctx.reader().maxDoc());
+    final BulkScorer scorer = weight.bulkScorer(ctx);
+    if (scorer != null) {
+      scorer.score(
+          new LeafCollector() {
+            @Override
+            public void setScorer(Scorable scorer) {}
+
+            @Override
+            public void collect(int doc) {
+              bits.set(doc);
+            }
+          },
+          null);
+    }
+    return bits;
+  }
+
+  private static DocSet assemble(
+      SolrIndexSearcher searcher, List<LeafReaderContext> leaves, FixedBitSet[] segBits) {
+    final int maxDoc = searcher.maxDoc();
+    final FixedBitSet bits = new FixedBitSet(maxDoc);
+    for (LeafReaderContext ctx : leaves) {
+      final FixedBitSet seg = segBits[ctx.ord];
+      final LeafReader r = ctx.reader();
+      final Bits liveDocs = r.getLiveDocs();
+      final int base = ctx.docBase;
+      final BitSetIterator it = new BitSetIterator(seg, 0);
+      for (int doc = it.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+        if (liveDocs == null || liveDocs.get(doc)) {
+          bits.set(base + doc);
+        }
+      }
+    }
+
+    final int sz = bits.cardinality();
+    final BitDocSet answer = new BitDocSet(bits, sz);
+    if (sz < DocSetUtil.smallSetSize(maxDoc)) {
+      return DocSetUtil.toSmallSet(answer);
+    }
+    return DocSetUtil.getDocSet(answer, searcher);
+  }
+
+  private void onSegmentClosed(IndexReader.CacheKey segmentKey) {
+    final List<Key> keys = keysBySegment.remove(segmentKey);
+    if (keys == null) {
+      return;
+    }
+    synchronized (keys) {
+      for (Key key : keys) {
+        cache.remove(key);
+      }
+    }
+  }
+
+  public void initializeMetrics(SolrMetricsContext parentContext, String scope) {
+    cache.initializeMetrics(parentContext, scope);
+    final MetricsMap segmentMetrics =
+        new MetricsMap(
+            map -> {
+              map.put("segmentHits", segmentHits.sum());
+              map.put("segmentMisses", segmentMisses.sum());
+              map.put("uncacheable", uncacheable.sum());
+            });
+    parentContext.gauge(segmentMetrics, true, "segments", Category.CACHE.toString(), scope);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      cache.close();
+    } catch (Exception e) {
+      log.warn("Exception closing {}", NAME, e);
+    }
+  }
+
+  /** Cache key: a filter query evaluated on one segment core. */
+  public static final class Key implements Accountable {
+    private static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(Key.class);
+
+    final Query query;
+    final IndexReader.CacheKey segmentKey;
+    private final int hash;
+
+    Key(Query query, IndexReader.CacheKey segmentKey) {
+      this.query = query;
+      this.segmentKey = segmentKey;
+      this.hash = 31 * query.hashCode() + segmentKey.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return hash == other.hash
+          && segmentKey == other.segmentKey
+          && Objects.equals(query, other.query);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED
+          + RamUsageEstimator.sizeOfObject(query, RamUsageEstimator.QUERY_DEFAULT_RAM_BYTES_USED);
+    }
+
+    @Override
+    public String toString() {
+      return query + "@" + segmentKey;
+    }
+  }
+}
@@ -57,6 +57,7 @@ import org.apache.lucene.index.SortedNumericDocValues;
 import org.apache.lucene.index.SortedSetDocValues;
 import org.apache.lucene.index.StoredFieldVisitor;
 import org.apache.lucene.misc.document.LazyDocument;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.NumericUtils;
 import org.apache.solr.common.SolrDocument;
@@ -302,9 +303,357 @@ public class SolrDocumentFetcher {
    *     <p>NOTE: DO NOT re-use the same SolrReturnFields object if the fields requested change.
    */
   public SolrDocument solrDoc(int luceneDocId, SolrReturnFields solrReturnFields) {
+    return solrDoc(luceneDocId, solrReturnFields, null);
+  }
+
+  /**
+   * Same as {@link #solrDoc(int, SolrReturnFields)}, but taking the docValues of the document from
+   * <code>docValues</code> when they were read there.
+   *
+   * @param docValues the docValues of the next documents to fetch, or null
+   * @see #readDocValues(DocIterator, int, SolrReturnFields)
+   */
+  public SolrDocument solrDoc(
+      int luceneDocId, SolrReturnFields solrReturnFields, DocValuesBlock docValues) {
     Supplier<RetrieveFieldsOptimizer> rfoSupplier =
         () -> new RetrieveFieldsOptimizer(solrReturnFields);
-    return solrReturnFields.getFetchOptimizer(rfoSupplier).getSolrDoc(luceneDocId);
+    return solrReturnFields.getFetchOptimizer(rfoSupplier).getSolrDoc(luceneDocId, docValues);
+  }
+
+  /**
+   * Passes the fields {@link #solrDoc(int, SolrReturnFields)} would return to <code>out</code>, in
+   * the same order and with the same values, without building a {@link SolrDocument}: stored values
+   * are passed as they were read, and single valued numeric docValues are passed unboxed. Fields
+   * that <code>solrReturnFields</code> doesn't want are skipped. {@link
+   * org.apache.solr.response.transform.DocTransformer}s are not applied.
+   *
+   * @param docValues the docValues of the next documents to write, or null
+   * @see #readDocValues(DocIterator, int, SolrReturnFields)
+   */
+  public void writeDoc(
+      int luceneDocId, SolrReturnFields solrReturnFields, DocValuesBlock docValues, FieldWriter out)
+      throws IOException {
+    Supplier<RetrieveFieldsOptimizer> rfoSupplier =
+        () -> new RetrieveFieldsOptimizer(solrReturnFields);
+    solrReturnFields.getFetchOptimizer(rfoSupplier).writeDoc(luceneDocId, docValues, out);
+  }
+
+  /**
+   * Reads at once the docValues fields that {@link #solrDoc(int, SolrReturnFields)} returns, for up
+   * to <code>maxDocs</code> next documents of <code>docs</code>. The documents are visited in index
+   * order, segment by segment, and the docValues of each field are walked once per segment instead
+   * of being looked up again for every document.
+   *
+   * @return the values, to pass when fetching the same documents in the same order, or null if no
+   *     docValues field is returned, in which case nothing is consumed from <code>docs</code>
+   */
+  public DocValuesBlock readDocValues(
+      DocIterator docs, int maxDocs, SolrReturnFields solrReturnFields) throws IOException {
+    Supplier<RetrieveFieldsOptimizer> rfoSupplier =
+        () -> new RetrieveFieldsOptimizer(solrReturnFields);
+    final RetrieveFieldsOptimizer rfo = solrReturnFields.getFetchOptimizer(rfoSupplier);
+    if (!rfo.returnDVFields()) {
+      return null;
+    }
+    final int[] docids = new int[maxDocs];
+    int size = 0;
+    while (size < maxDocs && docs.hasNext()) {
+      docids[size++] = docs.nextDoc();
+    }
+    return readDocValues(docids, size, rfo.getDvFields());
+  }
+
+  private DocValuesBlock readDocValues(int[] docids, int size, Set<String> fieldNames)
+      throws IOException {
+    final String[] fields = fieldNames.toArray(new String[0]);
+    final NumberType[] numberTypes = new NumberType[fields.length];
+    for (int f = 0; f < fields.length; f++) {
+      numberTypes[f] = getPlainNumberType(fields[f]);
+    }
+    final DocValuesBlock block = new DocValuesBlock(docids, size, fields, numberTypes);
+
+    // the positions of the documents in the block, sorted by docid
+    final long[] sorted = new long[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = ((long) docids[i] << 32) | i;
+    }
+    Arrays.sort(sorted);
+
+    final List<LeafReaderContext> leafContexts = searcher.getLeafContexts();
+    int start = 0;
+    while (start < size) {
+      final LeafReaderContext leaf =
+          leafContexts.get(ReaderUtil.subIndex((int) (sorted[start] >>> 32), leafContexts));
+      final long maxDoc = leaf.docBase + leaf.reader().maxDoc();
+      int end = start + 1;
+      while (end < size && (sorted[end] >>> 32) < maxDoc) {
+        end++;
+      }
+      for (int f = 0; f < fields.length; f++) {
+        final DocValuesFieldReader reader = newDocValuesFieldReader(leaf.reader(), fields[f]);
+        if (reader == null) {
+          continue;
+        }
+        int prevDoc = -1;
+        int prevPos = -1;
+        for (int i = start; i < end; i++) {
+          final int doc = (int) (sorted[i] >>> 32) - leaf.docBase;
+          final int pos = (int) sorted[i];
+          if (doc == prevDoc) {
+            // the same document listed twice: the iterator can't go back
+            block.copy(f, prevPos, pos);
+          } else {
+            block.read(f, pos, reader, doc);
+            prevDoc = doc;
+            prevPos = pos;
+          }
+        }
+      }
+      start = end;
+    }
+    return block;
+  }
+
+  /**
+   * Returns the number type of a single valued int, long, float or double docValues field, whose
+   * values are kept unboxed, else null.
+   */
+  private NumberType getPlainNumberType(String fieldName) {
+    final SchemaField schemaField = searcher.getSchema().getFieldOrNull(fieldName);
+    final FieldInfo fi = searcher.getFieldInfos().fieldInfo(fieldName);
+    if (schemaField == null
+        || !schemaField.hasDocValues()
+        || fi == null
+        || fi.getDocValuesType() != DocValuesType.NUMERIC
+        || schemaField.getType() instanceof LatLonPointSpatialField
+        || schemaField.getType() instanceof AbstractEnumField) {
+      return null;
+    }
+    final NumberType numberType = schemaField.getType().getNumberType();
+    if (numberType == null) {
+      return null;
+    }
+    switch (numberType) {
+      case INTEGER:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+        return numberType;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * The docValues fields to return for a block of documents, read at once by {@link
+   * #readDocValues(DocIterator, int, SolrReturnFields)} and stored by field: the values of single
+   * valued int, long, float and double fields unboxed, the others as {@link
+   * #decorateDocValueFields} decodes them. The documents must be fetched in the order they were
+   * read; a document fetched out of order has its docValues looked up on its own.
+   */
+  public static final class DocValuesBlock {
+    private final int[] docids;
+    private final int size;
+    private final String[] fields;
+    // the type of a field whose values are in numbers, else null and they are in values
+    private final NumberType[] numberTypes;
+    private final long[][] numbers;
+    private final boolean[][] hasNumber;
+    private final Object[][] values;
+    private int next;
+
+    private DocValuesBlock(int[] docids, int size, String[] fields, NumberType[] numberTypes) {
+      this.docids = docids;
+      this.size = size;
+      this.fields = fields;
+      this.numberTypes = numberTypes;
+      this.numbers = new long[fields.length][];
+      this.hasNumber = new boolean[fields.length][];
+      this.values = new Object[fields.length][];
+      for (int f = 0; f < fields.length; f++) {
+        if (numberTypes[f] != null) {
+          numbers[f] = new long[size];
+          hasNumber[f] = new boolean[size];
+        } else {
+          values[f] = new Object[size];
+        }
+      }
+    }
+
+    /** Returns true if documents of this block remain to be fetched */
+    public boolean hasNext() {
+      return next < size;
+    }
+
+    /** Returns the position of the document in the block if it is the next one, else -1 */
+    private int position(int docid) {
+      if (next < size && docids[next] == docid) {
+        return next++;
+      }
+      return -1;
+    }
+
+    private void read(int f, int pos, DocValuesFieldReader reader, int localId) throws IOException {
+      if (numberTypes[f] != null) {
+        final NumericDocValues ndv = (NumericDocValues) reader.values;
+        if (ndv.advanceExact(localId)) {
+          numbers[f][pos] = ndv.longValue();
+          hasNumber[f][pos] = true;
+        }
+      } else {
+        values[f][pos] = reader.read(localId);
+      }
+    }
+
+    private void copy(int f, int fromPos, int toPos) {
+      if (numberTypes[f] != null) {
+        numbers[f][toPos] = numbers[f][fromPos];
+        hasNumber[f][toPos] = hasNumber[f][fromPos];
+      } else {
+        values[f][toPos] = values[f][fromPos];
+      }
+    }
+
+    /** Returns the value as {@link #decorateDocValueFields} would set it, or null */
+    private Object getValue(int f, int pos) {
+      if (numberTypes[f] == null) {
+        return values[f][pos];
+      }
+      if (!hasNumber[f][pos]) {
+        return null;
+      }
+      final long value = numbers[f][pos];
+      switch (numberTypes[f]) {
+        case INTEGER:
+          return (int) value;
+        case LONG:
+          return value;
+        case FLOAT:
+          return Float.intBitsToFloat((int) value);
+        default:
+          return Double.longBitsToDouble(value);
+      }
+    }
+
+    private void setFields(SolrDocumentBase<?, ?> doc, int pos) {
+      for (int f = 0; f < fields.length; f++) {
+        final Object value = getValue(f, pos);
+        if (value != null) {
+          doc.setField(fields[f], value);
+        }
+      }
+    }
+
+    private void writeFields(int pos, ReturnFields returnFields, FieldWriter out)
+        throws IOException {
+      for (int f = 0; f < fields.length; f++) {
+        if (!returnFields.wantsField(fields[f])) {
+          continue;
+        }
+        if (numberTypes[f] != null) {
+          if (hasNumber[f][pos]) {
+            writeNumber(numberTypes[f], fields[f], numbers[f][pos], out);
+          }
+        } else if (values[f][pos] instanceof List) {
+          final List<?> list = (List<?>) values[f][pos];
+          out.startField(fields[f], list.size());
+          for (Object value : list) {
+            out.value(value);
+          }
+          out.endField();
+        } else if (values[f][pos] != null) {
+          out.startField(fields[f], -1);
+          out.value(values[f][pos]);
+          out.endField();
+        }
+      }
+    }
+
+    private static void writeNumber(NumberType numberType, String name, long value, FieldWriter out)
+        throws IOException {
+      out.startField(name, -1);
+      switch (numberType) {
+        case INTEGER:
+          out.intValue((int) value);
+          break;
+        case LONG:
+          out.longValue(value);
+          break;
+        case FLOAT:
+          out.floatValue(Float.intBitsToFloat((int) value));
+          break;
+        default:
+          out.doubleValue(Double.longBitsToDouble(value));
+      }
+      out.endField();
+    }
+  }
+
+  /**
+   * Receives the fields of a document from {@link #writeDoc(int, SolrReturnFields, DocValuesBlock,
+   * FieldWriter)}. Each field is started, given its values, and ended.
+   */
+  public interface FieldWriter {
+    /**
+     * Starts a field with <code>count</code> values to be written as a list, or with a single value
+     * if <code>count</code> is -1.
+     */
+    void startField(String name, int count) throws IOException;
+
+    void storedValue(IndexableField value) throws IOException;
+
+    /** A value decoded from docValues */
+    void value(Object value) throws IOException;
+
+    void intValue(int value) throws IOException;
+
+    void longValue(long value) throws IOException;
+
+    void floatValue(float value) throws IOException;
+
+    void doubleValue(double value) throws IOException;
+
+    void endField() throws IOException;
+  }
+
+  /**
+   * Same as {@link DocsStreamer#convertLuceneDocToSolrDoc(Document,
+   * org.apache.solr.schema.IndexSchema, ReturnFields)} followed by the filtering of the fields by
+   * {@link ReturnFields#wantsField(String)}, but writing the values instead.
+   */
+  private void writeStoredFields(Document doc, ReturnFields returnFields, FieldWriter out)
+      throws IOException {
+    final Set<String> fieldNamesNeeded = returnFields.getLuceneFieldNames();
+    final List<IndexableField> fields = doc.getFields();
+    final int size = fields.size();
+    for (int i = 0; i < size; i++) {
+      final String fname = fields.get(i).name();
+      if ((fieldNamesNeeded != null && !fieldNamesNeeded.contains(fname))
+          || !returnFields.wantsField(fname)
+          || isRepeated(fields, fname, 0, i)) {
+        continue;
+      }
+      int count = 1;
+      for (int j = i + 1; j < size; j++) {
+        if (fname.equals(fields.get(j).name())) count++;
+      }
+      final SchemaField sf = searcher.getSchema().getFieldOrNull(fname);
+      // multivalued fields are written as lists, like any field that has several values
+      final boolean asList = count > 1 || (sf != null && sf.multiValued());
+      out.startField(fname, asList ? count : -1);
+      for (int j = i; j < size; j++) {
+        final IndexableField f = fields.get(j);
+        if (fname.equals(f.name())) out.storedValue(f);
+      }
+      out.endField();
+    }
+  }
+
+  private static boolean isRepeated(List<IndexableField> fields, String fname, int from, int to) {
+    for (int j = from; j < to; j++) {
+      if (fname.equals(fields.get(j).name())) return true;
+    }
+    return false;
   }
 
   /**
@@ -571,6 +920,16 @@ public class SolrDocumentFetcher {
    */
   private Object decodeDVField(int localId, LeafReader leafReader, String fieldName)
       throws IOException {
+    final DocValuesFieldReader reader = newDocValuesFieldReader(leafReader, fieldName);
+    return reader == null ? null : reader.read(localId);
+  }
+
+  /**
+   * Returns a reader of the docValues of a field in a segment, or null if the segment has none or
+   * the searcher doesn't know about the field.
+   */
+  private DocValuesFieldReader newDocValuesFieldReader(LeafReader leafReader, String fieldName)
+      throws IOException {
     final SchemaField schemaField = searcher.getSchema().getFieldOrNull(fieldName);
     FieldInfo fi = searcher.getFieldInfos().fieldInfo(fieldName);
     if (schemaField == null || !schemaField.hasDocValues() || fi == null) {
@@ -578,75 +937,114 @@ public class SolrDocumentFetcher {
     }
 
     final DocValuesType dvType = fi.getDocValuesType();
+    final DocIdSetIterator values;
     switch (dvType) {
       case NUMERIC:
-        final NumericDocValues ndv = leafReader.getNumericDocValues(fieldName);
-        if (ndv == null) {
-          return null;
-        }
-        if (!ndv.advanceExact(localId)) {
-          return null;
-        }
-        Long val = ndv.longValue();
-        return decodeNumberFromDV(schemaField, val, false);
+        values = leafReader.getNumericDocValues(fieldName);
+        break;
       case BINARY:
-        BinaryDocValues bdv = leafReader.getBinaryDocValues(fieldName);
-        if (bdv != null && bdv.advanceExact(localId)) {
-          return BytesRef.deepCopyOf(bdv.binaryValue());
-        }
-        return null;
+        values = leafReader.getBinaryDocValues(fieldName);
+        break;
       case SORTED:
-        SortedDocValues sdv = leafReader.getSortedDocValues(fieldName);
-        if (sdv != null && sdv.advanceExact(localId)) {
-          final BytesRef bRef = sdv.lookupOrd(sdv.ordValue());
-          // Special handling for Boolean fields since they're stored as 'T' and 'F'.
-          if (schemaField.getType() instanceof BoolField) {
-            return schemaField.getType().toObject(schemaField, bRef);
-          } else {
-            return bRef.utf8ToString();
-          }
-        }
-        return null;
+        values = leafReader.getSortedDocValues(fieldName);
+        break;
       case SORTED_NUMERIC:
-        final SortedNumericDocValues numericDv = leafReader.getSortedNumericDocValues(fieldName);
-        if (numericDv != null && numericDv.advance(localId) == localId) {
-          final int docValueCount = numericDv.docValueCount();
-          final List<Object> outValues = new ArrayList<>(docValueCount);
-          for (int i = 0; i < docValueCount; i++) {
-            long number = numericDv.nextValue();
-            Object value = decodeNumberFromDV(schemaField, number, true);
-            // return immediately if the number is not decodable, hence won't return an empty list.
-            if (value == null) {
-              return null;
-            }
-            // normally never true but LatLonPointSpatialField uses SORTED_NUMERIC even when single
-            // valued
-            else if (schemaField.multiValued() == false) {
-              return value;
+        values = leafReader.getSortedNumericDocValues(fieldName);
+        break;
+      case SORTED_SET:
+        final SortedSetDocValues ssdv = leafReader.getSortedSetDocValues(fieldName);
+        values = ssdv != null && ssdv.getValueCount() > 0 ? ssdv : null;
+        break;
+      default:
+        values = null;
+    }
+    return values == null ? null : new DocValuesFieldReader(schemaField, dvType, values);
+  }
+
+  /** Decodes the docValues of a field in a segment, for increasing doc ids. */
+  private class DocValuesFieldReader {
+    private final SchemaField schemaField;
+    private final DocValuesType dvType;
+    private final DocIdSetIterator values;
+
+    DocValuesFieldReader(SchemaField schemaField, DocValuesType dvType, DocIdSetIterator values) {
+      this.schemaField = schemaField;
+      this.dvType = dvType;
+      this.values = values;
+    }
+
+    /**
+     * @return the value of the document, or null if it has none or it can't be decoded
+     */
+    Object read(int localId) throws IOException {
+      switch (dvType) {
+        case NUMERIC:
+          final NumericDocValues ndv = (NumericDocValues) values;
+          if (!ndv.advanceExact(localId)) {
+            return null;
+          }
+          Long val = ndv.longValue();
+          return decodeNumberFromDV(schemaField, val, false);
+        case BINARY:
+          BinaryDocValues bdv = (BinaryDocValues) values;
+          if (bdv.advanceExact(localId)) {
+            return BytesRef.deepCopyOf(bdv.binaryValue());
+          }
+          return null;
+        case SORTED:
+          SortedDocValues sdv = (SortedDocValues) values;
+          if (sdv.advanceExact(localId)) {
+            final BytesRef bRef = sdv.lookupOrd(sdv.ordValue());
+            // Special handling for Boolean fields since they're stored as 'T' and 'F'.
+            if (schemaField.getType() instanceof BoolField) {
+              return schemaField.getType().toObject(schemaField, bRef);
             } else {
-              outValues.add(value);
+              return bRef.utf8ToString();
             }
           }
-          assert outValues.size() > 0;
-          return outValues;
-        }
-        return null;
-      case SORTED_SET:
-        final SortedSetDocValues values = leafReader.getSortedSetDocValues(fieldName);
-        if (values != null && values.getValueCount() > 0 && values.advance(localId) == localId) {
-          final List<Object> outValues = new ArrayList<>();
-          for (long ord = values.nextOrd();
-              ord != SortedSetDocValues.NO_MORE_ORDS;
-              ord = values.nextOrd()) {
-            BytesRef value = values.lookupOrd(ord);
-            outValues.add(schemaField.getType().toObject(schemaField, value));
+          return null;
+        case SORTED_NUMERIC:
+          final SortedNumericDocValues numericDv = (SortedNumericDocValues) values;
+          if (numericDv.advanceExact(localId)) {
+            final int docValueCount = numericDv.docValueCount();
+            final List<Object> outValues = new ArrayList<>(docValueCount);
+            for (int i = 0; i < docValueCount; i++) {
+              long number = numericDv.nextValue();
+              Object value = decodeNumberFromDV(schemaField, number, true);
+              // return immediately if the number is not decodable, hence won't return an empty
+              // list.
+              if (value == null) {
+                return null;
+              }
+              // normally never true but LatLonPointSpatialField uses SORTED_NUMERIC even when
+              // single valued
+              else if (schemaField.multiValued() == false) {
+                return value;
+              } else {
+                outValues.add(value);
+              }
+            }
+            assert outValues.size() > 0;
+            return outValues;
           }
-          assert outValues.size() > 0;
-          return outValues;
-        }
-        return null;
-      default:
-        return null;
+          return null;
+        case SORTED_SET:
+          final SortedSetDocValues ssdv = (SortedSetDocValues) values;
+          if (ssdv.advanceExact(localId)) {
+            final List<Object> outValues = new ArrayList<>();
+            for (long ord = ssdv.nextOrd();
+                ord != SortedSetDocValues.NO_MORE_ORDS;
+                ord = ssdv.nextOrd()) {
+              BytesRef value = ssdv.lookupOrd(ord);
+              outValues.add(schemaField.getType().toObject(schemaField, value));
+            }
+            assert outValues.size() > 0;
+            return outValues;
+          }
+          return null;
+        default:
+          return null;
+      }
     }
   }
 
@@ -847,7 +1245,7 @@ public class SolrDocumentFetcher {
       return result;
     }
 
-    private SolrDocument getSolrDoc(int luceneDocId) {
+    private SolrDocument getSolrDoc(int luceneDocId, DocValuesBlock docValues) {
 
       SolrDocument sdoc = null;
       try {
@@ -870,7 +1268,12 @@ public class SolrDocumentFetcher {
 
         // decorate the document with non-stored docValues fields
         if (returnDVFields()) {
-          decorateDocValueFields(sdoc, luceneDocId, getDvFields());
+          final int pos = docValues == null ? -1 : docValues.position(luceneDocId);
+          if (pos >= 0) {
+            docValues.setFields(sdoc, pos);
+          } else {
+            decorateDocValueFields(sdoc, luceneDocId, getDvFields());
+          }
         }
       } catch (IOException e) {
         throw new SolrException(
@@ -880,5 +1283,27 @@ public class SolrDocumentFetcher {
       }
       return sdoc;
     }
+
+    private void writeDoc(int luceneDocId, DocValuesBlock docValues, FieldWriter out)
+        throws IOException {
+      if (returnStoredFields()) {
+        Document doc = doc(luceneDocId, getStoredFields());
+        writeStoredFields(doc, getReturnFields(), out);
+        solrReturnFields.setFieldSources(
+            returnDVFields()
+                ? SolrReturnFields.FIELD_SOURCES.MIXED_SOURCES
+                : SolrReturnFields.FIELD_SOURCES.ALL_FROM_STORED);
+      } else {
+        solrReturnFields.setFieldSources(SolrReturnFields.FIELD_SOURCES.ALL_FROM_DV);
+      }
+      if (returnDVFields()) {
+        int pos = docValues == null ? -1 : docValues.position(luceneDocId);
+        if (pos < 0) {
+          docValues = readDocValues(new int[] {luceneDocId}, 1, getDvFields());
+          pos = 0;
+        }
+        docValues.writeFields(pos, getReturnFields(), out);
+      }
+    }
   }
 }
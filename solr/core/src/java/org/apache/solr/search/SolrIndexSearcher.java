@@ -33,6 +33,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -55,6 +56,7 @@ import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.CollectionStatistics;
 import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.FieldDoc;
@@ -88,6 +90,7 @@ import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.FixedBitSet;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrException.ErrorCode;
+import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.util.ObjectReleaseTracker;
 import org.apache.solr.core.DirectoryFactory;
@@ -147,6 +150,8 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
   private final int queryResultWindowSize;
   private final int queryResultMaxDocsCached;
   private final boolean useFilterForSortedQuery;
+  private final boolean useCompressedDocSets;
+  private final boolean useCostBasedFilters;
 
   private final boolean cachingEnabled;
   private final SolrCache<Query, DocSet> filterCache;
@@ -154,6 +159,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
   private final SolrCache<String, UnInvertedField> fieldValueCache;
   private final LongAdder fullSortCount = new LongAdder();
   private final LongAdder skipSortCount = new LongAdder();
+  private final LongAdder extendedResultCount = new LongAdder();
   private final LongAdder liveDocsNaiveCacheHitCount = new LongAdder();
   private final LongAdder liveDocsInsertsCount = new LongAdder();
   private final LongAdder liveDocsHitCount = new LongAdder();
@@ -197,10 +203,68 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       throws IOException {
     assert reader != null;
     return ExitableDirectoryReader.wrap(
-        UninvertingReader.wrap(reader, core.getLatestSchema().getUninversionMapper()),
+        UninvertingReader.wrap(
+            reader, core.getLatestSchema().getUninversionMapper(), core.getMappedOrdsStore()),
         SolrQueryTimeoutImpl.getInstance());
   }
 
+  /** Uses the slice policy of the core's {@link ConcurrentSearchExecutor}, when configured. */
+  @Override
+  protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+    final Executor executor = getExecutor();
+    if (executor instanceof ConcurrentSearchExecutor) {
+      return ((ConcurrentSearchExecutor) executor).slices(leaves);
+    }
+    return super.slices(leaves);
+  }
+
+  /** Whether this searcher searches more than one leaf slice concurrently. */
+  public boolean isSearchConcurrent() {
+    final LeafSlice[] slices = getSlices();
+    return slices != null && slices.length > 1;
+  }
+
+  /**
+   * Whether the main query of <code>cmd</code> may be collected concurrently over leaf slices. Post
+   * filters, early termination, time limits, cancellation and rank queries rely on a single
+   * collector seeing every segment, so they keep the sequential path.
+   */
+  private boolean canSearchConcurrently(QueryCommand cmd, ProcessedFilter pf) {
+    return canCollectDocSetConcurrently()
+        && pf.postFilter == null
+        && !(cmd.getQuery() instanceof RankQuery)
+        && !cmd.getTerminateEarly()
+        && !cmd.getSegmentTerminateEarly()
+        && cmd.getTimeAllowed() <= 0
+        && !cmd.isQueryCancellable();
+  }
+
+  /**
+   * Whether a DocSet that isn't built for a {@link QueryCommand}, such as the one of a filter or a
+   * facet domain, may be collected concurrently. The time allowed is kept in a thread local of
+   * {@link SolrQueryTimeoutImpl} that the slice threads don't see, so requests with a time limit or
+   * that may be cancelled keep the sequential path.
+   */
+  boolean canCollectDocSetConcurrently() {
+    if (!isSearchConcurrent() || SolrQueryTimeoutImpl.getTimeoutAtNs() != null) {
+      return false;
+    }
+    final SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+    return requestInfo == null
+        || requestInfo.getReq() == null
+        || !requestInfo.getReq().getParams().getBool(CommonParams.IS_QUERY_CANCELLABLE, false);
+  }
+
+  /**
+   * Collects the documents matching <code>query</code> over all leaf slices concurrently. The
+   * caller should check {@link #canCollectDocSetConcurrently()} first.
+   */
+  DocSet collectDocSetConcurrently(Query query) throws IOException {
+    final SliceCollectorManager manager = new SliceCollectorManager(0, null, true);
+    search(query, manager);
+    return manager.getDocSet();
+  }
+
   /**
    * Builds the necessary collector chain (via delegate wrapping) and executes the query against it.
    * This method takes into consideration both the explicitly provided collector and postFilter as
@@ -327,7 +391,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       boolean reserveDirectory,
       DirectoryFactory directoryFactory)
       throws IOException {
-    super(wrapReader(core, r));
+    super(wrapReader(core, r), core.getConcurrentSearchExecutor());
 
     this.path = path;
     this.directoryFactory = directoryFactory;
@@ -366,6 +430,8 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     this.queryResultWindowSize = solrConfig.queryResultWindowSize;
     this.queryResultMaxDocsCached = solrConfig.queryResultMaxDocsCached;
     this.useFilterForSortedQuery = solrConfig.useFilterForSortedQuery;
+    this.useCompressedDocSets = solrConfig.useCompressedDocSets;
+    this.useCostBasedFilters = solrConfig.useCostBasedFilters;
 
     this.docFetcher = new SolrDocumentFetcher(this, solrConfig, enableCache);
 
@@ -402,6 +468,13 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       }
 
       cacheList = clist.toArray(new SolrCache[clist.size()]);
+
+      final CacheMemoryManager cacheMemoryManager = core.getCoreContainer().getCacheMemoryManager();
+      if (cacheMemoryManager != null) {
+        for (SolrCache<?, ?> cache : cacheList) {
+          cacheMemoryManager.register(core.getName() + "/" + cache.name(), cache);
+        }
+      }
     } else {
       this.filterCache = null;
       this.queryResultCache = null;
@@ -585,7 +658,11 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       core.getDeletionPolicy().releaseCommitPoint(cpg);
     }
 
+    final CacheMemoryManager cacheMemoryManager = core.getCoreContainer().getCacheMemoryManager();
     for (SolrCache<?, ?> cache : cacheList) {
+      if (cacheMemoryManager != null) {
+        cacheMemoryManager.unregister(cache);
+      }
       try {
         cache.close();
       } catch (Exception e) {
@@ -902,10 +979,14 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     return new BitDocSet(bs, answer.size());
   }
 
+  /**
+   * Returns the documents matching <code>q</code> as a {@link BitDocSet}. A cached {@link
+   * RoaringDocSet} is expanded for the caller only, and stays compressed in the filterCache.
+   */
   public BitDocSet getDocSetBits(Query q) throws IOException {
     DocSet answer = getDocSet(q);
     BitDocSet answerBits = makeBitDocSet(answer);
-    if (answerBits != answer && filterCache != null) {
+    if (answerBits != answer && filterCache != null && !(answer instanceof RoaringDocSet)) {
       filterCache.put(q, answerBits);
     }
     return answerBits;
@@ -965,17 +1046,39 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
 
       // Not found in the cache so compute and put in the cache
       if (answer == null) {
-        answer = getDocSetNC(query, null);
+        answer = getDocSetForFilterCache(query);
         filterCache.put(query, answer);
       }
     } else {
-      answer = filterCache.computeIfAbsent(query, q -> getDocSetNC(q, null));
+      answer = filterCache.computeIfAbsent(query, this::getDocSetForFilterCache);
     }
 
     assert !(answer instanceof MutableBitDocSet) : "should not be mutable";
     return answer;
   }
 
+  /**
+   * Computes a filterCache entry. If the core has a {@link SegmentFilterCache}, per-segment bits
+   * computed by previous searchers are reused and only new segments are evaluated; otherwise (or if
+   * the query can't be evaluated per segment) this is {@link #getDocSetNC(Query, DocSet)}. With
+   * useCompressedDocSets, the answer may be converted to a more compact representation.
+   */
+  private DocSet getDocSetForFilterCache(Query query) throws IOException {
+    DocSet answer = null;
+    final SegmentFilterCache segmentFilterCache = core.getSegmentFilterCache();
+    if (segmentFilterCache != null) {
+      answer = segmentFilterCache.getDocSet(this, query);
+    }
+    if (answer == null) {
+      answer = getDocSetNC(query, null);
+    }
+    // never compress the shared liveDocs instance; callers rely on it being a BitDocSet
+    if (useCompressedDocSets && answer != liveDocs) {
+      answer = DocSetUtil.compress(answer);
+    }
+    return answer;
+  }
+
   private static final MatchAllDocsQuery MATCH_ALL_DOCS_QUERY = new MatchAllDocsQuery();
 
   /** Used as a synchronization point to handle the lazy-init of {@link #liveDocs}. */
@@ -1104,6 +1207,11 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       }
     }
 
+    Query query = pf.filter != null ? pf.filter : MATCH_ALL_DOCS_QUERY;
+    if (pf.postFilter == null && canCollectDocSetConcurrently()) {
+      return collectDocSetConcurrently(query);
+    }
+
     DocSetCollector setCollector = new DocSetCollector(maxDoc());
     Collector collector = setCollector;
     if (pf.postFilter != null) {
@@ -1111,8 +1219,6 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       collector = pf.postFilter;
     }
 
-    Query query = pf.filter != null ? pf.filter : MATCH_ALL_DOCS_QUERY;
-
     search(query, collector);
 
     if (collector instanceof DelegatingCollector) {
@@ -1136,12 +1242,30 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     public DelegatingCollector postFilter; // maybe null
   }
 
+  /**
+   * With useCostBasedFilters, a function range that is not yet cached is checked per document, as a
+   * post filter, instead of being computed on every document of the index when the cached filters
+   * leave at most this fraction of the documents of the index.
+   */
+  private static final int COST_BASED_POST_FILTER_RATIO = 8;
+
   /**
    * INTERNAL: Processes conjunction (AND) of the queries into a {@link ProcessedFilter} result.
    * Queries may be null/empty thus doesn't restrict the matching docs. Queries typically are
    * resolved against the filter cache, and populate it.
    */
   public ProcessedFilter getProcessedFilter(List<Query> queries) throws IOException {
+    return getProcessedFilter(queries, useCostBasedFilters);
+  }
+
+  /**
+   * INTERNAL: Like {@link #getProcessedFilter(List)}, but uncached function ranges are only
+   * deferred, and possibly promoted to post filters, when <code>deferFilters</code> is true.
+   * Callers that only use {@link ProcessedFilter#filter}, without running the post filter, need
+   * every filter in it.
+   */
+  public ProcessedFilter getProcessedFilter(List<Query> queries, boolean deferFilters)
+      throws IOException {
     ProcessedFilter pf = new ProcessedFilter();
     if (queries == null || queries.size() == 0) {
       return pf;
@@ -1155,6 +1279,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     DocSet[] sets = new DocSet[queries.size()];
     List<ExtendedQuery> notCached = null;
     List<PostFilter> postFilters = null;
+    List<FunctionRangeQuery> deferred = null;
 
     int end = 0; // size of "sets" and "neg"; parallel arrays
 
@@ -1183,7 +1308,25 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       }
 
       Query posQuery = QueryUtils.getAbs(q);
-      DocSet docSet = getPositiveDocSet(posQuery);
+      DocSet docSet = null;
+      if (deferFilters && Objects.equals(q, posQuery)) {
+        Query key =
+            posQuery instanceof WrappedQuery
+                ? ((WrappedQuery) posQuery).getWrappedQuery()
+                : posQuery;
+        if (key instanceof FunctionRangeQuery) {
+          docSet = filterCache.get(key);
+          if (docSet == null) {
+            // not cached yet: decide once we know how selective the cached filters are
+            if (deferred == null) deferred = new ArrayList<>();
+            deferred.add((FunctionRangeQuery) key);
+            continue;
+          }
+        }
+      }
+      if (docSet == null) {
+        docSet = getPositiveDocSet(posQuery);
+      }
       // Negative query if absolute value different from original
       if (Objects.equals(q, posQuery)) {
         // keep track of the smallest positive set; use "answer" for this.
@@ -1215,22 +1358,54 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       // of copying the bitsets we make one mutable bitset. We should only do this
       // for BitDocSet since it clones the backing bitset for andNot and intersection.
       if (end > 1 && answer instanceof BitDocSet) {
-        answer = MutableBitDocSet.fromBitDocSet((BitDocSet) answer);
+        MutableBitDocSet mutable = MutableBitDocSet.fromBitDocSet((BitDocSet) answer);
+        // all the other bitsets are combined with it in a single pass, split across the threads
+        // of concurrent search when the sets are large
+        List<FixedBitSet> and = new ArrayList<>(end);
+        List<FixedBitSet> andNot = new ArrayList<>(end);
+        for (int i = 0; i < end; i++) {
+          if (sets[i] instanceof BitDocSet) {
+            (neg[i] ? andNot : and).add(sets[i].getFixedBitSet());
+            sets[i] = null;
+          }
+        }
+        mutable.combine(and, andNot, getExecutor());
+        answer = mutable;
       }
 
       // do negative queries first to shrink set size
       for (int i = 0; i < end; i++) {
-        if (neg[i]) answer = answer.andNot(sets[i]);
+        if (neg[i] && sets[i] != null) answer = answer.andNot(sets[i]);
       }
 
+      // then the smallest positive sets first, since the answer can only get smaller
+      List<DocSet> positive = new ArrayList<>(end);
       for (int i = 0; i < end; i++) {
-        if (!neg[i]) answer = answer.intersection(sets[i]);
+        if (!neg[i] && sets[i] != null) positive.add(sets[i]);
+      }
+      positive.sort(Comparator.comparingInt(DocSet::size));
+      for (DocSet docSet : positive) {
+        answer = answer.intersection(docSet);
       }
 
       // Make sure to keep answer as an immutable DocSet if we made it mutable
       answer = MutableBitDocSet.unwrapIfMutable(answer);
     }
 
+    if (deferred != null) {
+      // Function ranges that are not cached are checked only against documents that pass the
+      // other filters when those are selective enough, rather than computed on the whole index.
+      for (FunctionRangeQuery query : deferred) {
+        if (answer != null && (long) answer.size() * COST_BASED_POST_FILTER_RATIO <= maxDoc()) {
+          if (postFilters == null) postFilters = new ArrayList<>();
+          postFilters.add(query);
+        } else {
+          DocSet docSet = getPositiveDocSet(query);
+          answer = answer == null ? docSet : answer.intersection(docSet);
+        }
+      }
+    }
+
     // ignore "answer" if it simply matches all docs
     if (answer != null && answer.size() == numDocs()) {
       answer = null;
@@ -1526,6 +1701,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     if (maxDocRequested < 0 || maxDocRequested > maxDoc()) maxDocRequested = maxDoc();
     int supersetMaxDoc = maxDocRequested;
     DocList superset = null;
+    boolean canExtend = false;
 
     int flags = cmd.getFlags();
     Query q = cmd.getQuery();
@@ -1552,6 +1728,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
             // NOTE: subset() returns null if the DocList has fewer docs than
             // requested
             out.docList = superset.subset(cmd.getOffset(), cmd.getLen());
+            canExtend = out.docList == null;
           }
         }
         if (out.docList != null) {
@@ -1559,14 +1736,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
           // OPT: possible future optimization - if the doclist contains all the matches,
           // use it to make the docset instead of rerunning the query.
           if (out.docSet == null && ((flags & GET_DOCSET) != 0)) {
-            if (cmd.getFilterList() == null) {
-              out.docSet = getDocSet(cmd.getQuery());
-            } else {
-              List<Query> newList = new ArrayList<>(cmd.getFilterList().size() + 1);
-              newList.add(cmd.getQuery());
-              newList.addAll(cmd.getFilterList());
-              out.docSet = getDocSet(newList);
-            }
+            out.docSet = getDocSetForQueryAndFilters(cmd);
           }
           return;
         }
@@ -1584,6 +1754,24 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
               ((maxDocRequested - 1) / queryResultWindowSize + 1) * queryResultWindowSize;
           if (supersetMaxDoc < 0) supersetMaxDoc = maxDocRequested;
         }
+
+        if (canExtend) {
+          // a deeper page than cached: only collect the documents after the cached ones
+          final DocList extended = extendDocList(qr, cmd, superset, supersetMaxDoc);
+          if (extended != null) {
+            out.docList = extended.subset(cmd.getOffset(), cmd.getLen());
+          }
+          if (out.docList != null) {
+            extendedResultCount.increment();
+            if (out.docSet == null && ((flags & GET_DOCSET) != 0)) {
+              out.docSet = getDocSetForQueryAndFilters(cmd);
+            }
+            if (extended.size() <= queryResultMaxDocsCached && !qr.isPartialResults()) {
+              queryResultCache.put(key, extended);
+            }
+            return;
+          }
+        }
       } else {
         key = null; // we won't be caching the result
       }
@@ -1707,6 +1895,80 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     }
   }
 
+  /** Returns the DocSet matching both the query and the filters of <code>cmd</code>. */
+  private DocSet getDocSetForQueryAndFilters(QueryCommand cmd) throws IOException {
+    if (cmd.getFilterList() == null) {
+      return getDocSet(cmd.getQuery());
+    }
+    List<Query> newList = new ArrayList<>(cmd.getFilterList().size() + 1);
+    newList.add(cmd.getQuery());
+    newList.addAll(cmd.getFilterList());
+    return getDocSet(newList);
+  }
+
+  /**
+   * Extends <code>cached</code>, the top documents of <code>cmd</code> found in the
+   * queryResultCache, to the top <code>supersetMaxDoc</code> documents. Only the documents that
+   * sort after the last cached one are collected, so the priority queue is sized to the new part of
+   * the window and non-competitive documents are skipped early.
+   *
+   * @return the extended list starting at offset 0, or null if <code>cached</code> can't be
+   *     extended, in which case the caller must run the query in full
+   */
+  private DocList extendDocList(
+      QueryResult qr, QueryCommand cmd, DocList cached, int supersetMaxDoc) throws IOException {
+    if (!(cached instanceof DocSlice)
+        || cmd.getCursorMark() != null
+        || cmd.getQuery() instanceof RankQuery) {
+      return null;
+    }
+    final DocSlice slice = (DocSlice) cached;
+    if (slice.offset != 0 || slice.len == 0 || slice.len != slice.docs.length) {
+      return null;
+    }
+    final int len = supersetMaxDoc - slice.len;
+    if (len <= 0) {
+      return null;
+    }
+    final ProcessedFilter pf = getProcessedFilter(cmd.getFilterList());
+    if (pf.postFilter != null) {
+      // post filters may depend on seeing all matches, e.g. to pick group heads
+      return null;
+    }
+    final Query scoreQuery = QueryUtils.makeQueryable(cmd.getQuery());
+
+    // recompute the sort values (or score) of the last cached document; filters don't score
+    final Query lastQuery =
+        QueryUtils.combineQueryAndFilter(
+            scoreQuery, new SortedIntDocSet(new int[] {slice.docs[slice.len - 1]}).makeQuery());
+    final TopDocsCollector<? extends ScoreDoc> lastCollector = buildTopDocsCollector(1, cmd, null);
+    search(lastQuery, lastCollector);
+    final ScoreDoc[] last = lastCollector.topDocs().scoreDocs;
+    if (last.length != 1) {
+      return null;
+    }
+
+    final Query query = QueryUtils.combineQueryAndFilter(scoreQuery, pf.filter);
+    final TopDocsCollector<? extends ScoreDoc> topCollector =
+        buildTopDocsCollector(len, cmd, last[0]);
+    buildAndRunCollectorChain(qr, query, topCollector, cmd, null);
+    final TopDocs topDocs = topCollector.topDocs(0, len);
+    if (cmd.getSort() != null && (cmd.getFlags() & GET_SCORES) != 0) {
+      TopFieldCollector.populateScores(topDocs.scoreDocs, this, query);
+    }
+
+    final int size = slice.len + topDocs.scoreDocs.length;
+    final int[] ids = Arrays.copyOf(slice.docs, size);
+    final float[] scores = slice.scores == null ? null : Arrays.copyOf(slice.scores, size);
+    for (int i = slice.len; i < size; i++) {
+      final ScoreDoc scoreDoc = topDocs.scoreDocs[i - slice.len];
+      ids[i] = scoreDoc.doc;
+      if (scores != null) scores[i] = scoreDoc.score;
+    }
+    // the number of matches is the same as for the cached list
+    return new DocSlice(0, size, ids, scores, slice.matches, slice.maxScore, slice.matchesRelation);
+  }
+
   /**
    * Helper method for extracting the {@link FieldDoc} sort values from a {@link TopFieldDocs} when
    * available and making the appropriate call to {@link QueryResult#setNextCursorMark} when
@@ -1757,6 +2019,16 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
    */
   private TopDocsCollector<? extends ScoreDoc> buildTopDocsCollector(int len, QueryCommand cmd)
       throws IOException {
+    return buildTopDocsCollector(len, cmd, null);
+  }
+
+  /**
+   * Like {@link #buildTopDocsCollector(int, QueryCommand)}, but only collecting documents that sort
+   * after <code>after</code> when not null. It must be a {@link FieldDoc} when the command has a
+   * sort; a RankQuery or cursorMark command doesn't support it.
+   */
+  private TopDocsCollector<? extends ScoreDoc> buildTopDocsCollector(
+      int len, QueryCommand cmd, ScoreDoc after) throws IOException {
     int minNumFound = cmd.getMinExactCount();
     Query q = cmd.getQuery();
     if (q instanceof RankQuery) {
@@ -1766,17 +2038,128 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
 
     if (null == cmd.getSort()) {
       assert null == cmd.getCursorMark() : "have cursor but no sort";
-      return TopScoreDocCollector.create(len, minNumFound);
+      return TopScoreDocCollector.create(len, after, minNumFound);
     } else {
       // we have a sort
       final Sort weightedSort = weightSort(cmd.getSort());
       final CursorMark cursor = cmd.getCursorMark();
 
-      final FieldDoc searchAfter = (null != cursor ? cursor.getSearchAfterFieldDoc() : null);
+      final FieldDoc searchAfter =
+          (null != cursor ? cursor.getSearchAfterFieldDoc() : (FieldDoc) after);
       return TopFieldCollector.create(weightedSort, len, searchAfter, minNumFound);
     }
   }
 
+  /**
+   * Creates one set of collectors per leaf slice for {@link IndexSearcher#search(Query,
+   * CollectorManager)} and merges what they collected. Top docs are merged with ties broken by
+   * docid, as sequential collection would.
+   */
+  private class SliceCollectorManager implements CollectorManager<Collector, Void> {
+    private final int len;
+    private final QueryCommand cmd;
+    private final boolean needDocSet;
+    private final boolean needMaxScore;
+    private final List<TopDocsCollector<? extends ScoreDoc>> topCollectors = new ArrayList<>();
+    private final List<DocSetCollector> setCollectors = new ArrayList<>();
+    private final List<MaxScoreCollector> maxScoreCollectors = new ArrayList<>();
+
+    /**
+     * @param len the number of top docs to collect, or 0 for none
+     * @param cmd the command to collect top docs for; may be null if <code>len</code> is 0
+     * @param needDocSet whether to collect the DocSet of all matches
+     */
+    SliceCollectorManager(int len, QueryCommand cmd, boolean needDocSet) {
+      this.len = len;
+      this.cmd = cmd;
+      this.needDocSet = needDocSet;
+      this.needMaxScore = len > 0 && (cmd.getFlags() & GET_SCORES) != 0;
+    }
+
+    @Override
+    public Collector newCollector() throws IOException {
+      final List<Collector> collectors = new ArrayList<>(3);
+      if (len > 0) {
+        final TopDocsCollector<? extends ScoreDoc> topCollector = buildTopDocsCollector(len, cmd);
+        topCollectors.add(topCollector);
+        collectors.add(topCollector);
+      }
+      if (needDocSet) {
+        final DocSetCollector setCollector = new DocSetCollector(maxDoc());
+        setCollectors.add(setCollector);
+        collectors.add(setCollector);
+      }
+      if (needMaxScore) {
+        final MaxScoreCollector maxScoreCollector = new MaxScoreCollector();
+        maxScoreCollectors.add(maxScoreCollector);
+        collectors.add(maxScoreCollector);
+      }
+      return MultiCollector.wrap(collectors);
+    }
+
+    @Override
+    public Void reduce(Collection<Collector> collectors) {
+      // results are merged on demand by the getters below
+      return null;
+    }
+
+    int getTotalHits() {
+      int totalHits = 0;
+      for (TopDocsCollector<? extends ScoreDoc> topCollector : topCollectors) {
+        totalHits += topCollector.getTotalHits();
+      }
+      return totalHits;
+    }
+
+    /** Merges the top docs of all slices. May only be called once. */
+    TopDocs getTopDocs() throws IOException {
+      final Comparator<ScoreDoc> tieBreaker = Comparator.comparingInt(d -> d.doc);
+      if (cmd.getSort() == null) {
+        final TopDocs[] shardHits = new TopDocs[topCollectors.size()];
+        for (int i = 0; i < shardHits.length; i++) {
+          shardHits[i] = topCollectors.get(i).topDocs();
+        }
+        return TopDocs.merge(0, len, shardHits, tieBreaker);
+      } else {
+        final TopFieldDocs[] shardHits = new TopFieldDocs[topCollectors.size()];
+        for (int i = 0; i < shardHits.length; i++) {
+          shardHits[i] = (TopFieldDocs) topCollectors.get(i).topDocs();
+        }
+        return TopDocs.merge(weightSort(cmd.getSort()), 0, len, shardHits, tieBreaker);
+      }
+    }
+
+    float getMaxScore() {
+      float maxScore = Float.NaN;
+      for (MaxScoreCollector maxScoreCollector : maxScoreCollectors) {
+        final float score = maxScoreCollector.getMaxScore();
+        // NaN means the slice had no hits
+        if (Float.isNaN(maxScore) || score > maxScore) {
+          maxScore = score;
+        }
+      }
+      return maxScore;
+    }
+
+    DocSet getDocSet() {
+      if (setCollectors.size() == 1) {
+        return DocSetUtil.getDocSet(setCollectors.get(0), SolrIndexSearcher.this);
+      }
+      final int maxDoc = maxDoc();
+      final FixedBitSet bits = new FixedBitSet(maxDoc);
+      int size = 0;
+      for (DocSetCollector setCollector : setCollectors) {
+        setCollector.getDocSet().addAllTo(bits);
+        size += setCollector.size();
+      }
+      final BitDocSet answer = new BitDocSet(bits, size);
+      if (size < DocSetUtil.smallSetSize(maxDoc)) {
+        return DocSetUtil.toSmallSet(answer);
+      }
+      return DocSetUtil.getDocSet(answer, SolrIndexSearcher.this);
+    }
+  }
+
   private void getDocListNC(QueryResult qr, QueryCommand cmd) throws IOException {
     int len = cmd.getSupersetMaxDoc();
     int last = len;
@@ -1850,22 +2233,36 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       qr.setNextCursorMark(cmd.getCursorMark());
       hitsRelation = Relation.EQUAL_TO;
     } else {
-      final TopDocsCollector<?> topCollector = buildTopDocsCollector(len, cmd);
-      MaxScoreCollector maxScoreCollector = null;
-      Collector collector = topCollector;
-      if ((cmd.getFlags() & GET_SCORES) != 0) {
-        maxScoreCollector = new MaxScoreCollector();
-        collector = MultiCollector.wrap(topCollector, maxScoreCollector);
-      }
-      ScoreMode scoreModeUsed =
-          buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter).scoreMode();
-
-      totalHits = topCollector.getTotalHits();
-      TopDocs topDocs = topCollector.topDocs(0, len);
-      if (scoreModeUsed == ScoreMode.COMPLETE || scoreModeUsed == ScoreMode.COMPLETE_NO_SCORES) {
-        hitsRelation = TotalHits.Relation.EQUAL_TO;
-      } else {
+      final TopDocs topDocs;
+      if (canSearchConcurrently(cmd, pf)) {
+        final SliceCollectorManager manager = new SliceCollectorManager(len, cmd, false);
+        search(query, manager);
+        totalHits = manager.getTotalHits();
+        topDocs = manager.getTopDocs();
         hitsRelation = topDocs.totalHits.relation;
+        maxScore = totalHits > 0 ? manager.getMaxScore() : 0.0f;
+      } else {
+        final TopDocsCollector<?> topCollector = buildTopDocsCollector(len, cmd);
+        MaxScoreCollector maxScoreCollector = null;
+        Collector collector = topCollector;
+        if ((cmd.getFlags() & GET_SCORES) != 0) {
+          maxScoreCollector = new MaxScoreCollector();
+          collector = MultiCollector.wrap(topCollector, maxScoreCollector);
+        }
+        ScoreMode scoreModeUsed =
+            buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter).scoreMode();
+
+        totalHits = topCollector.getTotalHits();
+        topDocs = topCollector.topDocs(0, len);
+        if (scoreModeUsed == ScoreMode.COMPLETE || scoreModeUsed == ScoreMode.COMPLETE_NO_SCORES) {
+          hitsRelation = TotalHits.Relation.EQUAL_TO;
+        } else {
+          hitsRelation = topDocs.totalHits.relation;
+        }
+        maxScore =
+            totalHits > 0
+                ? (maxScoreCollector == null ? Float.NaN : maxScoreCollector.getMaxScore())
+                : 0.0f;
       }
       if (cmd.getSort() != null
           && cmd.getQuery() instanceof RankQuery == false
@@ -1874,10 +2271,6 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       }
       populateNextCursorMarkFromTopDocs(qr, cmd, topDocs);
 
-      maxScore =
-          totalHits > 0
-              ? (maxScoreCollector == null ? Float.NaN : maxScoreCollector.getMaxScore())
-              : 0.0f;
       nDocsReturned = topDocs.scoreDocs.length;
       ids = new int[nDocsReturned];
       scores = (cmd.getFlags() & GET_SCORES) != 0 ? new float[nDocsReturned] : null;
@@ -1962,36 +2355,46 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       // no docs on this page, so cursor doesn't change
       qr.setNextCursorMark(cmd.getCursorMark());
     } else {
-      final TopDocsCollector<? extends ScoreDoc> topCollector = buildTopDocsCollector(len, cmd);
-      DocSetCollector setCollector = new DocSetCollector(maxDoc);
-      MaxScoreCollector maxScoreCollector = null;
-      List<Collector> collectors = new ArrayList<>(Arrays.asList(topCollector, setCollector));
-
-      if ((cmd.getFlags() & GET_SCORES) != 0) {
-        maxScoreCollector = new MaxScoreCollector();
-        collectors.add(maxScoreCollector);
-      }
+      final TopDocs topDocs;
+      if (canSearchConcurrently(cmd, pf)) {
+        final SliceCollectorManager manager = new SliceCollectorManager(len, cmd, true);
+        search(query, manager);
+        set = manager.getDocSet();
+        totalHits = manager.getTotalHits();
+        topDocs = manager.getTopDocs();
+        maxScore = totalHits > 0 ? manager.getMaxScore() : 0.0f;
+      } else {
+        final TopDocsCollector<? extends ScoreDoc> topCollector = buildTopDocsCollector(len, cmd);
+        DocSetCollector setCollector = new DocSetCollector(maxDoc);
+        MaxScoreCollector maxScoreCollector = null;
+        List<Collector> collectors = new ArrayList<>(Arrays.asList(topCollector, setCollector));
+
+        if ((cmd.getFlags() & GET_SCORES) != 0) {
+          maxScoreCollector = new MaxScoreCollector();
+          collectors.add(maxScoreCollector);
+        }
 
-      Collector collector = MultiCollector.wrap(collectors);
+        Collector collector = MultiCollector.wrap(collectors);
 
-      buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter);
+        buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter);
 
-      set = DocSetUtil.getDocSet(setCollector, this);
+        set = DocSetUtil.getDocSet(setCollector, this);
 
-      totalHits = topCollector.getTotalHits();
+        totalHits = topCollector.getTotalHits();
+        topDocs = topCollector.topDocs(0, len);
+        maxScore =
+            totalHits > 0
+                ? (maxScoreCollector == null ? Float.NaN : maxScoreCollector.getMaxScore())
+                : 0.0f;
+      }
       assert (totalHits == set.size()) || qr.isPartialResults();
 
-      TopDocs topDocs = topCollector.topDocs(0, len);
       if (cmd.getSort() != null
           && !(cmd.getQuery() instanceof RankQuery)
           && (cmd.getFlags() & GET_SCORES) != 0) {
         TopFieldCollector.populateScores(topDocs.scoreDocs, this, query);
       }
       populateNextCursorMarkFromTopDocs(qr, cmd, topDocs);
-      maxScore =
-          totalHits > 0
-              ? (maxScoreCollector == null ? Float.NaN : maxScoreCollector.getMaxScore())
-              : 0.0f;
       nDocsReturned = topDocs.scoreDocs.length;
 
       ids = new int[nDocsReturned];
@@ -2498,6 +2901,8 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
         fullSortCount::sum, true, "fullSortCount", Category.SEARCHER.toString(), scope);
     parentContext.gauge(
         skipSortCount::sum, true, "skipSortCount", Category.SEARCHER.toString(), scope);
+    parentContext.gauge(
+        extendedResultCount::sum, true, "extendedResultCount", Category.SEARCHER.toString(), scope);
     final MetricsMap liveDocsCacheMetrics =
         new MetricsMap(
             (map) -> {
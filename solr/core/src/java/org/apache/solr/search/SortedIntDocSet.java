@@ -307,6 +307,11 @@ public class SortedIntDocSet extends DocSet {
 
     if (lena == 0) return 0;
 
+    // if b is 64 times bigger than a, gallop through b.
+    if ((lenb >> 6) >= lena) {
+      return intersectionGalloping(a, lena, b, lenb, target);
+    }
+
     // if b is 8 times bigger than a, use the modified binary search.
     if ((lenb >> 3) >= lena) {
       return intersectionBinarySearch(a, lena, b, lenb, target);
@@ -397,6 +402,48 @@ public class SortedIntDocSet extends DocSet {
     return icount;
   }
 
+  /**
+   * Puts the intersection of a and b into the target array and returns the size. lena should be
+   * much smaller than lenb. For each doc of a, the position in b is found by exponential
+   * (galloping) search from the last match, so the cost is O(lena * log(lenb / lena)) regardless of
+   * how the docs of a are distributed over b.
+   */
+  protected static int intersectionGalloping(int[] a, int lena, int[] b, int lenb, int[] target) {
+    int icount = 0;
+    int low = 0;
+
+    for (int i = 0; i < lena && low < lenb; i++) {
+      int doca = a[i];
+
+      // gallop: double the distance until b[low + bound] >= doca or we run off the end
+      int bound = 1;
+      while (low + bound < lenb && b[low + bound] < doca) {
+        bound <<= 1;
+      }
+      int high = Math.min(low + bound, lenb - 1);
+      low += bound >>> 1;
+
+      // binary search in b[low..high]
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int docb = b[mid];
+
+        if (docb < doca) {
+          low = mid + 1;
+        } else if (docb > doca) {
+          high = mid - 1;
+        } else {
+          target[icount++] = doca;
+          low = mid + 1; // found it, so start at next element
+          break;
+        }
+      }
+      // Didn't find it... low is now positioned on the insertion point
+    }
+
+    return icount;
+  }
+
   @Override
   public DocSet intersection(DocSet other) {
     if (!(other instanceof SortedIntDocSet)) {
@@ -1200,7 +1200,9 @@ public abstract class ValueSourceParser implements NamedListInitializedPlugin {
         new ValueSourceParser() {
           @Override
           public ValueSource parse(FunctionQParser fp) throws SyntaxError {
-            return new HLLAgg(fp.parseArg());
+            HLLAgg agg = new HLLAgg(fp.parseArg());
+            agg.setOpts(fp);
+            return agg;
           }
         });
 
@@ -1337,7 +1339,9 @@ public abstract class ValueSourceParser implements NamedListInitializedPlugin {
                   "expected percentile(valsource,percent1[,percent2]*)  EXAMPLE:percentile(myfield,50)");
             }
 
-            return new PercentileAgg(vs, percentiles);
+            PercentileAgg agg = new PercentileAgg(vs, percentiles);
+            agg.setOpts(fp);
+            return agg;
           }
         });
 
@@ -27,6 +27,7 @@ import org.apache.lucene.queries.function.ValueSource;
 import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.facet.SlotAcc.MergeableSlotAcc;
 import org.apache.solr.search.function.FieldNameValueSource;
 
 public class AvgAgg extends SimpleAggValueSource {
@@ -90,7 +91,8 @@ public class AvgAgg extends SimpleAggValueSource {
     }
   }
 
-  static class AvgSortedNumericAcc extends DocValuesAcc.DoubleSortedNumericDVAcc {
+  static class AvgSortedNumericAcc extends DocValuesAcc.DoubleSortedNumericDVAcc
+      implements MergeableSlotAcc {
     int[] counts;
 
     public AvgSortedNumericAcc(FacetContext fcontext, SchemaField sf, int numSlots)
@@ -107,6 +109,12 @@ public class AvgAgg extends SimpleAggValueSource {
       }
     }
 
+    @Override
+    public void merge(SlotAcc other) {
+      addTo(result, ((AvgSortedNumericAcc) other).result);
+      addTo(counts, ((AvgSortedNumericAcc) other).counts);
+    }
+
     private double avg(int slot) {
       return AggUtil.avg(result[slot], counts[slot]); // calc once and cache in result?
     }
@@ -141,7 +149,8 @@ public class AvgAgg extends SimpleAggValueSource {
     }
   }
 
-  static class AvgSortedSetAcc extends DocValuesAcc.DoubleSortedSetDVAcc {
+  static class AvgSortedSetAcc extends DocValuesAcc.DoubleSortedSetDVAcc
+      implements MergeableSlotAcc {
     int[] counts;
 
     public AvgSortedSetAcc(FacetContext fcontext, SchemaField sf, int numSlots) throws IOException {
@@ -161,6 +170,12 @@ public class AvgAgg extends SimpleAggValueSource {
       }
     }
 
+    @Override
+    public void merge(SlotAcc other) {
+      addTo(result, ((AvgSortedSetAcc) other).result);
+      addTo(counts, ((AvgSortedSetAcc) other).counts);
+    }
+
     private double avg(int slot) {
       return AggUtil.avg(result[slot], counts[slot]);
     }
@@ -16,6 +16,7 @@
  */
 package org.apache.solr.search.facet;
 
+import java.util.List;
 import java.util.Map;
 import org.apache.lucene.search.Query;
 import org.apache.solr.request.SolrQueryRequest;
@@ -42,6 +43,10 @@ public class FacetContext {
   boolean cache = true;
   int flags;
   FacetDebugInfo debugInfo;
+  FacetRollups rollups; // may be null
+  // the queries base is the intersection of, as long as it's baseOfQueries; null if unknown
+  private List<Query> baseQueries;
+  private DocSet baseOfQueries;
 
   public void setDebugInfo(FacetDebugInfo debugInfo) {
     this.debugInfo = debugInfo;
@@ -91,6 +96,19 @@ public class FacetContext {
     return flags;
   }
 
+  /**
+   * Returns the queries the base domain is the intersection of, that identify it for caching, or
+   * null if unknown or if the domain was changed since.
+   */
+  List<Query> getBaseQueries() {
+    return base == baseOfQueries ? baseQueries : null;
+  }
+
+  void setBaseQueries(List<Query> baseQueries) {
+    this.baseQueries = baseQueries;
+    this.baseOfQueries = base;
+  }
+
   /**
    * @param filter The filter for the bucket that resulted in this context/domain. Can be null if
    *     this is the root context.
@@ -108,6 +126,9 @@ public class FacetContext {
     ctx.qcontext = qcontext;
     ctx.req = req;
     ctx.searcher = searcher;
+    ctx.rollups = rollups;
+    ctx.baseQueries = baseQueries;
+    ctx.baseOfQueries = baseOfQueries;
 
     return ctx;
   }
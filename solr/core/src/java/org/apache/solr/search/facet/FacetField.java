@@ -39,6 +39,14 @@ public class FacetField extends FacetRequestSorted {
   // only.
   Boolean perSeg;
 
+  // experimental - force sparse (true) or dense (false) slots for the stats of array based methods,
+  // instead of choosing from the size of the domain and the number of terms
+  Boolean sparseSlots;
+
+  // collect segments concurrently when using dv method: 0 means don't, negative means one thread
+  // per segment
+  int threads;
+
   {
     // defaults for FacetRequestSorted
     mincount = 1;
@@ -87,7 +95,7 @@ public class FacetField extends FacetRequestSorted {
     if (fcontext.facetInfo != null) {
       // refinement... we will end up either skipping the entire facet, or doing calculating only
       // specific facet buckets
-      if (multiToken && !sf.hasDocValues() && method != FacetMethod.DV && sf.isUninvertible()) {
+      if (multiToken && !sf.hasDocValues() && useUIF(fcontext, sf)) {
         // Match the access method from the first phase.
         // It won't always matter, but does currently for an all-values bucket
         return new FacetFieldProcessorByArrayUIF(fcontext, this, sf);
@@ -158,8 +166,8 @@ public class FacetField extends FacetRequestSorted {
 
     // multi-valued after this point
 
-    if (sf.hasDocValues() || method == FacetMethod.DV || !sf.isUninvertible()) {
-      // single and multi-valued string docValues
+    if (sf.hasDocValues() || !useUIF(fcontext, sf)) {
+      // single and multi-valued string docValues, or per-segment uninverted ords
       return new FacetFieldProcessorByArrayDV(fcontext, this, sf);
     }
 
@@ -167,6 +175,22 @@ public class FacetField extends FacetRequestSorted {
     return new FacetFieldProcessorByArrayUIF(fcontext, this, sf);
   }
 
+  /**
+   * Whether to facet a multi-valued field without docValues on a top-level {@link
+   * UnInvertedField}, rather than on the per-segment ords of the field cache. Unless asked for, UIF
+   * isn't used for strings when the core keeps uninverted ords in a {@link
+   * org.apache.solr.uninverting.MappedOrdsStore}: they survive commits, whereas UIF is rebuilt for
+   * every searcher.
+   */
+  private boolean useUIF(FacetContext fcontext, SchemaField sf) {
+    if (method == FacetMethod.DV || !sf.isUninvertible()) {
+      return false;
+    }
+    return method == FacetMethod.UIF
+        || sf.getType().getNumberType() != null
+        || fcontext.searcher.getCore().getMappedOrdsStore() == null;
+  }
+
   @Override
   public FacetMerger createFacetMerger(Object prototype) {
     return new FacetFieldMerger(this);
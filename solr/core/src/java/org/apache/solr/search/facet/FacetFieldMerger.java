@@ -20,8 +20,11 @@ package org.apache.solr.search.facet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import org.apache.solr.common.util.SimpleOrderedMap;
 
 // TODO: refactor more out to base class
@@ -37,8 +40,19 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
   // the number of buckets in the bucket lists returned from all of the shards
   int numReturnedBuckets;
 
+  // when all the buckets are returned in index order, the bucket lists of the shards, merged as the
+  // result is written rather than all at once; null once merged into buckets
+  List<ShardBucketList> shardBucketLists;
+
   public FacetFieldMerger(FacetField freq) {
     super(freq);
+    if (freq.limit < 0
+        && freq.sort != null
+        && "index".equals(freq.sort.sortVariable)
+        && freq.prelim_sort == null
+        && freq.refine != FacetRequest.RefineMethod.APPROXIMATE) {
+      shardBucketLists = new ArrayList<>();
+    }
   }
 
   @Override
@@ -75,7 +89,12 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
     List<SimpleOrderedMap<?>> bucketList = (List<SimpleOrderedMap<?>>) facetResult.get("buckets");
     numReturnedPerShard[mcontext.shardNum] = bucketList.size();
     numReturnedBuckets += bucketList.size();
-    mergeBucketList(bucketList, mcontext);
+    if (shardBucketLists != null && isIndexOrdered(bucketList)) {
+      shardBucketLists.add(new ShardBucketList(mcontext.shardNum, bucketList));
+    } else {
+      mergeShardBucketLists();
+      mergeBucketList(bucketList, mcontext);
+    }
 
     if (freq.numBuckets) {
       Object nb = facetResult.get("numBuckets");
@@ -88,6 +107,50 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
     }
   }
 
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private int compareIndexOrder(Comparable val1, Comparable val2) {
+    // as sortBuckets does
+    return -val1.compareTo(val2) * freq.sort.sortDirection.getMultiplier();
+  }
+
+  /** Whether the values of the buckets are in the order of the merged result */
+  @SuppressWarnings("rawtypes")
+  private boolean isIndexOrdered(List<SimpleOrderedMap<?>> bucketList) {
+    Comparable previous = null;
+    for (SimpleOrderedMap<?> bucket : bucketList) {
+      Comparable val = (Comparable) bucket.get("val");
+      if (previous != null && compareIndexOrder(previous, val) >= 0) {
+        return false;
+      }
+      previous = val;
+    }
+    return true;
+  }
+
+  /** Merges the bucket lists of the shards kept so far into {@link #buckets}, and stops keeping */
+  private void mergeShardBucketLists() {
+    if (shardBucketLists == null) {
+      return;
+    }
+    final List<ShardBucketList> lists = shardBucketLists;
+    shardBucketLists = null;
+    if (lists.isEmpty()) {
+      return;
+    }
+    final int shardNum = mcontext.shardNum;
+    for (ShardBucketList list : lists) {
+      mcontext.shardNum = list.shardNum;
+      mergeBucketList(list.buckets, mcontext);
+    }
+    mcontext.shardNum = shardNum;
+  }
+
+  @Override
+  public Map<String, Object> getRefinement(Context mcontext) {
+    mergeShardBucketLists();
+    return super.getRefinement(mcontext);
+  }
+
   @Override
   public Object getMergedResult() {
     SimpleOrderedMap<Object> result = new SimpleOrderedMap<>();
@@ -96,6 +159,18 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
       result.add("numBuckets", ((Number) numBuckets.getMergedResult()).longValue());
     }
 
+    if (shardBucketLists != null) {
+      final List<ShardBucketList> lists = shardBucketLists;
+      result.add("buckets", (Iterable<SimpleOrderedMap<Object>>) () -> new MergingIterator(lists));
+      if (missingBucket != null) {
+        result.add("missing", missingBucket.getMergedBucket());
+      }
+      if (allBuckets != null) {
+        result.add("allBuckets", allBuckets.getMergedBucket());
+      }
+      return result;
+    }
+
     sortBuckets(freq.sort);
 
     long first = freq.offset;
@@ -111,7 +186,8 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
 
     // TODO: change effective offsets + limits at shards...
 
-    boolean refine = freq.refine != null && freq.refine != FacetRequest.RefineMethod.NONE;
+    boolean refine = freq.doRefine();
+    boolean approximate = freq.refine == FacetRequest.RefineMethod.APPROXIMATE;
 
     int off = (int) freq.offset;
     int lim = freq.limit >= 0 ? (int) freq.limit : Integer.MAX_VALUE;
@@ -132,10 +208,18 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
         break;
       }
 
-      resultBuckets.add(bucket.getMergedBucket());
+      SimpleOrderedMap<Object> mergedBucket = bucket.getMergedBucket();
+      if (approximate) {
+        mergedBucket.add("countError", getCountError(bucket, mcontext));
+      }
+      resultBuckets.add(mergedBucket);
     }
 
     result.add("buckets", resultBuckets);
+    if (approximate) {
+      // the most any bucket, returned or not, may be missing
+      result.add("countError", getCountError(null, mcontext));
+    }
     if (missingBucket != null) {
       result.add("missing", missingBucket.getMergedBucket());
     }
@@ -146,6 +230,105 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
     return result;
   }
 
+  /** The buckets returned by a shard */
+  static final class ShardBucketList {
+    final int shardNum;
+    final List<SimpleOrderedMap<?>> buckets;
+
+    ShardBucketList(int shardNum, List<SimpleOrderedMap<?>> buckets) {
+      this.shardNum = shardNum;
+      this.buckets = buckets;
+    }
+  }
+
+  /**
+   * Merges the bucket lists of the shards, each in index order, one bucket value at a time: only
+   * the buckets of one value are merged at any time.
+   */
+  private class MergingIterator implements Iterator<SimpleOrderedMap<Object>> {
+    private final PriorityQueue<Cursor> queue;
+    private long toSkip = freq.offset;
+    private SimpleOrderedMap<Object> next;
+
+    MergingIterator(List<ShardBucketList> lists) {
+      queue =
+          new PriorityQueue<>(
+              Math.max(1, lists.size()), (c1, c2) -> compareIndexOrder(c1.val(), c2.val()));
+      for (ShardBucketList list : lists) {
+        if (!list.buckets.isEmpty()) {
+          queue.add(new Cursor(list));
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) {
+        next = mergeNext();
+      }
+      return next != null;
+    }
+
+    @Override
+    public SimpleOrderedMap<Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final SimpleOrderedMap<Object> bucket = next;
+      next = null;
+      return bucket;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private SimpleOrderedMap<Object> mergeNext() {
+      if (queue.isEmpty()) {
+        return null;
+      }
+      final int shardNum = mcontext.shardNum;
+      try {
+        while (!queue.isEmpty()) {
+          final Comparable val = queue.peek().val();
+          final FacetBucket bucket = newBucket(val, mcontext);
+          while (!queue.isEmpty() && compareIndexOrder(queue.peek().val(), val) == 0) {
+            final Cursor cursor = queue.poll();
+            mcontext.shardNum = cursor.list.shardNum;
+            bucket.mergeBucket(cursor.list.buckets.get(cursor.pos), mcontext);
+            if (++cursor.pos < cursor.list.buckets.size()) {
+              queue.add(cursor);
+            }
+          }
+
+          if (bucket.getCount() < freq.mincount) {
+            continue;
+          }
+          if (toSkip > 0) {
+            toSkip--;
+            continue;
+          }
+          return bucket.getMergedBucket();
+        }
+        return null;
+      } finally {
+        mcontext.shardNum = shardNum;
+      }
+    }
+  }
+
+  /** The position in the buckets of a shard */
+  private static final class Cursor {
+    final ShardBucketList list;
+    int pos;
+
+    Cursor(ShardBucketList list) {
+      this.list = list;
+    }
+
+    @SuppressWarnings("rawtypes")
+    Comparable val() {
+      return (Comparable) list.buckets.get(pos).get("val");
+    }
+  }
+
   @Override
   public void finish(Context mcontext) {
     // TODO: check refine of subs?
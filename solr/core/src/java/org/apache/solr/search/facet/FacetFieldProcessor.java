@@ -26,9 +26,11 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.function.IntFunction;
@@ -207,7 +209,7 @@ abstract class FacetFieldProcessor extends FacetProcessor<FacetField> {
       int otherAccIdx = 0;
       for (Map.Entry<String, AggValueSource> entry : freq.getFacetStats().entrySet()) {
         AggValueSource agg = entry.getValue();
-        SlotAcc acc = agg.createSlotAcc(fcontext, numDocs, numSlots);
+        SlotAcc acc = createFirstPhaseAcc(agg, numDocs, numSlots);
         acc.key = entry.getKey();
         accMap.put(acc.key, acc);
         accs[otherAccIdx++] = acc;
@@ -230,7 +232,7 @@ abstract class FacetFieldProcessor extends FacetProcessor<FacetField> {
     if (sortAcc == null) {
       AggValueSource sortAgg = freq.getFacetStats().get(sort.sortVariable);
       if (sortAgg != null) {
-        collectAcc = sortAgg.createSlotAcc(fcontext, numDocs, numSlots);
+        collectAcc = createFirstPhaseAcc(sortAgg, numDocs, numSlots);
         collectAcc.key = sort.sortVariable; // TODO: improve this
       }
       sortAcc = collectAcc;
@@ -256,6 +258,33 @@ abstract class FacetFieldProcessor extends FacetProcessor<FacetField> {
     createOtherAccs(numDocs, 1);
   }
 
+  /**
+   * Whether the stats collected in the first phase should start with sparse slots, see {@link
+   * SparseSlotAcc}. False by default.
+   */
+  boolean useSparseSlotAccs(int numDocs, int numSlots) {
+    return false;
+  }
+
+  /**
+   * Returns the number of documents in each slot, if they can be had without collecting the
+   * documents, or else null. Null by default.
+   *
+   * @param queries the queries the documents are the intersection of
+   */
+  SlotAcc.CountSlotAcc getPrecomputedCounts(List<Query> queries, DocSet docs, int numSlots)
+      throws IOException {
+    return null;
+  }
+
+  private SlotAcc createFirstPhaseAcc(AggValueSource agg, int numDocs, int numSlots)
+      throws IOException {
+    if (!useSparseSlotAccs(numDocs, numSlots)) {
+      return agg.createSlotAcc(fcontext, numDocs, numSlots);
+    }
+    return SparseSlotAcc.create(agg, fcontext, numDocs, numSlots);
+  }
+
   private void createOtherAccs(int numDocs, int numSlots) throws IOException {
     if (otherAccs != null) {
       // reuse existing accumulators
@@ -307,6 +336,26 @@ abstract class FacetFieldProcessor extends FacetProcessor<FacetField> {
     }
   }
 
+  /** Adds how the stats with sparse slots stored them, by stat */
+  private void addSparseSlotAccsDebugInfo(FacetDebugInfo fdebug) {
+    SimpleOrderedMap<Object> info = null;
+    final List<SlotAcc> firstPhaseAccs = new ArrayList<>(accMap.values());
+    if (collectAcc != null) {
+      firstPhaseAccs.add(collectAcc);
+    }
+    for (SlotAcc acc : firstPhaseAccs) {
+      if (acc instanceof SparseSlotAcc && (info == null || info.get(acc.key) == null)) {
+        if (info == null) {
+          info = new SimpleOrderedMap<>();
+        }
+        info.add(acc.key, ((SparseSlotAcc) acc).getDebugInfo());
+      }
+    }
+    if (info != null) {
+      fdebug.putInfoItem("sparseSlotAccs", info);
+    }
+  }
+
   private static long applyDefaultOverrequest(long offset, long limit) {
     // NOTE: consider modifying the below heuristic; see SOLR-15760
     // add over-request if this is a shard request and if we have a small offset (large offsets will
@@ -454,7 +503,10 @@ abstract class FacetFieldProcessor extends FacetProcessor<FacetField> {
     }
 
     FacetDebugInfo fdebug = fcontext.getDebugInfo();
-    if (fdebug != null) fdebug.putInfoItem("numBuckets", numBuckets);
+    if (fdebug != null) {
+      fdebug.putInfoItem("numBuckets", numBuckets);
+      addSparseSlotAccsDebugInfo(fdebug);
+    }
 
     if (freq.allBuckets) {
       SimpleOrderedMap<Object> allBuckets = new SimpleOrderedMap<>();
@@ -508,23 +560,26 @@ abstract class FacetFieldProcessor extends FacetProcessor<FacetField> {
         sortedSlots = Arrays.copyOfRange(sortedSlots, off, endOffset);
       }
     }
-    List<SimpleOrderedMap<?>> bucketList = new ArrayList<>(sortedSlots.length);
-
-    for (Slot slot : sortedSlots) {
-      SimpleOrderedMap<Object> bucket = new SimpleOrderedMap<>();
-      bucket.add("val", slot.bucketVal);
+    if (streamsBuckets()) {
+      res.add("buckets", new BucketStream(sortedSlots, resortAccForFill));
+    } else {
+      List<SimpleOrderedMap<?>> bucketList = new ArrayList<>(sortedSlots.length);
 
-      fillBucketFromSlot(bucket, slot, resortAccForFill);
+      for (Slot slot : sortedSlots) {
+        bucketList.add(fillBucket(slot, resortAccForFill));
+      }
 
-      bucketList.add(bucket);
+      res.add("buckets", bucketList);
     }
 
-    res.add("buckets", bucketList);
-
     if (fcontext.isShard() && shardHasMoreBuckets) {
       // Currently, "more" is an internal implementation detail and only returned for distributed
       // sub-requests
       res.add("more", true);
+      if (freq.refine == FacetRequest.RefineMethod.APPROXIMATE && sortedSlots.length > 0) {
+        // buckets are sorted by count, so none of the others has a higher count than the last one
+        res.add("moreCount", countAcc.getCount(sortedSlots[sortedSlots.length - 1].slot));
+      }
     }
 
     if (freq.missing) {
@@ -536,6 +591,41 @@ abstract class FacetFieldProcessor extends FacetProcessor<FacetField> {
     return res;
   }
 
+  /**
+   * Whether the buckets are filled one at a time as they are written to the response, after {@link
+   * #process} returns, rather than all held at once. That's when all the buckets of a top level
+   * facet are returned, and there is no missing bucket, since filling it resets the accumulators.
+   * The processor must then keep what its accumulators read the slots from until the response is
+   * written, which for a facet nested under many buckets would hold more than its buckets.
+   *
+   * <p>Only buckets whose values were all collected are streamed. Sub-facets, and stats deferred
+   * to the domain of each bucket, search the index and may fail or exceed the time allowed: that
+   * must happen before the response starts, so that it is reported as an error rather than as a
+   * truncated response.
+   */
+  protected boolean streamsBuckets() {
+    return freq.limit < 0
+        && !freq.missing
+        && deferredAggs.isEmpty()
+        && freq.subFacets.isEmpty()
+        && (fcontext.parent == null || fcontext.parent.parent == null);
+  }
+
+  /**
+   * Releases the accumulators once all the streamed buckets have been filled, since the processor
+   * is held until the whole response is written.
+   */
+  protected void releaseSlots() {
+    accMap = null;
+    accs = null;
+    countAcc = null;
+    collectAcc = null;
+    sortAcc = null;
+    indexOrderAcc = null;
+    otherAccs = null;
+    allBucketsAcc = null;
+  }
+
   /** Trivial helper method for building up a bucket query given the (Stringified) bucket value */
   protected Query makeBucketQuery(final String bucketValue) {
     return sf.getType().getFieldTermQuery(null, sf, bucketValue);
@@ -573,6 +663,63 @@ abstract class FacetFieldProcessor extends FacetProcessor<FacetField> {
     int resortSlotNum;
   }
 
+  private SimpleOrderedMap<Object> fillBucket(Slot slot, SlotAcc resortAcc) throws IOException {
+    SimpleOrderedMap<Object> bucket = new SimpleOrderedMap<>();
+    bucket.add("val", slot.bucketVal);
+    fillBucketFromSlot(bucket, slot, resortAcc);
+    return bucket;
+  }
+
+  /**
+   * The buckets of the top slots, filled one at a time as they are iterated by the response writer.
+   * Can only be iterated once, since the accumulators are released when the last bucket is filled.
+   */
+  private class BucketStream implements Iterable<SimpleOrderedMap<Object>> {
+    private Slot[] slots;
+    private final SlotAcc resortAcc;
+
+    BucketStream(Slot[] slots, SlotAcc resortAcc) {
+      this.slots = slots;
+      this.resortAcc = resortAcc;
+    }
+
+    @Override
+    public Iterator<SimpleOrderedMap<Object>> iterator() {
+      if (slots == null) {
+        throw new IllegalStateException("The facet buckets were already streamed");
+      }
+      final Slot[] toFill = slots;
+      slots = null;
+      return new Iterator<>() {
+        int i = 0;
+
+        @Override
+        public boolean hasNext() {
+          if (i < toFill.length) {
+            return true;
+          }
+          releaseSlots();
+          return false;
+        }
+
+        @Override
+        public SimpleOrderedMap<Object> next() {
+          if (i >= toFill.length) {
+            throw new NoSuchElementException();
+          }
+          try {
+            return fillBucket(toFill[i], resortAcc);
+          } catch (IOException e) {
+            throw new SolrException(
+                SolrException.ErrorCode.SERVER_ERROR, "Error during facet streaming", e);
+          } finally {
+            toFill[i++] = null;
+          }
+        }
+      };
+    }
+  }
+
   /** Helper method used solely when looping over buckets to be returned in findTopSlots */
   private void fillBucketFromSlot(SimpleOrderedMap<Object> target, Slot slot, SlotAcc resortAcc)
       throws IOException {
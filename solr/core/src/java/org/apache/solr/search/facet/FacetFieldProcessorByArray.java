@@ -87,6 +87,20 @@ abstract class FacetFieldProcessorByArray extends FacetFieldProcessor {
     registerSweepingAccIfSupportedByCollectAcc();
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This impl uses sparse slots when the domain can only hit a small part of the terms, unless
+   * the <code>sparseSlots</code> option says otherwise. The number of documents is that of the
+   * domain, since the accs are created before {@link #nDocs} is known.
+   */
+  @Override
+  boolean useSparseSlotAccs(int numDocs, int numSlots) {
+    return freq.sparseSlots == null
+        ? SparseSlotAcc.isSparse(fcontext.base.size(), numSlots)
+        : freq.sparseSlots;
+  }
+
   @Override
   public void process() throws IOException {
     super.process();
@@ -16,26 +16,42 @@
  */
 package org.apache.solr.search.facet;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.MultiDocValues;
 import org.apache.lucene.index.OrdinalMap;
 import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.queries.function.ValueSource;
 import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Query;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.LongValues;
 import org.apache.lucene.util.UnicodeUtil;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.QueryContext;
+import org.apache.solr.search.SegmentFilterCache;
 import org.apache.solr.search.facet.SlotAcc.CountSlotAcc;
+import org.apache.solr.search.facet.SlotAcc.MergeableSlotAcc;
+import org.apache.solr.search.facet.SlotAcc.PrecomputedSumSlotAcc;
 import org.apache.solr.search.facet.SlotAcc.SweepCountAccStruct;
 import org.apache.solr.search.facet.SlotAcc.SweepingCountSlotAcc;
 import org.apache.solr.search.facet.SweepCountAware.SegCountGlobal;
 import org.apache.solr.search.facet.SweepCountAware.SegCountPerSeg;
+import org.apache.solr.search.function.FieldNameValueSource;
 import org.apache.solr.uninverting.FieldCacheImpl;
 
 /** Grabs values from {@link DocValues}. */
@@ -132,6 +148,21 @@ class FacetFieldProcessorByArrayDV extends FacetFieldProcessorByArray {
 
     final int maxSize = others.size() + 1; // others + base
     final List<LeafReaderContext> leaves = fcontext.searcher.getIndexReader().leaves();
+
+    if (others.isEmpty()) {
+      final String[] summedFields = getSummedFields();
+      if (summedFields != null
+          && (collectFromRollup(summedFields, leaves)
+              || collectFromSegmentCache(summedFields, leaves))) {
+        return;
+      }
+      final int numTasks = getNumConcurrentTasks(leaves.size());
+      if (numTasks > 1) {
+        collectConcurrently(leaves, numTasks);
+        return;
+      }
+    }
+
     final DocIdSetIterator[] subIterators = new DocIdSetIterator[maxSize];
     final CountSlotAcc[] activeCountAccs = new CountSlotAcc[maxSize];
 
@@ -205,11 +236,410 @@ class FacetFieldProcessorByArrayDV extends FacetFieldProcessorByArray {
     Arrays.fill(reuse, null); // better GC
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Not when the stats may be added up from rollups, the segment cache, or concurrently
+   * collected slots, which need the slots of the accs themselves.
+   */
+  @Override
+  boolean useSparseSlotAccs(int numDocs, int numSlots) {
+    return freq.threads == 0
+        && (fcontext.rollups == null || fcontext.rollups.get(sf.getName()) == null)
+        && (fcontext.req == null || fcontext.req.getCore().getSegmentFacetCache() == null)
+        && super.useSparseSlotAccs(numDocs, numSlots);
+  }
+
   @Override
   protected BytesRef lookupOrd(int ord) throws IOException {
     return si.lookupOrd(ord);
   }
 
+  /** The SlotAccs that {@link #collectAcc} collects into */
+  private SlotAcc[] getFirstPhaseAccs() {
+    if (collectAcc == null) {
+      return new SlotAcc[0];
+    } else if (collectAcc instanceof MultiAcc) {
+      return ((MultiAcc) collectAcc).subAccs;
+    } else {
+      return new SlotAcc[] {collectAcc};
+    }
+  }
+
+  /** Returns the field whose values the stat sums, or null if it isn't the sum of a field */
+  private String getSummedField(SlotAcc acc) {
+    final AggValueSource agg = freq.getFacetStats().get(acc.key);
+    if (acc instanceof PrecomputedSumSlotAcc && agg instanceof SimpleAggValueSource) {
+      final ValueSource arg = ((SimpleAggValueSource) agg).getArg();
+      if (arg instanceof FieldNameValueSource) {
+        return ((FieldNameValueSource) arg).getFieldName();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns, for each first phase stat, null if it's a count or else the field it sums; or null if
+   * some stat is neither, or allBuckets is requested, so that the documents must be collected.
+   */
+  private String[] getSummedFields() {
+    if (allBucketsAcc != null) {
+      return null;
+    }
+    final SlotAcc[] accs = getFirstPhaseAccs();
+    final String[] summedFields = new String[accs.length];
+    for (int i = 0; i < accs.length; i++) {
+      if (!(accs[i] instanceof CountSlotAcc)) {
+        summedFields[i] = getSummedField(accs[i]);
+        if (summedFields[i] == null) {
+          return null;
+        }
+      }
+    }
+    return summedFields;
+  }
+
+  /**
+   * Adds the rollups of the segments to the slots, if the field has a rollup with all the summed
+   * fields and the domain is all the documents.
+   *
+   * @return whether the rollups replaced collecting the documents
+   */
+  private boolean collectFromRollup(String[] summedFields, List<LeafReaderContext> leaves)
+      throws IOException {
+    final FacetRollups.Rollup rollup =
+        fcontext.rollups == null ? null : fcontext.rollups.get(sf.getName());
+    if (rollup == null || fcontext.base.size() != fcontext.searcher.numDocs()) {
+      return false;
+    }
+    final int[] statIndexes = new int[summedFields.length];
+    for (int i = 0; i < summedFields.length; i++) {
+      statIndexes[i] = summedFields[i] == null ? -1 : rollup.getStatIndex(summedFields[i]);
+      if (summedFields[i] != null && statIndexes[i] < 0) {
+        return false;
+      }
+    }
+    for (LeafReaderContext subCtx : leaves) {
+      addSegmentRollup(
+          rollup.getSegment(subCtx, fcontext.searcher),
+          subCtx,
+          countAcc,
+          getFirstPhaseAccs(),
+          statIndexes);
+    }
+    return true;
+  }
+
+  /**
+   * Adds the partial results of the segments to the slots, from the {@link SegmentFacetCache} of
+   * the core if it has one and the domain is known to be the result of some queries.
+   *
+   * @return whether the cache replaced collecting the documents
+   */
+  private boolean collectFromSegmentCache(String[] summedFields, List<LeafReaderContext> leaves)
+      throws IOException {
+    final List<Query> baseQueries = fcontext.getBaseQueries();
+    if (baseQueries == null || fcontext.req == null) {
+      return false;
+    }
+    final SegmentFacetCache cache = fcontext.req.getCore().getSegmentFacetCache();
+    if (cache == null) {
+      return false;
+    }
+    final List<String> statFields = new ArrayList<>();
+    final int[] statIndexes = new int[summedFields.length];
+    for (int i = 0; i < summedFields.length; i++) {
+      if (summedFields[i] == null) {
+        statIndexes[i] = -1;
+      } else {
+        if (!statFields.contains(summedFields[i])) {
+          statFields.add(summedFields[i]);
+        }
+        statIndexes[i] = statFields.indexOf(summedFields[i]);
+      }
+    }
+    final FacetRollups.SegmentRollup[] segments =
+        cache.getSegments(fcontext.searcher, fcontext.base, baseQueries, sf.getName(), statFields);
+    for (LeafReaderContext subCtx : leaves) {
+      addSegmentRollup(segments[subCtx.ord], subCtx, countAcc, getFirstPhaseAccs(), statIndexes);
+    }
+    return true;
+  }
+
+  /**
+   * Adds the counts and sums of the terms of a segment to their slots
+   *
+   * @param counts the acc to add the counts to
+   * @param accs the stats to add the counts or sums to
+   * @param statIndexes for each stat, the index of its sums in the segment, or -1 if it's a count
+   */
+  private void addSegmentRollup(
+      FacetRollups.SegmentRollup segment,
+      LeafReaderContext subCtx,
+      CountSlotAcc counts,
+      SlotAcc[] accs,
+      int[] statIndexes) {
+    final LongValues toGlobal = ordinalMap == null ? null : ordinalMap.getGlobalOrds(subCtx.ord);
+    for (int segOrd = 0; segOrd < segment.counts.length; segOrd++) {
+      final int count = segment.counts[segOrd];
+      if (count == 0) {
+        continue;
+      }
+      final int ord = toGlobal == null ? segOrd : (int) toGlobal.get(segOrd);
+      final int arrIdx = ord - startTermIndex;
+      if (arrIdx < 0 || arrIdx >= nTerms) {
+        continue;
+      }
+      counts.incrementCount(arrIdx, count);
+      for (int i = 0; i < accs.length; i++) {
+        final int stat = statIndexes[i];
+        if (stat < 0) {
+          ((CountSlotAcc) accs[i]).incrementCount(arrIdx, count);
+        } else {
+          ((PrecomputedSumSlotAcc) accs[i])
+              .addSum(arrIdx, segment.sums[stat][segOrd], segment.numValues[stat][segOrd]);
+        }
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This impl adds up the rollups of the segments when the documents are all the documents and
+   * the field has a rollup, or else the partial results of the segments cached by the {@link
+   * SegmentFacetCache} of the core if it has one, which are kept across requests and searchers,
+   * when the queries may be cached per segment.
+   */
+  @Override
+  CountSlotAcc getPrecomputedCounts(List<Query> queries, DocSet docs, int numSlots)
+      throws IOException {
+    final List<LeafReaderContext> leaves = fcontext.searcher.getIndexReader().leaves();
+    final FacetRollups.SegmentRollup[] segments;
+    final FacetRollups.Rollup rollup =
+        fcontext.rollups == null ? null : fcontext.rollups.get(sf.getName());
+    if (rollup != null && docs.size() == fcontext.searcher.numDocs()) {
+      segments = new FacetRollups.SegmentRollup[leaves.size()];
+      for (LeafReaderContext subCtx : leaves) {
+        segments[subCtx.ord] = rollup.getSegment(subCtx, fcontext.searcher);
+      }
+    } else {
+      final SegmentFacetCache cache =
+          fcontext.req == null || !fcontext.cache
+              ? null
+              : fcontext.req.getCore().getSegmentFacetCache();
+      if (cache == null) {
+        return null;
+      }
+      for (Query query : queries) {
+        if (!SegmentFilterCache.isSegmentCacheable(query)) {
+          // the partial results would be computed for this request only, sweeping is cheaper
+          return null;
+        }
+      }
+      segments =
+          cache.getSegments(
+              fcontext.searcher, docs, queries, sf.getName(), Collections.emptyList());
+    }
+    final CountSlotAcc counts = new SlotAcc.CountSlotArrAcc(fcontext, numSlots);
+    for (LeafReaderContext subCtx : leaves) {
+      addSegmentRollup(segments[subCtx.ord], subCtx, counts, new SlotAcc[0], new int[0]);
+    }
+    return counts;
+  }
+
+  /**
+   * Returns how many tasks should collect the segments concurrently, or 1 to collect them in this
+   * thread: when the <code>threads</code> option isn't set, or when the slots of some SlotAcc can't
+   * be merged.
+   */
+  private int getNumConcurrentTasks(int numLeaves) {
+    if (freq.threads == 0 || numLeaves < 2 || allBucketsAcc != null || fcontext.req == null) {
+      return 1;
+    }
+    for (SlotAcc acc : getFirstPhaseAccs()) {
+      if (!(acc instanceof MergeableSlotAcc) || freq.getFacetStats().get(acc.key) == null) {
+        return 1;
+      }
+    }
+    return freq.threads < 0 ? numLeaves : Math.min(freq.threads, numLeaves);
+  }
+
+  /**
+   * Collects the segments with several tasks, each counting and accumulating stats into slots of
+   * its own, then adds the slots of every task to {@link #countAcc} and {@link #collectAcc}.
+   */
+  private void collectConcurrently(List<LeafReaderContext> leaves, int numTasks)
+      throws IOException {
+    final SlotAcc[] accs = getFirstPhaseAccs();
+    final AtomicInteger nextLeaf = new AtomicInteger();
+    final List<SegmentsCollector> collectors = new ArrayList<>(numTasks);
+    try {
+      // SlotAccs are created here, since some look up top level docValues when created
+      for (int i = 0; i < numTasks; i++) {
+        collectors.add(new SegmentsCollector(accs, leaves, nextLeaf));
+      }
+
+      final ExecutorService executor =
+          fcontext.req.getCoreContainer().getUpdateShardHandler().getUpdateExecutor();
+      final List<Future<Void>> futures = new ArrayList<>(numTasks);
+      for (SegmentsCollector collector : collectors) {
+        futures.add(executor.submit(collector));
+      }
+      // wait for all the tasks before using or closing their SlotAccs
+      Throwable error = null;
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+        } catch (ExecutionException e) {
+          // let the other tasks finish early
+          nextLeaf.set(leaves.size());
+          if (error == null) {
+            error = e.getCause();
+          }
+        }
+      }
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      } else if (error != null) {
+        throw new SolrException(
+            SolrException.ErrorCode.SERVER_ERROR,
+            "Error in concurrent faceting on field: " + sf.getName(),
+            error);
+      }
+
+      // the merged SlotAccs must be able to look up values as if they had collected
+      setNextReaderFirstPhase(leaves.get(0));
+      for (SegmentsCollector collector : collectors) {
+        final long[] counts = collector.counts;
+        for (int slot = 0; slot < counts.length; slot++) {
+          if (counts[slot] != 0) {
+            countAcc.incrementCount(slot, counts[slot]);
+          }
+        }
+        for (int i = 0; i < accs.length; i++) {
+          ((MergeableSlotAcc) accs[i]).merge(collector.accs[i]);
+        }
+      }
+    } finally {
+      for (SegmentsCollector collector : collectors) {
+        collector.close();
+      }
+    }
+  }
+
+  /**
+   * Collects the segments it claims into a count array and SlotAccs of its own, so that it can run
+   * concurrently with others.
+   */
+  private class SegmentsCollector implements Callable<Void>, Closeable {
+    final List<LeafReaderContext> leaves;
+    final AtomicInteger nextLeaf;
+    final FacetContext context;
+    final long[] counts = new long[maxSlots];
+    final SlotAcc[] accs;
+    final SlotAcc multiAcc;
+
+    SegmentsCollector(SlotAcc[] mainAccs, List<LeafReaderContext> leaves, AtomicInteger nextLeaf)
+        throws IOException {
+      this.leaves = leaves;
+      this.nextLeaf = nextLeaf;
+      // ValueSources may keep state in the QueryContext, so each task has its own
+      context = fcontext.sub(fcontext.filter, fcontext.base);
+      context.parent = fcontext.parent;
+      context.processor = fcontext.processor;
+      context.facetInfo = fcontext.facetInfo;
+      context.qcontext = QueryContext.newContext(fcontext.searcher);
+      accs = new SlotAcc[mainAccs.length];
+      for (int i = 0; i < accs.length; i++) {
+        accs[i] =
+            freq.getFacetStats()
+                .get(mainAccs[i].key)
+                .createSlotAcc(context, fcontext.base.size(), maxSlots);
+        accs[i].key = mainAccs[i].key;
+      }
+      if (accs.length == 0) {
+        multiAcc = null;
+      } else if (accs.length == 1) {
+        multiAcc = accs[0];
+      } else {
+        multiAcc = new MultiAcc(context, accs);
+      }
+    }
+
+    @Override
+    public Void call() throws IOException {
+      int leafIdx;
+      while ((leafIdx = nextLeaf.getAndIncrement()) < leaves.size()) {
+        collectSegment(leaves.get(leafIdx));
+      }
+      return null;
+    }
+
+    private void collectSegment(LeafReaderContext subCtx) throws IOException {
+      final DocIdSetIterator disi = fcontext.base.iterator(subCtx);
+      if (disi == null) {
+        return;
+      }
+      final LongValues toGlobal = ordinalMap == null ? null : ordinalMap.getGlobalOrds(subCtx.ord);
+      int doc;
+      if (multiValuedField) {
+        final SortedSetDocValues multiDv = subCtx.reader().getSortedSetDocValues(sf.getName());
+        if (multiDv == null || multiDv.getValueCount() < 1) {
+          return;
+        }
+        if (multiAcc != null) {
+          multiAcc.setNextReader(subCtx);
+        }
+        while ((doc = disi.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+          if (multiDv.advanceExact(doc)) {
+            for (; ; ) {
+              int segOrd = (int) multiDv.nextOrd();
+              if (segOrd < 0) break;
+              collect(doc, segOrd, toGlobal);
+            }
+          }
+        }
+      } else {
+        final SortedDocValues singleDv = subCtx.reader().getSortedDocValues(sf.getName());
+        if (singleDv == null || singleDv.getValueCount() < 1) {
+          return;
+        }
+        if (multiAcc != null) {
+          multiAcc.setNextReader(subCtx);
+        }
+        while ((doc = disi.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+          if (singleDv.advanceExact(doc)) {
+            collect(doc, singleDv.ordValue(), toGlobal);
+          }
+        }
+      }
+    }
+
+    private void collect(int doc, int segOrd, LongValues toGlobal) throws IOException {
+      int ord = toGlobal != null ? (int) toGlobal.get(segOrd) : segOrd;
+      int arrIdx = ord - startTermIndex;
+      if (arrIdx >= 0 && arrIdx < nTerms) {
+        counts[arrIdx]++;
+        if (multiAcc != null) {
+          // mergeable SlotAccs don't use the slot context
+          multiAcc.collect(doc, arrIdx, slotContext);
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (SlotAcc acc : accs) {
+        acc.close();
+      }
+      context.qcontext.close();
+    }
+  }
+
   private void collectPerSeg(SortedDocValues singleDv, SweepDISI disi, LongValues toGlobal)
       throws IOException {
     int segMax = singleDv.getValueCount();
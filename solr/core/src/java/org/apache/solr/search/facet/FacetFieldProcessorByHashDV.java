@@ -218,6 +218,14 @@ class FacetFieldProcessorByHashDV extends FacetFieldProcessor {
   public void process() throws IOException {
     super.process();
     response = calcFacets();
+    if (!streamsBuckets()) {
+      table = null; // gc
+    }
+  }
+
+  @Override
+  protected void releaseSlots() {
+    super.releaseSlots();
     table = null; // gc
   }
 
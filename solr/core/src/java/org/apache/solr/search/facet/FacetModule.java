@@ -19,11 +19,13 @@ package org.apache.solr.search.facet;
 import static org.apache.solr.common.util.Utils.fromJSONString;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import org.apache.lucene.search.Query;
 import org.apache.solr.client.solrj.SolrResponse;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.CommonParams;
@@ -38,6 +40,7 @@ import org.apache.solr.handler.component.SearchComponent;
 import org.apache.solr.handler.component.ShardRequest;
 import org.apache.solr.handler.component.ShardResponse;
 import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.PostFilter;
 import org.apache.solr.search.QueryContext;
 import org.noggit.CharArr;
 import org.noggit.JSONWriter;
@@ -57,6 +60,14 @@ public class FacetModule extends SearchComponent {
   private static final String FACET_INFO = "_facet_";
   private static final String FACET_REFINE = "refine";
 
+  private FacetRollups rollups;
+
+  @Override
+  public void init(NamedList<?> args) {
+    super.init(args);
+    rollups = FacetRollups.create(args);
+  }
+
   public FacetComponentState getFacetComponentState(ResponseBuilder rb) {
     // TODO: put a map on ResponseBuilder?
     // rb.componentInfo.get(FacetComponentState.class);
@@ -134,6 +145,10 @@ public class FacetModule extends SearchComponent {
     fcontext.searcher = rb.req.getSearcher();
     fcontext.qcontext = QueryContext.newContext(fcontext.searcher);
     fcontext.cache = cache;
+    fcontext.rollups = rollups;
+    if (cache) {
+      fcontext.setBaseQueries(getBaseQueries(rb));
+    }
     if (isShard) {
       fcontext.flags |= FacetContext.IS_SHARD;
       fcontext.facetInfo =
@@ -158,6 +173,27 @@ public class FacetModule extends SearchComponent {
     rb.rsp.add("facets", results);
   }
 
+  /**
+   * Returns the queries the documents of the results are the intersection of, or null if they
+   * aren't known or post filters may have been applied.
+   */
+  private static List<Query> getBaseQueries(ResponseBuilder rb) {
+    if (rb.grouping() || rb.getQuery() == null) {
+      return null;
+    }
+    final List<Query> queries = new ArrayList<>();
+    queries.add(rb.getQuery());
+    if (rb.getFilters() != null) {
+      for (Query filter : rb.getFilters()) {
+        if (filter instanceof PostFilter) {
+          return null;
+        }
+        queries.add(filter);
+      }
+    }
+    return queries;
+  }
+
   private void clearFaceting(List<ShardRequest> outgoing) {
     // turn off faceting for requests not marked as being for faceting refinements
     for (ShardRequest sreq : outgoing) {
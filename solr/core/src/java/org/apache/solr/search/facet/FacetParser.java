@@ -567,6 +567,8 @@ abstract class FacetParser<T extends FacetRequest> {
         facet.refine = FacetRequest.RefineMethod.fromObj(m.get("refine"));
 
         facet.perSeg = getBooleanOrNull(m, "perSeg");
+        facet.sparseSlots = getBooleanOrNull(m, "sparseSlots");
+        facet.threads = (int) getLong(m, "threads", facet.threads);
 
         // facet.sort may depend on a facet stat...
         // should we be parsing / validating this here, or in the execution environment?
@@ -587,6 +589,11 @@ abstract class FacetParser<T extends FacetRequest> {
       if (null == facet.sort) {
         facet.sort = FacetRequest.FacetSort.COUNT_DESC;
       }
+      if (facet.refine == FacetRequest.RefineMethod.APPROXIMATE
+          && (!FacetRequest.FacetSort.COUNT_DESC.equals(facet.sort) || null != facet.prelim_sort)) {
+        // the count of the last bucket a shard returns only bounds the others when sorted by count
+        throw err("refine:approximate requires sort:'count desc' and no prelim_sort");
+      }
 
       return facet;
     }
@@ -16,7 +16,7 @@
  */
 package org.apache.solr.search.facet;
 
-import static org.apache.solr.search.facet.FacetRequest.RefineMethod.NONE;
+import static org.apache.solr.search.facet.FacetRequest.RefineMethod.SIMPLE;
 
 import com.google.common.collect.Sets;
 import java.io.IOException;
@@ -121,7 +121,12 @@ public abstract class FacetRequest {
 
   public static enum RefineMethod {
     NONE,
-    SIMPLE;
+    SIMPLE,
+    /**
+     * No refinement: buckets are merged from the first phase only, and reported with an upper bound
+     * of the count they may be missing from shards that did not return them.
+     */
+    APPROXIMATE;
     // NONE is distinct from null since we may want to know if refinement was explicitly turned off.
     public static FacetRequest.RefineMethod fromObj(Object method) {
       if (method == null) return null;
@@ -132,6 +137,8 @@ public abstract class FacetRequest {
         return SIMPLE;
       } else if ("none".equals(method)) {
         return NONE;
+      } else if ("approximate".equals(method)) {
+        return APPROXIMATE;
       } else {
         throw new SolrException(
             SolrException.ErrorCode.BAD_REQUEST, "Unknown RefineMethod method " + method);
@@ -397,7 +404,7 @@ public abstract class FacetRequest {
   }
 
   public boolean doRefine() {
-    return !(getRefineMethod() == null || getRefineMethod() == NONE);
+    return getRefineMethod() == SIMPLE;
   }
 
   /**
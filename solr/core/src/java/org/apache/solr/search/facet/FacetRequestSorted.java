@@ -46,7 +46,7 @@ abstract class FacetRequestSorted extends FacetRequest {
    */
   FacetSort prelim_sort;
 
-  RefineMethod refine; // null, NONE, or SIMPLE
+  RefineMethod refine; // null, NONE, SIMPLE or APPROXIMATE
 
   @Override
   public RefineMethod getRefineMethod() {
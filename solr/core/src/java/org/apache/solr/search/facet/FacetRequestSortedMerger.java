@@ -37,6 +37,8 @@ abstract class FacetRequestSortedMerger<FacetRequestT extends FacetRequestSorted
 
   // null, or "true" if we saw a result from this shard and it indicated that there are more results
   BitSet shardHasMoreBuckets;
+  // null, or the highest count of the buckets each shard has more of, for refine:approximate
+  long[] shardMoreCounts;
 
   Context mcontext; // HACK: this should be passed in getMergedResult as well!
 
@@ -55,7 +57,31 @@ abstract class FacetRequestSortedMerger<FacetRequestT extends FacetRequestSorted
         shardHasMoreBuckets = new BitSet(mcontext.numShards);
       }
       shardHasMoreBuckets.set(mcontext.shardNum);
+      Number moreCount = (Number) res.get("moreCount");
+      if (moreCount != null) {
+        if (shardMoreCounts == null) {
+          shardMoreCounts = new long[mcontext.numShards];
+        }
+        shardMoreCounts[mcontext.shardNum] = moreCount.longValue();
+      }
+    }
+  }
+
+  /**
+   * Returns an upper bound of the count a bucket may be missing, from the shards that have more
+   * buckets than they returned and did not return it, when not refined.
+   *
+   * @param bucket the bucket, or null for a bucket that no shard returned
+   */
+  long getCountError(FacetBucket bucket, Context mcontext) {
+    if (shardMoreCounts == null) return 0;
+    long error = 0;
+    for (int shard = 0; shard < mcontext.numShards; shard++) {
+      if (bucket == null || !mcontext.getShardFlag(bucket.bucketNumber, shard)) {
+        error += shardMoreCounts[shard];
+      }
     }
+    return error;
   }
 
   private static class SortVal implements Comparable<SortVal> {
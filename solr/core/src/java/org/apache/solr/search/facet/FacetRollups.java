@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.queries.function.FunctionValues;
+import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FilteredDocIdSetIterator;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.StrUtils;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Facet rollups: for each term of a field, the number of documents and the sum and number of values
+ * of some numeric fields for those documents, computed once per segment. A terms facet on the field
+ * over all the documents, whose first phase stats are counts, sums or averages of these fields, is
+ * answered from the rollups instead of reading the values of every document.
+ *
+ * <p>Rollups are declared in the configuration of the {@link FacetModule}:
+ *
+ * <pre>
+ * &lt;searchComponent name="facet_module" class="solr.facet.FacetModule"&gt;
+ *   &lt;lst name="rollups"&gt;
+ *     &lt;lst name="sales"&gt;
+ *       &lt;str name="field"&gt;region_s&lt;/str&gt;
+ *       &lt;str name="stats"&gt;price_d,quantity_i&lt;/str&gt;
+ *     &lt;/lst&gt;
+ *   &lt;/lst&gt;
+ * &lt;/searchComponent&gt;
+ * </pre>
+ *
+ * <p>The rollup of a segment is computed the first time it is used, and kept as long as the segment
+ * is open without new deletions or docValues updates, so that only new segments are computed after
+ * a commit. A <code>newSearcher</code> warming query computes them before the searcher is used.
+ * Stat fields must be single valued.
+ *
+ * @lucene.experimental
+ */
+public class FacetRollups {
+  public static final String ROLLUPS = "rollups";
+  public static final String FIELD = "field";
+  public static final String STATS = "stats";
+
+  private final Map<String, Rollup> byField;
+
+  FacetRollups(Map<String, Rollup> byField) {
+    this.byField = byField;
+  }
+
+  /** Parses the <code>rollups</code> of the configuration, or returns null if there are none */
+  public static FacetRollups create(NamedList<?> args) {
+    final Object config = args == null ? null : args.get(ROLLUPS);
+    if (config == null) {
+      return null;
+    }
+    if (!(config instanceof NamedList)) {
+      throw new SolrException(
+          SolrException.ErrorCode.SERVER_ERROR, ROLLUPS + " must be a list of rollups");
+    }
+    final Map<String, Rollup> byField = new HashMap<>();
+    for (Map.Entry<String, ?> entry : (NamedList<?>) config) {
+      if (!(entry.getValue() instanceof NamedList)) {
+        throw new SolrException(
+            SolrException.ErrorCode.SERVER_ERROR,
+            "rollup " + entry.getKey() + " must be a list of options");
+      }
+      final NamedList<?> options = (NamedList<?>) entry.getValue();
+      final Object field = options.get(FIELD);
+      final Object stats = options.get(STATS);
+      if (field == null) {
+        throw new SolrException(
+            SolrException.ErrorCode.SERVER_ERROR,
+            "rollup " + entry.getKey() + " must have a " + FIELD);
+      }
+      final List<String> statFields = new ArrayList<>();
+      if (stats != null) {
+        for (String stat : StrUtils.splitSmart(stats.toString(), ',')) {
+          statFields.add(stat.trim());
+        }
+      }
+      if (byField.put(field.toString(), new Rollup(field.toString(), statFields)) != null) {
+        throw new SolrException(
+            SolrException.ErrorCode.SERVER_ERROR, "more than one rollup of field " + field);
+      }
+    }
+    return byField.isEmpty() ? null : new FacetRollups(byField);
+  }
+
+  /** Returns the rollup of the terms of the field, or null if there is none */
+  public Rollup get(String field) {
+    return byField.get(field);
+  }
+
+  /** The rollup of a field, and of the segments it was computed for */
+  public static class Rollup {
+    final String field;
+    final List<String> statFields;
+    private final Map<IndexReader.CacheKey, SegmentRollup> segments = new ConcurrentHashMap<>();
+
+    Rollup(String field, List<String> statFields) {
+      this.field = field;
+      this.statFields = statFields;
+    }
+
+    /** Returns the index of the sums of the field in {@link SegmentRollup}s, or -1 */
+    int getStatIndex(String statField) {
+      return statFields.indexOf(statField);
+    }
+
+    /** Returns the rollup of the segment, computing it if needed */
+    SegmentRollup getSegment(LeafReaderContext leaf, SolrIndexSearcher searcher)
+        throws IOException {
+      final IndexReader.CacheHelper cacheHelper = leaf.reader().getReaderCacheHelper();
+      if (cacheHelper == null) {
+        return compute(leaf, searcher);
+      }
+      final IndexReader.CacheKey key = cacheHelper.getKey();
+      SegmentRollup rollup = segments.get(key);
+      if (rollup == null) {
+        // possibly computed twice, rather than making concurrent requests wait for each other
+        rollup = compute(leaf, searcher);
+        if (segments.putIfAbsent(key, rollup) == null) {
+          cacheHelper.addClosedListener(segments::remove);
+        }
+      }
+      return rollup;
+    }
+
+    private SegmentRollup compute(LeafReaderContext leaf, SolrIndexSearcher searcher)
+        throws IOException {
+      final LeafReader reader = leaf.reader();
+      final Bits liveDocs = reader.getLiveDocs();
+      DocIdSetIterator docs = DocIdSetIterator.all(reader.maxDoc());
+      if (liveDocs != null) {
+        docs =
+            new FilteredDocIdSetIterator(docs) {
+              @Override
+              protected boolean match(int doc) {
+                return liveDocs.get(doc);
+              }
+            };
+      }
+      return computeSegment(leaf, searcher, field, statFields, docs);
+    }
+  }
+
+  /**
+   * Computes the rollup of the terms of the field over some documents of a segment
+   *
+   * @param docs the documents of the segment to add up, which must not be deleted
+   */
+  static SegmentRollup computeSegment(
+      LeafReaderContext leaf,
+      SolrIndexSearcher searcher,
+      String field,
+      List<String> statFields,
+      DocIdSetIterator docs)
+      throws IOException {
+    final LeafReader reader = leaf.reader();
+    final SchemaField sf = searcher.getSchema().getField(field);
+    final SortedSetDocValues ords;
+    if (sf.multiValued() || sf.getType().multiValuedFieldCache()) {
+      final SortedSetDocValues multi = reader.getSortedSetDocValues(field);
+      ords = multi == null ? DocValues.emptySortedSet() : multi;
+    } else {
+      final SortedDocValues single = reader.getSortedDocValues(field);
+      ords = DocValues.singleton(single == null ? DocValues.emptySorted() : single);
+    }
+
+    final Map<Object, Object> context = ValueSource.newContext(searcher);
+    final FunctionValues[] values = new FunctionValues[statFields.size()];
+    for (int i = 0; i < values.length; i++) {
+      final SchemaField statField = searcher.getSchema().getField(statFields.get(i));
+      if (statField.multiValued()) {
+        throw new SolrException(
+            SolrException.ErrorCode.SERVER_ERROR,
+            "rollup of " + field + ": stat field " + statField.getName() + " is multi valued");
+      }
+      values[i] = statField.getType().getValueSource(statField, null).getValues(context, leaf);
+    }
+
+    final SegmentRollup rollup = new SegmentRollup((int) ords.getValueCount(), values.length);
+    final double[] docValues = new double[values.length];
+    final boolean[] docHasValues = new boolean[values.length];
+    for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+      if (!ords.advanceExact(doc)) {
+        continue;
+      }
+      for (int i = 0; i < values.length; i++) {
+        // as SumSlotAcc and AvgSlotAcc read them
+        docValues[i] = values[i].doubleVal(doc);
+        docHasValues[i] = docValues[i] != 0 || values[i].exists(doc);
+      }
+      for (long ord = ords.nextOrd();
+          ord != SortedSetDocValues.NO_MORE_ORDS;
+          ord = ords.nextOrd()) {
+        rollup.counts[(int) ord]++;
+        for (int i = 0; i < values.length; i++) {
+          if (docHasValues[i]) {
+            rollup.sums[i][(int) ord] += docValues[i];
+            rollup.numValues[i][(int) ord]++;
+          }
+        }
+      }
+    }
+    return rollup;
+  }
+
+  /** The rollup of a segment, indexed by the ords of the terms in the segment */
+  static final class SegmentRollup implements Accountable {
+    private static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(SegmentRollup.class);
+
+    final int[] counts;
+    final double[][] sums;
+    final int[][] numValues;
+
+    SegmentRollup(int numOrds, int numStats) {
+      counts = new int[numOrds];
+      sums = new double[numStats][numOrds];
+      numValues = new int[numStats][numOrds];
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      long bytes =
+          BASE_RAM_BYTES_USED
+              + RamUsageEstimator.sizeOf(counts)
+              + RamUsageEstimator.shallowSizeOf(sums)
+              + RamUsageEstimator.shallowSizeOf(numValues);
+      for (int i = 0; i < sums.length; i++) {
+        bytes += RamUsageEstimator.sizeOf(sums[i]) + RamUsageEstimator.sizeOf(numValues[i]);
+      }
+      return bytes;
+    }
+  }
+}
@@ -17,18 +17,31 @@
 package org.apache.solr.search.facet;
 
 import java.io.IOException;
+import java.util.Objects;
 import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.Hash;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.QParser;
 import org.apache.solr.util.hll.HLL;
 import org.apache.solr.util.hll.HLLType;
 
+/**
+ * Estimates the number of distinct values with a HyperLogLog per bucket. Its precision can be
+ * chosen with the <code>log2m</code> (log-base-2 of the number of registers, 13 by default) and
+ * <code>regwidth</code> (bits per register, 6 by default) options, for example <code>
+ * {func:"hll(user_s)", log2m:11, regwidth:5}</code>. Buckets with few values keep them explicitly,
+ * then only the registers that are set, until these would take more room than all the registers.
+ */
 public class HLLAgg extends StrAggValueSource {
   public static Long NO_VALUES = 0L;
+  public static final String LOG2M = "log2m";
+  public static final String REGWIDTH = "regwidth";
 
   protected HLLFactory factory;
 
@@ -37,6 +50,54 @@ public class HLLAgg extends StrAggValueSource {
     factory = new HLLFactory();
   }
 
+  public void setOpts(QParser parser) {
+    final SolrParams opts = parser.getLocalParams();
+    if (opts == null) {
+      return;
+    }
+    factory.log2m = opts.getInt(LOG2M, factory.log2m);
+    if (factory.log2m < HLL.MINIMUM_LOG2M_PARAM || HLL.MAXIMUM_LOG2M_PARAM < factory.log2m) {
+      throw new SolrException(
+          SolrException.ErrorCode.BAD_REQUEST,
+          name()
+              + " "
+              + LOG2M
+              + " must be at least "
+              + HLL.MINIMUM_LOG2M_PARAM
+              + " and at most "
+              + HLL.MAXIMUM_LOG2M_PARAM
+              + ", got "
+              + factory.log2m);
+    }
+    factory.regwidth = opts.getInt(REGWIDTH, factory.regwidth);
+    if (factory.regwidth < HLL.MINIMUM_REGWIDTH_PARAM
+        || HLL.MAXIMUM_REGWIDTH_PARAM < factory.regwidth) {
+      throw new SolrException(
+          SolrException.ErrorCode.BAD_REQUEST,
+          name()
+              + " "
+              + REGWIDTH
+              + " must be at least "
+              + HLL.MINIMUM_REGWIDTH_PARAM
+              + " and at most "
+              + HLL.MAXIMUM_REGWIDTH_PARAM
+              + ", got "
+              + factory.regwidth);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof HLLAgg) || !super.equals(o)) return false;
+    HLLAgg other = (HLLAgg) o;
+    return factory.log2m == other.factory.log2m && factory.regwidth == other.factory.regwidth;
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode() * 31 + Objects.hash(factory.log2m, factory.regwidth);
+  }
+
   // factory for the hyper-log-log algorithm.
   // TODO: make stats component HllOptions inherit from this?
   public static class HLLFactory {
@@ -44,11 +105,13 @@ public class HLLAgg extends StrAggValueSource {
     int regwidth = 6;
 
     public HLL getHLL() {
+      // the sparse representation keeps buckets of a few hundred or thousand values much smaller,
+      // in memory and serialized to shards, than all the registers
       return new HLL(
           log2m,
           regwidth,
           -1 /* auto explict threshold */,
-          false /* no sparse representation */,
+          true /* sparse representation */,
           HLLType.EMPTY);
     }
   }
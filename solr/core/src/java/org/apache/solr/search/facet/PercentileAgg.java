@@ -17,6 +17,9 @@
 package org.apache.solr.search.facet;
 
 import com.tdunning.math.stats.AVLTreeDigest;
+import com.tdunning.math.stats.Centroid;
+import com.tdunning.math.stats.MergingDigest;
+import com.tdunning.math.stats.TDigest;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
@@ -24,29 +27,89 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.IntFunction;
 import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.SortedNumericDocValues;
 import org.apache.lucene.index.SortedSetDocValues;
 import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.NumericUtils;
 import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.FunctionQParser;
+import org.apache.solr.search.QParser;
 import org.apache.solr.search.SyntaxError;
 import org.apache.solr.search.ValueSourceParser;
 import org.apache.solr.search.function.FieldNameValueSource;
 
+/**
+ * Estimates percentiles with a t-digest sketch per bucket. The sketch implementation and its
+ * accuracy can be chosen with the <code>sketch</code> (<code>avl</code>, the default, or <code>
+ * merging</code>) and <code>compression</code> (100 by default) options, for example <code>
+ * {func:"percentile(price,50,99)", sketch:merging, compression:200}</code>.
+ */
 public class PercentileAgg extends SimpleAggValueSource {
+  public static final String SKETCH = "sketch";
+  public static final String COMPRESSION = "compression";
+  public static final String AVL_TREE_SKETCH = "avl";
+  public static final String MERGING_SKETCH = "merging";
+  public static final double DEFAULT_COMPRESSION = 100;
+
+  // the values of a slot are buffered until there are this many, before creating its sketch
+  static final int MAX_BUFFERED_VALUES = 32;
+
   List<Double> percentiles;
+  String sketch = AVL_TREE_SKETCH;
+  double compression = DEFAULT_COMPRESSION;
 
   public PercentileAgg(ValueSource vs, List<Double> percentiles) {
     super("percentile", vs);
     this.percentiles = percentiles;
   }
 
+  public void setOpts(QParser parser) {
+    final SolrParams opts = parser.getLocalParams();
+    if (opts == null) {
+      return;
+    }
+    sketch = opts.get(SKETCH, AVL_TREE_SKETCH);
+    if (!AVL_TREE_SKETCH.equals(sketch) && !MERGING_SKETCH.equals(sketch)) {
+      throw new SolrException(
+          SolrException.ErrorCode.BAD_REQUEST,
+          name()
+              + " "
+              + SKETCH
+              + " must be "
+              + AVL_TREE_SKETCH
+              + " or "
+              + MERGING_SKETCH
+              + ", got "
+              + sketch);
+    }
+    compression = opts.getDouble(COMPRESSION, DEFAULT_COMPRESSION);
+    if (!(compression >= 1)) {
+      throw new SolrException(
+          SolrException.ErrorCode.BAD_REQUEST,
+          name() + " " + COMPRESSION + " must be at least 1, got " + compression);
+    }
+  }
+
+  TDigest newDigest() {
+    return MERGING_SKETCH.equals(sketch)
+        ? new MergingDigest(compression)
+        : new AVLTreeDigest(compression);
+  }
+
+  TDigest digestFromBytes(ByteBuffer buf) {
+    return MERGING_SKETCH.equals(sketch)
+        ? MergingDigest.fromBytes(buf)
+        : AVLTreeDigest.fromBytes(buf);
+  }
+
   @Override
   public SlotAcc createSlotAcc(FacetContext fcontext, long numDocs, int numSlots)
       throws IOException {
@@ -88,12 +151,16 @@ public class PercentileAgg extends SimpleAggValueSource {
   public boolean equals(Object o) {
     if (!(o instanceof PercentileAgg)) return false;
     PercentileAgg other = (PercentileAgg) o;
-    return this.arg.equals(other.arg) && this.percentiles.equals(other.percentiles);
+    return this.arg.equals(other.arg)
+        && this.percentiles.equals(other.percentiles)
+        && this.sketch.equals(other.sketch)
+        && this.compression == other.compression;
   }
 
   @Override
   public int hashCode() {
-    return super.hashCode() * 31 + percentiles.hashCode();
+    return (super.hashCode() * 31 + percentiles.hashCode()) * 31
+        + Objects.hash(sketch, compression);
   }
 
   public static class Parser extends ValueSourceParser {
@@ -114,11 +181,13 @@ public class PercentileAgg extends SimpleAggValueSource {
             "expected percentile(valsource,percent1[,percent2]*)  EXAMPLE:percentile(myfield,50)");
       }
 
-      return new PercentileAgg(vs, percentiles);
+      PercentileAgg agg = new PercentileAgg(vs, percentiles);
+      agg.setOpts(fp);
+      return agg;
     }
   }
 
-  protected Object getValueFromDigest(AVLTreeDigest digest) {
+  protected Object getValueFromDigest(TDigest digest) {
     if (digest == null) {
       return null;
     }
@@ -135,32 +204,67 @@ public class PercentileAgg extends SimpleAggValueSource {
     return lst;
   }
 
-  class Acc extends SlotAcc.FuncSlotAcc {
-    protected AVLTreeDigest[] digests;
-    protected ByteBuffer buf;
-    protected double[] sortvals;
+  /**
+   * The values collected into each slot. Most slots of a facet with many buckets have few values,
+   * so the first values of a slot are only buffered, and its sketch is created once there are more.
+   * The buffers are kept for reuse when the slots are reset.
+   */
+  class SlotSketches {
+    TDigest[] digests;
+    double[][] buffers;
+    int[] sizes;
+    ByteBuffer buf;
+    double[] sortvals;
 
-    public Acc(ValueSource values, FacetContext fcontext, int numSlots) {
-      super(values, fcontext, numSlots);
-      digests = new AVLTreeDigest[numSlots];
+    SlotSketches(int numSlots) {
+      digests = new TDigest[numSlots];
+      buffers = new double[numSlots][];
+      sizes = new int[numSlots];
     }
 
-    @Override
-    public void collect(int doc, int slotNum, IntFunction<SlotContext> slotContext)
-        throws IOException {
-      if (!values.exists(doc)) return;
-      double val = values.doubleVal(doc);
-
-      AVLTreeDigest digest = digests[slotNum];
+    void add(int slot, double val) {
+      TDigest digest = digests[slot];
       if (digest == null) {
-        digests[slotNum] = digest = new AVLTreeDigest(100); // TODO: make compression configurable
+        final int size = sizes[slot];
+        if (size < MAX_BUFFERED_VALUES) {
+          double[] buffer = buffers[slot];
+          if (buffer == null) {
+            buffers[slot] = buffer = new double[4];
+          } else if (buffer.length == size) {
+            buffers[slot] = buffer = ArrayUtil.growExact(buffer, size * 2);
+          }
+          buffer[size] = val;
+          sizes[slot] = size + 1;
+          return;
+        }
+        digests[slot] = digest = toDigest(slot);
       }
-
       digest.add(val);
     }
 
-    @Override
-    public int compare(int slotA, int slotB) {
+    /**
+     * Returns the sketch of the slot, or null if empty. The sketch of a slot whose values are still
+     * buffered is created once and kept, since sorting and then getting the values of the slots
+     * asks for it more than once.
+     */
+    TDigest getDigest(int slot) {
+      TDigest digest = digests[slot];
+      if (digest == null && sizes[slot] != 0) {
+        digests[slot] = digest = toDigest(slot);
+      }
+      return digest;
+    }
+
+    private TDigest toDigest(int slot) {
+      final TDigest digest = newDigest();
+      final double[] buffer = buffers[slot];
+      for (int i = 0, size = sizes[slot]; i < size; i++) {
+        digest.add(buffer[i]);
+      }
+      return digest;
+    }
+
+    int compare(int slotA, int slotB) {
       if (sortvals == null) {
         fillSortVals();
       }
@@ -171,7 +275,7 @@ public class PercentileAgg extends SimpleAggValueSource {
       sortvals = new double[digests.length];
       double sortp = percentiles.get(0) * 0.01;
       for (int i = 0; i < digests.length; i++) {
-        AVLTreeDigest digest = digests[i];
+        TDigest digest = getDigest(i);
         if (digest == null) {
           sortvals[i] = Double.NEGATIVE_INFINITY;
         } else {
@@ -180,20 +284,19 @@ public class PercentileAgg extends SimpleAggValueSource {
       }
     }
 
-    @Override
-    public Object getValue(int slotNum) throws IOException {
-      if (fcontext.isShard()) {
+    Object getValue(int slotNum, boolean isShard) {
+      if (isShard) {
         return getShardValue(slotNum);
       }
       if (sortvals != null && percentiles.size() == 1) {
         // we've already calculated everything we need
-        return digests[slotNum] != null ? sortvals[slotNum] : null;
+        return sizes[slotNum] != 0 ? sortvals[slotNum] : null;
       }
-      return getValueFromDigest(digests[slotNum]);
+      return getValueFromDigest(getDigest(slotNum));
     }
 
-    public Object getShardValue(int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
+    private Object getShardValue(int slot) {
+      TDigest digest = getDigest(slot);
       if (digest == null) return null; // no values for this slot
 
       digest.compress();
@@ -208,87 +311,83 @@ public class PercentileAgg extends SimpleAggValueSource {
       return arr;
     }
 
+    void reset() {
+      Arrays.fill(digests, null);
+      Arrays.fill(sizes, 0);
+      sortvals = null;
+    }
+
+    void resize(SlotAcc.Resizer resizer) {
+      digests = resizer.resize(digests, null);
+      buffers = resizer.resize(buffers, null);
+      sizes = resizer.resize(sizes, 0);
+      sortvals = null;
+    }
+  }
+
+  class Acc extends SlotAcc.FuncSlotAcc {
+    protected final SlotSketches sketches;
+
+    public Acc(ValueSource values, FacetContext fcontext, int numSlots) {
+      super(values, fcontext, numSlots);
+      sketches = new SlotSketches(numSlots);
+    }
+
+    @Override
+    public void collect(int doc, int slotNum, IntFunction<SlotContext> slotContext)
+        throws IOException {
+      if (!values.exists(doc)) return;
+      sketches.add(slotNum, values.doubleVal(doc));
+    }
+
+    @Override
+    public int compare(int slotA, int slotB) {
+      return sketches.compare(slotA, slotB);
+    }
+
+    @Override
+    public Object getValue(int slotNum) throws IOException {
+      return sketches.getValue(slotNum, fcontext.isShard());
+    }
+
     @Override
     public void reset() {
-      digests = new AVLTreeDigest[digests.length];
-      sortvals = null;
+      sketches.reset();
     }
 
     @Override
     public void resize(Resizer resizer) {
-      digests = resizer.resize(digests, null);
+      sketches.resize(resizer);
     }
   }
 
   abstract class BasePercentileDVAcc extends DocValuesAcc {
-    AVLTreeDigest[] digests;
-    protected ByteBuffer buf;
-    double[] sortvals;
+    protected final SlotSketches sketches;
 
     public BasePercentileDVAcc(FacetContext fcontext, SchemaField sf, int numSlots)
         throws IOException {
       super(fcontext, sf);
-      digests = new AVLTreeDigest[numSlots];
+      sketches = new SlotSketches(numSlots);
     }
 
     @Override
     public int compare(int slotA, int slotB) {
-      if (sortvals == null) {
-        fillSortVals();
-      }
-      return Double.compare(sortvals[slotA], sortvals[slotB]);
-    }
-
-    private void fillSortVals() {
-      sortvals = new double[digests.length];
-      double sortp = percentiles.get(0) * 0.01;
-      for (int i = 0; i < digests.length; i++) {
-        AVLTreeDigest digest = digests[i];
-        if (digest == null) {
-          sortvals[i] = Double.NEGATIVE_INFINITY;
-        } else {
-          sortvals[i] = digest.quantile(sortp);
-        }
-      }
+      return sketches.compare(slotA, slotB);
     }
 
     @Override
     public Object getValue(int slotNum) throws IOException {
-      if (fcontext.isShard()) {
-        return getShardValue(slotNum);
-      }
-      if (sortvals != null && percentiles.size() == 1) {
-        // we've already calculated everything we need
-        return digests[slotNum] != null ? sortvals[slotNum] : null;
-      }
-      return getValueFromDigest(digests[slotNum]);
-    }
-
-    public Object getShardValue(int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
-      if (digest == null) return null; // no values for this slot
-
-      digest.compress();
-      int sz = digest.byteSize();
-      if (buf == null || buf.capacity() < sz) {
-        buf = ByteBuffer.allocate(sz + (sz >> 1)); // oversize by 50%
-      } else {
-        buf.clear();
-      }
-      digest.asSmallBytes(buf);
-      byte[] arr = Arrays.copyOf(buf.array(), buf.position());
-      return arr;
+      return sketches.getValue(slotNum, fcontext.isShard());
     }
 
     @Override
     public void reset() {
-      digests = new AVLTreeDigest[digests.length];
-      sortvals = null;
+      sketches.reset();
     }
 
     @Override
     public void resize(Resizer resizer) {
-      digests = resizer.resize(digests, null);
+      sketches.resize(resizer);
     }
   }
 
@@ -302,13 +401,8 @@ public class PercentileAgg extends SimpleAggValueSource {
 
     @Override
     protected void collectValues(int doc, int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
-      if (digest == null) {
-        digests[slot] = digest = new AVLTreeDigest(100);
-      }
       for (int i = 0, count = values.docValueCount(); i < count; i++) {
-        double val = getDouble(values.nextValue());
-        digest.add(val);
+        sketches.add(slot, getDouble(values.nextValue()));
       }
     }
 
@@ -351,16 +445,12 @@ public class PercentileAgg extends SimpleAggValueSource {
 
     @Override
     protected void collectValues(int doc, int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
-      if (digest == null) {
-        digests[slot] = digest = new AVLTreeDigest(100);
-      }
       long ord;
       while ((ord = values.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
         BytesRef term = values.lookupOrd(ord);
         Object obj = sf.getType().toObject(sf, term);
         double val = obj instanceof Date ? ((Date) obj).getTime() : ((Number) obj).doubleValue();
-        digest.add(val);
+        sketches.add(slot, val);
       }
     }
 
@@ -377,15 +467,13 @@ public class PercentileAgg extends SimpleAggValueSource {
   }
 
   class PercentileUnInvertedFieldAcc extends UnInvertedFieldAcc {
-    protected AVLTreeDigest[] digests;
-    protected ByteBuffer buf;
-    protected double[] sortvals;
+    protected final SlotSketches sketches;
     private int currentSlot;
 
     public PercentileUnInvertedFieldAcc(FacetContext fcontext, SchemaField sf, int numSlots)
         throws IOException {
       super(fcontext, sf, numSlots);
-      digests = new AVLTreeDigest[numSlots];
+      sketches = new SlotSketches(numSlots);
     }
 
     @Override
@@ -398,75 +486,31 @@ public class PercentileAgg extends SimpleAggValueSource {
 
     @Override
     public int compare(int slotA, int slotB) {
-      if (sortvals == null) {
-        fillSortVals();
-      }
-      return Double.compare(sortvals[slotA], sortvals[slotB]);
-    }
-
-    private void fillSortVals() {
-      sortvals = new double[digests.length];
-      double sortp = percentiles.get(0) * 0.01;
-      for (int i = 0; i < digests.length; i++) {
-        AVLTreeDigest digest = digests[i];
-        if (digest == null) {
-          sortvals[i] = Double.NEGATIVE_INFINITY;
-        } else {
-          sortvals[i] = digest.quantile(sortp);
-        }
-      }
+      return sketches.compare(slotA, slotB);
     }
 
     @Override
     public Object getValue(int slotNum) throws IOException {
-      if (fcontext.isShard()) {
-        return getShardValue(slotNum);
-      }
-      if (sortvals != null && percentiles.size() == 1) {
-        // we've already calculated everything we need
-        return digests[slotNum] != null ? sortvals[slotNum] : null;
-      }
-      return getValueFromDigest(digests[slotNum]);
-    }
-
-    public Object getShardValue(int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
-      if (digest == null) return null;
-
-      digest.compress();
-      int sz = digest.byteSize();
-      if (buf == null || buf.capacity() < sz) {
-        buf = ByteBuffer.allocate(sz + (sz >> 1)); // oversize by 50%
-      } else {
-        buf.clear();
-      }
-      digest.asSmallBytes(buf);
-      byte[] arr = Arrays.copyOf(buf.array(), buf.position());
-      return arr;
+      return sketches.getValue(slotNum, fcontext.isShard());
     }
 
     @Override
     public void reset() {
-      digests = new AVLTreeDigest[digests.length];
-      sortvals = null;
+      sketches.reset();
     }
 
     @Override
     public void resize(Resizer resizer) {
-      digests = resizer.resize(digests, null);
+      sketches.resize(resizer);
     }
 
     @Override
     public void call(int ord) {
-      AVLTreeDigest digest = digests[currentSlot];
-      if (digest == null) {
-        digests[currentSlot] = digest = new AVLTreeDigest(100);
-      }
       try {
         BytesRef term = docToTerm.lookupOrd(ord);
         Object obj = sf.getType().toObject(sf, term);
         double val = obj instanceof Date ? ((Date) obj).getTime() : ((Number) obj).doubleValue();
-        digest.add(val);
+        sketches.add(currentSlot, val);
       } catch (IOException e) {
         throw new UncheckedIOException(e);
       }
@@ -474,18 +518,20 @@ public class PercentileAgg extends SimpleAggValueSource {
   }
 
   class Merger extends FacetModule.FacetSortableMerger {
-    protected AVLTreeDigest digest;
+    protected TDigest digest;
     protected Double sortVal;
 
     @Override
     public void merge(Object facetResult, Context mcontext) {
       byte[] arr = (byte[]) facetResult;
       if (arr == null) return; // an explicit null can mean no values in the field
-      AVLTreeDigest subDigest = AVLTreeDigest.fromBytes(ByteBuffer.wrap(arr));
+      TDigest subDigest = digestFromBytes(ByteBuffer.wrap(arr));
       if (digest == null) {
         digest = subDigest;
       } else {
-        digest.add(subDigest);
+        for (Centroid centroid : subDigest.centroids()) {
+          digest.add(centroid.mean(), centroid.count());
+        }
       }
     }
 
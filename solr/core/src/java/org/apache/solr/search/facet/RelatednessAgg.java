@@ -360,8 +360,9 @@ public class RelatednessAgg extends AggValueSource {
       } else {
         final ReadOnlyCountSlotAcc fgCount =
             baseSweepingAcc.add(key + "!fg", fgSet, slotvalues.length);
+        // the background is usually the same across requests, so its counts may be precomputed
         final ReadOnlyCountSlotAcc bgCount =
-            baseSweepingAcc.add(key + "!bg", bgSet, slotvalues.length);
+            baseSweepingAcc.add(key + "!bg", agg.bgQ, bgSet, slotvalues.length);
         SweepSKGSlotAcc readOnlyReplacement =
             new SweepSKGSlotAcc(
                 agg.min_pop, fcontext, slotvalues.length, fgSize, bgSize, fgCount, bgCount);
@@ -409,7 +410,15 @@ public class RelatednessAgg extends AggValueSource {
       }
 
       slotVal.incSizes(fgSize, bgSize);
-      slotVal.incCounts(fgSet.intersectionSize(slotSet), bgSet.intersectionSize(slotSet));
+      slotVal.incCounts(intersectionSize(fgSet, slotSet), intersectionSize(bgSet, slotSet));
+    }
+
+    /** Doesn't intersect the sets when the first is all the documents, as backgrounds often are */
+    private long intersectionSize(DocSet set, DocSet slotSet) {
+      if (set.size() == fcontext.searcher.numDocs()) {
+        return slotSet.size();
+      }
+      return set.intersectionSize(slotSet);
     }
 
     @Override
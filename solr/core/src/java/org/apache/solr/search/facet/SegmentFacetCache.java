@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.core.SolrInfoBean.Category;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricsContext;
+import org.apache.solr.search.CacheConfig;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SegmentFilterCache;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A core-level cache of the partial results of terms facets on each segment: for each term of the
+ * segment, the number of documents of the domain, and the sums of the fields the facet adds up.
+ * Entries are keyed on the facet field and stats, the rewritten queries the domain is the result
+ * of, and the segment's reader cache key, so they stay valid across searchers until the segment
+ * gets new deletions or is closed. A terms facet repeated after a commit only collects the new
+ * segments, and merges the cached partial results of the others into its slots. The entries of
+ * segments that were closed are never looked up again, and are evicted within the bounds of the
+ * cache like any other unused entry. Joins and other queries whose matches on a segment depend on
+ * the rest of the index aren't cached (see {@link SegmentFilterCache#isSegmentCacheable}).
+ *
+ * <p>Configured in solrconfig.xml via {@code <query><segmentFacetCache .../></query>} using the
+ * usual cache attributes (class, size, maxRamMB, ...). Disabled when absent.
+ *
+ * @see FacetRollups
+ * @lucene.experimental
+ */
+public class SegmentFacetCache implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final String NAME = "segmentFacetCache";
+
+  private final SolrCache<Key, FacetRollups.SegmentRollup> cache;
+
+  final LongAdder segmentHits = new LongAdder();
+  final LongAdder segmentMisses = new LongAdder();
+  final LongAdder uncacheable = new LongAdder();
+
+  @SuppressWarnings({"unchecked"})
+  public SegmentFacetCache(CacheConfig config) {
+    this.cache = config.newInstance();
+    if (this.cache == null) {
+      throw new SolrException(
+          SolrException.ErrorCode.SERVER_ERROR, "Unable to create " + NAME + " from " + config);
+    }
+    this.cache.setState(SolrCache.State.LIVE);
+  }
+
+  /** The cache holding per-segment partial results. Exposed for metrics and testing. */
+  public SolrCache<Key, FacetRollups.SegmentRollup> getCache() {
+    return cache;
+  }
+
+  /**
+   * Returns the partial results of a terms facet on each segment of the searcher, computing those
+   * that aren't cached.
+   *
+   * @param domain the documents to facet, which must be the intersection of <code>queries</code>
+   * @param queries the queries the domain is the result of
+   * @param field the field to facet
+   * @param statFields the single valued fields to add up for each term
+   * @return the partial results, indexed by the ord of the segment
+   */
+  FacetRollups.SegmentRollup[] getSegments(
+      SolrIndexSearcher searcher,
+      DocSet domain,
+      List<Query> queries,
+      String field,
+      List<String> statFields)
+      throws IOException {
+    final List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    final FacetRollups.SegmentRollup[] segments = new FacetRollups.SegmentRollup[leaves.size()];
+    boolean cacheable = true;
+    for (Query query : queries) {
+      cacheable &= SegmentFilterCache.isSegmentCacheable(query);
+    }
+    // the rewritten queries are the key, since the rewrite of some depends on the whole index
+    final List<Query> rewritten = new ArrayList<>(queries.size());
+    final Weight[] weights = new Weight[queries.size()];
+    for (int i = 0; cacheable && i < weights.length; i++) {
+      rewritten.add(searcher.rewrite(queries.get(i)));
+      weights[i] = searcher.createWeight(rewritten.get(i), ScoreMode.COMPLETE_NO_SCORES, 1f);
+    }
+
+    for (LeafReaderContext ctx : leaves) {
+      final IndexReader.CacheHelper cacheHelper = ctx.reader().getReaderCacheHelper();
+      final Key key =
+          cacheable && cacheHelper != null && isCacheable(weights, ctx)
+              ? new Key(field, statFields, rewritten, cacheHelper.getKey())
+              : null;
+      FacetRollups.SegmentRollup segment = key == null ? null : cache.get(key);
+      if (segment != null) {
+        segmentHits.increment();
+      } else {
+        DocIdSetIterator docs = domain.iterator(ctx);
+        if (docs == null) {
+          docs = DocIdSetIterator.empty();
+        }
+        segment = FacetRollups.computeSegment(ctx, searcher, field, statFields, docs);
+        if (key != null) {
+          segmentMisses.increment();
+          cache.put(key, segment);
+        } else {
+          uncacheable.increment();
+        }
+      }
+      segments[ctx.ord] = segment;
+    }
+    return segments;
+  }
+
+  /**
+   * Whether the partial results of the queries on the segment may be cached: this is checked for
+   * each segment, as whether a query is cacheable may depend on the updates of its docValues
+   */
+  private static boolean isCacheable(Weight[] weights, LeafReaderContext ctx) {
+    for (Weight weight : weights) {
+      if (!weight.isCacheable(ctx)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public void initializeMetrics(SolrMetricsContext parentContext, String scope) {
+    cache.initializeMetrics(parentContext, scope);
+    final MetricsMap segmentMetrics =
+        new MetricsMap(
+            map -> {
+              map.put("segmentHits", segmentHits.sum());
+              map.put("segmentMisses", segmentMisses.sum());
+              map.put("uncacheable", uncacheable.sum());
+            });
+    parentContext.gauge(segmentMetrics, true, "segments", Category.CACHE.toString(), scope);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      cache.close();
+    } catch (Exception e) {
+      log.warn("Exception closing {}", NAME, e);
+    }
+  }
+
+  /** Cache key: a terms facet over the result of some queries, on one segment. */
+  public static final class Key implements Accountable {
+    private static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(Key.class);
+
+    final String field;
+    final List<String> statFields;
+    final List<Query> queries;
+    final IndexReader.CacheKey segmentKey;
+    private final int hash;
+
+    Key(
+        String field,
+        List<String> statFields,
+        List<Query> queries,
+        IndexReader.CacheKey segmentKey) {
+      this.field = field;
+      this.statFields = statFields;
+      this.queries = queries;
+      this.segmentKey = segmentKey;
+      this.hash = Objects.hash(field, statFields, queries, segmentKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return hash == other.hash
+          && segmentKey == other.segmentKey
+          && field.equals(other.field)
+          && statFields.equals(other.statFields)
+          && queries.equals(other.queries);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      long bytes =
+          BASE_RAM_BYTES_USED
+              + RamUsageEstimator.sizeOf(field)
+              + RamUsageEstimator.sizeOfObject(statFields);
+      for (Query query : queries) {
+        bytes +=
+            RamUsageEstimator.sizeOfObject(query, RamUsageEstimator.QUERY_DEFAULT_RAM_BYTES_USED);
+      }
+      return bytes;
+    }
+
+    @Override
+    public String toString() {
+      return field + statFields + queries + "@" + segmentKey;
+    }
+  }
+}
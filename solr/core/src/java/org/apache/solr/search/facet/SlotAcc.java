@@ -31,6 +31,7 @@ import org.apache.lucene.queries.function.ValueSource;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.util.FixedBitSet;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocSet;
@@ -156,6 +157,25 @@ public abstract class SlotAcc implements Closeable {
   @Override
   public void close() throws IOException {}
 
+  /** Adds each value to the same index of the target, for {@link MergeableSlotAcc}s */
+  static void addTo(double[] target, double[] values) {
+    for (int i = 0; i < values.length; i++) {
+      target[i] += values[i];
+    }
+  }
+
+  static void addTo(long[] target, long[] values) {
+    for (int i = 0; i < values.length; i++) {
+      target[i] += values[i];
+    }
+  }
+
+  static void addTo(int[] target, int[] values) {
+    for (int i = 0; i < values.length; i++) {
+      target[i] += values[i];
+    }
+  }
+
   public abstract static class Resizer {
     public abstract int getNewSize();
 
@@ -217,10 +237,12 @@ public abstract class SlotAcc implements Closeable {
       int oldSize = old.length();
 
       for (int oldSlot = 0; ; ) {
-        oldSlot = values.nextSetBit(oldSlot);
+        oldSlot = old.nextSetBit(oldSlot);
         if (oldSlot == DocIdSetIterator.NO_MORE_DOCS) break;
         int newSlot = getNewSlot(oldSlot);
-        values.set(newSlot);
+        if (newSlot >= 0) {
+          values.set(newSlot);
+        }
         if (++oldSlot >= oldSize) break;
       }
 
@@ -404,11 +426,22 @@ public abstract class SlotAcc implements Closeable {
     }
   }
 
-  static class SumSlotAcc extends DoubleFuncSlotAcc {
+  static class SumSlotAcc extends DoubleFuncSlotAcc
+      implements MergeableSlotAcc, PrecomputedSumSlotAcc {
     public SumSlotAcc(ValueSource values, FacetContext fcontext, int numSlots) {
       super(values, fcontext, numSlots);
     }
 
+    @Override
+    public void merge(SlotAcc other) {
+      addTo(result, ((SumSlotAcc) other).result);
+    }
+
+    @Override
+    public void addSum(int slot, double sum, int numValues) {
+      result[slot] += sum;
+    }
+
     @Override
     public void collect(int doc, int slotNum, IntFunction<SlotContext> slotContext)
         throws IOException {
@@ -418,11 +451,16 @@ public abstract class SlotAcc implements Closeable {
     }
   }
 
-  static class SumsqSlotAcc extends DoubleFuncSlotAcc {
+  static class SumsqSlotAcc extends DoubleFuncSlotAcc implements MergeableSlotAcc {
     public SumsqSlotAcc(ValueSource values, FacetContext fcontext, int numSlots) {
       super(values, fcontext, numSlots);
     }
 
+    @Override
+    public void merge(SlotAcc other) {
+      addTo(result, ((SumsqSlotAcc) other).result);
+    }
+
     @Override
     public void collect(int doc, int slotNum, IntFunction<SlotContext> slotContext)
         throws IOException {
@@ -432,7 +470,8 @@ public abstract class SlotAcc implements Closeable {
     }
   }
 
-  static class AvgSlotAcc extends DoubleFuncSlotAcc {
+  static class AvgSlotAcc extends DoubleFuncSlotAcc
+      implements MergeableSlotAcc, PrecomputedSumSlotAcc {
     int[] counts;
 
     public AvgSlotAcc(ValueSource values, FacetContext fcontext, int numSlots) {
@@ -458,6 +497,18 @@ public abstract class SlotAcc implements Closeable {
       }
     }
 
+    @Override
+    public void merge(SlotAcc other) {
+      addTo(result, ((AvgSlotAcc) other).result);
+      addTo(counts, ((AvgSlotAcc) other).counts);
+    }
+
+    @Override
+    public void addSum(int slot, double sum, int numValues) {
+      result[slot] += sum;
+      counts[slot] += numValues;
+    }
+
     private double avg(int slot) {
       return AggUtil.avg(result[slot], counts[slot]); // calc once and cache in result?
     }
@@ -642,6 +693,29 @@ public abstract class SlotAcc implements Closeable {
     public T registerSweepingAccs(SweepingCountSlotAcc baseSweepingAcc);
   }
 
+  /**
+   * Implemented by SlotAccs whose per-slot state can be accumulated separately, for example by
+   * threads collecting different segments, and then added together.
+   *
+   * @see FacetFieldProcessorByArrayDV
+   */
+  static interface MergeableSlotAcc {
+    /**
+     * Adds the state of each slot of <code>other</code> to the same slot of this SlotAcc. The other
+     * SlotAcc is of the same class, was created by the same {@link AggValueSource}, and has the
+     * same number of slots.
+     */
+    public void merge(SlotAcc other);
+  }
+
+  /**
+   * Implemented by SlotAccs that can take the sum and number of values of the documents of a slot
+   * computed beforehand, such as by {@link FacetRollups}.
+   */
+  static interface PrecomputedSumSlotAcc {
+    public void addSum(int slot, double sum, int numValues);
+  }
+
   /**
    * A simple data structure to {@link DocSet} domains with an associated {@link CountSlotAcc}. This
    * may be used to support sweep count accumulation over different {@link DocSet} domains, but the
@@ -711,6 +785,7 @@ public abstract class SlotAcc implements Closeable {
         debug.add("base", key);
         debug.add("accs", new ArrayList<String>());
         debug.add("mapped", new ArrayList<String>());
+        debug.add("precomputed", new ArrayList<String>());
       }
     }
 
@@ -736,6 +811,38 @@ public abstract class SlotAcc implements Closeable {
       return ret.roCountAcc();
     }
 
+    /**
+     * Like {@link #add}, but for the documents matching a query: when the processor can tell the
+     * counts of its slots without collecting the documents (see {@link
+     * FacetFieldProcessor#getPrecomputedCounts}), these are returned and the documents aren't swept
+     * over.
+     *
+     * @param key assigned to the returned SlotAcc, and used for debugging
+     * @param query the query the documents are the matches of
+     * @param docs the domain over which to sweep
+     * @param numSlots the number of slots
+     * @return a read-only representation of the count acc which is guaranteed to be populated after
+     *     sweep count collection
+     */
+    public ReadOnlyCountSlotAcc add(String key, Query query, DocSet docs, int numSlots) {
+      final CountSlotAcc count;
+      try {
+        count = p.getPrecomputedCounts(Collections.singletonList(query), docs, numSlots);
+      } catch (IOException e) {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+      }
+      if (null == count) {
+        return add(key, docs, numSlots);
+      }
+      count.key = key;
+      if (null != debug) {
+        @SuppressWarnings("unchecked")
+        List<String> precomputedDebug = (List<String>) debug.get("precomputed");
+        precomputedDebug.add(count.toString());
+      }
+      return count;
+    }
+
     /**
      * When a {@link SweepableSlotAcc} replaces itself (for the purpose of collection) with a
      * different {@link SlotAcc} instance, it must register that replacement by calling this method
@@ -843,7 +950,7 @@ public abstract class SlotAcc implements Closeable {
   }
   ;
 
-  static class CountSlotArrAcc extends CountSlotAcc {
+  static class CountSlotArrAcc extends CountSlotAcc implements MergeableSlotAcc {
     long[] result;
 
     public CountSlotArrAcc(FacetContext fcontext, int numSlots) {
@@ -878,6 +985,11 @@ public abstract class SlotAcc implements Closeable {
       return result[slot];
     }
 
+    @Override
+    public void merge(SlotAcc other) {
+      addTo(result, ((CountSlotArrAcc) other).result);
+    }
+
     // internal and expert
     long[] getCountArray() {
       return result;
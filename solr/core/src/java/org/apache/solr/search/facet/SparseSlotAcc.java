@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import com.carrotsearch.hppc.IntIntHashMap;
+import com.carrotsearch.hppc.cursors.IntIntCursor;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.search.DocSet;
+
+/**
+ * Wraps a {@link SlotAcc} created with few slots, into which the slots that are actually collected
+ * are mapped as long as they are few compared to all the slots: the stats of a facet on a field
+ * with many terms, over a domain hitting only a few of them, then take memory for these terms only.
+ * Once more than one slot in {@link #DENSE_RATIO} is collected, the wrapped acc is resized to all
+ * the slots and used directly.
+ *
+ * <p>Slot 0 of the wrapped acc is never collected: the slots that weren't collected map to it, so
+ * that their values and comparisons are those of an empty slot.
+ */
+final class SparseSlotAcc extends SlotAcc {
+  /** Below this number of slots, the accs are always dense */
+  static final int MIN_SLOTS = 1024;
+
+  /** The accs switch to dense slots when more than one slot in this many is collected */
+  static final int DENSE_RATIO = 8;
+
+  private static final int INITIAL_SIZE = 16;
+
+  private final SlotAcc acc;
+  private int numSlots;
+
+  // the slot of the wrapped acc for each collected slot, or null once dense
+  private IntIntHashMap sparseSlots = new IntIntHashMap();
+  // the collected slot of each slot of the wrapped acc, for slot contexts
+  private int[] slotsBySparseSlot = new int[INITIAL_SIZE];
+  private int size = INITIAL_SIZE; // of the wrapped acc while sparse
+  private int nextSparseSlot = 1;
+  private int maxSparseSlots; // the most sparse slots used, for debugging
+
+  private IntFunction<SlotContext> slotContext;
+  private final IntFunction<SlotContext> sparseSlotContext =
+      sparseSlot -> slotContext.apply(slotsBySparseSlot[sparseSlot]);
+
+  private SparseSlotAcc(FacetContext fcontext, SlotAcc acc, int numSlots) {
+    super(fcontext);
+    this.acc = acc;
+    this.numSlots = numSlots;
+    this.key = acc.key;
+  }
+
+  /** Whether stats over this many documents should start with sparse slots */
+  static boolean isSparse(long numDocs, int numSlots) {
+    return numSlots >= MIN_SLOTS && numDocs >= 0 && numDocs < numSlots / DENSE_RATIO;
+  }
+
+  /**
+   * Creates the acc of a stat with sparse slots, or with dense slots if the acc of the stat can't
+   * be wrapped
+   */
+  static SlotAcc create(AggValueSource agg, FacetContext fcontext, long numDocs, int numSlots)
+      throws IOException {
+    final SlotAcc acc = agg.createSlotAcc(fcontext, numDocs, INITIAL_SIZE);
+    if (acc instanceof SweepableSlotAcc) {
+      // sweeping collects the slots directly, through the count acc
+      acc.close();
+      return agg.createSlotAcc(fcontext, numDocs, numSlots);
+    }
+    return new SparseSlotAcc(fcontext, acc, numSlots);
+  }
+
+  boolean isDense() {
+    return sparseSlots == null;
+  }
+
+  /** The slot of the wrapped acc to collect a slot into, mapping it if it isn't yet */
+  private int getSparseSlot(int slot) {
+    final int index = sparseSlots.indexOf(slot);
+    if (sparseSlots.indexExists(index)) {
+      return sparseSlots.indexGet(index);
+    }
+    final int sparseSlot = nextSparseSlot++;
+    if (sparseSlot > numSlots / DENSE_RATIO) {
+      toDense();
+      return slot;
+    }
+    if (sparseSlot >= size) {
+      grow(size + (size >> 1));
+    }
+    sparseSlots.indexInsert(index, slot, sparseSlot);
+    slotsBySparseSlot[sparseSlot] = slot;
+    maxSparseSlots = Math.max(maxSparseSlots, sparseSlot);
+    return sparseSlot;
+  }
+
+  private void grow(int newSize) {
+    acc.resize(
+        new Resizer() {
+          @Override
+          public int getNewSize() {
+            return newSize;
+          }
+
+          @Override
+          public int getNewSlot(int oldSlot) {
+            return oldSlot;
+          }
+        });
+    slotsBySparseSlot = Arrays.copyOf(slotsBySparseSlot, newSize);
+    size = newSize;
+  }
+
+  private void toDense() {
+    final int[] slots = slotsBySparseSlot;
+    final int endSparseSlot = nextSparseSlot - 1; // the one being added isn't collected yet
+    acc.resize(
+        new Resizer() {
+          @Override
+          public int getNewSize() {
+            return numSlots;
+          }
+
+          @Override
+          public int getNewSlot(int sparseSlot) {
+            // slots dropped by a resize are -1 too
+            return sparseSlot == 0 || sparseSlot >= endSparseSlot ? -1 : slots[sparseSlot];
+          }
+        });
+    sparseSlots = null;
+    slotsBySparseSlot = null;
+  }
+
+  /** Where the value of a slot is in the wrapped acc */
+  private int getAccSlot(int slot) {
+    return sparseSlots == null ? slot : sparseSlots.getOrDefault(slot, 0);
+  }
+
+  @Override
+  public void setNextReader(LeafReaderContext readerContext) throws IOException {
+    super.setNextReader(readerContext);
+    acc.setNextReader(readerContext);
+  }
+
+  @Override
+  public void collect(int doc, int slot, IntFunction<SlotContext> slotContext) throws IOException {
+    if (sparseSlots == null) {
+      acc.collect(doc, slot, slotContext);
+      return;
+    }
+    final int sparseSlot = getSparseSlot(slot);
+    if (sparseSlots == null) {
+      acc.collect(doc, slot, slotContext);
+    } else {
+      this.slotContext = slotContext;
+      acc.collect(doc, sparseSlot, sparseSlotContext);
+    }
+  }
+
+  @Override
+  public int collect(DocSet docs, int slot, IntFunction<SlotContext> slotContext)
+      throws IOException {
+    if (sparseSlots == null) {
+      return acc.collect(docs, slot, slotContext);
+    }
+    final int sparseSlot = getSparseSlot(slot);
+    if (sparseSlots == null) {
+      return acc.collect(docs, slot, slotContext);
+    }
+    this.slotContext = slotContext;
+    return acc.collect(docs, sparseSlot, sparseSlotContext);
+  }
+
+  @Override
+  public int compare(int slotA, int slotB) {
+    return acc.compare(getAccSlot(slotA), getAccSlot(slotB));
+  }
+
+  @Override
+  public Object getValue(int slotNum) throws IOException {
+    return acc.getValue(getAccSlot(slotNum));
+  }
+
+  @Override
+  public void setValues(SimpleOrderedMap<Object> bucket, int slotNum) throws IOException {
+    acc.key = key;
+    acc.setValues(bucket, getAccSlot(slotNum));
+  }
+
+  @Override
+  public void reset() throws IOException {
+    acc.reset();
+    if (sparseSlots != null) {
+      sparseSlots.clear();
+      nextSparseSlot = 1;
+    }
+  }
+
+  @Override
+  public void resize(Resizer resizer) {
+    numSlots = resizer.getNewSize();
+    if (sparseSlots == null) {
+      acc.resize(resizer);
+      return;
+    }
+    final IntIntHashMap resized = new IntIntHashMap(sparseSlots.size());
+    for (IntIntCursor c : sparseSlots) {
+      final int newSlot = resizer.getNewSlot(c.key);
+      if (newSlot < 0) {
+        slotsBySparseSlot[c.value] = -1;
+        continue;
+      }
+      final int replaced = resized.put(newSlot, c.value);
+      if (replaced != 0) {
+        slotsBySparseSlot[replaced] = -1;
+      }
+      slotsBySparseSlot[c.value] = newSlot;
+    }
+    sparseSlots = resized;
+  }
+
+  @Override
+  public void close() throws IOException {
+    acc.close();
+  }
+
+  /** How the slots of this acc were stored, for debugging */
+  SimpleOrderedMap<Object> getDebugInfo() {
+    final SimpleOrderedMap<Object> info = new SimpleOrderedMap<>();
+    info.add("numSlots", numSlots);
+    info.add("maxSparseSlots", maxSparseSlots);
+    info.add("dense", isDense());
+    return info;
+  }
+}
@@ -24,6 +24,7 @@ import org.apache.lucene.queries.function.ValueSource;
 import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.facet.SlotAcc.MergeableSlotAcc;
 import org.apache.solr.search.function.FieldNameValueSource;
 
 public class SumAgg extends SimpleAggValueSource {
@@ -83,7 +84,8 @@ public class SumAgg extends SimpleAggValueSource {
     }
   }
 
-  static class SumSortedNumericAcc extends DocValuesAcc.DoubleSortedNumericDVAcc {
+  static class SumSortedNumericAcc extends DocValuesAcc.DoubleSortedNumericDVAcc
+      implements MergeableSlotAcc {
 
     public SumSortedNumericAcc(FacetContext fcontext, SchemaField sf, int numSlots)
         throws IOException {
@@ -96,9 +98,15 @@ public class SumAgg extends SimpleAggValueSource {
         result[slot] += getDouble(values.nextValue());
       }
     }
+
+    @Override
+    public void merge(SlotAcc other) {
+      addTo(result, ((SumSortedNumericAcc) other).result);
+    }
   }
 
-  static class SumSortedSetAcc extends DocValuesAcc.DoubleSortedSetDVAcc {
+  static class SumSortedSetAcc extends DocValuesAcc.DoubleSortedSetDVAcc
+      implements MergeableSlotAcc {
 
     public SumSortedSetAcc(FacetContext fcontext, SchemaField sf, int numSlots) throws IOException {
       super(fcontext, sf, numSlots, 0);
@@ -114,6 +122,11 @@ public class SumAgg extends SimpleAggValueSource {
         result[slot] += val;
       }
     }
+
+    @Override
+    public void merge(SlotAcc other) {
+      addTo(result, ((SumSortedSetAcc) other).result);
+    }
   }
 
   static class SumUnInvertedFieldAcc extends UnInvertedFieldAcc.DoubleUnInvertedFieldAcc {
@@ -16,6 +16,7 @@
  */
 package org.apache.solr.search.facet;
 
+import com.carrotsearch.hppc.IntLongHashMap;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -27,12 +28,16 @@ import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.util.hll.HLL;
 
-abstract class UniqueSlotAcc extends SlotAcc {
+abstract class UniqueSlotAcc extends SlotAcc implements SlotAcc.MergeableSlotAcc {
+  // bounds the memory used to keep the hashes of the ords of a field with many terms
+  static final int MAX_ORD_HASHES = 1 << 16;
+
   HLLAgg.HLLFactory factory;
   SchemaField field;
   FixedBitSet[] arr;
   int[] counts; // populated with the cardinality once
   int nTerms;
+  private IntLongHashMap ordHashes; // the hashes of the values of the ords, for shard HLLs
 
   public UniqueSlotAcc(
       FacetContext fcontext, SchemaField field, int numSlots, HLLAgg.HLLFactory factory)
@@ -52,6 +57,22 @@ abstract class UniqueSlotAcc extends SlotAcc {
     }
   }
 
+  @Override
+  public void merge(SlotAcc other) {
+    // ords are global, so the sets of the same slot can be combined
+    final FixedBitSet[] otherArr = ((UniqueSlotAcc) other).arr;
+    for (int slot = 0; slot < otherArr.length; slot++) {
+      final FixedBitSet bits = otherArr[slot];
+      if (bits == null) continue;
+      if (arr[slot] == null) {
+        arr[slot] = bits;
+      } else {
+        arr[slot].or(bits);
+      }
+    }
+    counts = null;
+  }
+
   @Override
   public Object getValue(int slot) throws IOException {
     if (fcontext.isShard()) {
@@ -78,16 +99,32 @@ abstract class UniqueSlotAcc extends SlotAcc {
 
     HLL hll = factory.getHLL();
     long maxOrd = ords.length();
-    Hash.LongPair hashResult = new Hash.LongPair();
+    if (ordHashes == null) {
+      ordHashes = new IntLongHashMap();
+    }
+    Hash.LongPair hashResult = null;
     for (int ord = -1; ++ord < maxOrd; ) {
       ord = ords.nextSetBit(ord);
       if (ord == DocIdSetIterator.NO_MORE_DOCS) break;
-      BytesRef val = lookupOrd(ord);
-      // way to avoid recomputing hash across slots?  Prob not worth space
-      Hash.murmurhash3_x64_128(val.bytes, val.offset, val.length, 0, hashResult);
+      // the values of an ord are looked up and hashed once, rather than for every slot it's in
+      final int index = ordHashes.indexOf(ord);
+      final long hash;
+      if (ordHashes.indexExists(index)) {
+        hash = ordHashes.indexGet(index);
+      } else {
+        if (hashResult == null) {
+          hashResult = new Hash.LongPair();
+        }
+        BytesRef val = lookupOrd(ord);
+        Hash.murmurhash3_x64_128(val.bytes, val.offset, val.length, 0, hashResult);
+        hash = hashResult.val1;
+        if (ordHashes.size() < MAX_ORD_HASHES) {
+          ordHashes.indexInsert(index, ord, hash);
+        }
+      }
       // idea: if the set is small enough, just send the hashes?  We can add at the top
       // level or even just do a hash table at the top level.
-      hll.addRaw(hashResult.val1);
+      hll.addRaw(hash);
     }
 
     SimpleOrderedMap<Object> map = new SimpleOrderedMap<>();
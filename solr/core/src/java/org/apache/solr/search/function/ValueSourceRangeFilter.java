@@ -116,7 +116,8 @@ public class ValueSourceRangeFilter extends Query {
           valueSource
               .getValues(vsContext, context)
               .getRangeScorer(this, context, lowerVal, upperVal, includeLower, includeUpper);
-      return new ConstantScoreScorer(this, score(), scoreMode, scorer.iterator());
+      // exposes the two phases, so the range is checked after the cheaper clauses of a conjunction
+      return new ConstantScoreScorer(this, score(), scoreMode, scorer.twoPhaseIterator());
     }
 
     @Override
@@ -285,7 +285,8 @@ public class GraphQuery extends Query {
 
     @Override
     public boolean isCacheable(LeafReaderContext ctx) {
-      return true;
+      // the traversal follows edges across all the segments
+      return false;
     }
   }
 
@@ -19,6 +19,8 @@ package org.apache.solr.search.join;
 import java.io.IOException;
 import java.util.Objects;
 import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.FilterWeight;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.QueryVisitor;
@@ -123,7 +125,8 @@ public class ScoreJoinQParserPlugin extends QParserPlugin {
         fromCore.close();
         fromHolder.decref();
       }
-      return joinQuery.rewrite(searcher.getIndexReader()).createWeight(searcher, scoreMode, boost);
+      return notCacheable(
+          joinQuery.rewrite(searcher.getIndexReader()).createWeight(searcher, scoreMode, boost));
     }
 
     @Override
@@ -178,7 +181,18 @@ public class ScoreJoinQParserPlugin extends QParserPlugin {
       final Query jq =
           JoinUtil.createJoinQuery(
               fromField, true, toField, fromQuery, info.getReq().getSearcher(), this.scoreMode);
-      return jq.rewrite(searcher.getIndexReader()).createWeight(searcher, scoreMode, boost);
+      return notCacheable(
+          jq.rewrite(searcher.getIndexReader()).createWeight(searcher, scoreMode, boost));
+    }
+
+    /** The matches of a join on a segment depend on the values collected from the whole index */
+    static Weight notCacheable(Weight weight) {
+      return new FilterWeight(weight) {
+        @Override
+        public boolean isCacheable(LeafReaderContext ctx) {
+          return false;
+        }
+      };
     }
 
     @Override
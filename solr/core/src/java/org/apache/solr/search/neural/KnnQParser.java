@@ -90,8 +90,9 @@ public class KnnQParser extends QParser {
       if (filterQueries != null && filterQueries.length != 0) {
         try {
           List<Query> filters = QueryUtils.parseFilterQueries(req);
+          // the post filters are not part of the filter of the knn query, so none are promoted
           SolrIndexSearcher.ProcessedFilter processedFilter =
-              req.getSearcher().getProcessedFilter(filters);
+              req.getSearcher().getProcessedFilter(filters, false);
           return processedFilter.filter;
         } catch (IOException e) {
           throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
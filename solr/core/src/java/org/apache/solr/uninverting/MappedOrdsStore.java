@@ -0,0 +1,541 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.uninverting;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.StringHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the ords uninverted from multi-valued string fields without docValues in memory-mapped
+ * files, one per segment and field, instead of in {@link DocTermOrds} on the heap. A file is
+ * written the first time the field of a segment is uninverted, and is then used for as long as the
+ * segment is part of the index, by the following searchers and after a restart: only new segments
+ * are uninverted after a commit.
+ *
+ * <p>Files are named after the segment name and id and the field number, so they can't be mixed up
+ * with those of another segment. They are deleted when their segment is closed while the store is
+ * open, that is when the segment was merged away, and kept when the core is closed. Those of the
+ * segments that aren't in the index commit the store is opened with, merged away while the core was
+ * down or replaced by a replication, are deleted when the store opens, unless they are used by
+ * another store open on the same path, such as the one of the core being reloaded.
+ *
+ * <p>Enabled with {@code <query><mapUninvertedFields>true</mapUninvertedFields></query>}.
+ *
+ * @lucene.experimental
+ */
+public class MappedOrdsStore implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  static final String CODEC_NAME = "SolrMappedOrds";
+  static final int VERSION_START = 0;
+  static final int VERSION_CURRENT = VERSION_START;
+  static final String EXTENSION = "ords";
+  private static final String TEMP_EXTENSION = "tmp";
+
+  /** Every so many terms, the offset of the term is kept to look up terms by ord */
+  static final int TERM_INDEX_INTERVAL = 64;
+
+  private static final int TRAILER_LENGTH = 5 * Long.BYTES + Integer.BYTES;
+
+  /**
+   * The files mapped or being written by the stores open on each path. On a core reload, the store
+   * of the new core is opened while the searchers of the old one still use its files, including
+   * those of segments that were never committed.
+   */
+  private static final Map<Path, FilesInUse> FILES_IN_USE = new ConcurrentHashMap<>();
+
+  private final Directory directory;
+  private final FilesInUse filesInUse;
+  private final Map<Key, MappedOrds> mapped = new ConcurrentHashMap<>();
+  // locked while the ords of a key are mapped, so that a file is only written once
+  private final Map<Key, Object> mappingLocks = new ConcurrentHashMap<>();
+  private final Map<IndexReader.CacheKey, List<Key>> keysBySegment = new ConcurrentHashMap<>();
+  private volatile boolean closed;
+
+  /**
+   * Opens the store of the files in the path, deleting those of the segments that aren't in the
+   * commit and that no other open store uses.
+   *
+   * @param commit the commit of the index the searchers are opened on
+   */
+  public MappedOrdsStore(Path path, SegmentInfos commit) throws IOException {
+    Files.createDirectories(path);
+    this.directory = new MMapDirectory(path);
+    this.filesInUse =
+        FILES_IN_USE.computeIfAbsent(path.toAbsolutePath().normalize(), p -> new FilesInUse());
+    final Set<String> segmentPrefixes = new HashSet<>();
+    for (SegmentCommitInfo info : commit) {
+      segmentPrefixes.add(getSegmentPrefix(info.info.name, info.info.getId()));
+    }
+    synchronized (filesInUse) {
+      for (String file : directory.listAll()) {
+        if (filesInUse.contains(file)) {
+          continue;
+        }
+        if (file.endsWith("." + TEMP_EXTENSION)) {
+          // left over by an interrupted write
+          directory.deleteFile(file);
+        } else if (file.endsWith("." + EXTENSION) && !isOfSegment(file, segmentPrefixes)) {
+          directory.deleteFile(file);
+        }
+      }
+    }
+  }
+
+  private static boolean isOfSegment(String fileName, Set<String> segmentPrefixes) {
+    // the field number follows the last separator
+    final int end = fileName.lastIndexOf('_');
+    return end >= 0 && segmentPrefixes.contains(fileName.substring(0, end + 1));
+  }
+
+  /**
+   * Returns the ords of the terms of the field for the documents of the segment, uninverting them
+   * if they aren't stored yet.
+   *
+   * @return the ords, or null if the reader isn't a segment or the segment doesn't have the field
+   */
+  public SortedSetDocValues getSortedSetDocValues(LeafReader reader, String field)
+      throws IOException {
+    final LeafReader unwrapped = FilterLeafReader.unwrap(reader);
+    if (closed || !(unwrapped instanceof SegmentReader)) {
+      return null;
+    }
+    final SegmentReader segmentReader = (SegmentReader) unwrapped;
+    final FieldInfo fieldInfo = segmentReader.getFieldInfos().fieldInfo(field);
+    final IndexReader.CacheHelper cacheHelper = segmentReader.getCoreCacheHelper();
+    if (fieldInfo == null || cacheHelper == null) {
+      return null;
+    }
+
+    final Key key = new Key(cacheHelper.getKey(), fieldInfo.number);
+    MappedOrds ords = mapped.get(key);
+    if (ords == null) {
+      // mapped outside of the map, so that other fields don't wait for the file to be written
+      synchronized (mappingLocks.computeIfAbsent(key, k -> new Object())) {
+        ords = mapped.get(key);
+        if (ords == null) {
+          ords = map(segmentReader, field, getFileName(segmentReader, fieldInfo));
+          final MappedOrds previous = mapped.putIfAbsent(key, ords);
+          if (previous != null) {
+            release(ords);
+            ords = previous;
+          }
+        }
+      }
+      keysBySegment
+          .computeIfAbsent(
+              cacheHelper.getKey(),
+              k -> {
+                cacheHelper.addClosedListener(this::onSegmentClosed);
+                return Collections.synchronizedList(new ArrayList<>());
+              })
+          .add(key);
+    }
+    return ords.iterator();
+  }
+
+  private static String getFileName(SegmentReader reader, FieldInfo fieldInfo) {
+    return getSegmentPrefix(reader.getSegmentName(), reader.getSegmentInfo().info.getId())
+        + fieldInfo.number
+        + "."
+        + EXTENSION;
+  }
+
+  private static String getSegmentPrefix(String segmentName, byte[] segmentId) {
+    return segmentName + "_" + StringHelper.idToString(segmentId) + "_";
+  }
+
+  private MappedOrds map(LeafReader reader, String field, String fileName) throws IOException {
+    filesInUse.acquire(fileName);
+    IndexInput in = null;
+    try {
+      try {
+        in = directory.openInput(fileName, IOContext.READ);
+      } catch (FileNotFoundException | NoSuchFileException e) {
+        write(reader, field, fileName);
+        in = directory.openInput(fileName, IOContext.READ);
+      }
+      return new MappedOrds(in, fileName, reader.maxDoc());
+    } catch (IOException | RuntimeException e) {
+      IOUtils.closeWhileHandlingException(in);
+      filesInUse.release(fileName);
+      if (in != null) {
+        // written by another version, or corrupted: it will be written again next time
+        deleteIfUnused(fileName);
+      }
+      throw e;
+    }
+  }
+
+  /** Closes the mapped file, which may then be deleted */
+  private void release(MappedOrds ords) {
+    IOUtils.closeWhileHandlingException(ords);
+    filesInUse.release(ords.fileName);
+  }
+
+  private void deleteIfUnused(String fileName) {
+    synchronized (filesInUse) {
+      if (!filesInUse.contains(fileName)) {
+        IOUtils.deleteFilesIgnoringExceptions(directory, fileName);
+      }
+    }
+  }
+
+  /** Uninverts the field on the heap, and writes the ords to the file */
+  private void write(LeafReader reader, String field, String fileName) throws IOException {
+    final long start = System.nanoTime();
+    final DocTermOrds docTermOrds = new DocTermOrds(reader, null, field);
+    final SortedSetDocValues ords = docTermOrds.iterator(reader);
+    final Terms terms = reader.terms(field);
+    final int maxDoc = reader.maxDoc();
+
+    final IndexOutput out;
+    synchronized (filesInUse) {
+      // in use before it is listed by a store being opened
+      out =
+          directory.createTempOutput(
+              fileName.substring(0, fileName.length() - EXTENSION.length() - 1),
+              TEMP_EXTENSION,
+              IOContext.DEFAULT);
+      filesInUse.acquire(out.getName());
+    }
+    final String tempName = out.getName();
+    boolean success = false;
+    try {
+      try (out) {
+        CodecUtil.writeHeader(out, CODEC_NAME, VERSION_CURRENT);
+
+        // the terms in ord order, and the offset of every TERM_INDEX_INTERVAL terms
+        final long termsStart = out.getFilePointer();
+        long[] termIndex = new long[8];
+        long numTerms = 0;
+        if (terms != null) {
+          final TermsEnum termsEnum = terms.iterator();
+          for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            if (numTerms % TERM_INDEX_INTERVAL == 0) {
+              final int i = (int) (numTerms / TERM_INDEX_INTERVAL);
+              termIndex = ArrayUtil.grow(termIndex, i + 1);
+              termIndex[i] = out.getFilePointer();
+            }
+            out.writeVInt(term.length);
+            out.writeBytes(term.bytes, term.offset, term.length);
+            numTerms++;
+          }
+        }
+        if (numTerms != docTermOrds.numTerms()) {
+          throw new IllegalStateException(
+              "uninverted " + docTermOrds.numTerms() + " terms of " + field + ", read " + numTerms);
+        }
+        final long termIndexStart = out.getFilePointer();
+        final int termIndexSize =
+            (int) ((numTerms + TERM_INDEX_INTERVAL - 1) / TERM_INDEX_INTERVAL);
+        for (int i = 0; i < termIndexSize; i++) {
+          out.writeLong(termIndex[i]);
+        }
+
+        // for each document, the number of ords then the deltas between them; documents without
+        // terms share the empty list at the start
+        final long ordsStart = out.getFilePointer();
+        out.writeVInt(0);
+        final long[] docOffsets = new long[maxDoc];
+        long[] docOrds = new long[8];
+        for (int doc = 0; doc < maxDoc; doc++) {
+          if (!ords.advanceExact(doc)) {
+            docOffsets[doc] = ordsStart;
+            continue;
+          }
+          int count = 0;
+          for (long ord = ords.nextOrd();
+              ord != SortedSetDocValues.NO_MORE_ORDS;
+              ord = ords.nextOrd()) {
+            docOrds = ArrayUtil.grow(docOrds, count + 1);
+            docOrds[count++] = ord;
+          }
+          docOffsets[doc] = out.getFilePointer();
+          out.writeVInt(count);
+          long previous = 0;
+          for (int i = 0; i < count; i++) {
+            out.writeVLong(docOrds[i] - previous);
+            previous = docOrds[i];
+          }
+        }
+        final long docOffsetsStart = out.getFilePointer();
+        for (long offset : docOffsets) {
+          out.writeLong(offset);
+        }
+
+        out.writeLong(termsStart);
+        out.writeLong(termIndexStart);
+        out.writeLong(ordsStart);
+        out.writeLong(docOffsetsStart);
+        out.writeLong(numTerms);
+        out.writeInt(maxDoc);
+        CodecUtil.writeFooter(out);
+      }
+
+      directory.sync(Collections.singleton(tempName));
+      directory.rename(tempName, fileName);
+      directory.syncMetaData();
+      success = true;
+    } finally {
+      filesInUse.release(tempName);
+      if (!success) {
+        IOUtils.deleteFilesIgnoringExceptions(directory, tempName);
+      }
+    }
+    if (log.isDebugEnabled()) {
+      log.debug(
+          "Wrote {} for field {} of {} in {}ms",
+          fileName,
+          field,
+          reader,
+          (System.nanoTime() - start) / 1_000_000);
+    }
+  }
+
+  private void onSegmentClosed(IndexReader.CacheKey segmentKey) {
+    final List<Key> keys = keysBySegment.remove(segmentKey);
+    if (keys == null) {
+      return;
+    }
+    synchronized (keys) {
+      for (Key key : keys) {
+        mappingLocks.remove(key);
+        final MappedOrds ords = mapped.remove(key);
+        if (ords == null) {
+          continue;
+        }
+        release(ords);
+        if (!closed) {
+          // no searcher uses the segment anymore while the core is open: it was merged away
+          deleteIfUnused(ords.fileName);
+        }
+      }
+    }
+  }
+
+  /**
+   * Keeps the files for the next time the core is opened. The mapped files stay open until their
+   * segments are closed, since searchers may still be using them.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+  }
+
+  /** Counts the stores using each file of a path */
+  private static final class FilesInUse {
+    private final Map<String, Integer> counts = new HashMap<>();
+
+    synchronized void acquire(String fileName) {
+      counts.merge(fileName, 1, Integer::sum);
+    }
+
+    synchronized void release(String fileName) {
+      counts.computeIfPresent(fileName, (name, count) -> count == 1 ? null : count - 1);
+    }
+
+    synchronized boolean contains(String fileName) {
+      return counts.containsKey(fileName);
+    }
+  }
+
+  /** The ords of a field in a segment */
+  private static final class Key {
+    final IndexReader.CacheKey segmentKey;
+    final int fieldNumber;
+
+    Key(IndexReader.CacheKey segmentKey, int fieldNumber) {
+      this.segmentKey = segmentKey;
+      this.fieldNumber = fieldNumber;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(segmentKey, fieldNumber);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return segmentKey == other.segmentKey && fieldNumber == other.fieldNumber;
+    }
+  }
+
+  /** A mapped file of ords */
+  static final class MappedOrds implements Closeable {
+    final String fileName;
+    private final IndexInput in;
+    private final RandomAccessInput termIndex;
+    private final RandomAccessInput docOffsets;
+    private final long numTerms;
+    private final int maxDoc;
+
+    MappedOrds(IndexInput in, String fileName, int maxDoc) throws IOException {
+      this.in = in;
+      this.fileName = fileName;
+      CodecUtil.checkHeader(in, CODEC_NAME, VERSION_START, VERSION_CURRENT);
+      CodecUtil.retrieveChecksum(in);
+      in.seek(in.length() - CodecUtil.footerLength() - TRAILER_LENGTH);
+      in.readLong(); // termsStart: terms are read from the term index offsets
+      final long termIndexStart = in.readLong();
+      in.readLong(); // ordsStart: ords are read from the document offsets
+      final long docOffsetsStart = in.readLong();
+      this.numTerms = in.readLong();
+      this.maxDoc = in.readInt();
+      if (this.maxDoc != maxDoc) {
+        throw new IOException(fileName + " has " + this.maxDoc + " documents, expected " + maxDoc);
+      }
+      this.termIndex = in.randomAccessSlice(termIndexStart, docOffsetsStart - termIndexStart);
+      this.docOffsets = in.randomAccessSlice(docOffsetsStart, (long) maxDoc * Long.BYTES);
+    }
+
+    SortedSetDocValues iterator() {
+      return new Iterator(in.clone());
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    private final class Iterator extends SortedSetDocValues {
+      private final IndexInput ords;
+      private IndexInput terms;
+      private final BytesRefBuilder term = new BytesRefBuilder();
+      private int doc = -1;
+      private int count;
+      private int remaining;
+      private long ord;
+
+      Iterator(IndexInput ords) {
+        this.ords = ords;
+      }
+
+      @Override
+      public boolean advanceExact(int target) throws IOException {
+        doc = target;
+        ords.seek(docOffsets.readLong((long) target * Long.BYTES));
+        count = ords.readVInt();
+        remaining = count;
+        ord = 0;
+        return count > 0;
+      }
+
+      @Override
+      public int docID() {
+        return doc;
+      }
+
+      @Override
+      public int nextDoc() throws IOException {
+        return advance(doc + 1);
+      }
+
+      @Override
+      public int advance(int target) throws IOException {
+        for (int d = target; d < maxDoc; d++) {
+          if (advanceExact(d)) {
+            return doc;
+          }
+        }
+        return doc = NO_MORE_DOCS;
+      }
+
+      @Override
+      public long cost() {
+        return maxDoc;
+      }
+
+      @Override
+      public long nextOrd() throws IOException {
+        if (remaining == 0) {
+          return NO_MORE_ORDS;
+        }
+        remaining--;
+        ord += ords.readVLong();
+        return ord;
+      }
+
+      @Override
+      public int docValueCount() {
+        return count;
+      }
+
+      @Override
+      public BytesRef lookupOrd(long ord) throws IOException {
+        if (terms == null) {
+          terms = in.clone();
+        }
+        final long block = ord / TERM_INDEX_INTERVAL;
+        terms.seek(termIndex.readLong(block * Long.BYTES));
+        for (long o = block * TERM_INDEX_INTERVAL; o <= ord; o++) {
+          final int length = terms.readVInt();
+          term.grow(length);
+          term.setLength(length);
+          terms.readBytes(term.bytes(), 0, length);
+        }
+        return term.get();
+      }
+
+      @Override
+      public long getValueCount() {
+        return numTerms;
+      }
+    }
+  }
+}
@@ -178,28 +178,44 @@ public class UninvertingReader extends FilterLeafReader {
    */
   public static DirectoryReader wrap(DirectoryReader in, Function<String, Type> mapper)
       throws IOException {
-    return new UninvertingDirectoryReader(in, mapper);
+    return wrap(in, mapper, null);
+  }
+
+  /**
+   * Wraps a provided {@link DirectoryReader}, keeping the ords of multi-valued string fields in a
+   * {@link MappedOrdsStore} rather than in the field cache.
+   *
+   * @param store where to keep the ords of {@link Type#SORTED_SET_BINARY} fields, or null to keep
+   *     them in the field cache
+   * @see #wrap(DirectoryReader, Function)
+   */
+  public static DirectoryReader wrap(
+      DirectoryReader in, Function<String, Type> mapper, MappedOrdsStore store) throws IOException {
+    return new UninvertingDirectoryReader(in, mapper, store);
   }
 
   static class UninvertingDirectoryReader extends FilterDirectoryReader {
     final Function<String, Type> mapper;
+    final MappedOrdsStore store;
 
-    public UninvertingDirectoryReader(DirectoryReader in, final Function<String, Type> mapper)
+    public UninvertingDirectoryReader(
+        DirectoryReader in, final Function<String, Type> mapper, final MappedOrdsStore store)
         throws IOException {
       super(
           in,
           new FilterDirectoryReader.SubReaderWrapper() {
             @Override
             public LeafReader wrap(LeafReader reader) {
-              return UninvertingReader.wrap(reader, mapper);
+              return UninvertingReader.wrap(reader, mapper, store);
             }
           });
       this.mapper = mapper;
+      this.store = store;
     }
 
     @Override
     protected DirectoryReader doWrapDirectoryReader(DirectoryReader in) throws IOException {
-      return new UninvertingDirectoryReader(in, mapper);
+      return new UninvertingDirectoryReader(in, mapper, store);
     }
 
     // NOTE: delegating the cache helpers is wrong since this wrapper alters the
@@ -222,6 +238,15 @@ public class UninvertingReader extends FilterLeafReader {
    * @lucene.internal
    */
   public static LeafReader wrap(LeafReader in, Function<String, Type> mapping) {
+    return wrap(in, mapping, null);
+  }
+
+  /**
+   * @see #wrap(LeafReader, Function)
+   * @lucene.internal
+   */
+  public static LeafReader wrap(
+      LeafReader in, Function<String, Type> mapping, MappedOrdsStore store) {
     boolean wrap = false;
 
     // Calculate a new FieldInfos that has DocValuesType where we didn't before
@@ -308,17 +333,20 @@ public class UninvertingReader extends FilterLeafReader {
     } else {
       FieldInfos fieldInfos =
           new FieldInfos(newFieldInfos.toArray(new FieldInfo[newFieldInfos.size()]));
-      return new UninvertingReader(in, mapping, fieldInfos);
+      return new UninvertingReader(in, mapping, fieldInfos, store);
     }
   }
 
   final Function<String, Type> mapping;
   final FieldInfos fieldInfos;
+  final MappedOrdsStore store; // may be null
 
-  private UninvertingReader(LeafReader in, Function<String, Type> mapping, FieldInfos fieldInfos) {
+  private UninvertingReader(
+      LeafReader in, Function<String, Type> mapping, FieldInfos fieldInfos, MappedOrdsStore store) {
     super(in);
     this.mapping = mapping;
     this.fieldInfos = fieldInfos;
+    this.store = store;
   }
 
   @Override
@@ -408,6 +436,12 @@ public class UninvertingReader extends FilterLeafReader {
         case SORTED_SET_DOUBLE:
           return FieldCache.DEFAULT.getDocTermOrds(in, field, FieldCache.INT64_TERM_PREFIX);
         case SORTED_SET_BINARY:
+          if (store != null) {
+            SortedSetDocValues mapped = store.getSortedSetDocValues(in, field);
+            if (mapped != null) {
+              return mapped;
+            }
+          }
           return FieldCache.DEFAULT.getDocTermOrds(in, field, null);
         case BINARY:
         case LEGACY_DOUBLE:
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.ByteBlockPool;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.Counter;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Map of the ids updated since the last commit to the {@link UpdateLog.LogPtr} of their latest
+ * update, without an object per entry: the ids are copied into the blocks of a {@link
+ * BytesRefHash}, and the pointer, version and previous pointer of each entry are packed into a
+ * single long array, at the position of the id in the hash. A {@link UpdateLog.LogPtr} is only
+ * created when an entry is looked up.
+ *
+ * <p>Entries can't be removed, only all cleared at once. Not thread safe: the {@link UpdateLog}
+ * synchronizes all the accesses to its maps, except for {@link #size()} and {@link
+ * #ramBytesUsed()}, which are published on every change so that metrics can read them without
+ * locking.
+ */
+public class LogPtrMap implements Accountable {
+  private static final long BASE_RAM_BYTES_USED =
+      RamUsageEstimator.shallowSizeOfInstance(LogPtrMap.class)
+          + RamUsageEstimator.shallowSizeOfInstance(BytesRefHash.class)
+          + RamUsageEstimator.shallowSizeOfInstance(ByteBlockPool.class);
+
+  // the pointer, version and previous pointer of an entry
+  private static final int LONGS_PER_ENTRY = 3;
+
+  private final Counter bytesUsed = Counter.newCounter();
+  private final BytesRefHash ids =
+      new BytesRefHash(
+          new ByteBlockPool(new ByteBlockPool.DirectTrackingAllocator(bytesUsed)),
+          BytesRefHash.DEFAULT_CAPACITY,
+          new BytesRefHash.DirectBytesStartArray(BytesRefHash.DEFAULT_CAPACITY, bytesUsed));
+  private long[] entries = new long[BytesRefHash.DEFAULT_CAPACITY * LONGS_PER_ENTRY];
+  private volatile int size;
+  private volatile long ramBytesUsed = computeRamBytesUsed();
+
+  /** Maps the id to the log pointer, replacing the log pointer it's mapped to if any */
+  public void put(BytesRef id, UpdateLog.LogPtr ptr) {
+    int ord = ids.add(id);
+    if (ord < 0) {
+      ord = -ord - 1;
+    }
+    final int index = ord * LONGS_PER_ENTRY;
+    if (index + LONGS_PER_ENTRY > entries.length) {
+      entries = ArrayUtil.grow(entries, index + LONGS_PER_ENTRY);
+    }
+    entries[index] = ptr.pointer;
+    entries[index + 1] = ptr.version;
+    entries[index + 2] = ptr.previousPointer;
+    size = ids.size();
+    ramBytesUsed = computeRamBytesUsed();
+  }
+
+  /** Returns the log pointer the id is mapped to, or null if it isn't */
+  public UpdateLog.LogPtr get(BytesRef id) {
+    final int ord = ids.find(id);
+    if (ord < 0) {
+      return null;
+    }
+    final int index = ord * LONGS_PER_ENTRY;
+    return new UpdateLog.LogPtr(entries[index], entries[index + 1], entries[index + 2]);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Removes all the entries, releasing their memory */
+  public void clear() {
+    ids.clear(true);
+    ids.reinit();
+    entries = new long[BytesRefHash.DEFAULT_CAPACITY * LONGS_PER_ENTRY];
+    size = 0;
+    ramBytesUsed = computeRamBytesUsed();
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return ramBytesUsed;
+  }
+
+  private long computeRamBytesUsed() {
+    return BASE_RAM_BYTES_USED + bytesUsed.get() + RamUsageEstimator.sizeOf(entries);
+  }
+
+  @Override
+  public String toString() {
+    return "LogPtrMap(size=" + size() + ")";
+  }
+}
@@ -24,7 +24,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.impl.ConcurrentUpdateHttp2SolrClient;
@@ -39,6 +42,8 @@ public class StreamingSolrClients {
   private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
   private final int runnerCount = Integer.getInteger("solr.cloud.replication.runners", 1);
+  // the updates queued per replica before the leader blocks on sending more
+  private final int queueSize = Integer.getInteger("solr.cloud.replication.queueSize", 100);
   // should be less than solr.jetty.http.idleTimeout
   private final int pollQueueTimeMillis =
       Integer.getInteger("solr.cloud.client.pollQueueTime", 10000);
@@ -51,8 +56,12 @@ public class StreamingSolrClients {
   private ExecutorService updateExecutor;
 
   public StreamingSolrClients(UpdateShardHandler updateShardHandler) {
-    this.updateExecutor = updateShardHandler.getUpdateExecutor();
-    this.httpClient = updateShardHandler.getUpdateOnlyHttpClient();
+    this(updateShardHandler.getUpdateOnlyHttpClient(), updateShardHandler.getUpdateExecutor());
+  }
+
+  StreamingSolrClients(Http2SolrClient httpClient, ExecutorService updateExecutor) {
+    this.updateExecutor = updateExecutor;
+    this.httpClient = httpClient;
   }
 
   public List<SolrError> getErrors() {
@@ -67,28 +76,82 @@ public class StreamingSolrClients {
     String url = getFullUrl(req.node.getUrl());
     ConcurrentUpdateHttp2SolrClient client = solrClients.get(url);
     if (client == null) {
-      // NOTE: increasing to more than 1 threadCount for the client could cause updates to be
-      // reordered on a greater scale since the current behavior is to only increase the number of
-      // connections/Runners when the queue is more than half full.
-      client =
-          new ErrorReportingConcurrentUpdateSolrClient.Builder(url, httpClient, req, errors)
-              .withQueueSize(100)
-              .withThreadCount(runnerCount)
-              .withExecutorService(updateExecutor)
-              .alwaysStreamDeletes()
-              .setPollQueueTime(
-                  pollQueueTimeMillis, TimeUnit.MILLISECONDS) // minimize connections created
-              .build();
-
+      client = newSolrClient(url, req);
       solrClients.put(url, client);
     }
 
     return client;
   }
 
+  /** Creates the client streaming the updates to the replica at the url */
+  protected ConcurrentUpdateHttp2SolrClient newSolrClient(
+      String url, final SolrCmdDistributor.Req req) {
+    // NOTE: increasing to more than 1 threadCount for the client could cause updates to be
+    // reordered on a greater scale since the current behavior is to only increase the number of
+    // connections/Runners when the queue is more than half full.
+    return new ErrorReportingConcurrentUpdateSolrClient.Builder(url, httpClient, req, errors)
+        .withQueueSize(queueSize)
+        .withThreadCount(runnerCount)
+        .withExecutorService(updateExecutor)
+        .alwaysStreamDeletes()
+        .setPollQueueTime(
+            pollQueueTimeMillis, TimeUnit.MILLISECONDS) // minimize connections created
+        .build();
+  }
+
   public synchronized void blockUntilFinished() throws IOException {
+    if (solrClients.size() <= 1) {
+      for (ConcurrentUpdateHttp2SolrClient client : solrClients.values()) {
+        client.blockUntilFinished();
+      }
+      return;
+    }
+
+    // a replica only acknowledges its updates once the stream sending them is finished: finish the
+    // streams to all the replicas at once, rather than waiting for each replica in turn while the
+    // streams to the others stay open
+    IOException exception = null;
+    List<Future<Object>> futures = new ArrayList<>(solrClients.size());
     for (ConcurrentUpdateHttp2SolrClient client : solrClients.values()) {
-      client.blockUntilFinished();
+      try {
+        futures.add(
+            updateExecutor.submit(
+                () -> {
+                  client.blockUntilFinished();
+                  return null;
+                }));
+      } catch (RejectedExecutionException e) {
+        // the executor is shutting down: finish this stream inline, still waiting for the others
+        try {
+          client.blockUntilFinished();
+        } catch (IOException ioe) {
+          if (exception == null) {
+            exception = ioe;
+          }
+        }
+      }
+    }
+
+    for (Future<Object> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for the updates to the replicas", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          if (exception == null) {
+            exception = (IOException) e.getCause();
+          }
+        } else if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        } else {
+          throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e.getCause());
+        }
+      }
+    }
+    if (exception != null) {
+      throw exception;
     }
   }
 
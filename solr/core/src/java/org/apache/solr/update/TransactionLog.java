@@ -16,6 +16,7 @@
  */
 package org.apache.solr.update;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -35,7 +36,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.compress.LZ4;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.util.DataInputInputStream;
@@ -50,6 +55,10 @@ import org.slf4j.LoggerFactory;
  * Log Format: List{Operation, Version, ...} ADD, VERSION, DOC DELETE, VERSION, ID_BYTES
  * DELETE_BY_QUERY, VERSION, String
  *
+ * <p>Format version 2 (see {@link #docCompressionThreshold}) may write the DOC of an ADD
+ * compressed: a COMPRESSED tag, the length and CRC32 of the serialized document, then its LZ4
+ * compressed bytes. Version 1 logs are read the same way.
+ *
  * <p>TODO: keep two files, one for [operation, version, id] and the other for the actual document
  * data. That way we could throw away document log files more readily while retaining the smaller
  * operation log files longer (and we can retrieve the stored fields from the latest documents from
@@ -80,7 +89,18 @@ public class TransactionLog implements Closeable {
   // future, recovery)
   protected volatile boolean deleteOnClose = true;
 
+  // fsyncs of concurrent requests are grouped under syncLock, which is distinct from the lock on
+  // this log so that writes go on during an fsync
+  final Object syncLock = new Object();
+  // the position up to which the log is known to be on disk; guarded by syncLock, not by this
+  private long syncedPosition;
+  // the number of fsyncs done; guarded by syncLock, not by this
+  long numSyncs;
+
   protected AtomicInteger refcount = new AtomicInteger(1);
+  // documents serialized to at least this many bytes are compressed, unless -1
+  protected int docCompressionThreshold = -1;
+
   protected Map<String, Integer> globalStringMap = new HashMap<>();
   protected List<String> globalStringList = new ArrayList<>();
 
@@ -146,9 +166,55 @@ public class TransactionLog implements Closeable {
       if (UUID == tagByte) {
         return new java.util.UUID(dis.readLong(), dis.readLong());
       }
+      if (COMPRESSED == tagByte) {
+        return readCompressed(dis);
+      }
       return super.readObject(dis);
     }
 
+    /**
+     * Writes a serialized value compressed, if that makes it smaller
+     *
+     * @return false if nothing was written, the value being better written as is
+     */
+    boolean writeCompressed(byte[] bytes, int len) throws IOException {
+      // the worst case LZ4 size
+      byte[] compressed = new byte[len + len / 255 + 16];
+      ByteArrayDataOutput out = new ByteArrayDataOutput(compressed);
+      LZ4.compress(bytes, 0, len, out, new LZ4.FastCompressionHashTable());
+      int compressedLen = out.getPosition();
+      if (compressedLen >= len) {
+        return false;
+      }
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, len);
+
+      writeTag(COMPRESSED);
+      writeVInt(len, daos);
+      daos.writeInt((int) crc.getValue());
+      writeVInt(compressedLen, daos);
+      daos.write(compressed, 0, compressedLen);
+      return true;
+    }
+
+    private Object readCompressed(DataInputInputStream dis) throws IOException {
+      int len = readVInt(dis);
+      int checksum = dis.readInt();
+      byte[] compressed = new byte[readVInt(dis)];
+      dis.readFully(compressed);
+
+      byte[] bytes = new byte[len];
+      LZ4.decompress(new ByteArrayDataInput(compressed), len, bytes, 0);
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, len);
+      if ((int) crc.getValue() != checksum) {
+        throw new SolrException(
+            SolrException.ErrorCode.SERVER_ERROR,
+            "Corrupt transaction log: checksum mismatch of a compressed record");
+      }
+      return readVal(new FastInputStream(null, bytes, 0, len));
+    }
+
     @Override
     public boolean writePrimitive(Object val) throws IOException {
       if (val instanceof java.util.UUID) {
@@ -328,7 +394,8 @@ public class TransactionLog implements Closeable {
     assert pos == 0;
 
     Map<String, Object> header = new LinkedHashMap<>();
-    header.put("SOLR_TLOG", 1); // a magic string + version number
+    // a magic string + version number
+    header.put("SOLR_TLOG", docCompressionThreshold < 0 ? 1 : 2);
     header.put("strings", globalStringList);
     codec.marshal(header, fos);
 
@@ -402,12 +469,12 @@ public class TransactionLog implements Closeable {
         codec.writeLong(cmd.getVersion());
         codec.writeLong(prevPointer);
         codec.writeLong(cmd.prevVersion);
-        codec.writeSolrInputDocument(cmd.getSolrInputDocument());
+        writeDoc(codec, out, cmd.getSolrInputDocument());
       } else {
         codec.writeTag(JavaBinCodec.ARR, 3);
         codec.writeInt(UpdateLog.ADD); // should just take one byte
         codec.writeLong(cmd.getVersion());
-        codec.writeSolrInputDocument(cmd.getSolrInputDocument());
+        writeDoc(codec, out, cmd.getSolrInputDocument());
       }
       lastAddSize = (int) out.size();
 
@@ -434,6 +501,25 @@ public class TransactionLog implements Closeable {
     }
   }
 
+  private void writeDoc(LogCodec codec, FastOutputStream out, SolrInputDocument sdoc)
+      throws IOException {
+    if (docCompressionThreshold < 0) {
+      codec.writeSolrInputDocument(sdoc);
+      return;
+    }
+    ByteArrayOutputStream docBytes = new ByteArrayOutputStream();
+    FastOutputStream docOut = new FastOutputStream(docBytes);
+    codec.init(docOut);
+    codec.writeSolrInputDocument(sdoc);
+    docOut.flushBuffer();
+    codec.init(out);
+
+    byte[] doc = docBytes.toByteArray();
+    if (doc.length < docCompressionThreshold || !codec.writeCompressed(doc, doc.length)) {
+      out.write(doc);
+    }
+  }
+
   public long writeDelete(DeleteUpdateCommand cmd) {
     LogCodec codec = new LogCodec(resolver);
 
@@ -578,15 +664,14 @@ public class TransactionLog implements Closeable {
   public void finish(UpdateLog.SyncLevel syncLevel) {
     if (syncLevel == UpdateLog.SyncLevel.NONE) return;
     try {
+      long pos;
       synchronized (this) {
         fos.flushBuffer();
+        pos = fos.size();
       }
 
       if (syncLevel == UpdateLog.SyncLevel.FSYNC) {
-        // Since fsync is outside of synchronized block, we can end up with a partial
-        // last record on power failure (which is OK, and does not represent an error...
-        // we just need to be aware of it when reading).
-        channel.force(true);
+        sync(pos);
       }
 
     } catch (IOException e) {
@@ -594,6 +679,32 @@ public class TransactionLog implements Closeable {
     }
   }
 
+  /**
+   * Returns once the log is on disk up to at least the given position. Requests finishing while an
+   * fsync is in progress wait for it, and then either return right away if it covered their
+   * records, or do a single fsync for all of them: with many concurrent update requests, there is
+   * one fsync per group of requests instead of one per request.
+   */
+  private void sync(long pos) throws IOException {
+    synchronized (syncLock) {
+      if (syncedPosition >= pos) {
+        return; // synced by the fsync of another request
+      }
+      long syncPos;
+      synchronized (this) {
+        // also flush what the requests still writing have added, so that this fsync covers them
+        fos.flushBuffer();
+        syncPos = fos.size();
+      }
+      // Since fsync is outside of the synchronized block of the log, we can end up with a partial
+      // last record on power failure (which is OK, and does not represent an error...
+      // we just need to be aware of it when reading).
+      channel.force(true);
+      syncedPosition = syncPos;
+      numSyncs++;
+    }
+  }
+
   @Override
   public void close() {
     try {
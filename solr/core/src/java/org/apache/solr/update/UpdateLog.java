@@ -47,6 +47,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -96,6 +97,8 @@ import org.slf4j.LoggerFactory;
  */
 public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   private static final long STATUS_TIME = TimeUnit.NANOSECONDS.convert(60, TimeUnit.SECONDS);
+  // the number of updates of the same partition of ids replayed by the same task
+  private static final int REPLAY_BATCH_SIZE = 100;
   public static String LOG_FILENAME_PATTERN = "%s.%019d";
   public static String TLOG_NAME = "tlog";
   public static String BUFFER_TLOG_NAME = "buffer.tlog";
@@ -205,9 +208,9 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   protected Deque<TransactionLog> newestLogsOnStartup = new ArrayDeque<>();
   protected int numOldRecords; // number of records in the recent logs
 
-  protected Map<BytesRef, LogPtr> map = new HashMap<>();
-  protected Map<BytesRef, LogPtr> prevMap; // used while committing/reopening is happening
-  protected Map<BytesRef, LogPtr> prevMap2; // used while committing/reopening is happening
+  protected LogPtrMap map = new LogPtrMap();
+  protected LogPtrMap prevMap; // used while committing/reopening is happening
+  protected LogPtrMap prevMap2; // used while committing/reopening is happening
   // the transaction log used to look up entries found in prevMap
   protected TransactionLog prevMapLog;
   // the transaction log used to look up entries found in prevMap2
@@ -257,6 +260,8 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   protected VersionInfo versionInfo;
 
   protected SyncLevel defaultSyncLevel = SyncLevel.FLUSH;
+  // the documents of new logs serialized to at least this many bytes are compressed, unless -1
+  protected int docCompressionThreshold = -1;
 
   protected volatile UpdateHandler uhandler; // a core reload can change this reference!
   protected volatile boolean cancelApplyBufferUpdate;
@@ -267,6 +272,8 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   protected Meter applyingBufferedOpsMeter;
   protected Meter replayOpsMeter;
   protected Meter copyOverOldUpdatesMeter;
+  // the updates read from the logs being replayed that aren't applied yet
+  protected final AtomicInteger pendingReplayOps = new AtomicInteger();
   protected SolrMetricsContext solrMetricsContext;
 
   public static class LogPtr {
@@ -321,6 +328,39 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     return tlog == null ? 0 : tlog.getLogSizeFromStream();
   }
 
+  /**
+   * Not synchronized, so that metrics don't contend with updates: the count may be slightly off
+   * while the maps are rotated by a commit.
+   *
+   * @return the number of entries in the maps of the ids updated since the last commits to their
+   *     position in the logs
+   */
+  public int getNumMappedIds() {
+    final LogPtrMap map = this.map;
+    final LogPtrMap prevMap = this.prevMap;
+    final LogPtrMap prevMap2 = this.prevMap2;
+    int size = map.size();
+    if (prevMap != null) size += prevMap.size();
+    if (prevMap2 != null) size += prevMap2.size();
+    return size;
+  }
+
+  /**
+   * Not synchronized, like {@link #getNumMappedIds()}.
+   *
+   * @return the memory used by the maps of the ids updated since the last commits to their
+   *     position in the logs
+   */
+  public long getMapsRamBytesUsed() {
+    final LogPtrMap map = this.map;
+    final LogPtrMap prevMap = this.prevMap;
+    final LogPtrMap prevMap2 = this.prevMap2;
+    long bytes = map.ramBytesUsed();
+    if (prevMap != null) bytes += prevMap.ramBytesUsed();
+    if (prevMap2 != null) bytes += prevMap2.ramBytesUsed();
+    return bytes;
+  }
+
   public long getTotalLogsNumber() {
     synchronized (this) {
       return logs.size();
@@ -357,18 +397,20 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     numRecordsToKeep = objToInt(info.initArgs.get("numRecordsToKeep"), 100);
     maxNumLogsToKeep = objToInt(info.initArgs.get("maxNumLogsToKeep"), 10);
     numVersionBuckets = objToInt(info.initArgs.get("numVersionBuckets"), 65536);
+    docCompressionThreshold = objToInt(info.initArgs.get("docCompressionThreshold"), -1);
     if (numVersionBuckets <= 0)
       throw new SolrException(
           SolrException.ErrorCode.SERVER_ERROR,
           "Number of version buckets must be greater than 0!");
 
     log.info(
-        "Initializing UpdateLog: dataDir={} defaultSyncLevel={} numRecordsToKeep={} maxNumLogsToKeep={} numVersionBuckets={}",
+        "Initializing UpdateLog: dataDir={} defaultSyncLevel={} numRecordsToKeep={} maxNumLogsToKeep={} numVersionBuckets={} docCompressionThreshold={}",
         dataDir,
         defaultSyncLevel,
         numRecordsToKeep,
         maxNumLogsToKeep,
-        numVersionBuckets);
+        numVersionBuckets,
+        docCompressionThreshold);
   }
 
   /* Note, when this is called, uhandler is not completely constructed.
@@ -507,8 +549,11 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     solrMetricsContext.gauge(() -> getTotalLogsSize(), true, "bytes", scope, "replay", "remaining");
     applyingBufferedOpsMeter = solrMetricsContext.meter("ops", scope, "applyingBuffered");
     replayOpsMeter = solrMetricsContext.meter("ops", scope, "replay");
+    solrMetricsContext.gauge(() -> pendingReplayOps.get(), true, "ops", scope, "replay", "pending");
     copyOverOldUpdatesMeter = solrMetricsContext.meter("ops", scope, "copyOverOldUpdates");
     solrMetricsContext.gauge(() -> state.getValue(), true, "state", scope);
+    solrMetricsContext.gauge(() -> getNumMappedIds(), true, "ids", scope, "map");
+    solrMetricsContext.gauge(() -> getMapsRamBytesUsed(), true, "bytes", scope, "map");
   }
 
   @Override
@@ -522,7 +567,11 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
    */
   public TransactionLog newTransactionLog(
       Path tlogFile, Collection<String> globalStrings, boolean openExisting) {
-    return new TransactionLog(tlogFile, globalStrings, openExisting);
+    TransactionLog newLog = new TransactionLog(tlogFile, globalStrings, openExisting);
+    if (!openExisting) {
+      newLog.docCompressionThreshold = docCompressionThreshold;
+    }
+    return newLog;
   }
 
   public String getLogDir() {
@@ -659,7 +708,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     // note: sync required to ensure maps aren't changed out form under us
     if (cmd.isInPlaceUpdate()) {
       BytesRef indexedId = cmd.getIndexedId();
-      for (Map<BytesRef, LogPtr> currentMap : Arrays.asList(map, prevMap, prevMap2)) {
+      for (LogPtrMap currentMap : Arrays.asList(map, prevMap, prevMap2)) {
         if (currentMap != null) {
           LogPtr prevEntry = currentMap.get(indexedId);
           if (null != prevEntry) {
@@ -830,7 +879,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     prevMap = map;
     prevMapLog = tlog;
 
-    map = new HashMap<>();
+    map = new LogPtrMap();
   }
 
   private void clearOldMaps() {
@@ -909,7 +958,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
       // any added documents will make it into this commit or not.
       // But we do know that any updates already added will definitely
       // show up in the latest reader after the commit succeeds.
-      map = new HashMap<>();
+      map = new LogPtrMap();
 
       if (debug) {
         log.debug(
@@ -1845,6 +1894,11 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     boolean finishing = false;
     boolean debug = loglog.isDebugEnabled();
     boolean inSortedOrder;
+    // the updates read but not executed yet, by partition of their ids
+    List<List<UpdateCommand>> batches;
+    // the position in the replay of the first update of each batch, and of the next update
+    long[] batchStarts;
+    long numBatched;
 
     public LogReplayer(List<TransactionLog> translogs, boolean activeLog) {
       this.translogs = new ArrayDeque<>();
@@ -1947,7 +2001,15 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
 
         OrderedExecutor executor =
             inSortedOrder ? null : req.getCoreContainer().getReplayUpdatesExecutor();
-        AtomicInteger pendingTasks = new AtomicInteger(0);
+        AtomicInteger pendingTasks = pendingReplayOps;
+        // more partitions than threads, so that the replay is rarely blocked by a busy partition
+        int numPartitions =
+            2 * Math.max(1, req.getCoreContainer().getConfig().getReplayUpdatesThreads());
+        batches = new ArrayList<>(numPartitions);
+        for (int i = 0; i < numPartitions; i++) {
+          batches.add(new ArrayList<>());
+        }
+        batchStarts = new long[numPartitions];
         AtomicReference<SolrException> exceptionOnExecuteUpdate = new AtomicReference<>();
 
         long commitVersion = 0;
@@ -1984,6 +2046,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
               if (!finishing) {
                 // about to block all the updates including the tasks in the executor
                 // therefore we must wait for them to be finished
+                executeBatches(executor, pendingTasks, procThreadLocal, exceptionOnExecuteUpdate);
                 waitForAllUpdatesGetExecuted(pendingTasks);
                 // from this point, remain updates will be executed in a single thread
                 executor = null;
@@ -2056,6 +2119,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
                   cmd.setVersion(version);
                   cmd.setFlags(UpdateCommand.REPLAY | UpdateCommand.IGNORE_AUTOCOMMIT);
                   if (debug) log.debug("deleteByQuery {}", cmd);
+                  executeBatches(executor, pendingTasks, procThreadLocal, exceptionOnExecuteUpdate);
                   waitForAllUpdatesGetExecuted(pendingTasks);
                   // DBQ will be executed in the same thread
                   execute(cmd, null, pendingTasks, procThreadLocal, exceptionOnExecuteUpdate);
@@ -2095,6 +2159,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
           assert TestInjection.injectUpdateLogReplayRandomPause();
         }
 
+        executeBatches(executor, pendingTasks, procThreadLocal, exceptionOnExecuteUpdate);
         waitForAllUpdatesGetExecuted(pendingTasks);
         if (exceptionOnExecuteUpdate.get() != null) throw exceptionOnExecuteUpdate.get();
 
@@ -2131,6 +2196,13 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
         }
 
       } finally {
+        // the updates not executed after a failure won't be
+        if (batches != null) {
+          for (List<UpdateCommand> batch : batches) {
+            pendingReplayOps.addAndGet(-batch.size());
+            batch.clear();
+          }
+        }
         if (tlogReader != null) tlogReader.close();
         translog.decref();
       }
@@ -2179,30 +2251,25 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
       assert cmd instanceof AddUpdateCommand || cmd instanceof DeleteUpdateCommand;
 
       if (executor != null) {
-        // by using the same hash as DUP, independent updates can avoid waiting for same bucket
-        executor.execute(
-            getBucketHash(cmd),
-            () -> {
-              try {
-                // fail fast
-                if (exceptionHolder.get() != null) return;
-                invokeCmdOnProc(cmd, procTl.get());
-              } catch (IOException e) {
-                recoveryInfo.errors.incrementAndGet();
-                loglog.warn("REPLAY_ERR: IOException reading log", e);
-                // could be caused by an incomplete flush if recovering from log
-              } catch (SolrException e) {
-                if (e.code() == ErrorCode.SERVICE_UNAVAILABLE.code) {
-                  exceptionHolder.compareAndSet(null, e);
-                  return;
-                }
-                recoveryInfo.errors.incrementAndGet();
-                loglog.warn("REPLAY_ERR: SolrException reading log", e);
-              } finally {
-                pendingTasks.decrementAndGet();
-              }
-            });
         pendingTasks.incrementAndGet();
+        // by using the same hash as DUP, independent updates can avoid waiting for same bucket
+        Integer hash = getBucketHash(cmd);
+        if (hash == null) {
+          executeBatch(null, List.of(cmd), executor, pendingTasks, procTl, exceptionHolder);
+          return;
+        }
+        // the updates of an id are in the same partition, whose batches are executed in order
+        int partition = Math.floorMod(hash, batches.size());
+        List<UpdateCommand> batch = batches.get(partition);
+        if (batch.isEmpty()) {
+          batchStarts[partition] = numBatched;
+        }
+        numBatched++;
+        batch.add(cmd);
+        if (batch.size() >= REPLAY_BATCH_SIZE) {
+          // with the batches started before it, so that they are executed in the order of the log
+          executeBatches(batchStarts[partition], executor, pendingTasks, procTl, exceptionHolder);
+        }
       } else {
         try {
           invokeCmdOnProc(cmd, procTl.get());
@@ -2220,6 +2287,91 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
       }
     }
 
+    /** Executes the updates not executed yet of all the partitions */
+    private void executeBatches(
+        OrderedExecutor executor,
+        AtomicInteger pendingTasks,
+        ThreadLocal<UpdateRequestProcessor> procTl,
+        AtomicReference<SolrException> exceptionHolder) {
+      if (executor == null) {
+        return;
+      }
+      executeBatches(Long.MAX_VALUE, executor, pendingTasks, procTl, exceptionHolder);
+    }
+
+    /**
+     * Executes the batches whose first update is at or before <code>maxStart</code> in the replay,
+     * in the order of their first update, so that the updates are mostly executed, and logged again
+     * when buffered, in the order of the log
+     */
+    private void executeBatches(
+        long maxStart,
+        OrderedExecutor executor,
+        AtomicInteger pendingTasks,
+        ThreadLocal<UpdateRequestProcessor> procTl,
+        AtomicReference<SolrException> exceptionHolder) {
+      while (true) {
+        int oldest = -1;
+        for (int partition = 0; partition < batches.size(); partition++) {
+          if (!batches.get(partition).isEmpty()
+              && batchStarts[partition] <= maxStart
+              && (oldest < 0 || batchStarts[partition] < batchStarts[oldest])) {
+            oldest = partition;
+          }
+        }
+        if (oldest < 0) {
+          return;
+        }
+        List<UpdateCommand> batch = batches.get(oldest);
+        batches.set(oldest, new ArrayList<>());
+        executeBatch(oldest, batch, executor, pendingTasks, procTl, exceptionHolder);
+      }
+    }
+
+    /**
+     * Executes updates in order in a single task: much less overhead than a task per update, and
+     * the replay of the log is blocked less often by the previous task of the same partition
+     */
+    private void executeBatch(
+        Integer partition,
+        List<UpdateCommand> batch,
+        OrderedExecutor executor,
+        AtomicInteger pendingTasks,
+        ThreadLocal<UpdateRequestProcessor> procTl,
+        AtomicReference<SolrException> exceptionHolder) {
+      try {
+        executor.execute(
+            partition,
+            () -> {
+              try {
+                for (UpdateCommand cmd : batch) {
+                  // fail fast
+                  if (exceptionHolder.get() != null) return;
+                  try {
+                    invokeCmdOnProc(cmd, procTl.get());
+                  } catch (IOException e) {
+                    recoveryInfo.errors.incrementAndGet();
+                    loglog.warn("REPLAY_ERR: IOException reading log", e);
+                    // could be caused by an incomplete flush if recovering from log
+                  } catch (SolrException e) {
+                    if (e.code() == ErrorCode.SERVICE_UNAVAILABLE.code) {
+                      exceptionHolder.compareAndSet(null, e);
+                      return;
+                    }
+                    recoveryInfo.errors.incrementAndGet();
+                    loglog.warn("REPLAY_ERR: SolrException reading log", e);
+                  }
+                }
+              } finally {
+                pendingTasks.addAndGet(-batch.size());
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        pendingTasks.addAndGet(-batch.size());
+        throw e;
+      }
+    }
+
     private void invokeCmdOnProc(UpdateCommand cmd, UpdateRequestProcessor proc)
         throws IOException {
       if (cmd instanceof AddUpdateCommand) {
@@ -18,10 +18,13 @@ package org.apache.solr.core;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
@@ -29,6 +32,7 @@ import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.tests.util.TestUtil;
 import org.apache.solr.SolrTestCaseJ4;
 import org.apache.solr.search.QueryResultKey;
+import org.apache.solr.search.WrappedQuery;
 import org.junit.Test;
 
 public class QueryResultKeyTest extends SolrTestCaseJ4 {
@@ -153,6 +157,50 @@ public class QueryResultKeyTest extends SolrTestCaseJ4 {
         new QueryResultKey(base, buildFiltersFromNumbers(nums), null, 0));
   }
 
+  public void testNormalizedFilters() {
+    final Query query = new TermQuery(new Term("main", "val"));
+    final Query fq1 = new TermQuery(new Term("test1", "field1"));
+    final Query fq2 = new TermQuery(new Term("test2", "field2"));
+    final QueryResultKey key = new QueryResultKey(query, Arrays.asList(fq1, fq2), null, 0);
+
+    // a conjunction is equivalent to its clauses as separate filters
+    BooleanQuery.Builder conjunction = new BooleanQuery.Builder();
+    conjunction.add(fq2, Occur.FILTER);
+    conjunction.add(new BoostQuery(fq1, 2f), Occur.MUST);
+    QueryResultKey other =
+        new QueryResultKey(query, Collections.singletonList(conjunction.build()), null, 0);
+    assertEquals(key.hashCode(), other.hashCode());
+    assertEquals(key, other);
+    assertEquals(other, key);
+
+    // wrappers and filters matching all documents don't change the matches
+    WrappedQuery uncached = new WrappedQuery(fq1);
+    uncached.setCache(false);
+    other =
+        new QueryResultKey(query, Arrays.asList(new MatchAllDocsQuery(), fq2, uncached), null, 0);
+    assertEquals(key.hashCode(), other.hashCode());
+    assertEquals(key, other);
+    assertEquals(other, key);
+    assertEquals(
+        new QueryResultKey(query, null, null, 0),
+        new QueryResultKey(query, Collections.singletonList(new MatchAllDocsQuery()), null, 0));
+
+    // but a disjunction or a negated clause does
+    BooleanQuery.Builder disjunction = new BooleanQuery.Builder();
+    disjunction.add(fq1, Occur.SHOULD);
+    disjunction.add(fq2, Occur.SHOULD);
+    assertKeyNotEquals(
+        key, new QueryResultKey(query, Collections.singletonList(disjunction.build()), null, 0));
+    BooleanQuery.Builder negative = new BooleanQuery.Builder();
+    negative.add(fq2, Occur.MUST_NOT);
+    BooleanQuery.Builder withNegative = new BooleanQuery.Builder();
+    withNegative.add(fq1, Occur.MUST);
+    withNegative.add(negative.build(), Occur.MUST);
+    assertKeyNotEquals(
+        new QueryResultKey(query, Arrays.asList(fq1, negative.build()), null, 0),
+        new QueryResultKey(query, Collections.singletonList(withNegative.build()), null, 0));
+  }
+
   /** does bi-directional equality check as well as verifying hashCode */
   public void assertKeyEquals(QueryResultKey key1, QueryResultKey key2) {
     assertNotNull(key1);
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.response;
+
+import java.io.StringWriter;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.request.SolrQueryRequest;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Documents written straight from the index must be written as from a SolrDocument */
+public class TestJSONWriterDocuments extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml", "schema_latest.xml");
+
+    for (int i = 0; i < 20; i++) {
+      assertU(
+          adoc(
+              "id", Integer.toString(i),
+              "val_i", Integer.toString(i),
+              "vals_is", Integer.toString(i),
+              "vals_is", Integer.toString(-i),
+              "name_s", "name \"" + i + "\"\n",
+              "tags_ss", "a" + i,
+              "text_t", "some text " + i,
+              "dv_id", Integer.toString(i * 3),
+              "dv_ld", Long.toString(Long.MAX_VALUE - i),
+              "dv_fd", Float.toString(i / 3f),
+              "dv_dd", Double.toString(i / 7d),
+              "dv_dtd", "2020-01-0" + (1 + i % 9) + "T00:00:00Z",
+              "dv_sd", "s" + i,
+              "dv_bd", Boolean.toString(i % 2 == 0),
+              "dv_sds", "x" + i,
+              "dv_sds", "y" + i,
+              "dv_lds", Long.toString(i),
+              "both_ldS", Long.toString(i * 11)));
+      if (i % 7 == 6) {
+        assertU(commit());
+      }
+    }
+    assertU(adoc("id", "sparse"));
+    assertU(commit());
+  }
+
+  /** writes the response to the request, directly or with SolrDocuments */
+  private static String write(boolean direct, String... params) throws Exception {
+    try (SolrQueryRequest req = req(params)) {
+      SolrQueryResponse rsp = h.queryAndResponse(null, req);
+      StringWriter buf = new StringWriter();
+      // subclasses don't write documents directly
+      JSONWriter w =
+          direct ? new JSONWriter(buf, req, rsp) : new JSONWriter(buf, req, rsp) {};
+      w.writeResponse();
+      w.close();
+      return buf.toString();
+    }
+  }
+
+  private static void assertSameOutput(String... params) throws Exception {
+    String direct = write(true, params);
+    assertEquals(write(false, params), direct);
+    assertTrue(direct, direct.contains("\"docs\":"));
+  }
+
+  @Test
+  public void testAllFields() throws Exception {
+    assertSameOutput("q", "*:*", "rows", "100", "omitHeader", "true");
+    assertSameOutput("q", "*:*", "rows", "100", "omitHeader", "true", "indent", "off");
+  }
+
+  @Test
+  public void testFieldList() throws Exception {
+    assertSameOutput("q", "*:*", "rows", "100", "omitHeader", "true", "fl", "id,vals_is,dv_*");
+    assertSameOutput("q", "*:*", "rows", "5", "omitHeader", "true", "fl", "dv_id,dv_fd,dv_sds");
+    assertSameOutput("q", "*:*", "omitHeader", "true", "fl", "both_ldS", "sort", "id desc");
+    assertSameOutput("q", "*:*", "omitHeader", "true", "fl", "id,missing_s", "start", "15");
+    // a transformer always goes through SolrDocuments
+    assertSameOutput("q", "id:3", "omitHeader", "true", "fl", "id,score,[docid]");
+  }
+
+  @Test
+  public void testDocValues() throws Exception {
+    assertJQ(
+        req("q", "id:4", "fl", "dv_id,dv_ld,dv_fd,dv_sds,dv_bd,vals_is"),
+        "/response/docs/[0]/dv_id==12",
+        "/response/docs/[0]/dv_ld==" + (Long.MAX_VALUE - 4),
+        "/response/docs/[0]/dv_sds==['x4','y4']",
+        "/response/docs/[0]/dv_bd==true",
+        "/response/docs/[0]/vals_is==[4,-4]");
+  }
+}
@@ -436,6 +436,21 @@ public class SolrIndexSearcherTest extends SolrTestCaseJ4 {
             });
   }
 
+  public void testDocSetBitsKeepsCompressedEntry() throws Exception {
+    final Query query = new TermQuery(new Term("field2_s", "0"));
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              final RoaringDocSet compressed = RoaringDocSet.from(searcher.getDocSet(query));
+              searcher.getFilterCache().put(query, compressed);
+              final BitDocSet bits = searcher.getDocSetBits(query);
+              assertEquals(compressed.size(), bits.size());
+              // the expanded bits don't replace the compressed entry
+              assertSame(compressed, searcher.getFilterCache().get(query));
+              return null;
+            });
+  }
+
   private QueryCommand createBasicQueryCommand(
       int minExactCount, int length, String field, String q) {
     QueryCommand cmd = new QueryCommand();
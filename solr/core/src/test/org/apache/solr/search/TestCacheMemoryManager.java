@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.solr.SolrTestCase;
+import org.junit.Test;
+
+/** Test for {@link CacheMemoryManager}. */
+public class TestCacheMemoryManager extends SolrTestCase {
+
+  private static final long MB = 1024L * 1024L;
+
+  private static CaffeineCache<Integer, String> newCache() {
+    CaffeineCache<Integer, String> cache = new CaffeineCache<>();
+    Map<String, String> params = new HashMap<>();
+    params.put("size", "100");
+    cache.init(params, null, null);
+    cache.setState(SolrCache.State.LIVE);
+    return cache;
+  }
+
+  private static long sum(long[] limits) {
+    long sum = 0;
+    for (long limit : limits) sum += limit;
+    return sum;
+  }
+
+  @Test
+  public void testAllocateByWeight() {
+    long[] limits =
+        CacheMemoryManager.allocate(
+            100 * MB,
+            MB,
+            new double[] {0, 300},
+            new long[] {50 * MB, 50 * MB},
+            new boolean[] {true, true});
+    assertTrue(sum(limits) <= 100 * MB);
+    assertTrue(sum(limits) > 99 * MB);
+    assertTrue(limits[0] >= MB);
+    assertTrue(limits[1] > 90 * MB);
+  }
+
+  @Test
+  public void testAllocateCapsCachesThatDoNotEvict() {
+    // the busiest cache holds little and doesn't evict: the evicting one gets the rest
+    long[] limits =
+        CacheMemoryManager.allocate(
+            100 * MB,
+            MB,
+            new double[] {1000, 10},
+            new long[] {2 * MB, 40 * MB},
+            new boolean[] {false, true});
+    assertEquals(4 * MB, limits[0]);
+    assertTrue(limits[1] > 95 * MB);
+    assertTrue(sum(limits) <= 100 * MB);
+
+    // nobody needs more: everything is shared as headroom
+    limits =
+        CacheMemoryManager.allocate(
+            100 * MB, MB, new double[] {1, 1}, new long[] {MB, MB}, new boolean[] {false, false});
+    assertTrue(sum(limits) > 99 * MB);
+    assertTrue(Math.abs(limits[0] - limits[1]) <= 1);
+  }
+
+  @Test
+  public void testAllocateOverBudget() {
+    // not enough for the minimum of each cache: the budget is still not exceeded
+    long[] limits =
+        CacheMemoryManager.allocate(
+            2 * MB, MB, new double[3], new long[3], new boolean[] {true, true, true});
+    for (long limit : limits) {
+      assertEquals(2 * MB / 3, limit);
+    }
+    assertTrue(sum(limits) <= 2 * MB);
+  }
+
+  @Test
+  public void testRegisterWithinBudget() {
+    CacheMemoryManager manager = new CacheMemoryManager(64 * MB, MB, 0);
+    try {
+      long totalMB = 0;
+      for (int i = 0; i < 20; i++) {
+        CaffeineCache<Integer, String> cache = newCache();
+        manager.register("core" + i + "/filterCache", cache);
+        totalMB += cache.getMaxRamMB();
+      }
+      // until the first rebalance, new caches only get what the others don't hold
+      assertTrue(totalMB <= 64 + 20);
+    } finally {
+      manager.close();
+    }
+  }
+
+  @Test
+  public void testRebalance() throws Exception {
+    CacheMemoryManager manager = new CacheMemoryManager(64 * MB, MB, 0);
+    try {
+      CaffeineCache<Integer, String> busy = newCache();
+      CaffeineCache<Integer, String> idle = newCache();
+      manager.register("core1/filterCache", busy);
+      manager.register("core2/filterCache", idle);
+      // registered caches are switched to RAM limits
+      assertTrue(busy.getMaxRamMB() > 0);
+      assertTrue(idle.getMaxRamMB() > 0);
+
+      for (int i = 0; i < 1000; i++) {
+        busy.put(i, Integer.toString(i));
+        for (int j = 0; j < 10; j++) {
+          assertNotNull(busy.get(i));
+        }
+      }
+      manager.rebalance();
+      assertTrue(busy.getMaxRamMB() > idle.getMaxRamMB());
+      assertTrue(busy.getMaxRamMB() + idle.getMaxRamMB() <= 64);
+
+      // a new searcher's cache takes over the limit of the one it replaces
+      CaffeineCache<Integer, String> replacement = newCache();
+      manager.register("core1/filterCache", replacement);
+      assertEquals(busy.getMaxRamMB(), replacement.getMaxRamMB());
+      manager.unregister(busy);
+      manager.rebalance();
+      assertTrue(replacement.getMaxRamMB() > 0);
+
+      manager.unregister(replacement);
+      manager.unregister(idle);
+      manager.rebalance();
+    } finally {
+      manager.close();
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.index.ExitableDirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.noggit.ObjectBuilder;
+
+/** Results of searching leaf slices concurrently must match sequential search */
+public class TestConcurrentSearch extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    // keep one segment per commit so that there are several slices
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    System.setProperty("solr.concurrentSearch.enabled", "true");
+    initCore("solrconfig.xml", "schema_latest.xml");
+
+    for (int i = 0; i < 40; i++) {
+      assertU(
+          adoc(
+              "id", Integer.toString(i),
+              "val_i", Integer.toString(i),
+              "parity_s", i % 2 == 0 ? "even" : "odd",
+              "text_t", i % 3 == 0 ? "apple banana" : "apple"));
+      if (i % 10 == 9) {
+        assertU(commit());
+      }
+    }
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    System.clearProperty("solr.concurrentSearch.enabled");
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  @Test
+  public void testSlices() throws Exception {
+    assertNotNull(h.getCore().getConcurrentSearchExecutor());
+    assertTrue(h.getCore().withSearcher(SolrIndexSearcher::isSearchConcurrent));
+  }
+
+  @Test
+  public void testTimeAllowedDocSetsAreSequential() throws Exception {
+    // the deadline is only visible to the requesting thread, so with a time limit the DocSets of
+    // filters have to be collected on it for an exceeded limit to be noticed
+    final WrappedQuery filter = new WrappedQuery(new TermQuery(new Term("parity_s", "even")));
+    filter.setCache(false);
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              assertEquals(20, DocSetUtil.createDocSetGeneric(searcher, filter).size());
+              SolrQueryTimeoutImpl.set(-1L);
+              try {
+                assertFalse(searcher.canCollectDocSetConcurrently());
+                expectThrows(
+                    ExitableDirectoryReader.ExitingReaderException.class,
+                    () -> DocSetUtil.createDocSetGeneric(searcher, filter));
+                expectThrows(
+                    ExitableDirectoryReader.ExitingReaderException.class,
+                    () -> searcher.getDocSet(List.of(filter)));
+              } finally {
+                SolrQueryTimeoutImpl.reset();
+              }
+              assertTrue(searcher.canCollectDocSetConcurrently());
+              return null;
+            });
+    // a request whose limit is exceeded returns partial results instead of failing
+    assertJQ(
+        req("q", "*:*", "fq", "{!cache=false}parity_s:even", "timeAllowed", "0"),
+        "/responseHeader/partialResults==true");
+  }
+
+  @Test
+  public void testSortedDocList() throws Exception {
+    assertJQ(
+        req("q", "*:*", "fq", "parity_s:even", "sort", "val_i desc", "rows", "3", "fl", "id"),
+        "/response/numFound==20",
+        "/response/docs==[{'id':'38'},{'id':'36'},{'id':'34'}]");
+    // ties on the sort value are broken by docid, across slices
+    assertJQ(
+        req("q", "*:*", "sort", "parity_s asc", "rows", "2", "fl", "id"),
+        "/response/numFound==40",
+        "/response/docs==[{'id':'0'},{'id':'2'}]");
+  }
+
+  @Test
+  public void testScoredDocListAndSet() throws Exception {
+    assertJQ(
+        req(
+            "q", "text_t:banana",
+            "fl", "id,score",
+            "rows", "100",
+            "facet", "true",
+            "facet.field", "parity_s"),
+        "/response/numFound==14",
+        "/facet_counts/facet_fields/parity_s==['even',7,'odd',7]");
+  }
+
+  @Test
+  public void testCursorMark() throws Exception {
+    String cursor = "*";
+    int seen = 0;
+    for (int page = 0; page < 10; page++) {
+      String rsp =
+          h.query(
+              req(
+                  "q", "*:*",
+                  "fq", "val_i:[5 TO 34]",
+                  "sort", "val_i asc,id asc",
+                  "rows", "7",
+                  "fl", "id",
+                  "wt", "json",
+                  "cursorMark", cursor));
+      @SuppressWarnings("unchecked")
+      Map<String, Object> json = (Map<String, Object>) ObjectBuilder.fromJSON(rsp);
+      @SuppressWarnings("unchecked")
+      Map<String, Object> response = (Map<String, Object>) json.get("response");
+      seen += ((List<?>) response.get("docs")).size();
+      String next = (String) json.get("nextCursorMark");
+      if (next.equals(cursor)) break;
+      cursor = next;
+    }
+    assertEquals(30, seen);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.Arrays;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Expensive uncached filters are deferred, and checked per document when others are selective */
+public class TestCostBasedFilters extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    System.setProperty("solr.useCostBasedFilters", "true");
+    initCore("solrconfig.xml", "schema.xml");
+
+    for (int i = 0; i < 100; i++) {
+      final SolrInputDocument doc =
+          sdoc("id", Integer.toString(i), "val_i", i, "cat_s", i < 5 ? "rare" : "common");
+      // unit vectors getting further from [1,0,0,0] as i grows
+      final double angle = i * 0.01;
+      doc.addField(
+          "vector", Arrays.asList((float) Math.cos(angle), (float) Math.sin(angle), 0f, 0f));
+      assertU(adoc(doc));
+    }
+    assertU(commit());
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    System.clearProperty("solr.useCostBasedFilters");
+  }
+
+  private static int filterCacheSize() throws Exception {
+    return h.getCore().withSearcher(searcher -> searcher.getFilterCache().size());
+  }
+
+  @Test
+  public void testSelectiveFilterPromotesExpensiveFilter() throws Exception {
+    assertJQ(req("q", "*:*", "fq", "cat_s:rare", "rows", "0"), "/response/numFound==5");
+    final int before = filterCacheSize();
+    assertJQ(
+        req("q", "*:*", "fq", "cat_s:rare", "fq", "{!frange l=0 u=3}field(val_i)", "rows", "0"),
+        "/response/numFound==4");
+    // the function range was only checked against the 5 rare documents, and not cached
+    assertEquals(before, filterCacheSize());
+
+    // same result when the expensive filter comes first
+    assertJQ(
+        req("q", "*:*", "fq", "{!frange l=0 u=3}field(val_i)", "fq", "cat_s:rare", "rows", "0"),
+        "/response/numFound==4");
+    assertEquals(before, filterCacheSize());
+  }
+
+  @Test
+  public void testNonSelectiveFilterCachesExpensiveFilter() throws Exception {
+    assertJQ(req("q", "*:*", "fq", "cat_s:common", "rows", "0"), "/response/numFound==95");
+    final int before = filterCacheSize();
+    assertJQ(
+        req("q", "*:*", "fq", "cat_s:common", "fq", "{!frange l=10 u=19}field(val_i)", "rows", "0"),
+        "/response/numFound==10");
+    assertEquals(before + 1, filterCacheSize());
+
+    // now cached, it is used directly
+    assertJQ(
+        req("q", "*:*", "fq", "cat_s:rare", "fq", "{!frange l=10 u=19}field(val_i)", "rows", "0"),
+        "/response/numFound==0");
+    assertEquals(before + 1, filterCacheSize());
+  }
+
+  @Test
+  public void testOnlyExpensiveFilter() throws Exception {
+    assertJQ(
+        req("q", "*:*", "fq", "{!frange l=50 u=59}field(val_i)", "fq", "-cat_s:rare", "rows", "0"),
+        "/response/numFound==10");
+    assertJQ(
+        req("q", "id:7", "fq", "{!frange l=5 u=9}field(val_i)", "fl", "id"),
+        "/response/numFound==1",
+        "/response/docs==[{'id':'7'}]");
+  }
+
+  @Test
+  public void testKnnPreFilterKeepsExpensiveFilter() throws Exception {
+    // the knn query only sees the filter of the processed filters, not their post filters, so
+    // the function range must be part of it instead of being promoted
+    final String[] franges = {
+      "{!frange l=2 u=4}field(val_i)", "{!frange cache=false l=2 u=4}field(val_i)"
+    };
+    for (String frange : franges) {
+      assertJQ(
+          req(
+              "q", "{!knn f=vector topK=3}[1.0, 0.0, 0.0, 0.0]",
+              "fq", "cat_s:rare",
+              "fq", frange,
+              "fl", "id"),
+          "/response/numFound==3",
+          "/response/docs==[{'id':'2'},{'id':'3'},{'id':'4'}]");
+    }
+  }
+}
@@ -17,9 +17,12 @@
 package org.apache.solr.search;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Supplier;
 import java.util.function.ToIntFunction;
 import org.apache.lucene.index.BinaryDocValues;
@@ -48,6 +51,8 @@ import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.Version;
 import org.apache.solr.SolrTestCase;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.SolrNamedThreadFactory;
 
 /** */
 public class TestDocSet extends SolrTestCase {
@@ -104,6 +109,10 @@ public class TestDocSet extends SolrTestCase {
     return new BitDocSet(bs);
   }
 
+  public DocSet getRoaringDocSet(FixedBitSet bs) {
+    return RoaringDocSet.from(new BitDocSet(bs));
+  }
+
   public DocSlice getDocSlice(FixedBitSet bs) {
     int len = bs.cardinality();
     int[] arr = new int[len + 5];
@@ -125,7 +134,7 @@ public class TestDocSet extends SolrTestCase {
   }
 
   public DocSet getDocSet(FixedBitSet bs) {
-    switch (rand.nextInt(9)) {
+    switch (rand.nextInt(10)) {
       case 0:
       case 1:
       case 2:
@@ -142,6 +151,8 @@ public class TestDocSet extends SolrTestCase {
         return getIntDocSet(bs);
       case 8:
         return getIntDocSet(bs);
+      case 9:
+        return getRoaringDocSet(bs);
     }
     return null;
   }
@@ -221,6 +232,76 @@ public class TestDocSet extends SolrTestCase {
     // doMany(130, 1000000);
   }
 
+  public void testRandomRoaringDocSets() {
+    // span several 64k blocks, with sparse (array) and dense (bitmap) blocks
+    for (int i = 0; i < 50; i++) {
+      final int maxDoc = rand.nextInt(300000) + 1;
+      final FixedBitSet bs1 = getClusteredSet(maxDoc);
+      final FixedBitSet bs2 = getClusteredSet(maxDoc);
+      final DocSet r1 = getRoaringDocSet(bs1);
+      final DocSet r2 = getRoaringDocSet(bs2);
+      final DocSet b2 = new BitDocSet(bs2);
+      final DocSet i2 = getIntDocSet(bs2);
+
+      assertTrue(DocSetUtil.equals(new BitDocSet(bs1), r1));
+      assertEquals(bs1.cardinality(), r1.size());
+      assertEquals(bs1, grow(r1, maxDoc));
+
+      FixedBitSet and = bs1.clone();
+      and.and(bs2);
+      FixedBitSet andNot = bs1.clone();
+      andNot.andNot(bs2);
+      FixedBitSet or = bs1.clone();
+      or.or(bs2);
+
+      for (DocSet other : new DocSet[] {r2, b2, i2}) {
+        assertTrue(DocSetUtil.equals(new BitDocSet(and), r1.intersection(other)));
+        assertTrue(DocSetUtil.equals(new BitDocSet(and), other.intersection(r1)));
+        assertTrue(DocSetUtil.equals(new BitDocSet(andNot), r1.andNot(other)));
+        assertTrue(DocSetUtil.equals(new BitDocSet(or), r1.union(other)));
+        assertEquals(and.cardinality(), r1.intersectionSize(other));
+        assertEquals(and.cardinality(), other.intersectionSize(r1));
+        assertEquals(and.cardinality() > 0, r1.intersects(other));
+        assertEquals(andNot.cardinality(), r1.andNotSize(other));
+      }
+
+      for (int j = 0; j < 100; j++) {
+        int doc = rand.nextInt(maxDoc);
+        assertEquals(bs1.get(doc), r1.exists(doc));
+      }
+    }
+  }
+
+  private FixedBitSet grow(DocSet set, int maxDoc) {
+    FixedBitSet bits = new FixedBitSet(maxDoc);
+    set.addAllTo(bits);
+    return bits;
+  }
+
+  /** Random bits where each 64k block is empty, sparse or dense. */
+  private FixedBitSet getClusteredSet(int maxDoc) {
+    FixedBitSet bs = new FixedBitSet(maxDoc);
+    for (int start = 0; start < maxDoc; start += 1 << 16) {
+      final int end = Math.min(maxDoc, start + (1 << 16));
+      final int n;
+      switch (rand.nextInt(3)) {
+        case 0:
+          n = 0;
+          break;
+        case 1:
+          n = rand.nextInt(100);
+          break;
+        default:
+          n = rand.nextInt(end - start);
+          break;
+      }
+      for (int i = 0; i < n; i++) {
+        bs.set(start + rand.nextInt(end - start));
+      }
+    }
+    return bs;
+  }
+
   public DocSet getRandomDocSet(int n, int maxDoc) {
     FixedBitSet obs = new FixedBitSet(maxDoc);
     int[] a = new int[n];
@@ -563,6 +644,7 @@ public class TestDocSet extends SolrTestCase {
     FixedBitSet bs = getRandomSet(reader.maxDoc(), rand.nextInt(reader.maxDoc() + 1));
     DocSet a = new BitDocSet(bs);
     DocSet b = getIntDocSet(bs);
+    DocSet c = getRoaringDocSet(bs);
 
     //    Query fa = a.makeQuery();
     //    Query fb = b.makeQuery();
@@ -582,7 +664,8 @@ public class TestDocSet extends SolrTestCase {
       doTestIteratorEqual(
           getExpectedBits(a, readerContext),
           () -> a.iterator(readerContext),
-          () -> b.iterator(readerContext));
+          () -> b.iterator(readerContext),
+          () -> c.iterator(readerContext));
     }
 
     int nReaders = leaves.size();
@@ -592,7 +675,8 @@ public class TestDocSet extends SolrTestCase {
       doTestIteratorEqual(
           getExpectedBits(a, readerContext),
           () -> a.iterator(readerContext),
-          () -> b.iterator(readerContext));
+          () -> b.iterator(readerContext),
+          () -> c.iterator(readerContext));
     }
   }
 
@@ -608,6 +692,95 @@ public class TestDocSet extends SolrTestCase {
     }
   }
 
+  public void testSkewedIntersection() {
+    // sets more than 64 times smaller than the other are intersected by galloping
+    for (int i = 0; i < 1000; i++) {
+      int sz = 1 + rand.nextInt(20000);
+      FixedBitSet big = getRandomSet(sz, rand.nextInt(sz + 1));
+      FixedBitSet small = getRandomSet(sz, rand.nextInt(1 + (big.cardinality() >> 6)));
+      if (rand.nextBoolean()) {
+        // make sure some docs match
+        for (int j = rand.nextInt(5); j > 0 && big.cardinality() > 0; j--) {
+          int doc = big.nextSetBit(rand.nextInt(sz));
+          if (doc != DocIdSetIterator.NO_MORE_DOCS) small.set(doc);
+        }
+      }
+      FixedBitSet expected = small.clone();
+      expected.and(big);
+
+      DocSet a = getIntDocSet(small);
+      DocSet b = getIntDocSet(big);
+      checkEqual(expected, a.intersection(b));
+      checkEqual(expected, b.intersection(a));
+    }
+  }
+
+  public void testMutableCombine() {
+    for (int i = 0; i < 200; i++) {
+      int sz = rand.nextInt(5000);
+      FixedBitSet expected = getRandomSet(sz, rand.nextInt(sz + 1));
+      MutableBitDocSet answer = MutableBitDocSet.fromBitDocSet(new BitDocSet(expected.clone()));
+
+      List<FixedBitSet> and = new ArrayList<>();
+      List<FixedBitSet> andNot = new ArrayList<>();
+      for (int j = rand.nextInt(12); j >= 0; j--) {
+        FixedBitSet other = getRandomSet(sz, rand.nextInt(sz + 1) * 2);
+        if (rand.nextInt(4) == 0) {
+          andNot.add(other);
+          expected.andNot(other);
+        } else {
+          and.add(other);
+          expected.and(other);
+        }
+      }
+      answer.combine(and, andNot);
+      DocSet result = MutableBitDocSet.unwrapIfMutable(answer);
+      assertEquals(expected, result.getFixedBitSet());
+      assertEquals(expected.cardinality(), result.size());
+    }
+  }
+
+  public void testMutableCombineConcurrently() {
+    // large enough to be split into two or three ranges, the last one may be shorter
+    final int sz = 2 * 64 * MutableBitDocSet.MIN_WORDS_PER_TASK + rand.nextInt(1 << 22);
+    final FixedBitSet expected = getRandomSet(sz, sz);
+    final List<FixedBitSet> and = new ArrayList<>();
+    final List<FixedBitSet> andNot = new ArrayList<>();
+    for (int j = 0; j < 3; j++) {
+      FixedBitSet other = getRandomSet(sz, sz);
+      if (j == 0) {
+        andNot.add(other);
+        expected.andNot(other);
+      } else {
+        and.add(other);
+        expected.and(other);
+      }
+    }
+    final FixedBitSet source = getRandomSet(sz, sz);
+    expected.and(source);
+
+    final ExecutorService executor =
+        ExecutorUtil.newMDCAwareFixedThreadPool(2, new SolrNamedThreadFactory("testCombine"));
+    try {
+      MutableBitDocSet answer = MutableBitDocSet.fromBitDocSet(new BitDocSet(source.clone()));
+      answer.combine(and, andNot, executor);
+      assertEquals(expected, answer.getFixedBitSet());
+      assertEquals(expected.cardinality(), answer.size());
+    } finally {
+      ExecutorUtil.shutdownAndAwaitTermination(executor);
+    }
+
+    // ranges rejected by the executor are combined by the calling thread
+    MutableBitDocSet answer = MutableBitDocSet.fromBitDocSet(new BitDocSet(source.clone()));
+    answer.combine(
+        and,
+        andNot,
+        r -> {
+          throw new RejectedExecutionException();
+        });
+    assertEquals(expected, answer.getFixedBitSet());
+  }
+
   private static final int MAX_SRC_SIZE = 130; // push _just_ into 3 `long` "words"
 
   public void testCopyBitsToRange() {
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.lucene.search.TotalHits;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** DocValues read for a block of documents must be the same as read one document at a time */
+public class TestDocValuesBlock extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    // several segments, so that blocks span them
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    initCore("solrconfig.xml", "schema_latest.xml");
+
+    for (int i = 0; i < 50; i++) {
+      if (i % 5 == 4) {
+        // some documents without docValues
+        assertU(adoc("id", Integer.toString(i)));
+      } else {
+        assertU(
+            adoc(
+                "id", Integer.toString(i),
+                "dv_id", Integer.toString(i),
+                "dv_ld", Long.toString(-i),
+                "dv_fd", Float.toString(i / 3f),
+                "dv_dd", Double.toString(i / 7d),
+                "dv_dtd", "2020-01-0" + (1 + i % 9) + "T00:00:00Z",
+                "dv_sd", "s" + i,
+                "dv_bd", Boolean.toString(i % 2 == 0),
+                "dv_sds", "x" + i,
+                "dv_sds", "y" + i,
+                "dv_lds", Long.toString(i),
+                "dv_lds", Long.toString(i * 2)));
+      }
+      if (i % 10 == 9) {
+        assertU(commit());
+      }
+    }
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  @Test
+  public void testSameAsOneByOne() throws Exception {
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              assertTrue(searcher.getLeafContexts().size() > 1);
+              final List<Integer> ids = new ArrayList<>();
+              for (int i = 0; i < searcher.maxDoc(); i++) {
+                ids.add(i);
+              }
+              Collections.shuffle(ids, random());
+              ids.add(ids.get(3)); // listed twice
+              final int[] docs = new int[ids.size()];
+              for (int i = 0; i < docs.length; i++) {
+                docs[i] = ids.get(i);
+              }
+              final DocList docList =
+                  new DocSlice(
+                      0, docs.length, docs, null, docs.length, 0, TotalHits.Relation.EQUAL_TO);
+
+              for (String fl : new String[] {"*", "id,dv_*", "dv_id,dv_sds"}) {
+                final SolrReturnFields rf = new SolrReturnFields(fl, null);
+                final SolrDocumentFetcher fetcher = searcher.getDocFetcher();
+                final DocIterator blockIterator = docList.iterator();
+                final DocIterator iterator = docList.iterator();
+                SolrDocumentFetcher.DocValuesBlock block = null;
+                while (iterator.hasNext()) {
+                  if (block == null || !block.hasNext()) {
+                    // small blocks, to have several
+                    block = fetcher.readDocValues(blockIterator, 7, rf);
+                  }
+                  final int docid = iterator.nextDoc();
+                  final SolrDocument expected = fetcher.solrDoc(docid, rf);
+                  final SolrDocument actual = fetcher.solrDoc(docid, rf, block);
+                  assertEquals(expected.toString(), actual.toString());
+                }
+                assertFalse(block.hasNext());
+              }
+              return null;
+            });
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Deeper pages extend a cached result list instead of re-running the query for the window */
+public class TestQueryResultCacheExtension extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml", "schema_latest.xml");
+
+    for (int i = 0; i < 60; i++) {
+      assertU(
+          adoc(
+              "id", Integer.toString(i),
+              "val_i", Integer.toString(i % 7),
+              "text_t", i % 3 == 0 ? "apple apple banana" : "apple"));
+      if (i % 20 == 19) {
+        assertU(commit());
+      }
+    }
+  }
+
+  @Before
+  public void beforeTest() throws Exception {
+    // start each test with an empty queryResultCache
+    h.reload();
+  }
+
+  private static long extendedResultCount() {
+    return (long)
+        ((SolrMetricManager.GaugeWrapper<?>)
+                h.getCore()
+                    .getCoreMetricManager()
+                    .getRegistry()
+                    .getMetrics()
+                    .get("SEARCHER.searcher.extendedResultCount"))
+            .getGauge()
+            .getValue();
+  }
+
+  /** asserts that a deep page is the same when extending the cached window and when uncached */
+  private void assertDeepPage(String q, String... params) throws Exception {
+    assertNotNull(h.query(req(concat(params, "q", q, "start", "0", "rows", "10"))));
+    final long before = extendedResultCount();
+    final String cached = h.query(req(concat(params, "q", q, "start", "20", "rows", "10")));
+    assertEquals(before + 1, extendedResultCount());
+    final String uncached =
+        h.query(req(concat(params, "q", "{!cache=false}" + q, "start", "20", "rows", "10")));
+    assertEquals(uncached, cached);
+  }
+
+  private static String[] concat(String[] params, String... more) {
+    final String[] all = new String[params.length + 2 + more.length];
+    System.arraycopy(params, 0, all, 0, params.length);
+    all[params.length] = "omitHeader";
+    all[params.length + 1] = "true";
+    System.arraycopy(more, 0, all, params.length + 2, more.length);
+    return all;
+  }
+
+  @Test
+  public void testSortByScore() throws Exception {
+    assertDeepPage("text_t:banana OR text_t:apple", "fl", "id,score", "wt", "json");
+  }
+
+  @Test
+  public void testSortByFieldWithTies() throws Exception {
+    assertDeepPage("*:*", "sort", "val_i asc", "fl", "id", "wt", "json");
+    assertDeepPage("text_t:apple", "sort", "val_i desc,score desc", "fl", "id,score");
+  }
+
+  @Test
+  public void testWithFilters() throws Exception {
+    assertDeepPage("*:*", "fq", "val_i:[1 TO 5]", "sort", "val_i asc", "fl", "id");
+  }
+
+  @Test
+  public void testReorderedFiltersHitTheCache() throws Exception {
+    assertJQ(
+        req("q", "*:*", "fq", "val_i:[1 TO 5]", "fq", "text_t:apple", "rows", "5", "fl", "id"),
+        "/response/numFound==43");
+    final long before = extendedResultCount();
+    // same filters, in a different order and as one conjunction, served from the cached window
+    assertJQ(
+        req(
+            "q", "*:*",
+            "fq", "text_t:apple AND val_i:[1 TO 5]",
+            "start", "20",
+            "rows", "10",
+            "fl", "id"),
+        "/response/numFound==43");
+    assertEquals(before + 1, extendedResultCount());
+  }
+}
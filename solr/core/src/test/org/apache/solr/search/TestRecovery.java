@@ -269,6 +269,9 @@ public class TestRecovery extends SolrTestCaseJ4 {
 
       assertEquals(7L, replayDocs.getCount() - initialOps);
       assertEquals(UpdateLog.State.ACTIVE.ordinal(), state.getValue().intValue());
+      @SuppressWarnings({"unchecked"})
+      Gauge<Integer> pendingOps = (Gauge<Integer>) metrics.get("TLOG.replay.pending.ops");
+      assertEquals(0, pendingOps.getValue().intValue());
 
       // make sure we can still access versions after recovery
       assertJQ(req("qt", "/get", "getVersions", "" + versions.size()), "/versions==" + versions);
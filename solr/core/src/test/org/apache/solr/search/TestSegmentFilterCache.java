@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.util.TimeSource;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.apache.solr.util.TimeOut;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Verify that per-segment filter bits are reused across searchers */
+public class TestSegmentFilterCache extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    // merges would replace segments and defeat the purpose of what we're checking
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    System.setProperty("solr.segmentFilterCache.enabled", "true");
+    initCore("solrconfig.xml", "schema_latest.xml");
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    System.clearProperty("solr.segmentFilterCache.enabled");
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  @Test
+  public void testReuseAcrossCommits() throws Exception {
+    final SegmentFilterCache segmentFilterCache = h.getCore().getSegmentFilterCache();
+    assertNotNull(segmentFilterCache);
+
+    for (int i = 0; i < 10; i++) {
+      assertU(adoc("id", Integer.toString(i), "field_s", i % 2 == 0 ? "even" : "odd"));
+    }
+    assertU(commit());
+    assertJQ(req("q", "*:*", "fq", "field_s:even"), "/response/numFound==5");
+    final int numSegments = numSegments();
+    final long misses = segmentFilterCache.segmentMisses.sum();
+    final long hits = segmentFilterCache.segmentHits.sum();
+    assertEquals(numSegments, misses);
+
+    for (int i = 10; i < 20; i++) {
+      assertU(adoc("id", Integer.toString(i), "field_s", i % 2 == 0 ? "even" : "odd"));
+    }
+    assertU(commit());
+    assertJQ(req("q", "*:*", "fq", "field_s:even"), "/response/numFound==10");
+    // new segments are computed, old ones are reused
+    assertEquals(misses + numSegments() - numSegments, segmentFilterCache.segmentMisses.sum());
+    assertTrue(segmentFilterCache.segmentHits.sum() > hits);
+
+    // deletes must be applied to reused segment bits
+    assertU(delI("0"));
+    assertU(delI("12"));
+    assertU(commit());
+    assertJQ(req("q", "*:*", "fq", "field_s:even"), "/response/numFound==8");
+    assertJQ(req("q", "*:*", "fq", "-field_s:even"), "/response/numFound==10");
+  }
+
+  @Test
+  public void testCrossSegmentQueriesNotCached() throws Exception {
+    final SegmentFilterCache segmentFilterCache = h.getCore().getSegmentFilterCache();
+    final String graph = "{!graph from=node_s to=edge_ss}id:node_b";
+
+    assertU(adoc("id", "node_a", "node_s", "a"));
+    assertU(commit());
+    assertJQ(req("q", "*:*", "fq", graph), "/response/numFound==0");
+    final long misses = segmentFilterCache.segmentMisses.sum();
+    final long uncacheable = segmentFilterCache.uncacheable.sum();
+
+    // the root of the traversal is added in a new segment, and reaches the unchanged first one
+    assertU(adoc("id", "node_b", "node_s", "b", "edge_ss", "a"));
+    assertU(commit());
+    assertJQ(req("q", "*:*", "fq", graph), "/response/numFound==2");
+    assertEquals(misses, segmentFilterCache.segmentMisses.sum());
+    assertTrue(segmentFilterCache.uncacheable.sum() > uncacheable);
+  }
+
+  @Test
+  public void testRangeQueryCachedUntilSegmentClosed() throws Exception {
+    final SegmentFilterCache segmentFilterCache = h.getCore().getSegmentFilterCache();
+    final String range = "range_s:[a TO f]";
+
+    assertU(adoc("id", "range_0", "range_s", "b"));
+    assertU(commit());
+    assertJQ(req("q", "*:*", "fq", range), "/response/numFound==1");
+    final long misses = segmentFilterCache.segmentMisses.sum();
+    final long hits = segmentFilterCache.segmentHits.sum();
+    final int size = segmentFilterCache.getCache().size();
+
+    // a new segment, dropped once all of its documents are deleted
+    assertU(adoc("id", "range_1", "range_s", "c"));
+    assertU(adoc("id", "range_2", "range_s", "x"));
+    assertU(commit());
+    assertJQ(req("q", "*:*", "fq", range), "/response/numFound==2");
+    assertTrue(segmentFilterCache.segmentMisses.sum() > misses);
+    assertTrue(segmentFilterCache.segmentHits.sum() > hits);
+    assertTrue(segmentFilterCache.getCache().size() > size);
+
+    assertU(delQ("id:(range_1 range_2)"));
+    assertU(commit());
+    assertJQ(req("q", "*:*", "fq", range), "/response/numFound==1");
+    // the entries of the dropped segment are removed once its last searcher is closed
+    new TimeOut(10, TimeUnit.SECONDS, TimeSource.NANO_TIME)
+        .waitFor(
+            "entries of the closed segment are still cached",
+            () -> segmentFilterCache.getCache().size() == size);
+  }
+
+  private static int numSegments() throws Exception {
+    return h.getCore()
+        .withSearcher(searcher -> searcher.getTopReaderContext().leaves().size());
+  }
+}
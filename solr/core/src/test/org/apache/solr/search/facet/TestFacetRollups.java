@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Field facets answered from rollups must be the same as collected from the documents */
+public class TestFacetRollups extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    initCore("solrconfig.xml", "schema_latest.xml");
+
+    for (int i = 0; i < 200; i++) {
+      if (i % 17 == 16) {
+        assertU(adoc("id", Integer.toString(i), "num_i", Integer.toString(i)));
+      } else if (i % 19 == 18) {
+        assertU(adoc("id", Integer.toString(i), "cat_sd", "c" + (i % 13)));
+      } else {
+        assertU(
+            adoc(
+                "id", Integer.toString(i),
+                "cat_sd", "c" + (i % 13),
+                "tags_sds", "t" + (i % 7),
+                "tags_sds", "t" + (i % 11),
+                "num_i", Integer.toString(i % 23 - 5)));
+      }
+      if (i % 30 == 29) {
+        assertU(commit());
+      }
+    }
+    assertU(delI("42"));
+    assertU(commit());
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  private static FacetModule getFacetModule() {
+    return (FacetModule) h.getCore().getSearchComponent(FacetModule.COMPONENT_NAME);
+  }
+
+  private static void setRollups(String field, String stats) {
+    final NamedList<Object> rollup = new NamedList<>();
+    rollup.add(FacetRollups.FIELD, field);
+    rollup.add(FacetRollups.STATS, stats);
+    final NamedList<Object> rollups = new NamedList<>();
+    rollups.add("r", rollup);
+    final NamedList<Object> args = new NamedList<>();
+    args.add(FacetRollups.ROLLUPS, rollups);
+    getFacetModule().init(args);
+  }
+
+  private static String facet(String q, String field, String options) throws Exception {
+    // integral values, so that sums don't depend on the order they're added in
+    final String json =
+        "{f:{type:terms, method:dv, field:"
+            + field
+            + ", "
+            + options
+            + ", facet:{s:'sum(num_i)', a:'avg(num_i)', n:'count()'}}}";
+    return h.query(req("q", q, "rows", "0", "omitHeader", "true", "json.facet", json));
+  }
+
+  private static void assertSameFacets(String q, String field, String options) throws Exception {
+    getFacetModule().init(new NamedList<>());
+    final String expected = facet(q, field, options);
+    setRollups(field, "num_i");
+    try {
+      assertEquals(expected, facet(q, field, options));
+      // again, from the rollups computed by the first request
+      assertEquals(expected, facet(q, field, options));
+    } finally {
+      getFacetModule().init(new NamedList<>());
+    }
+  }
+
+  @Test
+  public void testSameAsCollected() throws Exception {
+    for (String field : new String[] {"cat_sd", "tags_sds"}) {
+      assertSameFacets("*:*", field, "limit:-1");
+      assertSameFacets("*:*", field, "limit:5, sort:'s desc'");
+      assertSameFacets("*:*", field, "limit:3, sort:'a asc'");
+      assertSameFacets("*:*", field, "limit:-1, prefix:t1");
+      assertSameFacets("*:*", field, "limit:-1, missing:true, numBuckets:true");
+      // not all the documents, or stats the rollup doesn't have: collected the usual way
+      assertSameFacets("id:[0 TO 99]", field, "limit:-1");
+      assertSameFacets("*:*", field, "limit:-1, allBuckets:true");
+    }
+  }
+
+  @Test
+  public void testUnknownStat() throws Exception {
+    setRollups("cat_sd", "num_i");
+    try {
+      final String json =
+          "{f:{type:terms, method:dv, field:cat_sd, limit:1, sort:'index asc',"
+              + " facet:{m:'min(num_i)', s:'sum(num_i)'}}}";
+      assertJQ(
+          req("q", "*:*", "rows", "0", "json.facet", json),
+          "/facets/f/buckets/[0]/m==-5");
+    } finally {
+      getFacetModule().init(new NamedList<>());
+    }
+  }
+
+  @Test
+  public void testConfig() {
+    assertNull(FacetRollups.create(new NamedList<>()));
+    final NamedList<Object> rollups = new NamedList<>();
+    rollups.add("r", new NamedList<>());
+    final NamedList<Object> args = new NamedList<>();
+    args.add(FacetRollups.ROLLUPS, rollups);
+    expectThrows(Exception.class, () -> FacetRollups.create(args));
+  }
+}
@@ -18,13 +18,16 @@
 package org.apache.solr.search.facet;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import org.apache.lucene.tests.util.TestUtil;
 import org.apache.solr.JSONTestUtil;
 import org.apache.solr.SolrTestCaseHS;
 import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.common.util.Utils;
@@ -332,6 +335,252 @@ public class TestJsonFacetRefinement extends SolrTestCaseHS {
         null);
   }
 
+  Object doTestMerge(String facet, String... responses) throws Exception {
+    SolrQueryRequest req = req();
+    try {
+      Object jsonFacet = Utils.fromJSONString(facet);
+      FacetParser<FacetQuery> parser = new FacetParser.FacetTopParser(req);
+      FacetRequest facetRequest = parser.parse(jsonFacet);
+
+      FacetMerger merger = null;
+      FacetMerger.Context ctx = new FacetMerger.Context(responses.length);
+      for (int i = 0; i < responses.length; i++) {
+        Object response = fromJSON(responses[i]);
+        if (i == 0) {
+          merger = facetRequest.createFacetMerger(response);
+        }
+        ctx.newShard("s" + i);
+        merger.merge(response, ctx);
+      }
+      for (int i = 0; i < responses.length; i++) {
+        ctx.setShard("s" + i);
+        assertNull(merger.getRefinement(ctx));
+      }
+      merger.finish(ctx);
+      return merger.getMergedResult();
+    } finally {
+      req.close();
+    }
+  }
+
+  @Test
+  public void testApproximateMerge() throws Exception {
+    // buckets are merged without refinement, with a bound of the count they may be missing
+    match(
+        toJSONObject(
+            doTestMerge(
+                "{x : {type:terms, field:X, limit:2, refine:approximate} }",
+                "{x: {buckets:[{val:x1, count:5}, {val:x2, count:3}], more:true, moreCount:3 } }",
+                "{x: {buckets:[{val:x2, count:4}, {val:x3, count:2}], more:true, moreCount:2 } }")),
+        0,
+        "/x=={buckets:[{val:x2, count:7, countError:0}, {val:x1, count:5, countError:2}],"
+            + " countError:5}");
+
+    // a shard that returned all of its buckets adds nothing to the error
+    match(
+        toJSONObject(
+            doTestMerge(
+                "{x : {type:terms, field:X, limit:2, refine:approximate} }",
+                "{x: {buckets:[{val:x1, count:5}, {val:x2, count:3}], more:true, moreCount:3 } }",
+                "{x: {buckets:[{val:x2, count:4}, {val:x3, count:2}] } }")),
+        0,
+        "/x=={buckets:[{val:x2, count:7, countError:0}, {val:x1, count:5, countError:0}],"
+            + " countError:3}");
+
+    SolrException e =
+        expectThrows(
+            SolrException.class,
+            () ->
+                doTestMerge(
+                    "{x : {type:terms, field:X, limit:2, refine:approximate, sort:'index asc'} }",
+                    "{x: {buckets:[]}}"));
+    assertEquals(SolrException.ErrorCode.BAD_REQUEST.code, e.code());
+  }
+
+  /**
+   * Writes a merged result to JSON and parses it back, since {@link JSONTestUtil#matchObj} only
+   * walks maps, not the {@link SimpleOrderedMap}s of the merged result
+   */
+  private static Object toJSONObject(Object o) {
+    return Utils.fromJSONString(Utils.toJSONString(o));
+  }
+
+  @Test
+  public void testApproximateShardResponse() throws Exception {
+    try {
+      for (int i = 0; i < 10; i++) {
+        assertU(adoc("id", Integer.toString(i), "cat_s", "c" + (i % 4)));
+      }
+      assertU(commit());
+      // c0 and c1 have 3 documents, c2 and c3 have 2
+      assertJQ(
+          req(
+              "q", "*:*", "rows", "0", "json.facet",
+              "{x:{type:terms, field:cat_s, limit:1, overrequest:0, refine:approximate}}",
+              // fake an initial shard request
+              "distrib", "false", "isShard", "true", "_facet_", "{}",
+              "shards.purpose", "" + FacetModule.PURPOSE_GET_JSON_FACETS),
+          "/facets/x=={buckets:[{val:c0, count:3}], more:true, moreCount:3}");
+    } finally {
+      clearIndex();
+      assertU(commit());
+    }
+  }
+
+  /** Copies the merged result, iterating the buckets that are merged as they are iterated */
+  private static Object materialize(Object o) {
+    if (o instanceof SimpleOrderedMap) {
+      SimpleOrderedMap<Object> copy = new SimpleOrderedMap<>();
+      ((SimpleOrderedMap<?>) o).forEach((k, v) -> copy.add(k, materialize(v)));
+      return copy;
+    }
+    if (o instanceof Iterable) {
+      List<Object> copy = new ArrayList<>();
+      for (Object item : (Iterable<?>) o) {
+        copy.add(materialize(item));
+      }
+      return copy;
+    }
+    return o;
+  }
+
+  @Test
+  public void testStreamingMerge() throws Exception {
+    // all the buckets in index order: merged one value at a time as they are iterated
+    final String shard0 =
+        "{x: {buckets:[{val:x1, count:5, y:{buckets:[{val:y1, count:5}]}},"
+            + " {val:x2, count:3, y:{buckets:[{val:y1, count:1}, {val:y2, count:2}]}}] } }";
+    final String shard1 =
+        "{x: {buckets:[{val:x2, count:4, y:{buckets:[{val:y2, count:4}]}},"
+            + " {val:x3, count:2, y:{buckets:[{val:y3, count:2}]}}] } }";
+    final String facet =
+        "{x : {type:terms, field:X, limit:-1, sort:'index asc',"
+            + " facet:{y:{type:terms, field:Y, limit:-1, sort:'index asc'}}} }";
+
+    SimpleOrderedMap<?> merged = (SimpleOrderedMap<?>) doTestMerge(facet, shard0, shard1);
+    Object buckets = ((SimpleOrderedMap<?>) merged.get("x")).get("buckets");
+    assertFalse("buckets should be merged lazily", buckets instanceof List);
+    match(
+        toJSONObject(materialize(merged)),
+        0,
+        "/x=={buckets:[{val:x1, count:5, y:{buckets:[{val:y1, count:5}]}},"
+            + " {val:x2, count:7, y:{buckets:[{val:y1, count:1}, {val:y2, count:6}]}},"
+            + " {val:x3, count:2, y:{buckets:[{val:y3, count:2}]}}]}");
+
+    // mincount and offset are applied as the buckets are merged
+    match(
+        toJSONObject(
+            materialize(
+                doTestMerge(
+                    "{x : {type:terms, field:X, limit:-1, sort:'index desc', mincount:3,"
+                        + " offset:1}}",
+                    "{x: {buckets:[{val:x3, count:1}, {val:x2, count:3}, {val:x1, count:5}] } }",
+                    "{x: {buckets:[{val:x3, count:1}, {val:x2, count:4}] } }"))),
+        0,
+        "/x=={buckets:[{val:x1, count:5}]}");
+
+    // a shard returning buckets out of order has them merged all at once, with the same result
+    merged =
+        (SimpleOrderedMap<?>)
+            doTestMerge(
+                "{x : {type:terms, field:X, limit:-1, sort:'index asc'}}",
+                "{x: {buckets:[{val:x1, count:5}, {val:x2, count:3}] } }",
+                "{x: {buckets:[{val:x3, count:2}, {val:x2, count:4}] } }");
+    assertTrue(((SimpleOrderedMap<?>) merged.get("x")).get("buckets") instanceof List);
+    match(
+        toJSONObject(merged),
+        0,
+        "/x=={buckets:[{val:x1, count:5}, {val:x2, count:7}, {val:x3, count:2}]}");
+  }
+
+  @Test
+  public void testStreamingShardResponse() throws Exception {
+    try {
+      for (int i = 0; i < 20; i++) {
+        assertU(
+            adoc(
+                "id", Integer.toString(i),
+                "cat_s", "c" + (i % 7),
+                "tag_ss", "t" + (i % 3),
+                "num_i", Integer.toString(i)));
+      }
+      assertU(commit());
+      // buckets filled as they are written are the same as those filled all at once
+      final String facet =
+          "{x:{type:terms, field:cat_s, limit:LIMIT, facet:{s:'sum(num_i)',"
+              + " y:{type:terms, field:tag_ss, limit:LIMIT, facet:{m:'max(num_i)'}}}}}";
+      final ModifiableSolrParams params = params("q", "*:*", "rows", "0", "omitHeader", "true");
+      for (boolean isShard : new boolean[] {false, true}) {
+        if (isShard) {
+          // fake an initial shard request
+          params.set("distrib", "false");
+          params.set("isShard", "true");
+          params.set("_facet_", "{}");
+          params.set("shards.purpose", FacetModule.PURPOSE_GET_JSON_FACETS);
+        }
+        params.set("json.facet", facet.replace("LIMIT", "-1"));
+        String streamed = h.query(req(params));
+        params.set("json.facet", facet.replace("LIMIT", "100"));
+        String collected = h.query(req(params));
+        assertEquals(collected, streamed);
+      }
+
+      try (SolrQueryRequest req = req("q", "*:*")) {
+        // buckets with sub-facets are filled before the response is written
+        assertTrue(processFacet(req, facet.replace("LIMIT", "-1")) instanceof List);
+
+        // buckets whose stats were all collected are streamed
+        final Iterable<?> buckets =
+            processFacet(req, "{x:{type:terms, field:cat_s, limit:-1, facet:{s:'sum(num_i)'}}}");
+        assertFalse(buckets instanceof List);
+        int numBuckets = 0;
+        for (Object bucket : buckets) {
+          assertNotNull(((SimpleOrderedMap<?>) bucket).get("s"));
+          numBuckets++;
+        }
+        assertEquals(7, numBuckets);
+        // the accumulators were released once the last bucket was filled
+        expectThrows(IllegalStateException.class, buckets::iterator);
+
+        // a sub-facet failing on the first bucket fails the facet, before anything is written
+        final SolrException e =
+            expectThrows(
+                SolrException.class,
+                () ->
+                    processFacet(
+                        req,
+                        "{x:{type:terms, field:cat_s, limit:-1,"
+                            + " facet:{y:{type:terms, field:no_such_field}}}}"));
+        assertEquals(SolrException.ErrorCode.BAD_REQUEST.code, e.code());
+      }
+
+      // ... and is reported as such
+      assertQEx(
+          "sub-facet on an undefined field",
+          "undefined field",
+          req(
+              "q", "*:*",
+              "rows", "0",
+              "json.facet",
+                  "{x:{type:terms, field:cat_s, limit:-1,"
+                      + " facet:{y:{type:terms, field:no_such_field}}}}"),
+          SolrException.ErrorCode.BAD_REQUEST);
+    } finally {
+      clearIndex();
+      assertU(commit());
+    }
+  }
+
+  /** Returns the buckets of facet <code>x</code>, without writing them to a response */
+  private static Iterable<?> processFacet(SolrQueryRequest req, String facet) throws IOException {
+    @SuppressWarnings("unchecked")
+    final FacetRequest freq =
+        FacetRequest.parse(req, (Map<String, Object>) Utils.fromJSONString(facet));
+    final SimpleOrderedMap<?> res =
+        (SimpleOrderedMap<?>) freq.process(req, req.getSearcher().getLiveDocSet());
+    return (Iterable<?>) ((SimpleOrderedMap<?>) res.get("x")).get("buckets");
+  }
+
   @Test
   public void testMergeWithOverrefine() throws Exception {
     // overrefine heuristic should use explicit overrequest as default
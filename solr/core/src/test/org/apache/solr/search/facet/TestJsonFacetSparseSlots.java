@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.Map;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.util.Utils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Field facets whose stats have sparse slots must be the same as with dense slots */
+public class TestJsonFacetSparseSlots extends SolrTestCaseJ4 {
+  private static final int NUM_DOCS = 1500;
+  private static final String STATS =
+      "s:'sum(num_id)', a:'avg(num_id)', x:'max(num_id)', m:'min(cat_sd)', u:'unique(cat_sd)',"
+          + " h:'hll(num_id)', v:'countvals(tags_sds)', n:'count()'";
+  // the sketch of a percentile over many values picks among equally close centroids at random, so
+  // it's only compared exactly when the buckets have few values
+  private static final String PERCENTILE_STAT = "p:'percentile(num_id,50)'";
+  private static final String PERCENTILE = ", " + PERCENTILE_STAT;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml", "schema_latest.xml");
+
+    for (int i = 0; i < NUM_DOCS; i++) {
+      if (i % 97 == 96) {
+        assertU(adoc("id", Integer.toString(i), "grp_id", Integer.toString(i % 100)));
+        continue;
+      }
+      final String tag1 = "u" + i;
+      final String tag2 = "u" + ((i * 7) % NUM_DOCS);
+      assertU(
+          adoc(
+              "id",
+              Integer.toString(i),
+              "grp_id",
+              Integer.toString(i % 100),
+              "term_sd",
+              "t" + i,
+              "tags_sds",
+              tag1,
+              "tags_sds",
+              tag2,
+              "tags_ss",
+              tag1,
+              "tags_ss",
+              tag2,
+              "cat_sd",
+              "c" + (i % 13),
+              "num_id",
+              Integer.toString(i % 23 - 5)));
+      if (i % 500 == 499) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+  }
+
+  private static String facet(
+      String q, String field, String options, String stats, Boolean sparseSlots) throws Exception {
+    final String json = json(field, options, stats, sparseSlots);
+    return h.query(req("q", q, "rows", "0", "omitHeader", "true", "json.facet", json));
+  }
+
+  private static String json(String field, String options, String stats, Boolean sparseSlots) {
+    return "{f:{type:terms, field:"
+        + field
+        + ", "
+        + (sparseSlots == null ? "" : "sparseSlots:" + sparseSlots + ", ")
+        + options
+        + ", facet:{"
+        + stats
+        + "}}}";
+  }
+
+  private static void assertSameFacets(String q, String field, String options) throws Exception {
+    assertSameFacets(q, field, options, STATS + PERCENTILE);
+  }
+
+  private static void assertSameFacets(String q, String field, String options, String stats)
+      throws Exception {
+    final String expected = facet(q, field, options, stats, false);
+    assertEquals(expected, facet(q, field, options, stats, null));
+    assertEquals(expected, facet(q, field, options, stats, true));
+  }
+
+  /**
+   * Compares the percentiles of the buckets exactly, and the one of allBuckets, over all the
+   * values, within a tolerance
+   */
+  private static void assertSamePercentiles(String q, String field, String options)
+      throws Exception {
+    final Map<?, ?> expected = percentiles(q, field, options, false);
+    for (Boolean sparseSlots : new Boolean[] {null, true}) {
+      final Map<?, ?> actual = percentiles(q, field, options, sparseSlots);
+      assertEquals(expected.get("buckets"), actual.get("buckets"));
+      assertEquals(expected.get("missing"), actual.get("missing"));
+      final Number expectedAll = (Number) ((Map<?, ?>) expected.get("allBuckets")).get("p");
+      final Number actualAll = (Number) ((Map<?, ?>) actual.get("allBuckets")).get("p");
+      if (expectedAll == null) {
+        assertNull(actualAll);
+      } else {
+        assertEquals(expectedAll.doubleValue(), actualAll.doubleValue(), 1.0);
+      }
+    }
+  }
+
+  private static Map<?, ?> percentiles(String q, String field, String options, Boolean sparseSlots)
+      throws Exception {
+    final String json = json(field, options, PERCENTILE_STAT, sparseSlots);
+    final String response =
+        h.query(
+            req("q", q, "rows", "0", "omitHeader", "true", "wt", "json", "json.facet", json));
+    final Map<?, ?> facets = (Map<?, ?>) ((Map<?, ?>) Utils.fromJSONString(response)).get("facets");
+    return (Map<?, ?>) facets.get("f");
+  }
+
+  @Test
+  public void testSameAsDense() throws Exception {
+    // one group stays sparse, ten groups switch to dense with the multi valued fields, all the
+    // documents switch to dense when forced to start sparse
+    for (String q : new String[] {"grp_id:0", "grp_id:[0 TO 9]", "*:*"}) {
+      for (String field : new String[] {"term_sd", "tags_sds", "tags_ss"}) {
+        final String method = field.endsWith("_ss") ? "method:uif, " : "method:dv, ";
+        assertSameFacets(q, field, method + "limit:-1");
+        assertSameFacets(q, field, method + "limit:5, sort:'s desc'");
+        assertSameFacets(q, field, method + "limit:3, sort:'a asc'");
+        assertSameFacets(q, field, method + "limit:4, sort:'m desc'");
+        assertSameFacets(q, field, method + "limit:4, sort:'x asc', prelim_sort:'count desc'");
+        assertSameFacets(q, field, method + "limit:-1, prefix:t1");
+        assertSameFacets(q, field, method + "limit:10, allBuckets:true, missing:true", STATS);
+        assertSamePercentiles(q, field, method + "limit:10, allBuckets:true, missing:true");
+        assertSameFacets(q, field, method + "limit:-1, mincount:0, offset:1490");
+      }
+    }
+  }
+
+  @Test
+  public void testDebugInfo() throws Exception {
+    final String json =
+        "{f:{type:terms, method:dv, field:term_sd, limit:1, sort:'s desc',"
+            + " facet:{s:'sum(num_id)'}}}";
+    assertJQ(
+        req("q", "grp_id:0", "rows", "0", "debugQuery", "true", "json.facet", json),
+        "/debug/facet-trace/sub-facet/[0]/sparseSlotAccs/s=={numSlots:"
+            + (NUM_DOCS - NUM_DOCS / 97)
+            + ", maxSparseSlots:15, dense:false}");
+
+    final String multi =
+        "{f:{type:terms, method:dv, field:tags_sds, limit:1, sort:'s desc',"
+            + " facet:{s:'sum(num_id)'}}}";
+    assertJQ(
+        req("q", "grp_id:[0 TO 9]", "rows", "0", "debugQuery", "true", "json.facet", multi),
+        "/debug/facet-trace/sub-facet/[0]/sparseSlotAccs/s/dense==true");
+
+    // no sparse slots over most of the documents
+    assertFalse(
+        h.query(req("q", "*:*", "rows", "0", "debugQuery", "true", "json.facet", json))
+            .contains("sparseSlotAccs"));
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Field facets collected by several threads must be the same as collected by one */
+public class TestJsonFacetThreads extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    // several segments, so that there is something to collect concurrently
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    initCore("solrconfig.xml", "schema_latest.xml");
+
+    for (int i = 0; i < 200; i++) {
+      if (i % 17 == 16) {
+        assertU(adoc("id", Integer.toString(i)));
+      } else {
+        assertU(
+            adoc(
+                "id", Integer.toString(i),
+                "cat_sd", "c" + (i % 13),
+                "tags_sds", "t" + (i % 7),
+                "tags_sds", "t" + (i % 11),
+                "num_id", Integer.toString(i % 23 - 5)));
+      }
+      if (i % 30 == 29) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  private static String facet(String field, String options, int threads) throws Exception {
+    // integral values, so that sums don't depend on the order they're added in
+    final String json =
+        "{f:{type:terms, method:dv, field:"
+            + field
+            + ", threads:"
+            + threads
+            + ", "
+            + options
+            + ", facet:{s:'sum(num_id)', a:'avg(num_id)', u:'unique(tags_sds)',"
+            + " u2:'unique(cat_sd)', n:'count()'}}}";
+    return h.query(req("q", "*:*", "rows", "0", "omitHeader", "true", "json.facet", json));
+  }
+
+  private static void assertSameFacets(String field, String options) throws Exception {
+    final String expected = facet(field, options, 0);
+    assertEquals(expected, facet(field, options, 2));
+    assertEquals(expected, facet(field, options, -1));
+  }
+
+  @Test
+  public void testSameAsSequential() throws Exception {
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              assertTrue(searcher.getLeafContexts().size() > 1);
+              return null;
+            });
+    for (String field : new String[] {"cat_sd", "tags_sds"}) {
+      assertSameFacets(field, "limit:-1");
+      assertSameFacets(field, "limit:5, sort:'s desc'");
+      assertSameFacets(field, "limit:3, sort:'a asc'");
+      assertSameFacets(field, "limit:4, sort:'u desc'");
+      assertSameFacets(field, "limit:-1, prefix:t1");
+      assertSameFacets(field, "limit:10, sort:'count desc'");
+    }
+  }
+
+  @Test
+  public void testUnmergeableStatsCollectSequentially() throws Exception {
+    // the missing bucket and allBuckets are collected the usual way
+    assertSameFacets("cat_sd", "limit:-1, allBuckets:true, missing:true");
+    final String json =
+        "{f:{type:terms, field:cat_sd, threads:-1, limit:1, sort:'index asc',"
+            + " facet:{m:'min(num_id)'}}}";
+    assertJQ(
+        req("q", "*:*", "rows", "0", "json.facet", json),
+        "/facets/f/buckets/[0]=={val:'c0', count:" + countC0() + ", m:-5}");
+  }
+
+  private static int countC0() {
+    int count = 0;
+    for (int i = 0; i < 200; i++) {
+      if (i % 17 != 16 && i % 13 == 0) count++;
+    }
+    return count;
+  }
+}
@@ -20,12 +20,17 @@ import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.core.IsInstanceOf.instanceOf;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import org.apache.lucene.queries.function.valuesource.IntFieldSource;
 import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.Hash;
 import org.apache.solr.common.util.Utils;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.search.function.FieldNameValueSource;
+import org.apache.solr.util.hll.HLL;
+import org.apache.solr.util.hll.HLLType;
 import org.hamcrest.MatcherAssert;
 import org.junit.BeforeClass;
 import org.noggit.ObjectBuilder;
@@ -142,4 +147,140 @@ public class TestJsonFacetsStatsParsing extends SolrTestCaseJ4 {
       assertNull(x.localParams.get("yaz"));
     }
   }
+
+  @SuppressWarnings({"unchecked"})
+  public void testPercentileOptions() throws IOException {
+    try (SolrQueryRequest req = req()) {
+      final FacetRequest fr =
+          FacetRequest.parse(
+              req,
+              (Map<String, Object>)
+                  ObjectBuilder.fromJSON(
+                      "{ p1:'percentile(foo_i,50)', p2:{func:'percentile(foo_i,50)'},"
+                          + " p3:{type:func, func:'percentile(foo_i,50)', sketch:merging,"
+                          + " compression:200} }"));
+
+      final Map<String, AggValueSource> stats = fr.getFacetStats();
+      final PercentileAgg p1 = (PercentileAgg) stats.get("p1");
+      final PercentileAgg p3 = (PercentileAgg) stats.get("p3");
+      assertEquals(PercentileAgg.AVL_TREE_SKETCH, p1.sketch);
+      assertEquals(PercentileAgg.DEFAULT_COMPRESSION, p1.compression, 0);
+      assertEquals(p1, stats.get("p2"));
+      assertEquals(PercentileAgg.MERGING_SKETCH, p3.sketch);
+      assertEquals(200, p3.compression, 0);
+      assertNotEquals(p1, p3);
+
+      final SolrException e =
+          expectThrows(
+              SolrException.class,
+              () ->
+                  FacetRequest.parse(
+                      req,
+                      (Map<String, Object>)
+                          ObjectBuilder.fromJSON(
+                              "{ p:{type:func, func:'percentile(foo_i,50)', sketch:kll} }")));
+      assertTrue(e.getMessage(), e.getMessage().contains("sketch must be avl or merging"));
+    }
+  }
+
+  @SuppressWarnings({"unchecked"})
+  public void testHLLOptions() throws IOException {
+    try (SolrQueryRequest req = req()) {
+      final FacetRequest fr =
+          FacetRequest.parse(
+              req,
+              (Map<String, Object>)
+                  ObjectBuilder.fromJSON(
+                      "{ h1:'hll(foo_s)', h2:{func:'hll(foo_s)'},"
+                          + " h3:{type:func, func:'hll(foo_s)', log2m:10, regwidth:5} }"));
+
+      final Map<String, AggValueSource> stats = fr.getFacetStats();
+      final HLLAgg h1 = (HLLAgg) stats.get("h1");
+      final HLLAgg h3 = (HLLAgg) stats.get("h3");
+      assertEquals(13, h1.factory.log2m);
+      assertEquals(6, h1.factory.regwidth);
+      assertEquals(h1, stats.get("h2"));
+      assertEquals(10, h3.factory.log2m);
+      assertEquals(5, h3.factory.regwidth);
+      assertNotEquals(h1, h3);
+
+      SolrException e =
+          expectThrows(
+              SolrException.class,
+              () ->
+                  FacetRequest.parse(
+                      req,
+                      (Map<String, Object>)
+                          ObjectBuilder.fromJSON(
+                              "{ h:{type:func, func:'hll(foo_s)', log2m:40} }")));
+      assertTrue(e.getMessage(), e.getMessage().contains("log2m must be at least"));
+      e =
+          expectThrows(
+              SolrException.class,
+              () ->
+                  FacetRequest.parse(
+                      req,
+                      (Map<String, Object>)
+                          ObjectBuilder.fromJSON(
+                              "{ h:{type:func, func:'hll(foo_s)', regwidth:0} }")));
+      assertTrue(e.getMessage(), e.getMessage().contains("regwidth must be at least"));
+    }
+  }
+
+  public void testHLLSparseRegisters() {
+    final HLLAgg.HLLFactory factory = new HLLAgg.HLLFactory();
+    final HLL full =
+        new HLL(factory.log2m, factory.regwidth, -1, false /* no sparse */, HLLType.EMPTY);
+    final HLL sparse = factory.getHLL();
+    // more values than kept explicitly, fewer registers than all of them
+    for (long i = 0; i < 1000; i++) {
+      final long hash = Hash.fmix64(i);
+      full.addRaw(hash);
+      sparse.addRaw(hash);
+    }
+    assertEquals(HLLType.FULL, full.getType());
+    assertEquals(HLLType.SPARSE, sparse.getType());
+    assertEquals(full.cardinality(), sparse.cardinality());
+    final byte[] bytes = sparse.toBytes();
+    assertTrue(bytes.length < full.toBytes().length);
+    assertEquals(full.cardinality(), HLL.fromBytes(bytes).cardinality());
+  }
+
+  public void testPercentileSketches() {
+    final String[] sketchTypes = {PercentileAgg.AVL_TREE_SKETCH, PercentileAgg.MERGING_SKETCH};
+    for (String sketch : sketchTypes) {
+      final PercentileAgg agg = new PercentileAgg(null, List.of(50d, 90d));
+      agg.sketch = sketch;
+      final PercentileAgg.SlotSketches sketches = agg.new SlotSketches(3);
+      // few values are only buffered, many get a sketch
+      for (int i = 1; i <= 9; i++) {
+        sketches.add(0, i);
+      }
+      for (int i = 1; i <= 1000; i++) {
+        sketches.add(1, i);
+      }
+      assertNull(sketches.digests[0]);
+      assertNotNull(sketches.digests[1]);
+
+      List<?> small = (List<?>) sketches.getValue(0, false);
+      assertEquals(5, (Double) small.get(0), 1);
+      assertEquals(9, (Double) small.get(1), 1);
+      List<?> large = (List<?>) sketches.getValue(1, false);
+      assertEquals(500, (Double) large.get(0), 10);
+      assertEquals(900, (Double) large.get(1), 10);
+      assertNull(sketches.getValue(2, false));
+
+      // what shards send can be merged
+      final PercentileAgg.Merger merger = agg.new Merger();
+      merger.merge(sketches.getValue(0, true), null);
+      merger.merge(sketches.getValue(1, true), null);
+      merger.merge(sketches.getValue(2, true), null);
+      List<?> merged = (List<?>) merger.getMergedResult();
+      assertEquals(500, (Double) merged.get(0), 10);
+
+      sketches.reset();
+      assertNull(sketches.getValue(0, false));
+      assertNull(sketches.getValue(1, false));
+    }
+  }
 }
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verify that the background counts of <code>relatedness()</code> taken from the segment facet
+ * cache are the same as swept or intersected, and are reused across requests and searchers
+ */
+public class TestRelatednessPrecomputedCounts extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    System.setProperty("solr.segmentFacetCache.enabled", "true");
+    initCore("solrconfig.xml", "schema_latest.xml");
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    System.clearProperty("solr.segmentFacetCache.enabled");
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  private static void addDocs(int from, int to) {
+    for (int i = from; i < to; i++) {
+      assertU(
+          adoc(
+              "id", Integer.toString(i),
+              "cat_sd", "c" + (i % 5),
+              "tags_sds", "t" + (i % 3),
+              "tags_sds", "t" + (i % 7),
+              "num_i", Integer.toString(i)));
+    }
+    assertU(commit());
+  }
+
+  private static String facet(String method, String back, String sweep, String cache)
+      throws Exception {
+    final String json =
+        "{f:{type:terms, method:"
+            + method
+            + ", field:cat_sd, limit:-1, sort:'r desc',"
+            + " facet:{r:{type:func, func:'relatedness($fore,$back)', sweep_collection:"
+            + sweep
+            + "}}},"
+            + " g:{type:terms, method:"
+            + method
+            + ", field:tags_sds, limit:3, sort:'r asc',"
+            + " facet:{r:{type:func, func:'relatedness($fore,$back)', sweep_collection:"
+            + sweep
+            + "}}}}";
+    return h.query(
+        req(
+            "q", "*:*", "rows", "0", "omitHeader", "true", "cache", cache,
+            "fore", "num_i:[0 TO 30]", "back", back, "json.facet", json));
+  }
+
+  private static void assertSameAsCollected(String back) throws Exception {
+    final String expected = facet("dv", back, "false", "true");
+    assertEquals(expected, facet("dv", back, "true", "false"));
+    assertEquals(expected, facet("dv", back, "true", "true"));
+    assertEquals(expected, facet("dvhash", back, "true", "true"));
+    assertEquals(expected, facet("uif", back, "true", "true"));
+  }
+
+  @Test
+  public void testBackgroundCounts() throws Exception {
+    final SegmentFacetCache segmentFacetCache = h.getCore().getSegmentFacetCache();
+    assertNotNull(segmentFacetCache);
+
+    addDocs(0, 50);
+    assertSameAsCollected("*:*");
+    assertSameAsCollected("num_i:[10 TO 80]");
+
+    final long misses = segmentFacetCache.segmentMisses.sum();
+    final long hits = segmentFacetCache.segmentHits.sum();
+    assertTrue(misses > 0);
+    facet("dv", "*:*", "true", "true");
+    assertEquals(misses, segmentFacetCache.segmentMisses.sum());
+    assertTrue(segmentFacetCache.segmentHits.sum() > hits);
+
+    // only the new segment is computed
+    addDocs(50, 100);
+    facet("dv", "*:*", "true", "true");
+    assertEquals(misses + 2, segmentFacetCache.segmentMisses.sum());
+    assertSameAsCollected("*:*");
+    assertSameAsCollected("num_i:[10 TO 80]");
+
+    final String json =
+        "{f:{type:terms, method:dv, field:cat_sd, limit:1, sort:'r desc',"
+            + " facet:{r:'relatedness($fore,$back)'}}}";
+    assertJQ(
+        req(
+            "q", "*:*", "rows", "0", "debugQuery", "true",
+            "fore", "num_i:[0 TO 30]", "back", "*:*", "json.facet", json),
+        "/debug/facet-trace/sub-facet/[0]/sweep_collection/accs==['r!fg']",
+        "/debug/facet-trace/sub-facet/[0]/sweep_collection/precomputed==['r!bg']");
+
+    // the matches of a join on a segment depend on the whole index, so its counts are swept
+    final String join = "{!join from=id to=id}num_i:[10 TO 80]";
+    assertSameAsCollected(join);
+    assertJQ(
+        req(
+            "q", "*:*", "rows", "0", "debugQuery", "true",
+            "fore", "num_i:[0 TO 30]", "back", join, "json.facet", json),
+        "/debug/facet-trace/sub-facet/[0]/sweep_collection/accs==['r!fg', 'r!bg']",
+        "/debug/facet-trace/sub-facet/[0]/sweep_collection/precomputed==[]");
+  }
+}
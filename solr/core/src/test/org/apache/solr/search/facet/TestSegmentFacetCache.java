@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Verify that per-segment terms facet results are reused across searchers */
+public class TestSegmentFacetCache extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    // merges would replace segments and defeat the purpose of what we're checking
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    System.setProperty("solr.segmentFacetCache.enabled", "true");
+    initCore("solrconfig.xml", "schema_latest.xml");
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    System.clearProperty("solr.segmentFacetCache.enabled");
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  private static void addDocs(int from, int to) {
+    for (int i = from; i < to; i++) {
+      assertU(
+          adoc(
+              "id", Integer.toString(i),
+              "cat_sd", i % 2 == 0 ? "even" : "odd",
+              "tags_sds", "t" + (i % 3),
+              "tags_sds", "t" + (i % 4),
+              "num_i", Integer.toString(i)));
+    }
+    assertU(commit());
+  }
+
+  private static String facet(String fq, String cache) throws Exception {
+    final String json =
+        "{f:{type:terms, method:dv, field:cat_sd, facet:{s:'sum(num_i)', a:'avg(num_i)'}},"
+            + " g:{type:terms, method:dv, field:tags_sds, facet:{s:'sum(num_i)'}}}";
+    return h.query(
+        req(
+            "q", "*:*", "fq", fq, "rows", "0", "omitHeader", "true", "cache", cache,
+            "json.facet", json));
+  }
+
+  private static void assertSameAsCollected(String fq) throws Exception {
+    assertEquals(facet(fq, "false"), facet(fq, "true"));
+  }
+
+  @Test
+  public void testReuseAcrossCommits() throws Exception {
+    final SegmentFacetCache segmentFacetCache = h.getCore().getSegmentFacetCache();
+    assertNotNull(segmentFacetCache);
+
+    addDocs(0, 10);
+    assertSameAsCollected("num_i:[0 TO 100]");
+    final int numSegments = numSegments();
+    final long misses = segmentFacetCache.segmentMisses.sum();
+    final long hits = segmentFacetCache.segmentHits.sum();
+    // one per segment for each of the two facets
+    assertEquals(2L * numSegments, misses);
+
+    addDocs(10, 20);
+    assertJQ(
+        req(
+            "q", "*:*", "fq", "num_i:[0 TO 100]", "rows", "0",
+            "json.facet", "{f:{type:terms, method:dv, field:cat_sd, facet:{s:'sum(num_i)'}}}"),
+        "/facets/f/buckets==[{val:even, count:10, s:90.0}, {val:odd, count:10, s:100.0}]");
+    // new segments are computed, old ones are reused
+    assertEquals(misses + numSegments() - numSegments, segmentFacetCache.segmentMisses.sum());
+    assertTrue(segmentFacetCache.segmentHits.sum() > hits);
+    assertSameAsCollected("num_i:[0 TO 100]");
+    assertSameAsCollected("num_i:[5 TO 15]");
+
+    // deletes must not be counted from reused segments
+    assertU(delI("0"));
+    assertU(delI("12"));
+    assertU(commit());
+    assertJQ(
+        req(
+            "q", "*:*", "fq", "num_i:[0 TO 100]", "rows", "0",
+            "json.facet", "{f:{type:terms, method:dv, field:cat_sd, facet:{s:'sum(num_i)'}}}"),
+        "/facets/f/buckets==[{val:odd, count:10, s:100.0}, {val:even, count:8, s:78.0}]");
+    assertSameAsCollected("num_i:[0 TO 100]");
+  }
+
+  @Test
+  public void testCrossSegmentQueriesNotCached() throws Exception {
+    final SegmentFacetCache segmentFacetCache = h.getCore().getSegmentFacetCache();
+    final String graph = "{!graph from=node_s to=edge_ss}id:node_b";
+    final String json = "{f:{type:terms, method:dv, field:cat_sd}}";
+
+    assertU(adoc("id", "node_a", "node_s", "a", "cat_sd", "leaf"));
+    assertU(commit());
+    assertJQ(
+        req("q", "*:*", "fq", graph, "rows", "0", "json.facet", json), "/facets/f/buckets==[]");
+    final long misses = segmentFacetCache.segmentMisses.sum();
+
+    // the root of the traversal is added in a new segment, and reaches the unchanged first one
+    assertU(adoc("id", "node_b", "node_s", "b", "edge_ss", "a", "cat_sd", "root"));
+    assertU(commit());
+    assertJQ(
+        req("q", "*:*", "fq", graph, "rows", "0", "json.facet", json),
+        "/facets/f/buckets==[{val:leaf, count:1}, {val:root, count:1}]");
+    assertEquals(misses, segmentFacetCache.segmentMisses.sum());
+  }
+
+  private static int numSegments() throws Exception {
+    return h.getCore()
+        .withSearcher(searcher -> searcher.getTopReaderContext().leaves().size());
+  }
+}
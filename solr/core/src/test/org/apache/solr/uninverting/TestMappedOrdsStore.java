@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.uninverting;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.stream.Stream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.tests.util.TestUtil;
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.uninverting.UninvertingReader.Type;
+
+public class TestMappedOrdsStore extends SolrTestCase {
+
+  private static void addDocs(IndexWriter iw, int numDocs) throws IOException {
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      int numValues = i == 0 ? 1 : random().nextInt(4);
+      for (int j = 0; j < numValues; j++) {
+        String value = TestUtil.randomSimpleString(random(), 1, 4);
+        doc.add(new StringField("foo", value, Field.Store.NO));
+      }
+      iw.addDocument(doc);
+    }
+    iw.commit();
+  }
+
+  private static long numFiles(Path path) throws IOException {
+    try (Stream<Path> files = Files.list(path)) {
+      return files.filter(p -> p.toString().endsWith("." + MappedOrdsStore.EXTENSION)).count();
+    }
+  }
+
+  /** Checks that the mapped ords are the same as those uninverted by the field cache */
+  private static void assertSameOrds(DirectoryReader reader) throws IOException {
+    for (LeafReaderContext ctx : reader.leaves()) {
+      LeafReader leaf = ctx.reader();
+      SortedSetDocValues actual = leaf.getSortedSetDocValues("foo");
+      SortedSetDocValues expected =
+          FieldCache.DEFAULT.getDocTermOrds(((UninvertingReader) leaf).getDelegate(), "foo", null);
+      assertEquals(expected.getValueCount(), actual.getValueCount());
+      for (long ord = 0; ord < expected.getValueCount(); ord++) {
+        assertEquals(expected.lookupOrd(ord), actual.lookupOrd(ord));
+      }
+      for (int doc = expected.nextDoc();
+          doc != DocIdSetIterator.NO_MORE_DOCS;
+          doc = expected.nextDoc()) {
+        assertEquals(doc, actual.nextDoc());
+        assertEquals(expected.docValueCount(), actual.docValueCount());
+        for (long ord = expected.nextOrd();
+            ord != SortedSetDocValues.NO_MORE_ORDS;
+            ord = expected.nextOrd()) {
+          assertEquals(ord, actual.nextOrd());
+        }
+        assertEquals(SortedSetDocValues.NO_MORE_ORDS, actual.nextOrd());
+      }
+      assertEquals(DocIdSetIterator.NO_MORE_DOCS, actual.nextDoc());
+    }
+  }
+
+  public void testSameAsFieldCache() throws IOException {
+    Path path = createTempDir();
+    Directory dir = newDirectory();
+    IndexWriter iw =
+        new IndexWriter(dir, new IndexWriterConfig(null).setMergePolicy(NoMergePolicy.INSTANCE));
+    addDocs(iw, atLeast(100));
+    addDocs(iw, atLeast(10));
+
+    MappedOrdsStore store = new MappedOrdsStore(path, SegmentInfos.readLatestCommit(dir));
+    DirectoryReader ir =
+        UninvertingReader.wrap(
+            DirectoryReader.open(dir),
+            Collections.singletonMap("foo", Type.SORTED_SET_BINARY)::get,
+            store);
+    assertSameOrds(ir);
+    assertEquals(2, numFiles(path));
+
+    // a new segment: only its ords are written
+    addDocs(iw, atLeast(10));
+    DirectoryReader newReader = DirectoryReader.openIfChanged(ir);
+    assertNotNull(newReader);
+    ir.close();
+    ir = newReader;
+    assertSameOrds(ir);
+    assertEquals(3, numFiles(path));
+
+    // the files are kept when the store is closed before the readers
+    store.close();
+    ir.close();
+    assertEquals(3, numFiles(path));
+
+    // and read by the next store instead of uninverting the field again
+    store = new MappedOrdsStore(path, SegmentInfos.readLatestCommit(dir));
+    ir =
+        UninvertingReader.wrap(
+            DirectoryReader.open(dir),
+            Collections.singletonMap("foo", Type.SORTED_SET_BINARY)::get,
+            store);
+    assertSameOrds(ir);
+    assertEquals(3, numFiles(path));
+
+    // merged away segments have their files deleted
+    iw.getConfig().setMergePolicy(new TieredMergePolicy());
+    iw.forceMerge(1);
+    iw.commit();
+    newReader = DirectoryReader.openIfChanged(ir);
+    assertNotNull(newReader);
+    ir.close();
+    ir = newReader;
+    assertSameOrds(ir);
+    assertEquals(1, numFiles(path));
+
+    store.close();
+    ir.close();
+    iw.close();
+    dir.close();
+  }
+
+  public void testOrphansDeletedOnOpen() throws IOException {
+    Path path = createTempDir();
+    Directory dir = newDirectory();
+    IndexWriter iw =
+        new IndexWriter(dir, new IndexWriterConfig(null).setMergePolicy(NoMergePolicy.INSTANCE));
+    addDocs(iw, atLeast(10));
+    addDocs(iw, atLeast(10));
+
+    MappedOrdsStore store = new MappedOrdsStore(path, SegmentInfos.readLatestCommit(dir));
+    DirectoryReader ir =
+        UninvertingReader.wrap(
+            DirectoryReader.open(dir),
+            Collections.singletonMap("foo", Type.SORTED_SET_BINARY)::get,
+            store);
+    assertSameOrds(ir);
+    store.close();
+    ir.close();
+    assertEquals(2, numFiles(path));
+
+    // segments merged away while no store is open
+    iw.getConfig().setMergePolicy(new TieredMergePolicy());
+    iw.forceMerge(1);
+    iw.commit();
+    addDocs(iw, atLeast(10));
+
+    store = new MappedOrdsStore(path, SegmentInfos.readLatestCommit(dir));
+    assertEquals(0, numFiles(path));
+    ir =
+        UninvertingReader.wrap(
+            DirectoryReader.open(dir),
+            Collections.singletonMap("foo", Type.SORTED_SET_BINARY)::get,
+            store);
+    assertSameOrds(ir);
+    assertEquals(2, numFiles(path));
+
+    // the files of the segments of the commit are kept
+    store.close();
+    ir.close();
+    store = new MappedOrdsStore(path, SegmentInfos.readLatestCommit(dir));
+    assertEquals(2, numFiles(path));
+
+    store.close();
+    iw.close();
+    dir.close();
+  }
+
+  public void testFilesInUseKeptOnOpen() throws IOException {
+    Path path = createTempDir();
+    Directory dir = newDirectory();
+    IndexWriter iw =
+        new IndexWriter(dir, new IndexWriterConfig(null).setMergePolicy(NoMergePolicy.INSTANCE));
+    addDocs(iw, atLeast(10));
+    Document doc = new Document();
+    doc.add(new StringField("foo", "uncommitted", Field.Store.NO));
+    iw.addDocument(doc);
+
+    // a near real-time reader on a segment that isn't committed, as on a core reload
+    MappedOrdsStore store = new MappedOrdsStore(path, SegmentInfos.readLatestCommit(dir));
+    DirectoryReader ir =
+        UninvertingReader.wrap(
+            DirectoryReader.open(iw),
+            Collections.singletonMap("foo", Type.SORTED_SET_BINARY)::get,
+            store);
+    assertSameOrds(ir);
+    assertEquals(2, numFiles(path));
+
+    // the store of the new core keeps the file of the old one
+    MappedOrdsStore newStore = new MappedOrdsStore(path, SegmentInfos.readLatestCommit(dir));
+    assertEquals(2, numFiles(path));
+    assertSameOrds(ir);
+    store.close();
+    ir.close();
+    newStore.close();
+
+    // and it is deleted by the next store once no longer used
+    newStore = new MappedOrdsStore(path, SegmentInfos.readLatestCommit(dir));
+    assertEquals(1, numFiles(path));
+
+    newStore.close();
+    iw.close();
+    dir.close();
+  }
+}
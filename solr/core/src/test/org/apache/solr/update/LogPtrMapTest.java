@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.SolrTestCase;
+import org.junit.Test;
+
+public class LogPtrMapTest extends SolrTestCase {
+
+  @Test
+  public void testSameAsHashMap() {
+    LogPtrMap map = new LogPtrMap();
+    Map<BytesRef, UpdateLog.LogPtr> expected = new HashMap<>();
+    long emptyBytes = map.ramBytesUsed();
+
+    for (int round = 0; round < 3; round++) {
+      int numUpdates = atLeast(1000);
+      for (int i = 0; i < numUpdates; i++) {
+        // the id is reused by the caller, as the indexed id of an update command may be
+        BytesRef id = new BytesRef("id" + random().nextInt(numUpdates / 2));
+        UpdateLog.LogPtr ptr =
+            new UpdateLog.LogPtr(random().nextLong(), random().nextLong(), random().nextLong());
+        map.put(id, ptr);
+        expected.put(BytesRef.deepCopyOf(id), ptr);
+        id.bytes[id.offset] = 'x';
+      }
+
+      assertEquals(expected.size(), map.size());
+      for (Map.Entry<BytesRef, UpdateLog.LogPtr> entry : expected.entrySet()) {
+        UpdateLog.LogPtr ptr = map.get(entry.getKey());
+        assertNotNull(ptr);
+        assertEquals(entry.getValue().pointer, ptr.pointer);
+        assertEquals(entry.getValue().version, ptr.version);
+        assertEquals(entry.getValue().previousPointer, ptr.previousPointer);
+      }
+      assertNull(map.get(new BytesRef("missing")));
+      long usedBytes = map.ramBytesUsed();
+      assertTrue(usedBytes > emptyBytes);
+
+      map.clear();
+      expected.clear();
+      assertEquals(0, map.size());
+      assertNull(map.get(new BytesRef("id0")));
+      assertTrue(map.ramBytesUsed() < usedBytes);
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.client.solrj.impl.ConcurrentUpdateHttp2SolrClient;
+import org.apache.solr.client.solrj.impl.Http2SolrClient;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.cloud.ZkCoreNodeProps;
+import org.apache.solr.common.cloud.ZkNodeProps;
+import org.apache.solr.common.cloud.ZkStateReader;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.update.SolrCmdDistributor.Req;
+import org.apache.solr.update.SolrCmdDistributor.StdNode;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** The streams to the replicas are finished concurrently, and their errors reported once done */
+public class StreamingSolrClientsTest extends SolrTestCase {
+  private static Http2SolrClient httpClient;
+
+  @BeforeClass
+  public static void beforeClass() {
+    httpClient = new Http2SolrClient.Builder().build();
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    if (httpClient != null) {
+      httpClient.close();
+      httpClient = null;
+    }
+  }
+
+  /** A replica whose stream takes a while to finish, and may fail */
+  private static class ReplicaClient extends ConcurrentUpdateHttp2SolrClient {
+    final String url;
+    private final long delayMillis;
+    private final IOException failure;
+    private final CyclicBarrier barrier;
+    volatile boolean finished;
+
+    ReplicaClient(String url, ExecutorService executor, long delayMillis, IOException failure) {
+      this(url, executor, delayMillis, failure, null);
+    }
+
+    /** The stream only finishes once all the parties of the barrier are finishing theirs */
+    ReplicaClient(
+        String url,
+        ExecutorService executor,
+        long delayMillis,
+        IOException failure,
+        CyclicBarrier barrier) {
+      super(
+          new ConcurrentUpdateHttp2SolrClient.Builder(url, httpClient)
+              .withExecutorService(executor));
+      this.url = url;
+      this.delayMillis = delayMillis;
+      this.failure = failure;
+      this.barrier = barrier;
+    }
+
+    @Override
+    public void blockUntilFinished() throws IOException {
+      try {
+        Thread.sleep(delayMillis);
+        if (barrier != null) {
+          barrier.await(10, TimeUnit.SECONDS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (BrokenBarrierException | TimeoutException e) {
+        throw new IOException("not finished concurrently with the other replicas", e);
+      }
+      finished = true;
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  private static StreamingSolrClients newStreamingClients(
+      ExecutorService executor, ReplicaClient... replicas) {
+    final Map<String, ReplicaClient> byUrl = new HashMap<>();
+    for (ReplicaClient replica : replicas) {
+      byUrl.put(replica.url, replica);
+    }
+    final StreamingSolrClients clients =
+        new StreamingSolrClients(httpClient, executor) {
+          @Override
+          protected ConcurrentUpdateHttp2SolrClient newSolrClient(String url, Req req) {
+            return byUrl.get(url);
+          }
+        };
+    for (ReplicaClient replica : replicas) {
+      // the url of the replica is also the url of its core with an empty name
+      final ZkNodeProps nodeProps =
+          new ZkNodeProps(
+              ZkStateReader.BASE_URL_PROP, replica.url, ZkStateReader.CORE_NAME_PROP, "");
+      final Req req =
+          new Req(null, new StdNode(new ZkCoreNodeProps(nodeProps)), new UpdateRequest(), false);
+      assertSame(replica, clients.getSolrClient(req));
+    }
+    return clients;
+  }
+
+  @Test
+  public void testFirstErrorAfterAllReplicasFinished() throws Exception {
+    final ExecutorService executor =
+        ExecutorUtil.newMDCAwareCachedThreadPool("testFirstErrorAfterAllReplicasFinished");
+    try {
+      final IOException fastFailure = new IOException("fast");
+      final IOException slowFailure = new IOException("slow");
+      final ReplicaClient fastFailing =
+          new ReplicaClient("http://127.0.0.1:1/solr/", executor, 0, fastFailure);
+      final ReplicaClient slow = new ReplicaClient("http://127.0.0.1:2/solr/", executor, 200, null);
+      final ReplicaClient slowFailing =
+          new ReplicaClient("http://127.0.0.1:3/solr/", executor, 100, slowFailure);
+      final StreamingSolrClients clients =
+          newStreamingClients(executor, fastFailing, slow, slowFailing);
+
+      final IOException e = expectThrows(IOException.class, clients::blockUntilFinished);
+      assertTrue(e == fastFailure || e == slowFailure);
+      assertTrue(fastFailing.finished);
+      assertTrue(slow.finished);
+      assertTrue(slowFailing.finished);
+      clients.shutdown();
+    } finally {
+      ExecutorUtil.shutdownAndAwaitTermination(executor);
+    }
+  }
+
+  @Test
+  public void testReplicasFinishedConcurrently() throws Exception {
+    final ExecutorService executor =
+        ExecutorUtil.newMDCAwareCachedThreadPool("testReplicasFinishedConcurrently");
+    try {
+      // neither stream finishes until both are being finished, which would time out if the
+      // replicas were waited for one after the other
+      final CyclicBarrier barrier = new CyclicBarrier(2);
+      final ReplicaClient first =
+          new ReplicaClient("http://127.0.0.1:1/solr/", executor, 0, null, barrier);
+      final ReplicaClient second =
+          new ReplicaClient("http://127.0.0.1:2/solr/", executor, 0, null, barrier);
+      final StreamingSolrClients clients = newStreamingClients(executor, first, second);
+
+      clients.blockUntilFinished();
+      assertTrue(first.finished);
+      assertTrue(second.finished);
+      assertTrue(clients.getErrors().isEmpty());
+      clients.shutdown();
+    } finally {
+      ExecutorUtil.shutdownAndAwaitTermination(executor);
+    }
+  }
+
+  @Test
+  public void testFinishedInlineWhenRejected() throws Exception {
+    final ExecutorService executor =
+        ExecutorUtil.newMDCAwareCachedThreadPool("testFinishedInlineWhenRejected");
+    // a shut down executor rejects the streams to finish
+    ExecutorUtil.shutdownAndAwaitTermination(executor);
+
+    final IOException failure = new IOException("failing");
+    final ReplicaClient failing =
+        new ReplicaClient("http://127.0.0.1:1/solr/", executor, 0, failure);
+    final ReplicaClient slow = new ReplicaClient("http://127.0.0.1:2/solr/", executor, 100, null);
+    final StreamingSolrClients clients = newStreamingClients(executor, failing, slow);
+
+    // the error of a replica finished inline is also thrown once all of them are done
+    final IOException e = expectThrows(IOException.class, clients::blockUntilFinished);
+    assertSame(failure, e);
+    assertTrue(failing.finished);
+    assertTrue(slow.finished);
+    clients.shutdown();
+  }
+}
@@ -18,6 +18,11 @@
 package org.apache.solr.update;
 
 import java.io.IOException;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Locale;
@@ -71,4 +76,141 @@ public class TransactionLogTest extends SolrTestCase {
       assertEquals(uuid, (UUID) doc.getFieldValue("uuid"));
     }
   }
+
+  @Test
+  public void testGroupedFsync() throws Exception {
+    String tlogFileName =
+        String.format(
+            Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN, UpdateLog.TLOG_NAME, Long.MAX_VALUE);
+    Path logFile = createTempDir().resolve(tlogFileName);
+    int numThreads = 8;
+    int numDocs = 50;
+    try (TransactionLog tlog = new TransactionLog(logFile, null)) {
+      tlog.deleteOnClose = false;
+      tlog.write(newAddCommand("first"));
+      tlog.finish(UpdateLog.SyncLevel.FSYNC);
+      assertEquals(1, tlog.numSyncs);
+      // nothing was written since the last fsync
+      tlog.finish(UpdateLog.SyncLevel.FSYNC);
+      assertEquals(1, tlog.numSyncs);
+
+      Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+        String prefix = "t" + t + "_";
+        threads[t] =
+            new Thread(
+                () -> {
+                  for (int i = 0; i < numDocs; i++) {
+                    tlog.write(newAddCommand(prefix + i));
+                    tlog.finish(UpdateLog.SyncLevel.FSYNC);
+                  }
+                });
+        threads[t].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+
+      // requests that finish while an fsync is in progress share a single next fsync
+      final long numSyncs;
+      synchronized (tlog.syncLock) {
+        numSyncs = tlog.numSyncs;
+        for (int t = 0; t < numThreads; t++) {
+          String id = "grouped_" + t;
+          threads[t] =
+              new Thread(
+                  () -> {
+                    tlog.write(newAddCommand(id));
+                    tlog.finish(UpdateLog.SyncLevel.FSYNC);
+                  });
+          threads[t].start();
+        }
+        for (Thread thread : threads) {
+          waitUntilBlockedOn(thread, tlog.syncLock);
+        }
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(numSyncs + 1, tlog.numSyncs);
+    }
+
+    int numRecords = 0;
+    try (TransactionLog tlog = new TransactionLog(logFile, null, true)) {
+      LogReader reader = tlog.getReader(0);
+      while (reader.next() != null) {
+        numRecords++;
+      }
+    }
+    assertEquals(1 + numThreads * numDocs + numThreads, numRecords);
+  }
+
+  private static void waitUntilBlockedOn(Thread thread, Object lock) throws InterruptedException {
+    final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    while (true) {
+      final ThreadInfo info = threadMXBean.getThreadInfo(thread.getId());
+      assertNotNull("thread ended without blocking", info);
+      final LockInfo lockInfo = info.getLockInfo();
+      if (info.getThreadState() == Thread.State.BLOCKED
+          && lockInfo != null
+          && lockInfo.getIdentityHashCode() == System.identityHashCode(lock)) {
+        return;
+      }
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void testCompressedDocs() throws Exception {
+    String text = "the quick brown fox jumps over the lazy dog ".repeat(100);
+    long[] sizes = new long[2];
+    for (int compress = 0; compress < 2; compress++) {
+      String tlogFileName =
+          String.format(
+              Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN, UpdateLog.TLOG_NAME, Long.MAX_VALUE);
+      Path logFile = createTempDir().resolve(tlogFileName);
+      long bigPos, smallPos;
+      try (TransactionLog tlog = new TransactionLog(logFile, null)) {
+        tlog.deleteOnClose = false;
+        tlog.docCompressionThreshold = compress == 1 ? 1024 : -1;
+        AddUpdateCommand big = newAddCommand("big");
+        big.solrDoc.addField("text", text);
+        bigPos = tlog.write(big);
+        smallPos = tlog.write(newAddCommand("small"));
+        // compressed records can be looked up while the log is written
+        assertEquals(text, getDoc(tlog.lookup(bigPos)).getFieldValue("text"));
+      }
+      sizes[compress] = Files.size(logFile);
+
+      try (TransactionLog tlog = new TransactionLog(logFile, null, true)) {
+        LogReader reader = tlog.getReader(0);
+        SolrInputDocument doc = getDoc(reader.next());
+        assertEquals("big", doc.getFieldValue("id"));
+        assertEquals(text, doc.getFieldValue("text"));
+        assertEquals("small", getDoc(reader.next()).getFieldValue("id"));
+        assertNull(reader.next());
+
+        assertEquals(text, getDoc(tlog.lookup(bigPos)).getFieldValue("text"));
+        assertEquals("small", getDoc(tlog.lookup(smallPos)).getFieldValue("id"));
+
+        TransactionLog.ReverseReader reverseReader = tlog.getReverseReader();
+        assertEquals("small", getDoc(reverseReader.next()).getFieldValue("id"));
+        assertEquals(text, getDoc(reverseReader.next()).getFieldValue("text"));
+        reverseReader.close();
+      }
+    }
+    assertTrue(sizes[1] * 4 < sizes[0]);
+  }
+
+  private static SolrInputDocument getDoc(Object entry) {
+    List<?> record = (List<?>) entry;
+    return (SolrInputDocument) record.get(record.size() - 1);
+  }
+
+  private static AddUpdateCommand newAddCommand(String id) {
+    AddUpdateCommand updateCommand = new AddUpdateCommand(null);
+    updateCommand.solrDoc = new SolrInputDocument();
+    updateCommand.solrDoc.addField("id", id);
+    return updateCommand;
+  }
 }